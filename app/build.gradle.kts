@@ -38,6 +38,10 @@ android {
     buildFeatures {
         compose = true
     }
+    testOptions {
+        // Router worker threads log through android.util.Log outside of mockStatic's reach
+        unitTests.isReturnDefaultValues = true
+    }
 }
 
 val mockitoAgent = configurations.create("mockitoAgent")
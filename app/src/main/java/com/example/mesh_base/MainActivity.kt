@@ -22,4 +22,10 @@ class MainActivity : ComponentActivity() {
             //CryptTestScreen();
         }
     }
+
+    override fun onDestroy() {
+        //a new manager is built with the next activity, this one's threads must not outlive it
+        meshManager.close()
+        super.onDestroy()
+    }
 }
@@ -29,6 +29,7 @@ public class BLEConnectionHandler extends ConnectionHandler {
   final String TAG = "my_bleHandler";
   private final ConcurrentLinkedQueue<BLETask> queue = new ConcurrentLinkedQueue<>();
   private final HashMap<UUID, BLEDevice> connectedDevices = new HashMap<>();
+  private final NegotiatedMtus negotiatedMtus = new NegotiatedMtus();
   private final BLEPermissions permission;
   Central central;
   Peripheral peripheral;
@@ -94,6 +95,47 @@ public class BLEConnectionHandler extends ConnectionHandler {
     }
   }
 
+  //Frames to every neighbor fit the smallest MTU negotiated among them, the MTU the central asks for
+  //until one of them finished negotiating
+  @Override
+  public int getMaxFrameSize() {
+    ArrayList<String> addresses = new ArrayList<>();
+    for (Device neighbor : getNeighbourDevices()) {
+      addresses.add(addressOf(neighbor.uuid));
+    }
+    return negotiatedMtus.smallestFrameSize(addresses, NegotiatedMtus.frameSizeOf(Central.MAX_MTU_SIZE));
+  }
+
+  @Override
+  public int getMaxFrameSize(Device neighbor) {
+    int frameSize = negotiatedMtus.frameSizeOf(addressOf(neighbor.uuid));
+    return frameSize > 0 ? frameSize : getMaxFrameSize();
+  }
+
+  //Null if the neighbor is not connected in either role
+  @SuppressLint("MissingPermission")
+  private String addressOf(UUID uuid) {
+    BluetoothGatt gatt = central.getPeripheral(uuid);
+    BluetoothDevice device = gatt != null ? gatt.getDevice() : peripheral.getCentral(uuid);
+    return device != null ? device.getAddress() : null;
+  }
+
+  //writes and indications waiting in the task queue, plus the one on the air
+  @Override
+  public int getPendingSends() {
+    synchronized (queue) {
+      int pending = isSend(pendingTask) ? 1 : 0;
+      for (BLETask task : queue) {
+        if (isSend(task)) pending++;
+      }
+      return pending;
+    }
+  }
+
+  private static boolean isSend(BLETask task) {
+    return task instanceof WriteCharacteristic || task instanceof IndicateCharacteristic;
+  }
+
   @Override
   public void enable() {
     this.permission.enable();
@@ -231,6 +273,8 @@ public class BLEConnectionHandler extends ConnectionHandler {
       } catch (Exception e) {
         Log.w(TAG + taskTag, "error when executing task " + task.asString() + ". Force moving on to next task. Error:" + e);
         pendingTask = null;
+        //listeners send again on completion, which must not happen under the queue lock
+        if (isSend(task)) new Handler(Looper.getMainLooper()).post(this::onSendCompleted);
         startNextTask();
       }
 
@@ -238,12 +282,15 @@ public class BLEConnectionHandler extends ConnectionHandler {
   }
 
   void taskEnded() {
+    BLETask ended;
     synchronized (queue) {
+      ended = pendingTask;
       String taskTag = (pendingTask instanceof PeripheralTask) ? PRFL : CTRL;
       Log.d(TAG + taskTag, "ended task of " + pendingTask.asString());
       pendingTask = null;
       startNextTask();
     }
+    if (isSend(ended)) onSendCompleted();
   }
 
   private void expireTask(BLETask task, Runnable expireHandler) {
@@ -261,6 +308,7 @@ public class BLEConnectionHandler extends ConnectionHandler {
 
       pendingTask = null;
       startNextTask();
+      if (isSend(task)) onSendCompleted();
     }, task.expireMilli);
   }
 
@@ -306,6 +354,15 @@ public class BLEConnectionHandler extends ConnectionHandler {
     }
   }
 
+  void notifyMtuChanged(String address, int mtu) {
+    Log.d(TAG, "mtu of " + address + " is now " + mtu);
+    negotiatedMtus.put(address, mtu);
+  }
+
+  void forgetMtu(String address) {
+    negotiatedMtus.remove(address);
+  }
+
   void notifyDiscovered(String address, String name) {
     Log.d(TAG, "notified neighbor " + name + " with address" + address);
   }
@@ -68,7 +68,7 @@ fun BleTestScreen(meshManager: MeshManager) {
 
                         val response: MeshProtocol<SendMessageBody> = ConcreteMeshProtocol(
                             1, -1, protocol.messageId, meshManager.id, protocol.sender,
-                            SendMessageBody(4, false, "a reply to ${sendProtocol.body.msg}")
+                            SendMessageBody(4, false, "a reply to ${sendProtocol.getBody().msg}")
                         )
 
                         Handler(Looper.getMainLooper()).post {
@@ -232,7 +232,7 @@ fun BleTestScreen(meshManager: MeshManager) {
                                         Handler(Looper.getMainLooper()).post({
                                             Toast.makeText(
                                                 context,
-                                                "response received=" + response.body.msg,
+                                                "response received=" + response.getBody().msg,
                                                 Toast.LENGTH_SHORT
                                             ).show()
                                         })
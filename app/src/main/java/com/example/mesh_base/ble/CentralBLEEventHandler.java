@@ -53,6 +53,7 @@ class CentralBLEEventHandler {
 
         Log.w(TAG, "Disconnected from: " + name + address + " anticipated:" + (anticipatedConnect || anticipatedDisconnect) + ". status:" + status);
         gatt.close();
+        handler.forgetMtu(address);
         UUID uuid = central.getPeripheralUUID(address);
         handler.notifyDisconnect(uuid);
 
@@ -136,6 +137,7 @@ class CentralBLEEventHandler {
       }
 
       Log.d(TAG, "new mtu value is " + mtu);
+      handler.notifyMtuChanged(gatt.getDevice().getAddress(), mtu);
       try {
         BluetoothGattCharacteristic messageCharacteristic = gatt.getService(SERVICE_UUID).getCharacteristic(MESSAGE_UUID);
         handler.addToQueue(new EnableIndication(messageCharacteristic, gatt));
@@ -0,0 +1,41 @@
+package com.example.mesh_base.ble;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+//ATT MTUs negotiated per remote address, from either role, and the frames they carry. A write or
+//indication carries the MTU minus the ATT opcode and handle, and never more than the 512 bytes a
+//GATT attribute value holds. Links still negotiating have no MTU and are left out.
+class NegotiatedMtus {
+  static final int ATT_HEADER_SIZE = 3;
+  static final int MAX_ATTRIBUTE_SIZE = 512;
+
+  private final ConcurrentHashMap<String, Integer> mtus = new ConcurrentHashMap<>();
+
+  void put(String address, int mtu) {
+    mtus.put(address, mtu);
+  }
+
+  void remove(String address) {
+    mtus.remove(address);
+  }
+
+  //Zero until the link finished negotiating
+  int frameSizeOf(String address) {
+    Integer mtu = address != null ? mtus.get(address) : null;
+    return mtu != null ? frameSizeOf(mtu) : 0;
+  }
+
+  //The smallest frame among the links that negotiated, fallback if none of them did
+  int smallestFrameSize(Iterable<String> addresses, int fallback) {
+    int smallest = 0;
+    for (String address : addresses) {
+      int frameSize = frameSizeOf(address);
+      if (frameSize > 0 && (smallest == 0 || frameSize < smallest)) smallest = frameSize;
+    }
+    return smallest > 0 ? smallest : fallback;
+  }
+
+  static int frameSizeOf(int mtu) {
+    return Math.min(mtu - ATT_HEADER_SIZE, MAX_ATTRIBUTE_SIZE);
+  }
+}
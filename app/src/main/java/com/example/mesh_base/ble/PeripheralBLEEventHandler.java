@@ -83,6 +83,7 @@ public class PeripheralBLEEventHandler {
         handler.notifyDiscovered(device.getName(), device.getAddress());
 
       } else if (newState == BluetoothGatt.STATE_DISCONNECTED) {
+        handler.forgetMtu(address);
         if (anticipatingDisconnect) {
           Log.d(TAG, "anticipated disconnect of " + name + address + " is successful");
         }
@@ -108,6 +109,14 @@ public class PeripheralBLEEventHandler {
     }
 
 
+    //the central negotiates, indications to it fit what it agreed on
+    @Override
+    public void onMtuChanged(BluetoothDevice device, int mtu) {
+      super.onMtuChanged(device, mtu);
+      handler.notifyMtuChanged(device.getAddress(), mtu);
+    }
+
+
     @Override
     public void onDescriptorReadRequest(BluetoothDevice device, int requestId, int offset, BluetoothGattDescriptor descriptor) {
       super.onDescriptorReadRequest(device, requestId, offset, descriptor);
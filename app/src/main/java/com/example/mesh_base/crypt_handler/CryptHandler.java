@@ -5,24 +5,58 @@ import android.util.Log;
 
 import androidx.annotation.RequiresApi;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
-import java.security.KeyFactory;
+import java.security.GeneralSecurityException;
+import java.security.Key;
 import java.security.KeyPair;
 import java.security.KeyPairGenerator;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.PrivateKey;
 import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.security.interfaces.RSAKey;
 import java.security.spec.InvalidKeySpecException;
+import java.security.spec.MGF1ParameterSpec;
 import java.security.spec.PKCS8EncodedKeySpec;
 import java.security.spec.X509EncodedKeySpec;
+import java.util.Arrays;
 import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.UUID;
 
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.OAEPParameterSpec;
+import javax.crypto.spec.PSource;
+import javax.crypto.spec.SecretKeySpec;
+
 public class CryptHandler {
     private static final String TAG = "my_crypthandler";
     private static final String RSA_ALGORITHM = "RSA";
     private static final int RSA_KEY_SIZE = 2048; // Use a strong key size
+    //Envelopes: [version 1][wrapped key length 2][content key wrapped with RSA-OAEP][AES-GCM ciphertext and tag]
+    private static final byte ENVELOPE_VERSION = 1;
+    private static final int ENVELOPE_HEADER_LENGTH = 3;
+    private static final String OAEP_TRANSFORMATION = "RSA/ECB/OAEPPadding";
+    //spelled out, Android and the JDK disagree on the MGF1 digest of "OAEPWithSHA-256AndMGF1Padding"
+    private static final OAEPParameterSpec OAEP_PARAMETERS = new OAEPParameterSpec("SHA-256", "MGF1", MGF1ParameterSpec.SHA256, PSource.PSpecified.DEFAULT);
+    private static final String GCM_TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int CONTENT_KEY_LENGTH = 32;
+    private static final int GCM_TAG_BITS = 128;
+    //every envelope has a content key of its own, so a fixed nonce is never used twice with a key
+    private static final byte[] GCM_NONCE = new byte[12];
+    private static final SecureRandom random = new SecureRandom();
+    //Decoded public keys of the peers in use, shared by every CryptHandler. Keyed by the encoded bytes
+    //themselves, so two keys never share an entry whatever their hashes.
+    static final int KEY_CACHE_CAPACITY = 64;
+    private static final LinkedHashMap<ByteBuffer, PublicKey> publicKeys = keyCache(KEY_CACHE_CAPACITY);
+    //Private keys this instance decoded, never shared with others. Keyed by the SHA-256 of the encoded
+    //key, so no copy of the key bytes is kept.
+    static final int PRIVATE_KEY_CACHE_CAPACITY = 4;
+    private final LinkedHashMap<ByteBuffer, PrivateKey> privateKeys = keyCache(PRIVATE_KEY_CACHE_CAPACITY);
     private KeyPair keyPair;
 
     public void generateKeyPair() {
@@ -46,7 +80,7 @@ public class CryptHandler {
 
     public UUID fingerprintPublicKey(PublicKey publicKey) {
         try {
-            MessageDigest md = MessageDigest.getInstance("MD5");
+            MessageDigest md = CryptoInstances.digest("MD5");
             byte[] digest = md.digest(publicKey.getEncoded());
             return convertBytesToUUID(digest);
         } catch (NoSuchAlgorithmException e) {
@@ -58,7 +92,7 @@ public class CryptHandler {
     public UUID fingerprintPublicKey(byte[] publicKeyBytes) {
         try {
             PublicKey publicKey = bytesToPublicKey(publicKeyBytes);
-            MessageDigest md = MessageDigest.getInstance("MD5");
+            MessageDigest md = CryptoInstances.digest("MD5");
             byte[] digest = md.digest(publicKey.getEncoded());
             return convertBytesToUUID(digest);
         } catch (NoSuchAlgorithmException e) {
@@ -86,7 +120,7 @@ public class CryptHandler {
     @RequiresApi(api = Build.VERSION_CODES.O)
     public String encrypt(String plaintext, PublicKey publicKey) {
         try {
-            javax.crypto.Cipher cipher = javax.crypto.Cipher.getInstance(RSA_ALGORITHM);
+            javax.crypto.Cipher cipher = CryptoInstances.cipher(RSA_ALGORITHM);
             cipher.init(javax.crypto.Cipher.ENCRYPT_MODE, publicKey);
             byte[] encryptedBytes = cipher.doFinal(plaintext.getBytes(StandardCharsets.UTF_8));
             return Base64.getEncoder().encodeToString(encryptedBytes);
@@ -100,7 +134,7 @@ public class CryptHandler {
     public String encrypt(String plaintext, byte[] publicKeyBytes) {
         try {
             PublicKey publicKey = bytesToPublicKey(publicKeyBytes);
-            javax.crypto.Cipher cipher = javax.crypto.Cipher.getInstance(RSA_ALGORITHM);
+            javax.crypto.Cipher cipher = CryptoInstances.cipher(RSA_ALGORITHM);
             cipher.init(javax.crypto.Cipher.ENCRYPT_MODE, publicKey);
             byte[] encryptedBytes = cipher.doFinal(plaintext.getBytes(StandardCharsets.UTF_8));
             return Base64.getEncoder().encodeToString(encryptedBytes);
@@ -113,7 +147,7 @@ public class CryptHandler {
     @RequiresApi(api = Build.VERSION_CODES.O)
     public String decrypt(String ciphertext, PrivateKey privateKey) {
         try {
-            javax.crypto.Cipher cipher = javax.crypto.Cipher.getInstance(RSA_ALGORITHM);
+            javax.crypto.Cipher cipher = CryptoInstances.cipher(RSA_ALGORITHM);
             cipher.init(javax.crypto.Cipher.DECRYPT_MODE, privateKey);
             byte[] decodedBytes = Base64.getDecoder().decode(ciphertext);
             byte[] decryptedBytes = cipher.doFinal(decodedBytes);
@@ -128,7 +162,7 @@ public class CryptHandler {
     public String decrypt(String ciphertext, byte[] privateKeyBytes) {
         try {
             PrivateKey privateKey = bytesToPrivateKey(privateKeyBytes);
-            javax.crypto.Cipher cipher = javax.crypto.Cipher.getInstance(RSA_ALGORITHM);
+            javax.crypto.Cipher cipher = CryptoInstances.cipher(RSA_ALGORITHM);
             cipher.init(javax.crypto.Cipher.DECRYPT_MODE, privateKey);
             byte[] decodedBytes = Base64.getDecoder().decode(ciphertext);
             byte[] decryptedBytes = cipher.doFinal(decodedBytes);
@@ -139,6 +173,99 @@ public class CryptHandler {
         }
     }
 
+    //Hybrid envelope: a random AES-GCM content key encrypts the payload and only that key goes
+    //through RSA-OAEP, so payloads of any size cost one RSA operation and grow by a fixed
+    //sealedLength() - plaintext length bytes, 275 for a 2048 bit key. The header is authenticated
+    //along with the payload.
+    public byte[] encrypt(byte[] plaintext, PublicKey publicKey) {
+        ByteBuffer envelope = encrypt(ByteBuffer.wrap(plaintext), publicKey);
+        return envelope != null ? envelope.array() : null;
+    }
+
+    public byte[] encrypt(byte[] plaintext, byte[] publicKeyBytes) {
+        PublicKey publicKey = bytesToPublicKey(publicKeyBytes);
+        return publicKey != null ? encrypt(plaintext, publicKey) : null;
+    }
+
+    //Reads plaintext to its limit, returns the envelope ready to be read
+    public ByteBuffer encrypt(ByteBuffer plaintext, PublicKey publicKey) {
+        byte[] contentKey = new byte[CONTENT_KEY_LENGTH];
+        try {
+            random.nextBytes(contentKey);
+            Cipher rsa = CryptoInstances.cipher(OAEP_TRANSFORMATION);
+            rsa.init(Cipher.ENCRYPT_MODE, publicKey, OAEP_PARAMETERS);
+            byte[] wrappedKey = rsa.doFinal(contentKey);
+
+            ByteBuffer envelope = ByteBuffer.allocate(ENVELOPE_HEADER_LENGTH + wrappedKey.length + plaintext.remaining() + GCM_TAG_BITS / 8);
+            envelope.put(ENVELOPE_VERSION).putShort((short) wrappedKey.length).put(wrappedKey);
+            Cipher aes = CryptoInstances.cipher(GCM_TRANSFORMATION);
+            aes.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(contentKey, "AES"), new GCMParameterSpec(GCM_TAG_BITS, GCM_NONCE));
+            aes.updateAAD(envelope.array(), 0, envelope.position());
+            aes.doFinal(plaintext, envelope);
+            envelope.flip();
+            return envelope;
+        } catch (GeneralSecurityException | RuntimeException e) {
+            Log.e(TAG, "Envelope encryption failed", e);
+            return null;
+        } finally {
+            Arrays.fill(contentKey, (byte) 0);
+        }
+    }
+
+    //Null if the envelope was not sealed for this key or was tampered with
+    public byte[] decrypt(byte[] envelope, PrivateKey privateKey) {
+        ByteBuffer plaintext = decrypt(ByteBuffer.wrap(envelope), privateKey);
+        return plaintext != null ? plaintext.array() : null;
+    }
+
+    public byte[] decrypt(byte[] envelope, byte[] privateKeyBytes) {
+        PrivateKey privateKey = bytesToPrivateKey(privateKeyBytes);
+        return privateKey != null ? decrypt(envelope, privateKey) : null;
+    }
+
+    //Reads the envelope to its limit, returns the plaintext ready to be read
+    public ByteBuffer decrypt(ByteBuffer envelope, PrivateKey privateKey) {
+        byte[] contentKey = null;
+        try {
+            int start = envelope.position();
+            if (envelope.remaining() < ENVELOPE_HEADER_LENGTH || envelope.get() != ENVELOPE_VERSION) {
+                throw new IllegalArgumentException("Not an envelope");
+            }
+            int wrappedKeyLength = envelope.getShort() & 0xFFFF;
+            if (envelope.remaining() < wrappedKeyLength + GCM_TAG_BITS / 8) {
+                throw new IllegalArgumentException("Envelope cut short");
+            }
+            byte[] header = new byte[ENVELOPE_HEADER_LENGTH + wrappedKeyLength];
+            ByteBuffer headerView = envelope.duplicate();
+            headerView.position(start);
+            headerView.get(header);
+            envelope.position(start + header.length);
+
+            Cipher rsa = CryptoInstances.cipher(OAEP_TRANSFORMATION);
+            rsa.init(Cipher.DECRYPT_MODE, privateKey, OAEP_PARAMETERS);
+            contentKey = rsa.doFinal(header, ENVELOPE_HEADER_LENGTH, wrappedKeyLength);
+
+            ByteBuffer plaintext = ByteBuffer.allocate(envelope.remaining() - GCM_TAG_BITS / 8);
+            Cipher aes = CryptoInstances.cipher(GCM_TRANSFORMATION);
+            aes.init(Cipher.DECRYPT_MODE, new SecretKeySpec(contentKey, "AES"), new GCMParameterSpec(GCM_TAG_BITS, GCM_NONCE));
+            aes.updateAAD(header);
+            aes.doFinal(envelope, plaintext);
+            plaintext.flip();
+            return plaintext;
+        } catch (GeneralSecurityException | RuntimeException e) {
+            Log.e(TAG, "Envelope decryption failed", e);
+            return null;
+        } finally {
+            if (contentKey != null) Arrays.fill(contentKey, (byte) 0);
+        }
+    }
+
+    //The size of the envelope encrypt() makes of plaintextLength bytes
+    public static int sealedLength(int plaintextLength, PublicKey publicKey) {
+        int wrappedKeyLength = (((RSAKey) publicKey).getModulus().bitLength() + 7) / 8;
+        return ENVELOPE_HEADER_LENGTH + wrappedKeyLength + plaintextLength + GCM_TAG_BITS / 8;
+    }
+
     public UUID convertBytesToUUID(byte[] bytes) {
         if (bytes == null || bytes.length != 16) {
             throw new IllegalArgumentException("Byte array must be 16 bytes long for UUID conversion");
@@ -152,11 +279,19 @@ public class CryptHandler {
         return new UUID(msb, lsb);
     }
 
+    //Decoded once, later calls with the same bytes get the cached key
     public PublicKey bytesToPublicKey(byte[] keyBytes) {
+        synchronized (publicKeys) {
+            PublicKey cached = publicKeys.get(ByteBuffer.wrap(keyBytes));
+            if (cached != null) return cached;
+        }
         try {
             X509EncodedKeySpec spec = new X509EncodedKeySpec(keyBytes);
-            KeyFactory keyFactory = KeyFactory.getInstance(RSA_ALGORITHM);
-            return keyFactory.generatePublic(spec);
+            PublicKey publicKey = CryptoInstances.keyFactory(RSA_ALGORITHM).generatePublic(spec);
+            synchronized (publicKeys) {
+                publicKeys.put(ByteBuffer.wrap(keyBytes.clone()), publicKey);
+            }
+            return publicKey;
         } catch (NoSuchAlgorithmException e) {
             Log.e(TAG, "NoSuchAlgorithmException: " + e.getMessage());
             return null;
@@ -166,11 +301,20 @@ public class CryptHandler {
         }
     }
 
+    //Decoded once per instance, later calls with the same bytes get the cached key
     public PrivateKey bytesToPrivateKey(byte[] keyBytes) {
         try {
+            ByteBuffer digest = ByteBuffer.wrap(CryptoInstances.digest("SHA-256").digest(keyBytes));
+            synchronized (privateKeys) {
+                PrivateKey cached = privateKeys.get(digest);
+                if (cached != null) return cached;
+            }
             PKCS8EncodedKeySpec spec = new PKCS8EncodedKeySpec(keyBytes);
-            KeyFactory keyFactory = KeyFactory.getInstance(RSA_ALGORITHM);
-            return keyFactory.generatePrivate(spec);
+            PrivateKey privateKey = CryptoInstances.keyFactory(RSA_ALGORITHM).generatePrivate(spec);
+            synchronized (privateKeys) {
+                privateKeys.put(digest, privateKey);
+            }
+            return privateKey;
         } catch (NoSuchAlgorithmException e) {
             Log.e(TAG, "NoSuchAlgorithmException: " + e.getMessage());
             return null;
@@ -179,4 +323,27 @@ public class CryptHandler {
             return null;
         }
     }
+
+    //Forgets decoded public keys and this thread's cipher and digest instances, for cold benchmarks
+    static void clearCaches() {
+        synchronized (publicKeys) {
+            publicKeys.clear();
+        }
+        CryptoInstances.clear();
+    }
+
+    static int cachedPublicKeys() {
+        synchronized (publicKeys) {
+            return publicKeys.size();
+        }
+    }
+
+    private static <K extends Key> LinkedHashMap<ByteBuffer, K> keyCache(int capacity) {
+        return new LinkedHashMap<ByteBuffer, K>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ByteBuffer, K> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
 }
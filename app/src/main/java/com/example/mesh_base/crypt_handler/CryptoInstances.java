@@ -0,0 +1,85 @@
+package com.example.mesh_base.crypt_handler;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Signature;
+import java.util.HashMap;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+
+//Cipher, MessageDigest, Mac, Signature and KeyFactory instances kept per thread and algorithm, so
+//the provider lookup behind getInstance is paid once per thread instead of once per operation.
+//Callers always init a Cipher, Mac or Signature before use, so a failed operation never leaves state
+//behind for the next one.
+final class CryptoInstances {
+    private static final ThreadLocal<HashMap<String, Object>> instances = ThreadLocal.withInitial(HashMap::new);
+
+    private CryptoInstances() {
+    }
+
+    static Cipher cipher(String transformation) throws GeneralSecurityException {
+        HashMap<String, Object> cache = instances.get();
+        String name = "Cipher/" + transformation;
+        Cipher cipher = (Cipher) cache.get(name);
+        if (cipher == null) {
+            cipher = Cipher.getInstance(transformation);
+            cache.put(name, cipher);
+        }
+        return cipher;
+    }
+
+    //Reset, ready for a new digest
+    static MessageDigest digest(String algorithm) throws NoSuchAlgorithmException {
+        HashMap<String, Object> cache = instances.get();
+        String name = "MessageDigest/" + algorithm;
+        MessageDigest digest = (MessageDigest) cache.get(name);
+        if (digest == null) {
+            digest = MessageDigest.getInstance(algorithm);
+            cache.put(name, digest);
+        } else {
+            digest.reset();
+        }
+        return digest;
+    }
+
+    static Mac mac(String algorithm) throws NoSuchAlgorithmException {
+        HashMap<String, Object> cache = instances.get();
+        String name = "Mac/" + algorithm;
+        Mac mac = (Mac) cache.get(name);
+        if (mac == null) {
+            mac = Mac.getInstance(algorithm);
+            cache.put(name, mac);
+        }
+        return mac;
+    }
+
+    static Signature signature(String algorithm) throws NoSuchAlgorithmException {
+        HashMap<String, Object> cache = instances.get();
+        String name = "Signature/" + algorithm;
+        Signature signature = (Signature) cache.get(name);
+        if (signature == null) {
+            signature = Signature.getInstance(algorithm);
+            cache.put(name, signature);
+        }
+        return signature;
+    }
+
+    static KeyFactory keyFactory(String algorithm) throws NoSuchAlgorithmException {
+        HashMap<String, Object> cache = instances.get();
+        String name = "KeyFactory/" + algorithm;
+        KeyFactory keyFactory = (KeyFactory) cache.get(name);
+        if (keyFactory == null) {
+            keyFactory = KeyFactory.getInstance(algorithm);
+            cache.put(name, keyFactory);
+        }
+        return keyFactory;
+    }
+
+    //The calling thread starts over with fresh instances, for cold benchmarks
+    static void clear() {
+        instances.get().clear();
+    }
+}
@@ -0,0 +1,330 @@
+package com.example.mesh_base.crypt_handler;
+
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.security.Signature;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.LongSupplier;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyAgreement;
+import javax.crypto.Mac;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+//Symmetric sessions with peers: one P-256 ECDH agreement per peer, then AES-GCM per message.
+//Sessions are kept in a bounded LRU keyed by the peer's fingerprint. Each direction gets keys of
+//its own, derived with HKDF-SHA256 from the shared secret and a random key id the sender picks,
+//so rekeying after maxMessagesPerKey messages or maxKeyAgeMillis costs an HKDF, not an agreement,
+//and a session rebuilt after eviction never reuses a nonce.
+//A node's ECDH key is signed by its RSA identity key, and a peer's key is only taken if its identity
+//key fingerprints to the peer and the signature holds. A new key passing the same checks, as from a
+//restarted peer, replaces the session, while a key the peer used before is refused. Each receive key remembers the counters it opened
+//within a sliding window, and the ids of keys the peer moved on from are kept for the whole session,
+//so a replayed message is refused for as long as the session is cached.
+//Signed keys: [identity key length 2][identity key][ECDH key length 2][ECDH key][signature].
+//Messages: [version 1][key id 8][counter 4][ciphertext and tag], the nonce is key id and counter.
+public class SessionKeyCache {
+    private static final String TAG = "my_sessionkeys";
+    static final int DEFAULT_CAPACITY = 64;
+    static final int DEFAULT_MAX_MESSAGES_PER_KEY = 1 << 16;
+    static final long DEFAULT_MAX_KEY_AGE_MILLIS = 60 * 60 * 1000L;
+    static final int HEADER_LENGTH = 13;
+    static final int TAG_LENGTH = 16;
+    //counters below the highest one opened that are still told apart from replays
+    static final int REPLAY_WINDOW = 64;
+    private static final byte VERSION = 1;
+    //keys of a peer still accepted after it rekeyed, for messages already on their way
+    private static final int RECEIVE_KEYS = 4;
+    private static final String SIGNATURE_ALGORITHM = "SHA256withRSA";
+    private static final byte[] INFO = "mesh-base session key".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] SIGNED_INFO = "mesh-base session public key".getBytes(StandardCharsets.US_ASCII);
+    private static final SecureRandom random = new SecureRandom();
+
+    private final CryptHandler identity;
+    private final KeyPair keyPair;
+    private final byte[] publicKey;
+    private final byte[] signedPublicKey;
+    private final int maxMessagesPerKey;
+    private final long maxKeyAgeMillis;
+    private final LongSupplier clock;
+    private final LinkedHashMap<UUID, Session> sessions;
+
+    public SessionKeyCache(CryptHandler identity) {
+        this(identity, DEFAULT_CAPACITY, DEFAULT_MAX_MESSAGES_PER_KEY, DEFAULT_MAX_KEY_AGE_MILLIS);
+    }
+
+    public SessionKeyCache(CryptHandler identity, int capacity, int maxMessagesPerKey, long maxKeyAgeMillis) {
+        this(identity, capacity, maxMessagesPerKey, maxKeyAgeMillis, System::currentTimeMillis);
+    }
+
+    SessionKeyCache(CryptHandler identity, int capacity, int maxMessagesPerKey, long maxKeyAgeMillis, LongSupplier clock) {
+        if (capacity <= 0 || maxMessagesPerKey <= 0 || maxKeyAgeMillis <= 0) {
+            throw new IllegalArgumentException("invalid session limits");
+        }
+        if (identity.getPrivateKey() == null) {
+            throw new IllegalArgumentException("identity has no key pair");
+        }
+        try {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+            generator.initialize(new ECGenParameterSpec("secp256r1"));
+            this.keyPair = generator.generateKeyPair();
+            this.publicKey = keyPair.getPublic().getEncoded();
+            Signature signer = CryptoInstances.signature(SIGNATURE_ALGORITHM);
+            signer.initSign(identity.getPrivateKey());
+            signer.update(SIGNED_INFO);
+            signer.update(publicKey);
+            this.signedPublicKey = signedKey(identity.getPublicKey().getEncoded(), publicKey, signer.sign());
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("P-256 or RSA signatures are not available", e);
+        }
+        this.identity = identity;
+        this.maxMessagesPerKey = maxMessagesPerKey;
+        this.maxKeyAgeMillis = maxKeyAgeMillis;
+        this.clock = clock;
+        this.sessions = new LinkedHashMap<UUID, Session>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<UUID, Session> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    //The ECDH key signed by the identity key, for peers to pass as peerPublicKey
+    public byte[] getPublicKey() {
+        return signedPublicKey.clone();
+    }
+
+    //Null on failure, logged
+    public byte[] encrypt(UUID peer, byte[] peerPublicKey, byte[] plaintext) {
+        try {
+            Session session = sessionOf(peer, peerPublicKey);
+            long keyId;
+            int counter;
+            SecretKeySpec key;
+            synchronized (session) {
+                long now = clock.getAsLong();
+                if (session.sendKey == null || session.sent >= maxMessagesPerKey || now - session.sendKeyCreatedAt >= maxKeyAgeMillis) {
+                    session.sendKeyId = random.nextLong();
+                    session.sendKey = deriveKey(session.sharedSecret, session.sendKeyId, publicKey, session.peerPublicKey);
+                    session.sendKeyCreatedAt = now;
+                    session.sent = 0;
+                }
+                keyId = session.sendKeyId;
+                counter = session.sent++;
+                key = session.sendKey;
+            }
+
+            byte[] message = new byte[HEADER_LENGTH + plaintext.length + TAG_LENGTH];
+            ByteBuffer.wrap(message).put(VERSION).putLong(keyId).putInt(counter);
+            Cipher aes = CryptoInstances.cipher("AES/GCM/NoPadding");
+            aes.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH * 8, message, 1, HEADER_LENGTH - 1));
+            aes.updateAAD(message, 0, HEADER_LENGTH);
+            aes.doFinal(plaintext, 0, plaintext.length, message, HEADER_LENGTH);
+            return message;
+        } catch (GeneralSecurityException | RuntimeException e) {
+            Log.e(TAG, "Session encryption failed", e);
+            return null;
+        }
+    }
+
+    //Null if the message was not encrypted by peer for this node, was tampered with or was opened before
+    public byte[] decrypt(UUID peer, byte[] peerPublicKey, byte[] message) {
+        try {
+            if (message.length < HEADER_LENGTH + TAG_LENGTH || message[0] != VERSION) {
+                throw new IllegalArgumentException("Not a session message");
+            }
+            Session session = sessionOf(peer, peerPublicKey);
+            ByteBuffer header = ByteBuffer.wrap(message, 1, HEADER_LENGTH - 1);
+            long keyId = header.getLong();
+            long counter = header.getInt() & 0xFFFFFFFFL;
+            ReceiveKey receiveKey;
+            synchronized (session) {
+                if (session.retiredKeyIds.contains(keyId)) {
+                    throw new GeneralSecurityException("Key retired. keyId=" + keyId);
+                }
+                receiveKey = session.receiveKeys.get(keyId);
+            }
+            boolean isNewKey = receiveKey == null;
+            if (isNewKey) receiveKey = new ReceiveKey(deriveKey(session.sharedSecret, keyId, session.peerPublicKey, publicKey));
+
+            Cipher aes = CryptoInstances.cipher("AES/GCM/NoPadding");
+            aes.init(Cipher.DECRYPT_MODE, receiveKey.key, new GCMParameterSpec(TAG_LENGTH * 8, message, 1, HEADER_LENGTH - 1));
+            aes.updateAAD(message, 0, HEADER_LENGTH);
+            byte[] plaintext = aes.doFinal(message, HEADER_LENGTH, message.length - HEADER_LENGTH);
+            synchronized (session) {
+                //kept only once a message proved it, so forged key ids cannot push out real ones
+                if (isNewKey) {
+                    ReceiveKey current = session.receiveKeys.get(keyId);
+                    if (current != null) {
+                        receiveKey = current;
+                    } else {
+                        session.receiveKeys.put(keyId, receiveKey);
+                    }
+                }
+                if (!receiveKey.markSeen(counter)) {
+                    throw new GeneralSecurityException("Replayed message. keyId=" + keyId + " counter=" + counter);
+                }
+            }
+            return plaintext;
+        } catch (GeneralSecurityException | RuntimeException e) {
+            Log.e(TAG, "Session decryption failed", e);
+            return null;
+        }
+    }
+
+    //Forgets the session, the next message with the peer agrees on a new one and takes a new key
+    public synchronized void forget(UUID peer) {
+        sessions.remove(peer);
+    }
+
+    public synchronized int size() {
+        return sessions.size();
+    }
+
+    //The agreement runs outside the lock, racing threads may both run it for a new peer or key
+    private Session sessionOf(UUID peer, byte[] peerPublicKey) throws GeneralSecurityException {
+        synchronized (this) {
+            Session session = sessions.get(peer);
+            if (session != null && Arrays.equals(session.peerSignedKey, peerPublicKey)) return session;
+        }
+        byte[] peerKeyBytes = verifiedKey(peer, peerPublicKey);
+        PublicKey peerKey = CryptoInstances.keyFactory("EC").generatePublic(new X509EncodedKeySpec(peerKeyBytes));
+        KeyAgreement agreement = KeyAgreement.getInstance("ECDH");
+        agreement.init(keyPair.getPrivate());
+        agreement.doPhase(peerKey, true);
+        Session session = new Session(peerPublicKey.clone(), peerKeyBytes, agreement.generateSecret());
+        synchronized (this) {
+            Session current = sessions.get(peer);
+            if (current != null) {
+                if (Arrays.equals(current.peerPublicKey, peerKeyBytes)) return current;
+                //still signed by the peer, but a fresh session under it would open its old messages again
+                if (current.retiredPeerKeys.contains(ByteBuffer.wrap(peerKeyBytes))) {
+                    throw new GeneralSecurityException("Session key of " + peer + " was replaced before, refusing it");
+                }
+                session.retiredPeerKeys.addAll(current.retiredPeerKeys);
+                session.retiredPeerKeys.add(ByteBuffer.wrap(current.peerPublicKey));
+                Log.d(TAG, "Session key of " + peer + " changed, starting a new session");
+            }
+            sessions.put(peer, session);
+        }
+        return session;
+    }
+
+    //The ECDH key out of a signed key, once its identity key proved to be the peer's and signed it
+    private byte[] verifiedKey(UUID peer, byte[] signedKey) throws GeneralSecurityException {
+        ByteBuffer buffer = ByteBuffer.wrap(signedKey);
+        byte[] identityKeyBytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(identityKeyBytes);
+        byte[] key = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(key);
+        byte[] signature = new byte[buffer.remaining()];
+        buffer.get(signature);
+
+        PublicKey identityKey = identity.bytesToPublicKey(identityKeyBytes);
+        if (identityKey == null || !identity.validateFingerprint(identityKey, peer)) {
+            throw new GeneralSecurityException("Identity key is not the one of " + peer);
+        }
+        Signature verifier = CryptoInstances.signature(SIGNATURE_ALGORITHM);
+        verifier.initVerify(identityKey);
+        verifier.update(SIGNED_INFO);
+        verifier.update(key);
+        if (!verifier.verify(signature)) {
+            throw new GeneralSecurityException("Session key of " + peer + " is not signed by its identity key");
+        }
+        return key;
+    }
+
+    private static byte[] signedKey(byte[] identityKey, byte[] key, byte[] signature) {
+        return ByteBuffer.allocate(2 + identityKey.length + 2 + key.length + signature.length)
+                .putShort((short) identityKey.length).put(identityKey)
+                .putShort((short) key.length).put(key)
+                .put(signature)
+                .array();
+    }
+
+    //HKDF-SHA256 with the key id as salt, bound to the direction by the sender's and receiver's keys
+    private static SecretKeySpec deriveKey(byte[] sharedSecret, long keyId, byte[] senderKey, byte[] receiverKey) throws GeneralSecurityException {
+        Mac hmac = CryptoInstances.mac("HmacSHA256");
+        hmac.init(new SecretKeySpec(ByteBuffer.allocate(8).putLong(keyId).array(), "HmacSHA256"));
+        byte[] pseudoRandomKey = hmac.doFinal(sharedSecret);
+        hmac.init(new SecretKeySpec(pseudoRandomKey, "HmacSHA256"));
+        hmac.update(INFO);
+        hmac.update(senderKey);
+        hmac.update(receiverKey);
+        hmac.update((byte) 1);
+        byte[] okm = hmac.doFinal();
+        Arrays.fill(pseudoRandomKey, (byte) 0);
+        SecretKeySpec key = new SecretKeySpec(okm, "AES");
+        Arrays.fill(okm, (byte) 0);
+        return key;
+    }
+
+    private static class Session {
+        //as the peer handed it over, to tell a changed key apart
+        final byte[] peerSignedKey;
+        final byte[] peerPublicKey;
+        final byte[] sharedSecret;
+        //key ids pushed out of the receive keys, whose messages are refused rather than opened afresh.
+        //One per rekey of the peer, never dropped: a forgotten id would let its messages be replayed.
+        final HashSet<Long> retiredKeyIds = new HashSet<>();
+        //ECDH keys of the peer that earlier sessions were built on, carried over when it restarts
+        final HashSet<ByteBuffer> retiredPeerKeys = new HashSet<>();
+        final LinkedHashMap<Long, ReceiveKey> receiveKeys = new LinkedHashMap<Long, ReceiveKey>(8, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, ReceiveKey> eldest) {
+                if (size() <= RECEIVE_KEYS) return false;
+                retiredKeyIds.add(eldest.getKey());
+                return true;
+            }
+        };
+        long sendKeyId;
+        SecretKeySpec sendKey;
+        long sendKeyCreatedAt;
+        int sent;
+
+        Session(byte[] peerSignedKey, byte[] peerPublicKey, byte[] sharedSecret) {
+            this.peerSignedKey = peerSignedKey;
+            this.peerPublicKey = peerPublicKey;
+            this.sharedSecret = sharedSecret;
+        }
+    }
+
+    private static class ReceiveKey {
+        final SecretKeySpec key;
+        //highest counter opened, bit i of the window stands for highest - i
+        long highest = -1;
+        long window = 0;
+
+        ReceiveKey(SecretKeySpec key) {
+            this.key = key;
+        }
+
+        //False if the counter was opened before or is too far behind to tell
+        boolean markSeen(long counter) {
+            if (counter > highest) {
+                long shift = counter - highest;
+                window = shift >= REPLAY_WINDOW ? 1 : window << shift | 1;
+                highest = counter;
+                return true;
+            }
+            long age = highest - counter;
+            if (age >= REPLAY_WINDOW || (window & 1L << age) != 0) return false;
+            window |= 1L << age;
+            return true;
+        }
+    }
+}
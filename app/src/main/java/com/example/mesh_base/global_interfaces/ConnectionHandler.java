@@ -40,6 +40,23 @@ public abstract class ConnectionHandler {
 
   public abstract void send(byte[] data, Device neighbor) throws SendError; //Send through a specific neighbor
 
+  //Largest frame send() can carry, zero or less if the transport has no limit.
+  //The router fragments packets that do not fit.
+  public int getMaxFrameSize() {
+    return 0;
+  }
+
+  //Largest frame send(data, neighbor) can carry to that neighbor, for transports whose links differ
+  public int getMaxFrameSize(Device neighbor) {
+    return getMaxFrameSize();
+  }
+
+  //Frames accepted by send() but not yet on the air. Transports that queue sends report it, together
+  //with onSendCompleted(), so the router can hold back less urgent traffic while they are busy.
+  public int getPendingSends() {
+    return 0;
+  }
+
   public abstract void enable();
 
   public abstract boolean isEnabled();
@@ -81,4 +98,11 @@ public abstract class ConnectionHandler {
       listener.onDataReceived(device, data);
     }
   }
+
+
+  protected void onSendCompleted() {
+    for (ConnectionHandlerListener listener : connectionHandlerListeners) {
+      listener.onSendCompleted();
+    }
+  }
 }
@@ -15,5 +15,9 @@ public abstract class ConnectionHandlerListener {
 
     public void onDataReceived(Device device, byte[] data) {
     }
+
+    //a frame left the transport's send queue, sent or failed
+    public void onSendCompleted() {
+    }
 }
 
@@ -0,0 +1,8 @@
+package com.example.mesh_base.global_interfaces;
+
+public class SendTimeoutError extends SendError {
+
+  public SendTimeoutError(String message) {
+    super(message);
+  }
+}
@@ -9,20 +9,22 @@ import com.example.mesh_base.global_interfaces.ConnectionHandlerFactory;
 import com.example.mesh_base.global_interfaces.ConnectionHandlerListener;
 import com.example.mesh_base.global_interfaces.ConnectionHandlersEnum;
 import com.example.mesh_base.global_interfaces.Device;
+import com.example.mesh_base.router.InboundPipeline;
 import com.example.mesh_base.router.MeshProtocol;
-import com.example.mesh_base.router.ProtocolType;
+import com.example.mesh_base.router.ProtocolRegistry;
 import com.example.mesh_base.router.Router;
+import com.example.mesh_base.router.RouterMetrics;
 import com.example.mesh_base.router.SendListener;
 
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 //TODO: unit test once BLE and WifiDirect have the same interfaces
 public class MeshManager {
+    private static final int INBOUND_CAPACITY = 256;
     protected final List<MeshManagerListener> listeners = new CopyOnWriteArrayList<>();
     private final HashMap<ConnectionHandlersEnum, ConnectionHandler> connectionHandlers = new HashMap<>();
     //TODO: store uuid in local storage so that the devices address is consistent
@@ -94,10 +96,10 @@ public class MeshManager {
 
         Log.d(TAG, "MeshManager: Setting up Router...");
 
-        HashSet<ProtocolType> typesExpectingResponses = new HashSet<>();
         //TODO: implement ProtocolType.Receive_Message as a response type, but for now, use SENd_MESSAGE itself
-        typesExpectingResponses.add(ProtocolType.SEND_MESSAGE);
-        router = new Router(connectionHandlers, id, typesExpectingResponses);
+        ProtocolRegistry registry = ProtocolRegistry.withBuiltInTypes()
+                .setExpectsResponse(ProtocolRegistry.SEND_MESSAGE, true);
+        router = new Router(connectionHandlers, id, registry);
 
         router.setListener(new Router.RouterListener() {
             @Override
@@ -116,6 +118,10 @@ public class MeshManager {
             }
         });
 
+        router.startInboundPipeline(INBOUND_CAPACITY, InboundPipeline.Backpressure.DROP_RELAY_FIRST);
+        //Compact headers, checksums, tracing and batching stay off: nodes do not tell each other
+        //which frame formats they read yet, and older ones drop every frame using them.
+
         Log.d(TAG, "MeshManager: Router set up.");
     }
 
@@ -162,6 +168,15 @@ public class MeshManager {
         Log.d(TAG, "MeshManager: Mesh turned off, notified listeners");
     }
 
+    //Turns the mesh off and stops the router's threads, for when the manager is thrown away, e.g.
+    //with the activity that built it. Not used again afterwards.
+    public void close() {
+        off();
+        router.close();
+        clearListeners();
+        Log.d(TAG, "MeshManager: Closed");
+    }
+
     public ArrayList<Device> getNeighbors() {
         ArrayList<Device> neighbors = new ArrayList<Device>();
         for (ConnectionHandler helper : connectionHandlers.values()) {
@@ -183,6 +198,10 @@ public class MeshManager {
         return new Status(isOn, _status);
     }
 
+    public RouterMetrics.Snapshot getMetrics() {
+        return router.getMetrics();
+    }
+
     public void send(MeshProtocol<?> protocol, SendListener listener, boolean keepMessageId) {
         Log.d(TAG, "MeshManager: Sending data with protocol" + protocol.getClass().getSimpleName());
         router.sendData(protocol, listener, keepMessageId);
@@ -15,25 +15,25 @@ public class AckMessageBody implements MeshSerializer<AckMessageBody>{
         ByteBuffer buffer = ByteBuffer.wrap(data);
 
         int messageLength = buffer.getInt();
-        byte[] msgBytes = new byte[messageLength];
-        String receiveMsg = "";
-
-        if (messageLength > 0) {
-            buffer.get(msgBytes);
-            receiveMsg = new String(msgBytes);
-        }
+        String receiveMsg = Utf8.decode(data, buffer.position(), messageLength);
 
         return new AckMessageBody(receiveMsg);
     }
     @Override
     public byte[] encode() {
-        int messageLength = message.length();
-        ByteBuffer buffer = ByteBuffer.allocate(4 + messageLength);
+        ByteBuffer buffer = ByteBuffer.allocate(sizeHint());
+        encodeInto(buffer);
+        return buffer.array();
+    }
 
-        buffer.putInt(messageLength);
-        buffer.put(message.getBytes());
+    @Override
+    public int sizeHint() {
+        return 4 + Utf8.encodedLength(message);
+    }
 
-        return buffer.array();
+    @Override
+    public void encodeInto(ByteBuffer buffer) {
+        SendMessageBody.putText(buffer, message);
     }
 
     @Override
@@ -0,0 +1,70 @@
+package com.example.mesh_base.router;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+//Reusable heap buffers to encode frames into, in power of two size classes from 64 bytes to 64 KiB.
+//Each class keeps a few free buffers in fixed slots taken and returned with compare and set, so
+//threads share the pool without locks and neither taking nor returning a buffer allocates.
+//Larger requests get a buffer of their own, which is never kept.
+class BufferPool {
+    static final int MIN_SHIFT = 6;
+    static final int MAX_SHIFT = 16;
+    static final int DEFAULT_BUFFERS_PER_CLASS = 8;
+
+    private final AtomicReferenceArray<ByteBuffer>[] classes;
+    private final AtomicLong allocations = new AtomicLong();
+
+    BufferPool() {
+        this(DEFAULT_BUFFERS_PER_CLASS);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    BufferPool(int buffersPerClass) {
+        classes = new AtomicReferenceArray[MAX_SHIFT - MIN_SHIFT + 1];
+        for (int i = 0; i < classes.length; i++) classes[i] = new AtomicReferenceArray<>(buffersPerClass);
+    }
+
+    //A cleared buffer with a backing array, at least minCapacity long
+    ByteBuffer acquire(int minCapacity) {
+        int sizeClass = sizeClassOf(minCapacity);
+        if (sizeClass >= classes.length) {
+            allocations.incrementAndGet();
+            return ByteBuffer.allocate(minCapacity);
+        }
+        AtomicReferenceArray<ByteBuffer> slots = classes[sizeClass];
+        for (int i = 0; i < slots.length(); i++) {
+            ByteBuffer buffer = slots.get(i);
+            if (buffer != null && slots.compareAndSet(i, buffer, null)) {
+                buffer.clear();
+                return buffer;
+            }
+        }
+        allocations.incrementAndGet();
+        return ByteBuffer.allocate(1 << (sizeClass + MIN_SHIFT));
+    }
+
+    //The buffer must not be used after, whoever acquires it next overwrites it
+    void release(ByteBuffer buffer) {
+        int capacity = buffer.capacity();
+        if (Integer.bitCount(capacity) != 1 || !buffer.hasArray()) return;
+        int sizeClass = sizeClassOf(capacity);
+        if (sizeClass >= classes.length || 1 << (sizeClass + MIN_SHIFT) != capacity) return;
+        AtomicReferenceArray<ByteBuffer> slots = classes[sizeClass];
+        for (int i = 0; i < slots.length(); i++) {
+            if (slots.get(i) == null && slots.compareAndSet(i, null, buffer)) return;
+        }
+        //the class is full, the buffer is left to the garbage collector
+    }
+
+    //How many buffers the pool had to allocate, flat once the pool covers the traffic
+    long getAllocations() {
+        return allocations.get();
+    }
+
+    private static int sizeClassOf(int capacity) {
+        int shift = 32 - Integer.numberOfLeadingZeros(Math.max(capacity, 1 << MIN_SHIFT) - 1);
+        return shift - MIN_SHIFT;
+    }
+}
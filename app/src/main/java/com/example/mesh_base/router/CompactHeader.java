@@ -0,0 +1,154 @@
+package com.example.mesh_base.router;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+//Version 1 of the compact packet header, a variable length alternative to the fixed 48 byte one:
+//marker 0xC1 (1), type (1), hops (1), flags (1) with the attempt in the high nibble, messageId (4),
+//sender, destination if FLAG_DESTINATION, body length as varint. messageIds are random, so they
+//keep their fixed width, a varint would take 5 bytes for most of them. Ids are 16 bytes, or 4 byte NodeAliases with FLAG_ALIASES.
+//With FLAG_TRACE a TraceExtension follows the body.
+//Varints are little endian groups of 7 bits, high bit set on all but the last, at most 5 bytes.
+//Type and hops stay at fixed offsets so frames can be classified and relayed without a full parse.
+//The marker never starts a legacy header, whose first byte is the high byte of its type, nor a
+//fragment (0xF0) or batch container (0xB0).
+final class CompactHeader {
+    static final byte MARKER = (byte) 0xC1;
+    static final int FLAG_DESTINATION = 0x01;
+    static final int FLAG_ALIASES = 0x02;
+    static final int FLAG_TRACE = 0x04;
+    static final int ATTEMPT_SHIFT = 4;
+    static final int MAX_TYPE = 0xFF;
+    static final int MAX_HOPS = 0xFF;
+    static final int ID_LENGTH = 16;
+    static final int ALIAS_LENGTH = 4;
+    static final int MAX_VARINT_LENGTH = 5;
+
+    static final int TYPE_OFFSET = 1;
+    static final int HOPS_OFFSET = 2;
+    static final int FLAGS_OFFSET = 3;
+    static final int MESSAGE_ID_OFFSET = 4;
+    static final int MESSAGE_ID_LENGTH = 4;
+
+    private CompactHeader() {
+    }
+
+    static boolean isCompact(ByteBuffer frame, int start) {
+        return frame.limit() > start && frame.get(start) == MARKER;
+    }
+
+    static boolean isCompact(byte[] data, int offset) {
+        return data.length > offset && data[offset] == MARKER;
+    }
+
+    //Where the body length field starts, relative to start, -1 if the header is cut short before it
+    static int lengthOffset(ByteBuffer frame, int start) {
+        int limit = frame.limit();
+        if (start + FLAGS_OFFSET >= limit) return -1;
+        int offset = MESSAGE_ID_OFFSET + MESSAGE_ID_LENGTH + idsLength(frame.get(start + FLAGS_OFFSET));
+        return start + offset < limit ? offset : -1;
+    }
+
+    //The full header length, -1 if the header is cut short
+    static int headerLength(ByteBuffer frame, int start) {
+        int lengthOffset = lengthOffset(frame, start);
+        if (lengthOffset < 0) return -1;
+        int length = varintLength(frame, start + lengthOffset, frame.limit());
+        return length < 0 ? -1 : lengthOffset + length;
+    }
+
+    static int headerLength(boolean hasDestination, boolean hasAliases, int bodyLength) {
+        int flags = (hasDestination ? FLAG_DESTINATION : 0) | (hasAliases ? FLAG_ALIASES : 0);
+        return MESSAGE_ID_OFFSET + MESSAGE_ID_LENGTH + idsLength(flags) + varintSize(bodyLength);
+    }
+
+    static int idsLength(int flags) {
+        int idLength = (flags & FLAG_ALIASES) != 0 ? ALIAS_LENGTH : ID_LENGTH;
+        return (flags & FLAG_DESTINATION) != 0 ? 2 * idLength : idLength;
+    }
+
+    static void encode(ByteBuffer buffer, MeshProtocol<?> protocol, boolean hasAliases, int bodyLength) {
+        if (protocol.messageType < 0 || protocol.messageType > MAX_TYPE) {
+            throw new IllegalArgumentException("Message type does not fit a compact header. messageType=" + protocol.messageType);
+        }
+        boolean hasDestination = protocol.destination != null;
+        buffer.put(MARKER);
+        buffer.put((byte) protocol.messageType);
+        buffer.put((byte) Math.max(0, Math.min(MAX_HOPS, protocol.remainingHops)));
+        buffer.put((byte) ((hasDestination ? FLAG_DESTINATION : 0) | (hasAliases ? FLAG_ALIASES : 0)
+                | (protocol.trace != null ? FLAG_TRACE : 0)
+                | Math.max(0, Math.min(MeshProtocol.MAX_ATTEMPT, protocol.attempt)) << ATTEMPT_SHIFT));
+        buffer.putInt(protocol.messageId);
+        putId(buffer, protocol.sender, hasAliases);
+        if (hasDestination) putId(buffer, protocol.destination, hasAliases);
+        putVarint(buffer, bodyLength);
+    }
+
+    //An alias resolves through aliases, or to its placeholder id when they are null
+    static UUID getId(ByteBuffer frame, int position, boolean isAlias, NodeAliases aliases) {
+        if (!isAlias) return new UUID(frame.getLong(position), frame.getLong(position + 8));
+        int alias = frame.getInt(position);
+        return aliases != null ? aliases.resolve(alias) : NodeAliases.placeholder(alias);
+    }
+
+    private static void putId(ByteBuffer buffer, UUID id, boolean isAlias) {
+        if (isAlias) {
+            buffer.putInt(NodeAliases.aliasOf(id));
+        } else {
+            buffer.putLong(id.getMostSignificantBits());
+            buffer.putLong(id.getLeastSignificantBits());
+        }
+    }
+
+    //values are taken as unsigned
+    static int varintSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    static void putVarint(ByteBuffer buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) (value & 0x7F | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    //Writes value at position as a varint of exactly size bytes, padded with continuation bits.
+    //Decoders read it like the shortest form, as long as it fits MAX_VARINT_LENGTH.
+    static void putVarint(ByteBuffer buffer, int position, int value, int size) {
+        for (int i = 0; i < size - 1; i++) {
+            buffer.put(position + i, (byte) (value & 0x7F | 0x80));
+            value >>>= 7;
+        }
+        buffer.put(position + size - 1, (byte) value);
+    }
+
+    static int putVarint(byte[] data, int offset, int value) {
+        int size = varintSize(value);
+        putVarint(ByteBuffer.wrap(data, offset, size), value);
+        return size;
+    }
+
+    //Length of the varint at position, -1 if it runs past limit or past MAX_VARINT_LENGTH
+    static int varintLength(ByteBuffer buffer, int position, int limit) {
+        for (int i = 0; i < MAX_VARINT_LENGTH && position + i < limit; i++) {
+            if ((buffer.get(position + i) & 0x80) == 0) return i + 1;
+        }
+        return -1;
+    }
+
+    //The varint at position, whose length was checked with varintLength
+    static int getVarint(ByteBuffer buffer, int position) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = buffer.get(position++);
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+    }
+}
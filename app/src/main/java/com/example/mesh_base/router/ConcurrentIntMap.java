@@ -0,0 +1,163 @@
+package com.example.mesh_base.router;
+
+//int keyed map for state shared between the sending threads, the receive path and the timer wheel.
+//Keys are spread over independently locked segments, each an open addressing table of primitive
+//keys, so lookups neither box the key nor contend with traffic for other message ids.
+class ConcurrentIntMap<V> {
+    static final int DEFAULT_SEGMENTS = 16;
+    private static final int MIN_SEGMENT_CAPACITY = 8;
+
+    private final Segment<V>[] segments;
+    private final int segmentMask;
+
+    ConcurrentIntMap() {
+        this(DEFAULT_SEGMENTS);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    ConcurrentIntMap(int segmentCount) {
+        if (segmentCount <= 0 || Integer.bitCount(segmentCount) != 1) {
+            throw new IllegalArgumentException("segment count must be a power of two. segmentCount=" + segmentCount);
+        }
+        segments = new Segment[segmentCount];
+        segmentMask = segmentCount - 1;
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment<>();
+        }
+    }
+
+    V get(int key) {
+        int hash = hash(key);
+        return segmentFor(hash).get(hash, key);
+    }
+
+    //Returns the value previously mapped to key, or null
+    V put(int key, V value) {
+        if (value == null) throw new NullPointerException("null values are not supported");
+        int hash = hash(key);
+        return segmentFor(hash).put(hash, key, value);
+    }
+
+    //Returns the value that was removed, or null
+    V remove(int key) {
+        int hash = hash(key);
+        return segmentFor(hash).remove(hash, key, null);
+    }
+
+    //Removes key only while it still maps to expected, true if it did
+    boolean remove(int key, V expected) {
+        int hash = hash(key);
+        return segmentFor(hash).remove(hash, key, expected) != null;
+    }
+
+    int size() {
+        int size = 0;
+        for (Segment<V> segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    private Segment<V> segmentFor(int hash) {
+        return segments[(hash >>> 24) & segmentMask];
+    }
+
+    //message ids are often random but sequential ids must spread too
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static class Segment<V> {
+        private int[] keys = new int[MIN_SEGMENT_CAPACITY];
+        //a null value marks a free slot, so any int is a valid key
+        private Object[] values = new Object[MIN_SEGMENT_CAPACITY];
+        private int size = 0;
+
+        synchronized V get(int hash, int key) {
+            int slot = find(hash, key);
+            return slot < 0 ? null : value(slot);
+        }
+
+        synchronized V put(int hash, int key, V value) {
+            int slot = find(hash, key);
+            if (slot >= 0) {
+                V previous = value(slot);
+                values[slot] = value;
+                return previous;
+            }
+
+            //keep the load factor at or below 0.5
+            if ((size + 1) * 2 > keys.length) resize(keys.length * 2);
+            insert(hash, key, value);
+            size++;
+            return null;
+        }
+
+        synchronized V remove(int hash, int key, V expected) {
+            int slot = find(hash, key);
+            if (slot < 0) return null;
+            V current = value(slot);
+            if (expected != null && current != expected) return null;
+            deleteSlot(slot);
+            size--;
+            return current;
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        private int find(int hash, int key) {
+            int mask = keys.length - 1;
+            int slot = hash & mask;
+            while (values[slot] != null) {
+                if (keys[slot] == key) return slot;
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        private void insert(int hash, int key, Object value) {
+            int mask = keys.length - 1;
+            int slot = hash & mask;
+            while (values[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            values[slot] = value;
+        }
+
+        private void resize(int length) {
+            int[] oldKeys = keys;
+            Object[] oldValues = values;
+            keys = new int[length];
+            values = new Object[length];
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldValues[i] != null) insert(hash(oldKeys[i]), oldKeys[i], oldValues[i]);
+            }
+        }
+
+        //backward shift deletion, keeps probe chains intact without tombstones
+        private void deleteSlot(int slot) {
+            int mask = keys.length - 1;
+            int hole = slot;
+            int next = (hole + 1) & mask;
+            while (values[next] != null) {
+                int home = hash(keys[next]) & mask;
+                if (((next - home) & mask) >= ((next - hole) & mask)) {
+                    keys[hole] = keys[next];
+                    values[hole] = values[next];
+                    hole = next;
+                }
+                next = (next + 1) & mask;
+            }
+            values[hole] = null;
+        }
+
+        @SuppressWarnings("unchecked")
+        private V value(int slot) {
+            return (V) values[slot];
+        }
+    }
+}
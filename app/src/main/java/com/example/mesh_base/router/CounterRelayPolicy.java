@@ -0,0 +1,37 @@
+package com.example.mesh_base.router;
+
+import com.example.mesh_base.global_interfaces.Device;
+
+import java.util.Random;
+
+//Holds every flooded relay for a random delay and cancels it once duplicateThreshold copies have
+//been heard from other neighbors, since those neighbors already covered most of the area
+public class CounterRelayPolicy extends DefaultRelayPolicy {
+    private final int duplicateThreshold;
+    private final long maxDelayMillis;
+    private final Random random;
+
+    public CounterRelayPolicy(int duplicateThreshold, long maxDelayMillis) {
+        this(duplicateThreshold, maxDelayMillis, DEFAULT_HOP_BUDGET, new Random());
+    }
+
+    public CounterRelayPolicy(int duplicateThreshold, long maxDelayMillis, int hopBudget, Random random) {
+        super(hopBudget);
+        if (duplicateThreshold < 1 || maxDelayMillis < 0) {
+            throw new IllegalArgumentException("invalid counter relay. duplicateThreshold=" + duplicateThreshold + " maxDelayMillis=" + maxDelayMillis);
+        }
+        this.duplicateThreshold = duplicateThreshold;
+        this.maxDelayMillis = maxDelayMillis;
+        this.random = random;
+    }
+
+    @Override
+    public long relayDelayMillis(MeshProtocol<?> packet) {
+        return (long) (random.nextDouble() * maxDelayMillis);
+    }
+
+    @Override
+    public boolean cancelOnDuplicate(MeshProtocol<?> packet, Device from, int duplicates) {
+        return duplicates >= duplicateThreshold;
+    }
+}
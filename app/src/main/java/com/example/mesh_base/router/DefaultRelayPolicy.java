@@ -0,0 +1,31 @@
+package com.example.mesh_base.router;
+
+import com.example.mesh_base.global_interfaces.Device;
+
+//Unicast along a learned next hop when there is one and flood everything else
+public class DefaultRelayPolicy implements RelayPolicy {
+    public static final int DEFAULT_HOP_BUDGET = 4;
+
+    private final int hopBudget;
+
+    public DefaultRelayPolicy() {
+        this(DEFAULT_HOP_BUDGET);
+    }
+
+    public DefaultRelayPolicy(int hopBudget) {
+        if (hopBudget < 0) {
+            throw new IllegalArgumentException("hop budget can't be negative. hopBudget=" + hopBudget);
+        }
+        this.hopBudget = hopBudget;
+    }
+
+    @Override
+    public int hopBudget(MeshProtocol<?> protocol) {
+        return hopBudget;
+    }
+
+    @Override
+    public RelayDecision decide(MeshProtocol<?> packet, Device from, Device nextHop) {
+        return nextHop != null ? RelayDecision.NEXT_HOP : RelayDecision.FLOOD;
+    }
+}
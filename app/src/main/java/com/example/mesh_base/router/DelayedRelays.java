@@ -0,0 +1,102 @@
+package com.example.mesh_base.router;
+
+import com.example.mesh_base.global_interfaces.Device;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.UUID;
+
+//Flooded relays a RelayPolicy asked to hold back. Every copy of the same packet heard from another
+//neighbor meanwhile is reported to the policy, which may cancel the relay; otherwise it goes out
+//skipping the neighbors it was heard from, since they already have it.
+class DelayedRelays {
+    private final HashMap<Long, PendingRelay> pending = new HashMap<>();
+    private final TimerWheel timer;
+    private final Flooder flooder;
+
+    DelayedRelays(TimerWheel timer, Flooder flooder) {
+        this.timer = timer;
+        this.flooder = flooder;
+    }
+
+    synchronized void schedule(byte[] data, MeshProtocol<?> protocol, Device from, long delayMillis) {
+        long key = key(protocol.messageId, protocol.sender);
+        if (pending.containsKey(key)) return;
+
+        PendingRelay relay = new PendingRelay(key, data, protocol, from);
+        pending.put(key, relay);
+        timer.schedule(relay, delayMillis);
+    }
+
+    //Returns true if the relay got cancelled by this duplicate, which only carries its header
+    synchronized boolean onDuplicate(MeshProtocol<?> duplicate, Device from, RelayPolicy policy) {
+        long key = key(duplicate.messageId, duplicate.sender);
+        PendingRelay relay = pending.get(key);
+        if (relay == null || relay.messageId != duplicate.messageId || !relay.origin.equals(duplicate.sender)) return false;
+
+        //a copy that took a shorter path arrived while waiting, let the held frame travel as far. Its
+        //bytes stay, they already list this node in their trace
+        if (duplicate.remainingHops - 1 > relay.remainingHops) {
+            relay.remainingHops = duplicate.remainingHops - 1;
+            MeshProtocol.writeRemainingHops(relay.data, 0, relay.remainingHops);
+        }
+
+        if (relay.seenBy.contains(from.uuid)) return false;
+        relay.seenBy.add(from.uuid);
+        if (!policy.cancelOnDuplicate(duplicate, from, relay.seenBy.size() - 1)) return false;
+
+        pending.remove(key);
+        timer.cancel(relay);
+        return true;
+    }
+
+    synchronized int size() {
+        return pending.size();
+    }
+
+    private void onExpire(PendingRelay relay) {
+        synchronized (this) {
+            if (pending.get(relay.key) != relay) return;
+            pending.remove(relay.key);
+        }
+        flooder.flood(relay.data, relay.packet, relay.from, relay.seenBy);
+    }
+
+    //messageIds are random so folding the origin into the low bits is enough to spread keys,
+    //the entry itself is compared exactly
+    private static long key(int messageId, UUID origin) {
+        return ((long) messageId << 32) | (origin.hashCode() & 0xFFFFFFFFL);
+    }
+
+    interface Flooder {
+        void flood(byte[] data, MeshProtocol<?> packet, Device from, ArrayList<UUID> seenBy);
+    }
+
+    private class PendingRelay extends TimerWheel.Timeout {
+        final long key;
+        final int messageId;
+        final UUID origin;
+        final MeshProtocol<?> packet;
+        final Device from;
+        final byte[] data;
+        int remainingHops;
+        //neighbors we heard the packet from, the first one delivered it to us
+        final ArrayList<UUID> seenBy = new ArrayList<>(4);
+
+        PendingRelay(long key, byte[] data, MeshProtocol<?> protocol, Device from) {
+            this.key = key;
+            this.data = data;
+            this.packet = protocol;
+            this.from = from;
+            this.messageId = protocol.messageId;
+            this.origin = protocol.sender;
+            this.remainingHops = protocol.remainingHops;
+            this.seenBy.add(from.uuid);
+        }
+
+        @Override
+        protected void onExpire() {
+            DelayedRelays.this.onExpire(this);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.example.mesh_base.router;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+//Messages handed to the application, each with the ACK or response that answered it. A
+//retransmission of one of them means the answer got lost: it is answered again, at the attempt of
+//the retransmission so relays let it through, and never delivered twice. Bounded, oldest first.
+class DeliveredMessages {
+    static final int DEFAULT_CAPACITY = 1024;
+
+    //insertion ordered, oldest message first
+    private final LinkedHashMap<Long, Entry> entries;
+
+    DeliveredMessages() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    DeliveredMessages(int capacity) {
+        this.entries = new LinkedHashMap<Long, DeliveredMessages.Entry>(16, 0.75f, false) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, DeliveredMessages.Entry> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    //Returns false if the message was delivered before
+    synchronized boolean record(int messageId, UUID origin, int attempt) {
+        long key = key(messageId, origin);
+        Entry entry = entries.get(key);
+        if (entry != null && entry.messageId == messageId && entry.origin.equals(origin)) return false;
+        //a different message hashed to the same key, the newer one wins
+        entries.put(key, new Entry(messageId, origin, attempt));
+        return true;
+    }
+
+    //Keeps the encoded answer to a delivered message, ignored for messages not delivered here
+    synchronized void answered(int messageId, UUID origin, byte[] answer, TrafficClass trafficClass) {
+        Entry entry = entries.get(key(messageId, origin));
+        if (entry == null || entry.messageId != messageId || !entry.origin.equals(origin)) return;
+        entry.answer = answer;
+        entry.trafficClass = trafficClass;
+    }
+
+    //A copy of the answer to send again for a retransmission at attempt, null if there is no answer
+    //yet or that attempt was already answered
+    synchronized Answer answerAgain(int messageId, UUID origin, int attempt) {
+        Entry entry = entries.get(key(messageId, origin));
+        if (entry == null || entry.messageId != messageId || !entry.origin.equals(origin)) return null;
+        if (entry.answer == null || attempt <= entry.answeredAttempt) return null;
+        entry.answeredAttempt = attempt;
+        byte[] copy = entry.answer.clone();
+        MeshProtocol.writeAttempt(copy, 0, attempt);
+        return new Answer(copy, entry.trafficClass);
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    //same folding as DelayedRelays, entries are compared exactly
+    private static long key(int messageId, UUID origin) {
+        return ((long) messageId << 32) | (origin.hashCode() & 0xFFFFFFFFL);
+    }
+
+    static class Answer {
+        final byte[] data;
+        final TrafficClass trafficClass;
+
+        Answer(byte[] data, TrafficClass trafficClass) {
+            this.data = data;
+            this.trafficClass = trafficClass;
+        }
+    }
+
+    private static class Entry {
+        final int messageId;
+        final UUID origin;
+        //the attempt the answer last went out at
+        int answeredAttempt;
+        byte[] answer;
+        TrafficClass trafficClass;
+
+        Entry(int messageId, UUID origin, int attempt) {
+            this.messageId = messageId;
+            this.origin = origin;
+            this.answeredAttempt = attempt;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.example.mesh_base.router;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+//How a traced message and its ACK or response went: the round trip time on the sender's clock, the
+//relay hops both ways, and the nodes passed through in order with the destination where it turned
+//around. Nodes this router never saw a full id of are placeholder ids of their alias, and the path
+//lists at most TraceExtension.MAX_RELAYS nodes though hops keeps counting.
+public class DeliveryTrace {
+    private final long roundTripMillis;
+    private final int hops;
+    private final List<UUID> path;
+
+    DeliveryTrace(long roundTripMillis, int hops, List<UUID> path) {
+        this.roundTripMillis = roundTripMillis;
+        this.hops = hops;
+        this.path = Collections.unmodifiableList(path);
+    }
+
+    public long getRoundTripMillis() {
+        return roundTripMillis;
+    }
+
+    public int getHops() {
+        return hops;
+    }
+
+    public List<UUID> getPath() {
+        return path;
+    }
+
+    @Override
+    public String toString() {
+        return "DeliveryTrace{roundTripMillis=" + roundTripMillis + ", hops=" + hops + ", path=" + path + "}";
+    }
+}
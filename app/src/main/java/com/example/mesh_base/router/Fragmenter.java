@@ -0,0 +1,146 @@
+package com.example.mesh_base.router;
+
+import com.example.mesh_base.global_interfaces.SendError;
+
+import java.util.ArrayList;
+
+//Splits encoded packets that do not fit a transport's frame into fragments. A fragment is the
+//packet's own header, legacy or compact, carrying a slice of the body, behind a small prefix:
+//marker 0xF0 with flags in the low bits (1), index (2), count (2), attempt (1). Since every fragment
+//carries the full header it can be deduplicated, routed and relayed on its own, without waiting for
+//the rest of the packet. The marker never starts an unfragmented frame, whose first byte is the
+//high byte of its type. A packet's TraceExtension travels as the end of its body, flagged in the
+//prefix rather than the header so a fragment never looks for a trace of its own.
+final class Fragmenter {
+    static final byte MARKER = (byte) 0xF0;
+    //the sender runs a windowed transfer and wants selective ACKs back
+    static final byte FLAG_SELECTIVE_ACK = 0x01;
+    //the last fragment of a burst, answer with a selective ACK without waiting for more
+    static final byte FLAG_ACK_REQUEST = 0x02;
+    //the packet ends with a TraceExtension
+    static final byte FLAG_TRACED = 0x04;
+    static final int PREFIX_LENGTH = 6;
+    static final int MAX_FRAGMENTS = 0xFFFF;
+    //one below the byte's range, so receivers can store attempt + 1 in a byte
+    static final int MAX_ATTEMPT = 0xFE;
+
+    private Fragmenter() {
+    }
+
+    static boolean isFragment(byte[] data) {
+        return data.length > 0 && (data[0] & 0xF0) == (MARKER & 0xF0);
+    }
+
+    static boolean wantsSelectiveAck(byte[] fragment) {
+        return (fragment[0] & FLAG_SELECTIVE_ACK) != 0;
+    }
+
+    static boolean requestsAck(byte[] fragment) {
+        return (fragment[0] & FLAG_ACK_REQUEST) != 0;
+    }
+
+    static byte[] withAckRequest(byte[] fragment) {
+        byte[] copy = fragment.clone();
+        copy[0] |= FLAG_ACK_REQUEST;
+        return copy;
+    }
+
+    //Where the packet header starts inside a frame
+    static int headerOffset(byte[] data) {
+        return isFragment(data) ? PREFIX_LENGTH : 0;
+    }
+
+    static int index(byte[] fragment) {
+        return (fragment[1] & 0xFF) << 8 | (fragment[2] & 0xFF);
+    }
+
+    static int count(byte[] fragment) {
+        return (fragment[3] & 0xFF) << 8 | (fragment[4] & 0xFF);
+    }
+
+    //how many times the sender sent this fragment before, relays forward every new attempt
+    static int attempt(byte[] fragment) {
+        return fragment[5] & 0xFF;
+    }
+
+    //A copy of the fragment to send again, the copy already handed to a transport is left as is
+    static byte[] retransmission(byte[] fragment) {
+        byte[] copy = fragment.clone();
+        copy[5] = (byte) Math.min(attempt(fragment) + 1, MAX_ATTEMPT);
+        return copy;
+    }
+
+    static int bodyLength(byte[] fragment) {
+        return fragment.length - PREFIX_LENGTH - MeshProtocol.headerLength(fragment, PREFIX_LENGTH);
+    }
+
+    //maxFrameSize of zero or less means the transport takes frames of any size
+    static boolean needsSplitting(byte[] packet, int maxFrameSize) {
+        return maxFrameSize > 0 && packet.length > maxFrameSize;
+    }
+
+    static ArrayList<byte[]> split(byte[] packet, int maxFrameSize) throws SendError {
+        return split(packet, maxFrameSize, false);
+    }
+
+    static ArrayList<byte[]> split(byte[] packet, int maxFrameSize, boolean selectiveAck) throws SendError {
+        boolean isCompact = MeshProtocol.isCompact(packet, 0);
+        int header = MeshProtocol.headerLength(packet, 0);
+        //the header fields copied to every fragment, its body length is rewritten per slice
+        int fields = MeshProtocol.bodyLengthOffset(packet, 0);
+        //no slice's length field is longer than that of the frame size
+        int sliceLength = maxFrameSize - PREFIX_LENGTH - fields - MeshProtocol.bodyLengthSize(isCompact, maxFrameSize);
+        if (sliceLength <= 0) {
+            throw new SendError("Frame size " + maxFrameSize + " cannot carry a fragment");
+        }
+        int bodyLength = packet.length - header;
+        int count = (bodyLength + sliceLength - 1) / sliceLength;
+        boolean isTraced = isCompact && (packet[CompactHeader.FLAGS_OFFSET] & CompactHeader.FLAG_TRACE) != 0;
+        if (count > MAX_FRAGMENTS) {
+            throw new SendError("Packet of " + packet.length + " bytes needs more than " + MAX_FRAGMENTS + " fragments");
+        }
+
+        ArrayList<byte[]> fragments = new ArrayList<>(count);
+        for (int index = 0; index < count; index++) {
+            int offset = index * sliceLength;
+            int length = Math.min(sliceLength, bodyLength - offset);
+            byte[] fragment = new byte[PREFIX_LENGTH + fields + MeshProtocol.bodyLengthSize(isCompact, length) + length];
+            fragment[0] = (byte) (MARKER | (selectiveAck ? FLAG_SELECTIVE_ACK : 0) | (isTraced ? FLAG_TRACED : 0));
+            fragment[1] = (byte) (index >>> 8);
+            fragment[2] = (byte) index;
+            fragment[3] = (byte) (count >>> 8);
+            fragment[4] = (byte) count;
+            //a retransmitted packet goes out as new attempts of its fragments
+            fragment[5] = (byte) MeshProtocol.getAttempt(packet, 0);
+            System.arraycopy(packet, 0, fragment, PREFIX_LENGTH, fields);
+            if (isTraced) fragment[PREFIX_LENGTH + CompactHeader.FLAGS_OFFSET] &= ~CompactHeader.FLAG_TRACE;
+            int sliceOffset = PREFIX_LENGTH + fields;
+            sliceOffset += MeshProtocol.writeBodyLength(isCompact, fragment, sliceOffset, length);
+            System.arraycopy(packet, header + offset, fragment, sliceOffset, length);
+            fragments.add(fragment);
+        }
+        return fragments;
+    }
+
+    //Rebuilds the packet from its fragments in index order, taking the header of the first one.
+    //bodyLength counts every slice, a trace at the end included.
+    static byte[] join(byte[][] fragments, int bodyLength) {
+        byte[] first = fragments[0];
+        byte[] last = fragments[fragments.length - 1];
+        boolean isCompact = MeshProtocol.isCompact(first, PREFIX_LENGTH);
+        boolean isTraced = isCompact && (first[0] & FLAG_TRACED) != 0;
+        int traceLength = isTraced ? TraceExtension.length(last[last.length - 1] & 0xFF) : 0;
+        int fields = MeshProtocol.bodyLengthOffset(first, PREFIX_LENGTH);
+        int lengthField = bodyLength - traceLength;
+        byte[] packet = new byte[fields + MeshProtocol.bodyLengthSize(isCompact, lengthField) + bodyLength];
+        System.arraycopy(first, PREFIX_LENGTH, packet, 0, fields);
+        if (isTraced) packet[CompactHeader.FLAGS_OFFSET] |= CompactHeader.FLAG_TRACE;
+        int offset = fields + MeshProtocol.writeBodyLength(isCompact, packet, fields, lengthField);
+        for (byte[] fragment : fragments) {
+            int length = bodyLength(fragment);
+            System.arraycopy(fragment, fragment.length - length, packet, offset, length);
+            offset += length;
+        }
+        return packet;
+    }
+}
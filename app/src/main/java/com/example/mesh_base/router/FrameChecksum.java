@@ -0,0 +1,112 @@
+package com.example.mesh_base.router;
+
+import java.lang.reflect.Constructor;
+import java.util.Arrays;
+import java.util.zip.Checksum;
+
+//A CRC32C (Castagnoli) trailer of 4 bytes, big endian, over everything a transport carries in one
+//write, so a frame corrupted or cut short on air is dropped before anything in it is parsed.
+//java.util.zip.CRC32C, hardware accelerated where the platform has it (Java 9, Android 14), is used
+//when present and a table driven one otherwise. Both are made once per thread and reset per frame.
+final class FrameChecksum {
+    static final int LENGTH = 4;
+
+    private static final int POLYNOMIAL = 0x82F63B78;
+    private static final int[] TABLE = new int[256];
+    private static final Constructor<? extends Checksum> PLATFORM = platformCrc32c();
+    private static final ThreadLocal<Checksum> CHECKSUMS = ThreadLocal.withInitial(FrameChecksum::newChecksum);
+
+    static {
+        for (int i = 0; i < TABLE.length; i++) {
+            int crc = i;
+            for (int bit = 0; bit < 8; bit++) crc = (crc & 1) != 0 ? crc >>> 1 ^ POLYNOMIAL : crc >>> 1;
+            TABLE[i] = crc;
+        }
+    }
+
+    private FrameChecksum() {
+    }
+
+    //A copy of frame with its trailer
+    static byte[] seal(byte[] frame) {
+        byte[] sealed = Arrays.copyOf(frame, frame.length + LENGTH);
+        putInt(sealed, frame.length, crc32c(frame, 0, frame.length));
+        return sealed;
+    }
+
+    static boolean isIntact(byte[] data) {
+        if (data.length < LENGTH) return false;
+        int length = data.length - LENGTH;
+        return crc32c(data, 0, length) == MeshProtocol.readInt(data, length);
+    }
+
+    //The frame without its trailer, checked with isIntact
+    static byte[] open(byte[] data) {
+        return Arrays.copyOf(data, data.length - LENGTH);
+    }
+
+    static int crc32c(byte[] data, int offset, int length) {
+        Checksum checksum = CHECKSUMS.get();
+        checksum.reset();
+        checksum.update(data, offset, length);
+        return (int) checksum.getValue();
+    }
+
+    static boolean isPlatformCrc32c() {
+        return PLATFORM != null;
+    }
+
+    private static Checksum newChecksum() {
+        if (PLATFORM != null) {
+            try {
+                return PLATFORM.newInstance();
+            } catch (ReflectiveOperationException ignored) {
+                //fall back below
+            }
+        }
+        return new TableCrc32c();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Constructor<? extends Checksum> platformCrc32c() {
+        try {
+            return (Constructor<? extends Checksum>) Class.forName("java.util.zip.CRC32C").getConstructor();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    private static void putInt(byte[] data, int offset, int value) {
+        data[offset] = (byte) (value >>> 24);
+        data[offset + 1] = (byte) (value >>> 16);
+        data[offset + 2] = (byte) (value >>> 8);
+        data[offset + 3] = (byte) value;
+    }
+
+    //For platforms without java.util.zip.CRC32C
+    static class TableCrc32c implements Checksum {
+        private int crc = ~0;
+
+        @Override
+        public void update(int b) {
+            crc = crc >>> 8 ^ TABLE[(crc ^ b) & 0xFF];
+        }
+
+        @Override
+        public void update(byte[] data, int offset, int length) {
+            int value = crc;
+            for (int i = offset; i < offset + length; i++) value = value >>> 8 ^ TABLE[(value ^ data[i]) & 0xFF];
+            crc = value;
+        }
+
+        @Override
+        public long getValue() {
+            return ~crc & 0xFFFFFFFFL;
+        }
+
+        @Override
+        public void reset() {
+            crc = ~0;
+        }
+    }
+}
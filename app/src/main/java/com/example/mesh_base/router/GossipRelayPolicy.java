@@ -0,0 +1,34 @@
+package com.example.mesh_base.router;
+
+import com.example.mesh_base.global_interfaces.Device;
+
+import java.util.Random;
+
+//Floods with probability p instead of always. The origin's direct neighbors always relay so a
+//message can't die on its first hop.
+public class GossipRelayPolicy extends DefaultRelayPolicy {
+    private final double probability;
+    private final Random random;
+
+    public GossipRelayPolicy(double probability) {
+        this(probability, DEFAULT_HOP_BUDGET, new Random());
+    }
+
+    public GossipRelayPolicy(double probability, int hopBudget, Random random) {
+        super(hopBudget);
+        if (probability < 0 || probability > 1) {
+            throw new IllegalArgumentException("probability must be within [0, 1]. probability=" + probability);
+        }
+        this.probability = probability;
+        this.random = random;
+    }
+
+    @Override
+    public RelayDecision decide(MeshProtocol<?> packet, Device from, Device nextHop) {
+        RelayDecision decision = super.decide(packet, from, nextHop);
+        if (decision != RelayDecision.FLOOD) return decision;
+
+        boolean firstHop = packet.sender.equals(from.uuid);
+        return firstHop || random.nextDouble() < probability ? RelayDecision.FLOOD : RelayDecision.DROP;
+    }
+}
@@ -0,0 +1,194 @@
+package com.example.mesh_base.router;
+
+import android.util.Log;
+
+import com.example.mesh_base.global_interfaces.ConnectionHandler;
+import com.example.mesh_base.global_interfaces.Device;
+
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+//Takes received frames off the radio callback threads. Frames wait in a bounded, lock-free ingress
+//split in two lanes, frames addressed to this node and frames to relay, and a single worker decodes
+//and dedups them in arrival order, local lane first. When the ingress is full the backpressure
+//policy picks what to drop. A frame reserves its slot before it is queued, so concurrent offers
+//never take the ingress past its capacity.
+public class InboundPipeline {
+    private static final String TAG = "my_inboundPipeline";
+
+    private final ConcurrentLinkedQueue<Inbound> localLane = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Inbound> relayLane = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger localDepth = new AtomicInteger();
+    private final AtomicInteger relayDepth = new AtomicInteger();
+    //slots taken, by queued frames and frames about to be queued
+    private final AtomicInteger reserved = new AtomicInteger();
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong processed = new AtomicLong();
+    private final AtomicInteger maxDepth = new AtomicInteger();
+    private final int capacity;
+    private final Backpressure backpressure;
+    private final Handler handler;
+    private final UUID selfId;
+    private volatile boolean running = false;
+    private volatile Thread worker;
+
+    InboundPipeline(int capacity, Backpressure backpressure, UUID selfId, Handler handler) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive. capacity=" + capacity);
+        }
+        this.capacity = capacity;
+        this.backpressure = backpressure;
+        this.selfId = selfId;
+        this.handler = handler;
+    }
+
+    synchronized void start() {
+        if (running) return;
+        running = true;
+        worker = new Thread(this::drain, "mesh-inbound");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    synchronized void stop() {
+        running = false;
+        if (worker != null) LockSupport.unpark(worker);
+        worker = null;
+    }
+
+    //Called from the radio callback threads, never blocks
+    void offer(ConnectionHandler connectionHandler, Device neighbor, byte[] data) {
+        boolean isLocal = MeshProtocol.isAddressedTo(data, Fragmenter.headerOffset(data), selfId);
+        if (!reserve(isLocal)) {
+            dropped.incrementAndGet();
+            return;
+        }
+        Inbound inbound = new Inbound(sequence.getAndIncrement(), connectionHandler, neighbor, data);
+
+        if (isLocal) {
+            localLane.add(inbound);
+            localDepth.incrementAndGet();
+        } else {
+            relayLane.add(inbound);
+            relayDepth.incrementAndGet();
+        }
+        maxDepth.accumulateAndGet(reserved.get(), Math::max);
+
+        Thread current = worker;
+        if (current != null) LockSupport.unpark(current);
+    }
+
+    public int getDepth() {
+        return localDepth.get() + relayDepth.get();
+    }
+
+    public int getLocalDepth() {
+        return localDepth.get();
+    }
+
+    public int getRelayDepth() {
+        return relayDepth.get();
+    }
+
+    public int getMaxDepth() {
+        return maxDepth.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public long getProcessed() {
+        return processed.get();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public Backpressure getBackpressure() {
+        return backpressure;
+    }
+
+    //Takes a free slot, or the slot of a queued frame the backpressure policy drops for this one.
+    //False if the incoming frame is the one to drop.
+    private boolean reserve(boolean incomingIsLocal) {
+        while (true) {
+            int taken = reserved.get();
+            if (taken >= capacity) return dropOne(incomingIsLocal);
+            if (reserved.compareAndSet(taken, taken + 1)) return true;
+        }
+    }
+
+    //The dropped frame's slot goes to the incoming one
+    private boolean dropOne(boolean incomingIsLocal) {
+        Inbound victim;
+        if (backpressure == Backpressure.DROP_RELAY_FIRST) {
+            victim = poll(relayLane, relayDepth);
+            //a relay frame never pushes out a frame addressed to this node
+            if (victim == null && incomingIsLocal) victim = poll(localLane, localDepth);
+        } else {
+            Inbound oldestLocal = localLane.peek();
+            Inbound oldestRelay = relayLane.peek();
+            boolean relayIsOlder = oldestLocal == null || (oldestRelay != null && oldestRelay.sequence < oldestLocal.sequence);
+            victim = relayIsOlder ? poll(relayLane, relayDepth) : poll(localLane, localDepth);
+        }
+        if (victim == null) return false;
+        dropped.incrementAndGet();
+        return true;
+    }
+
+    private Inbound poll(ConcurrentLinkedQueue<Inbound> lane, AtomicInteger depth) {
+        Inbound inbound = lane.poll();
+        if (inbound != null) depth.decrementAndGet();
+        return inbound;
+    }
+
+    private void drain() {
+        while (running) {
+            Inbound inbound = poll(localLane, localDepth);
+            if (inbound == null) inbound = poll(relayLane, relayDepth);
+            if (inbound == null) {
+                LockSupport.park(this);
+                continue;
+            }
+            reserved.decrementAndGet();
+            try {
+                handler.handle(inbound.connectionHandler, inbound.neighbor, inbound.data);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "dropping frame that failed to process: " + e.getMessage());
+            }
+            processed.incrementAndGet();
+        }
+    }
+
+    public enum Backpressure {
+        //when full, drop whichever frame has waited longest
+        DROP_OLDEST,
+        //when full, drop frames waiting to be relayed before frames addressed to this node, and a frame
+        //to relay arriving when only frames addressed to this node wait
+        DROP_RELAY_FIRST,
+    }
+
+    interface Handler {
+        void handle(ConnectionHandler connectionHandler, Device neighbor, byte[] data);
+    }
+
+    private static class Inbound {
+        final long sequence;
+        final ConnectionHandler connectionHandler;
+        final Device neighbor;
+        final byte[] data;
+
+        Inbound(long sequence, ConnectionHandler connectionHandler, Device neighbor, byte[] data) {
+            this.sequence = sequence;
+            this.connectionHandler = connectionHandler;
+            this.neighbor = neighbor;
+            this.data = data;
+        }
+    }
+}
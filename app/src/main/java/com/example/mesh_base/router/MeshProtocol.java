@@ -1,6 +1,7 @@
 package com.example.mesh_base.router;
 
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.UUID;
 import java.util.function.Function;
 
@@ -9,12 +10,25 @@ public abstract class MeshProtocol<T extends MeshSerializer<T>> implements MeshS
   public UUID sender;
   public UUID destination;
   //TODO: revert to protected when the BLETestScreen.kt doesn't need to decode bytes no more
+  //Views decode the body on first use, read it through getBody()
   public T body;
   protected int messageType;
   protected int remainingHops;
   protected int messageId;
+  //How the router schedules this node's own frames against other outbound traffic, not sent on the wire
+  TrafficClass trafficClass;
+  //Carried by compact frames only, null if untraced
+  TraceExtension trace;
+  //How many times the origin sent this frame before, relays forward every new attempt.
+  //Only compact headers carry it, a legacy frame is always read as the first attempt.
+  int attempt;
 
-  private static final int HEADER_LENGTH = 48;
+  static final int HEADER_LENGTH = 48;
+  //Type ids fit a legacy header's type field without its high byte, which stays clear so that
+  //older nodes reading the whole field still see the type
+  static final int LEGACY_TYPE_MASK = 0xFFFFFF;
+  //What a compact header's flags have room for, later attempts are sent as this one
+  static final int MAX_ATTEMPT = 0x0F;
 
   public MeshProtocol(int messageType, int remainingHops, int messageId, UUID sender, UUID destination, T body) {
     this.messageType = messageType;
@@ -27,12 +41,19 @@ public abstract class MeshProtocol<T extends MeshSerializer<T>> implements MeshS
 
   public static <T extends MeshSerializer<T>> MeshProtocol<T> decode(byte[] data,
                                                                      Function<byte[], T> bodyDecoder) {
+    if (CompactHeader.isCompact(data, 0)) {
+      //aliases decode to placeholder ids, only a router knows the nodes behind them
+      MeshProtocol<T> view = new MeshProtocolView<>(ByteBuffer.wrap(data), bodyDecoder, null);
+      MeshProtocol<T> protocol = new ConcreteMeshProtocol<>(view.messageType, view.remainingHops, view.messageId, view.sender, view.destination, view.getBody());
+      protocol.attempt = view.attempt;
+      return protocol;
+    }
     if (data.length < HEADER_LENGTH) {
       throw new IllegalArgumentException("Buffer data cannot be determined due to small length size. [SMALL_HEADER_SIZE]");
     }
 
     ByteBuffer buffer = ByteBuffer.wrap(data);
-    int messageType = buffer.getInt();
+    int messageType = buffer.getInt() & LEGACY_TYPE_MASK;
     int remainingHops = buffer.getInt();
     int messageId = buffer.getInt();
     UUID sender = new UUID(buffer.getLong(), buffer.getLong());
@@ -47,39 +68,212 @@ public abstract class MeshProtocol<T extends MeshSerializer<T>> implements MeshS
     }
 
     int bodyLength = buffer.getInt();
+    if (bodyLength < 0 || bodyLength > buffer.remaining()) {
+      throw new IllegalArgumentException("Body runs past the frame. bodyLength=" + bodyLength + " available=" + buffer.remaining());
+    }
 
     byte[] bodyBytes = new byte[bodyLength];
     buffer.get(bodyBytes);
     T body = bodyDecoder.apply(bodyBytes);
 
-    return new ConcreteMeshProtocol<>(messageType, remainingHops, messageId, sender, destination, body);
+    MeshProtocol<T> protocol = new ConcreteMeshProtocol<>(messageType, remainingHops, messageId, sender, destination, body);
+    return protocol;
+  }
+
+  //Reads the frame starting at the buffer's position in place, heap or direct, without copying it.
+  //Header fields are read right away, the body is decoded only when getBody() is first called.
+  //The buffer's content must not change while the returned protocol is in use.
+  public static <T extends MeshSerializer<T>> MeshProtocol<T> wrap(ByteBuffer frame,
+                                                                   Function<byte[], T> bodyDecoder) {
+    return new MeshProtocolView<>(frame, bodyDecoder, null);
+  }
+
+  //Same, resolving the node aliases of compact headers
+  static <T extends MeshSerializer<T>> MeshProtocol<T> wrap(ByteBuffer frame, Function<byte[], T> bodyDecoder,
+                                                            NodeAliases aliases) {
+    return new MeshProtocolView<>(frame, bodyDecoder, aliases);
   }
 
   public static ProtocolType getByteType(byte[] data) {
-    if (data.length < 4) {
+    return getByteType(data, 0);
+  }
+
+  static ProtocolType getByteType(byte[] data, int offset) {
+    return ProtocolRegistry.typeOf(getTypeId(data, offset));
+  }
+
+  //The type id of the header at offset, which a ProtocolRegistry maps to its body type
+  static int getTypeId(byte[] data, int offset) {
+    if (CompactHeader.isCompact(data, offset) && data.length > offset + CompactHeader.TYPE_OFFSET) {
+      return data[offset + CompactHeader.TYPE_OFFSET] & 0xFF;
+    }
+    if (data.length < offset + 4) {
       throw new IllegalArgumentException("Buffer data cannot be determined due to small length size.[CANNOT_DETERMINE_TYPE]");
     }
-    ByteBuffer buffer = ByteBuffer.wrap(data);
-    int messageType = buffer.getInt();
-
-    switch (messageType) {
-      case 0:
-        return ProtocolType.ACK;
-      case 1:
-        return ProtocolType.SEND_MESSAGE;
-      case 2:
-        return ProtocolType.RECEIVE_MESSAGE;
-      //add more protocol cases here
-      default:
-        return ProtocolType.UNKNOWN_MESSAGE_TYPE;
+    return readInt(data, offset) & LEGACY_TYPE_MASK;
+  }
+
+  //Header fields read and patched straight in an encoded frame, so relays never touch the body.
+  //Offsets follow encode(): type 0, hops 4, messageId 8, sender 12, destination 28, body length 44,
+  //or those of a CompactHeader when the frame starts with its marker.
+  //offset is where the header starts in data, past any link level prefix
+  static boolean isAddressedTo(byte[] data, int offset, UUID id) {
+    if (CompactHeader.isCompact(data, offset)) {
+      //read from radio callbacks before any other check, a cut short frame is just not ours
+      if (offset + CompactHeader.FLAGS_OFFSET >= data.length) return false;
+      ByteBuffer frame = ByteBuffer.wrap(data);
+      int lengthOffset = CompactHeader.lengthOffset(frame, offset);
+      int flags = data[offset + CompactHeader.FLAGS_OFFSET];
+      if (lengthOffset < 0 || (flags & CompactHeader.FLAG_DESTINATION) == 0) return false;
+      //the destination is the last id before the body length
+      if ((flags & CompactHeader.FLAG_ALIASES) != 0) {
+        return frame.getInt(offset + lengthOffset - CompactHeader.ALIAS_LENGTH) == NodeAliases.aliasOf(id);
+      }
+      int destination = offset + lengthOffset - CompactHeader.ID_LENGTH;
+      return frame.getLong(destination) == id.getMostSignificantBits() && frame.getLong(destination + 8) == id.getLeastSignificantBits();
     }
+    if (data.length < offset + HEADER_LENGTH) return false;
+    return readLong(data, offset + 28) == id.getMostSignificantBits() && readLong(data, offset + 36) == id.getLeastSignificantBits();
+  }
+
+  static boolean hasHeader(byte[] data) {
+    return hasHeader(data, 0);
+  }
+
+  static boolean hasHeader(byte[] data, int offset) {
+    return headerLength(data, offset) > 0;
   }
+
+  static boolean isCompact(byte[] data, int offset) {
+    return CompactHeader.isCompact(data, offset);
+  }
+
+  //Length of the header at offset in either format, -1 if the frame is too short to hold it
+  static int headerLength(byte[] data, int offset) {
+    if (CompactHeader.isCompact(data, offset)) return CompactHeader.headerLength(ByteBuffer.wrap(data), offset);
+    return data.length >= offset + HEADER_LENGTH ? HEADER_LENGTH : -1;
+  }
+
+  //Where the body length field starts in the header at offset, relative to it, -1 if cut short
+  static int bodyLengthOffset(byte[] data, int offset) {
+    if (CompactHeader.isCompact(data, offset)) return CompactHeader.lengthOffset(ByteBuffer.wrap(data), offset);
+    return data.length >= offset + HEADER_LENGTH ? HEADER_LENGTH - 4 : -1;
+  }
+
+  static int bodyLengthSize(boolean isCompact, int bodyLength) {
+    return isCompact ? CompactHeader.varintSize(bodyLength) : 4;
+  }
+
+  //Writes a body length field at offset, returning its size
+  static int writeBodyLength(boolean isCompact, byte[] data, int offset, int bodyLength) {
+    if (isCompact) return CompactHeader.putVarint(data, offset, bodyLength);
+    ByteBuffer.wrap(data).putInt(offset, bodyLength);
+    return 4;
+  }
+
+  static int getAttempt(byte[] data, int offset) {
+    if (CompactHeader.isCompact(data, offset)) {
+      return offset + CompactHeader.FLAGS_OFFSET < data.length ? (data[offset + CompactHeader.FLAGS_OFFSET] & 0xFF) >>> CompactHeader.ATTEMPT_SHIFT : 0;
+    }
+    return 0;
+  }
+
+  //Patches the attempt of an encoded compact frame in place, capped at MAX_ATTEMPT. Legacy frames
+  //have no room for it and are left as they are.
+  static void writeAttempt(byte[] data, int offset, int attempt) {
+    int capped = Math.max(0, Math.min(MAX_ATTEMPT, attempt));
+    if (CompactHeader.isCompact(data, offset)) {
+      int flags = data[offset + CompactHeader.FLAGS_OFFSET] & ~(MAX_ATTEMPT << CompactHeader.ATTEMPT_SHIFT);
+      data[offset + CompactHeader.FLAGS_OFFSET] = (byte) (flags | capped << CompactHeader.ATTEMPT_SHIFT);
+      return;
+    }
+  }
+
+  //Patches the hop count of an encoded frame in place
+  static void writeRemainingHops(byte[] data, int offset, int remainingHops) {
+    if (CompactHeader.isCompact(data, offset)) {
+      data[offset + CompactHeader.HOPS_OFFSET] = (byte) Math.max(0, Math.min(CompactHeader.MAX_HOPS, remainingHops));
+      return;
+    }
+    data[offset + 4] = (byte) (remainingHops >>> 24);
+    data[offset + 5] = (byte) (remainingHops >>> 16);
+    data[offset + 6] = (byte) (remainingHops >>> 8);
+    data[offset + 7] = (byte) remainingHops;
+  }
+
+  static int readInt(byte[] data, int offset) {
+    return (data[offset] & 0xFF) << 24 | (data[offset + 1] & 0xFF) << 16 | (data[offset + 2] & 0xFF) << 8 | (data[offset + 3] & 0xFF);
+  }
+
+  private static long readLong(byte[] data, int offset) {
+    return (long) readInt(data, offset) << 32 | (readInt(data, offset + 4) & 0xFFFFFFFFL);
+  }
+
   @Override
   public byte[] encode() {
-    byte[] bodyBytes = body != null ? body.encode() : new byte[0];
-    int bodyLength = bodyBytes.length;
+    ByteBuffer buffer = ByteBuffer.allocate(sizeHint(false));
+    encodeInto(buffer);
+    return toArray(buffer);
+  }
+
+  //Encodes with a CompactHeader, carrying NodeAliases in place of the ids if hasAliases
+  byte[] encodeCompact(boolean hasAliases) {
+    ByteBuffer buffer = ByteBuffer.allocate(sizeHint(true));
+    encodeCompactInto(buffer, hasAliases);
+    return toArray(buffer);
+  }
+
+  //Bytes encodeInto or encodeCompactInto write at most
+  @Override
+  public int sizeHint() {
+    return sizeHint(false);
+  }
+
+  int sizeHint(boolean isCompact) {
+    int bodyLength = bodySizeHint();
+    if (!isCompact) return HEADER_LENGTH + bodyLength;
+    //aliases only make it shorter
+    int traceLength = trace != null ? trace.length() : 0;
+    return CompactHeader.headerLength(destination != null, false, bodyLength) + bodyLength + traceLength;
+  }
+
+  //Writes what encode() returns at the buffer's position, with no intermediate copy of the body.
+  //The body length is only known once the body is written, its field is filled in after.
+  @Override
+  public void encodeInto(ByteBuffer buffer) {
+    encodeHeader(buffer, 0);
+    int bodyStart = buffer.position();
+    encodeBodyInto(buffer);
+    buffer.putInt(bodyStart - 4, buffer.position() - bodyStart);
+  }
+
+  //The varint body length takes as many bytes as the body's size hint needs, padded with
+  //continuation bits should the body turn out shorter
+  void encodeCompactInto(ByteBuffer buffer, boolean hasAliases) {
+    int bodyHint = bodySizeHint();
+    CompactHeader.encode(buffer, this, hasAliases, bodyHint);
+    int bodyStart = buffer.position();
+    int lengthSize = CompactHeader.varintSize(bodyHint);
+    encodeBodyInto(buffer);
+    CompactHeader.putVarint(buffer, bodyStart - lengthSize, buffer.position() - bodyStart, lengthSize);
+    if (trace != null) trace.writeTo(buffer);
+  }
+
+  int bodySizeHint() {
+    T body = getBody();
+    return body != null ? body.sizeHint() : 0;
+  }
+
+  void encodeBodyInto(ByteBuffer buffer) {
+    T body = getBody();
+    if (body != null) body.encodeInto(buffer);
+  }
+
+  private static byte[] toArray(ByteBuffer buffer) {
+    return buffer.position() == buffer.capacity() ? buffer.array() : Arrays.copyOf(buffer.array(), buffer.position());
+  }
 
-    ByteBuffer buffer = ByteBuffer.allocate(HEADER_LENGTH + bodyLength);
+  void encodeHeader(ByteBuffer buffer, int bodyLength) {
     buffer.putInt(messageType);
     buffer.putInt(remainingHops);
     buffer.putInt(messageId);
@@ -93,21 +287,24 @@ public abstract class MeshProtocol<T extends MeshSerializer<T>> implements MeshS
       buffer.putLong(destination.getLeastSignificantBits());
     }
     buffer.putInt(bodyLength);
-    buffer.put(bodyBytes);
-    return buffer.array();
+  }
 
+  public T getBody() {
+    return body;
   }
+
   @Override
   public boolean equals(Object o) {
     if (this == o) return true;
-    if (o == null || getClass() != o.getClass()) return false;
+    //a view and an eagerly decoded copy of the same frame are equal
+    if (!(o instanceof MeshProtocol)) return false;
     MeshProtocol<?> that = (MeshProtocol<?>) o;
 
     return messageType == that.messageType &&
         remainingHops == that.remainingHops &&
         messageId == that.messageId &&
         sender.equals(that.sender) &&
-        body.equals(that.body);
+        getBody().equals(that.getBody());
   }
 
   @Override
@@ -116,16 +313,29 @@ public abstract class MeshProtocol<T extends MeshSerializer<T>> implements MeshS
     result = 31 * result + remainingHops;
     result = 31 * result + messageId;
     result = 31 * result + sender.hashCode();
-    result = 31 * result + body.hashCode();
+    result = 31 * result + getBody().hashCode();
 
     return result;
   }
 
   public ProtocolType getByteType() {
-    byte[] data = this.encode();
-    return getByteType(data);
+    return ProtocolRegistry.typeOf(messageType);
+  }
+
+  //The type id, for types registered by the application that have no ProtocolType
+  public int getMessageType() {
+    return messageType;
   }
   public int getMessageId() {
     return this.messageId;
   }
+
+  public TrafficClass getTrafficClass() {
+    if (trafficClass != null) return trafficClass;
+    return ProtocolRegistry.builtInTrafficClassOf(messageType);
+  }
+
+  public void setTrafficClass(TrafficClass trafficClass) {
+    this.trafficClass = trafficClass;
+  }
 }
@@ -0,0 +1,131 @@
+package com.example.mesh_base.router;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.UUID;
+import java.util.function.Function;
+
+//A MeshProtocol read in place from an encoded frame. Header fields are taken with absolute reads
+//when the view is created; the body stays in the buffer until getBody() is first called, so a
+//frame that is only routed, or whose body the application never reads, costs no body copy nor decode.
+//Both the legacy and the compact header are read, and encode() writes back the one the frame had.
+class MeshProtocolView<T extends MeshSerializer<T>> extends MeshProtocol<T> {
+  private final ByteBuffer frame;
+  private final int bodyOffset;
+  private final int bodyLength;
+  private final Function<byte[], T> bodyDecoder;
+  private final boolean isCompact;
+  private final boolean hasAliases;
+  private volatile boolean isBodyDecoded = false;
+
+  //aliases resolve the ids of compact headers, null leaves them as placeholders
+  MeshProtocolView(ByteBuffer buffer, Function<byte[], T> bodyDecoder, NodeAliases aliases) {
+    super(0, 0, 0, null, null, null);
+    //only absolute reads are made, so the caller's buffer is shared unless its byte order differs
+    this.frame = buffer.order() == ByteOrder.BIG_ENDIAN ? buffer : buffer.duplicate();
+    this.bodyDecoder = bodyDecoder;
+
+    int start = buffer.position();
+    isCompact = CompactHeader.isCompact(frame, start);
+    int headerLength = isCompact ? CompactHeader.headerLength(frame, start) : HEADER_LENGTH;
+    if (headerLength < 0 || buffer.remaining() < headerLength) {
+      throw new IllegalArgumentException("Buffer data cannot be determined due to small length size. [SMALL_HEADER_SIZE]");
+    }
+
+    if (isCompact) {
+      int flags = frame.get(start + CompactHeader.FLAGS_OFFSET);
+      hasAliases = (flags & CompactHeader.FLAG_ALIASES) != 0;
+      attempt = (flags & 0xFF) >>> CompactHeader.ATTEMPT_SHIFT;
+      messageType = frame.get(start + CompactHeader.TYPE_OFFSET) & 0xFF;
+      remainingHops = frame.get(start + CompactHeader.HOPS_OFFSET) & 0xFF;
+      int position = start + CompactHeader.MESSAGE_ID_OFFSET;
+      messageId = frame.getInt(position);
+      position += CompactHeader.MESSAGE_ID_LENGTH;
+      sender = CompactHeader.getId(frame, position, hasAliases, aliases);
+      position += hasAliases ? CompactHeader.ALIAS_LENGTH : CompactHeader.ID_LENGTH;
+      if ((flags & CompactHeader.FLAG_DESTINATION) != 0) {
+        destination = CompactHeader.getId(frame, position, hasAliases, aliases);
+      }
+      bodyLength = CompactHeader.getVarint(frame, start + CompactHeader.lengthOffset(frame, start));
+    } else {
+      hasAliases = false;
+      readLegacyHeader(start);
+      bodyLength = frame.getInt(start + 44);
+    }
+    bodyOffset = start + headerLength;
+    if (bodyLength < 0 || bodyLength > buffer.remaining() - headerLength) {
+      throw new IllegalArgumentException("Body length does not fit the buffer. bodyLength=" + bodyLength);
+    }
+    //the trace runs from the end of the body to the end of the frame
+    if (isCompact && (frame.get(start + CompactHeader.FLAGS_OFFSET) & CompactHeader.FLAG_TRACE) != 0) {
+      trace = TraceExtension.read(frame, bodyOffset + bodyLength);
+    }
+  }
+
+  private void readLegacyHeader(int start) {
+    messageType = frame.getInt(start) & LEGACY_TYPE_MASK;
+    remainingHops = frame.getInt(start + 4);
+    messageId = frame.getInt(start + 8);
+    sender = new UUID(frame.getLong(start + 12), frame.getLong(start + 20));
+    long mostSignificantBits = frame.getLong(start + 28);
+    long leastSignificantBits = frame.getLong(start + 36);
+    if (mostSignificantBits != 0L || leastSignificantBits != 0L) {
+      destination = new UUID(mostSignificantBits, leastSignificantBits);
+    }
+  }
+
+  //Decoding twice from racing threads is harmless, both get an equal body
+  @Override
+  public T getBody() {
+    if (!isBodyDecoded) {
+      body = bodyDecoder.apply(copyBody());
+      isBodyDecoded = true;
+    }
+    return body;
+  }
+
+  //Written back in the header format the frame had
+  @Override
+  public byte[] encode() {
+    return isCompact ? encodeCompact(hasAliases) : super.encode();
+  }
+
+  @Override
+  public int sizeHint() {
+    return sizeHint(isCompact);
+  }
+
+  @Override
+  public void encodeInto(ByteBuffer buffer) {
+    if (isCompact) {
+      encodeCompactInto(buffer, hasAliases);
+    } else {
+      super.encodeInto(buffer);
+    }
+  }
+
+  @Override
+  int bodySizeHint() {
+    return isBodyDecoded ? super.bodySizeHint() : bodyLength;
+  }
+
+  //the body was never touched, its original bytes are copied as they are
+  @Override
+  void encodeBodyInto(ByteBuffer buffer) {
+    if (isBodyDecoded) {
+      super.encodeBodyInto(buffer);
+      return;
+    }
+    ByteBuffer source = frame.duplicate();
+    source.limit(bodyOffset + bodyLength).position(bodyOffset);
+    buffer.put(source);
+  }
+
+  private byte[] copyBody() {
+    byte[] bytes = new byte[bodyLength];
+    ByteBuffer source = frame.duplicate();
+    source.position(bodyOffset);
+    source.get(bytes);
+    return bytes;
+  }
+}
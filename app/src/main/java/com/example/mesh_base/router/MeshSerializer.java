@@ -1,5 +1,18 @@
 package com.example.mesh_base.router;
 
+import java.nio.ByteBuffer;
+
 public interface MeshSerializer<T>{
     byte[] encode();
+
+    //Bytes encodeInto writes at most, to size the buffer it writes to. Exact where it can be, a
+    //packet header holding the body length then takes no padding.
+    default int sizeHint() {
+        return encode().length;
+    }
+
+    //Writes what encode() returns at the buffer's position, advancing it
+    default void encodeInto(ByteBuffer buffer) {
+        buffer.put(encode());
+    }
 }
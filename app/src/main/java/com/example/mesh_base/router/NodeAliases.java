@@ -0,0 +1,92 @@
+package com.example.mesh_base.router;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+//Short 4 byte aliases that compact headers carry in place of full node ids. An alias is a hash of
+//the id, so anyone who has seen the id can resolve it. A node learns ids from the full headers it
+//receives and from the destinations it sends to, and only aliases a unicast to a peer once that peer
+//has addressed something to it, proof the peer holds its id. Aliases shared by two known ids are
+//never used, and those nobody resolves decode to a placeholder id that stays stable per alias.
+class NodeAliases {
+    static final int DEFAULT_MAX_NODES = 4_096;
+
+    private final LinkedHashMap<Integer, Entry> entries;
+
+    NodeAliases() {
+        this(DEFAULT_MAX_NODES);
+    }
+
+    NodeAliases(int maxNodes) {
+        //least recently used ids are forgotten first
+        this.entries = new LinkedHashMap<Integer, NodeAliases.Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, NodeAliases.Entry> eldest) {
+                return size() > maxNodes;
+            }
+        };
+    }
+
+    static int aliasOf(UUID id) {
+        if (isPlaceholder(id)) return (int) id.getLeastSignificantBits();
+        long msb = id.getMostSignificantBits();
+        long lsb = id.getLeastSignificantBits();
+        return (int) (msb ^ msb >>> 32 ^ lsb ^ lsb >>> 32);
+    }
+
+    //Random ids never have their most significant bits all zero
+    static UUID placeholder(int alias) {
+        return new UUID(0L, alias & 0xFFFFFFFFL);
+    }
+
+    static boolean isPlaceholder(UUID id) {
+        return id.getMostSignificantBits() == 0L && id.getLeastSignificantBits() != 0L;
+    }
+
+    synchronized void learn(UUID id) {
+        if (id == null || isPlaceholder(id)) return;
+        int alias = aliasOf(id);
+        Entry entry = entries.get(alias);
+        if (entry == null) {
+            entries.put(alias, new Entry(id));
+        } else if (!entry.id.equals(id)) {
+            entry.isAmbiguous = true;
+        }
+    }
+
+    //The peer addressed us, so it holds our id and resolves our alias
+    synchronized void onAddressedBy(UUID peer) {
+        learn(peer);
+        Entry entry = entries.get(aliasOf(peer));
+        if (entry != null && entry.id.equals(peer)) entry.knowsUs = true;
+    }
+
+    synchronized UUID resolve(int alias) {
+        Entry entry = entries.get(alias);
+        return entry == null || entry.isAmbiguous ? placeholder(alias) : entry.id;
+    }
+
+    //Whether a frame from sender to destination can carry aliases and still be read by the destination
+    synchronized boolean canAlias(UUID sender, UUID destination) {
+        if (sender == null || destination == null) return false;
+        Entry to = entries.get(aliasOf(destination));
+        Entry from = entries.get(aliasOf(sender));
+        return to != null && to.knowsUs && !to.isAmbiguous && to.id.equals(destination)
+                && from != null && !from.isAmbiguous && from.id.equals(sender);
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    private static class Entry {
+        final UUID id;
+        boolean isAmbiguous = false;
+        boolean knowsUs = false;
+
+        Entry(UUID id) {
+            this.id = id;
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package com.example.mesh_base.router;
+
+import com.example.mesh_base.global_interfaces.ConnectionHandler;
+import com.example.mesh_base.global_interfaces.Device;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+//Packs small frames headed to the same neighbor into one container frame, so a burst of ACKs and
+//short messages costs one transport write instead of one each. A container is marker 0xB0 (1)
+//followed by every frame as length (2) and bytes, and never exceeds the handler's frame size.
+//It goes out once the next frame would not fit, or once the linger time passes on the timer wheel.
+//A CONTROL frame sends its container right away, taking whatever was queued for the neighbor along,
+//so ACKs never wait for the linger.
+//A container holding a single frame is sent as that bare frame. Batches are built in pooled buffers,
+//only the container handed to the transport is allocated.
+class OutboundBatcher {
+    static final byte MARKER = (byte) 0xB0;
+    static final int FRAME_LENGTH_SIZE = 2;
+    static final int MAX_FRAME_LENGTH = 0xFFFF;
+
+    private final HashMap<Key, Batch> batches = new HashMap<>();
+    private final TimerWheel timer;
+    private final BufferPool buffers;
+    private final Sender sender;
+    //zero or less leaves batching off
+    private volatile long lingerMillis = 0;
+    //room the handler's frames keep for a trailer added after batching
+    private volatile int trailerLength = 0;
+
+    private final AtomicLong batchedFrames = new AtomicLong();
+    private final AtomicLong containersSent = new AtomicLong();
+
+    OutboundBatcher(TimerWheel timer, BufferPool buffers, Sender sender) {
+        this.timer = timer;
+        this.buffers = buffers;
+        this.sender = sender;
+    }
+
+    void setLingerMillis(long lingerMillis) {
+        this.lingerMillis = lingerMillis;
+        if (lingerMillis <= 0) flushAll();
+    }
+
+    void setTrailerLength(int trailerLength) {
+        this.trailerLength = trailerLength;
+    }
+
+    //Only handlers with a frame size limit are batched, a container is as large as one of their frames
+    boolean isEnabledFor(ConnectionHandler handler) {
+        return lingerMillis > 0 && handler.getMaxFrameSize() > 0;
+    }
+
+    static boolean isBatch(byte[] data) {
+        return data.length > 0 && data[0] == MARKER;
+    }
+
+    //Queues the frame for the neighbor. False if it does not fit a container, it must then be sent
+    //right away, and whatever was queued for the neighbor before it is sent first to keep the order.
+    //A container is scheduled with the most urgent traffic class among its frames.
+    boolean offer(ConnectionHandler handler, Device neighbor, byte[] frame, TrafficClass trafficClass) {
+        int capacity = handler.getMaxFrameSize(neighbor) - trailerLength;
+        Key key = new Key(handler, neighbor.uuid);
+        Batch full = null;
+        boolean isQueued = true;
+        synchronized (this) {
+            Batch batch = batches.get(key);
+            if (1 + FRAME_LENGTH_SIZE + frame.length > capacity || frame.length > MAX_FRAME_LENGTH) {
+                full = batch != null ? take(batch) : null;
+                isQueued = false;
+            } else {
+                if (batch != null && batch.length + FRAME_LENGTH_SIZE + frame.length > batch.capacity) {
+                    full = take(batch);
+                    batch = null;
+                }
+                if (batch == null) {
+                    batch = new Batch(key, handler, neighbor, capacity);
+                    batches.put(key, batch);
+                    timer.schedule(batch, lingerMillis);
+                }
+                batch.append(frame, trafficClass);
+                if (trafficClass == TrafficClass.CONTROL) full = take(batch);
+            }
+        }
+        if (full != null) send(full);
+        return isQueued;
+    }
+
+    //The neighbor is gone, what was queued for it is dropped
+    void discard(UUID neighbor) {
+        synchronized (this) {
+            Iterator<Batch> iterator = batches.values().iterator();
+            while (iterator.hasNext()) {
+                Batch batch = iterator.next();
+                if (!batch.key.neighbor.equals(neighbor)) continue;
+                iterator.remove();
+                timer.cancel(batch);
+                buffers.release(batch.pooled);
+            }
+        }
+    }
+
+    void flushAll() {
+        ArrayList<Batch> pending;
+        synchronized (this) {
+            pending = new ArrayList<>(batches.values());
+            for (Batch batch : pending) timer.cancel(batch);
+            batches.clear();
+        }
+        for (Batch batch : pending) send(batch);
+    }
+
+    //Splits a received container back into its frames, stopping at the first one that runs past its end
+    static ArrayList<byte[]> unpack(byte[] container) {
+        ArrayList<byte[]> frames = new ArrayList<>();
+        int offset = 1;
+        while (offset + FRAME_LENGTH_SIZE <= container.length) {
+            int length = (container[offset] & 0xFF) << 8 | (container[offset + 1] & 0xFF);
+            offset += FRAME_LENGTH_SIZE;
+            if (length > container.length - offset) break;
+            byte[] frame = new byte[length];
+            System.arraycopy(container, offset, frame, 0, length);
+            frames.add(frame);
+            offset += length;
+        }
+        return frames;
+    }
+
+    synchronized int size() {
+        return batches.size();
+    }
+
+    long getBatchedFrames() {
+        return batchedFrames.get();
+    }
+
+    long getContainersSent() {
+        return containersSent.get();
+    }
+
+    //called holding the lock
+    private Batch take(Batch batch) {
+        batches.remove(batch.key);
+        timer.cancel(batch);
+        return batch;
+    }
+
+    private void send(Batch batch) {
+        if (batch.frames == 1) {
+            byte[] frame = new byte[batch.length - 1 - FRAME_LENGTH_SIZE];
+            System.arraycopy(batch.buffer, 1 + FRAME_LENGTH_SIZE, frame, 0, frame.length);
+            buffers.release(batch.pooled);
+            sender.send(batch.handler, frame, batch.neighbor, batch.trafficClass);
+            return;
+        }
+        byte[] container = new byte[batch.length];
+        System.arraycopy(batch.buffer, 0, container, 0, batch.length);
+        buffers.release(batch.pooled);
+        batchedFrames.addAndGet(batch.frames);
+        containersSent.incrementAndGet();
+        sender.send(batch.handler, container, batch.neighbor, batch.trafficClass);
+    }
+
+    private void onExpire(Batch batch) {
+        synchronized (this) {
+            if (batches.get(batch.key) != batch) return;
+            batches.remove(batch.key);
+        }
+        send(batch);
+    }
+
+    interface Sender {
+        //errors are the sender's to report, a container has no single caller to throw to
+        void send(ConnectionHandler handler, byte[] data, Device neighbor, TrafficClass trafficClass);
+    }
+
+    private static class Key {
+        final ConnectionHandler handler;
+        final UUID neighbor;
+
+        Key(ConnectionHandler handler, UUID neighbor) {
+            this.handler = handler;
+            this.neighbor = neighbor;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key that = (Key) o;
+            return handler == that.handler && neighbor.equals(that.neighbor);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(handler) + neighbor.hashCode();
+        }
+    }
+
+    private class Batch extends TimerWheel.Timeout {
+        final Key key;
+        final ConnectionHandler handler;
+        final Device neighbor;
+        final ByteBuffer pooled;
+        //the pooled buffer's array, which may be longer than the container can get
+        final byte[] buffer;
+        final int capacity;
+        int length = 1;
+        int frames = 0;
+        TrafficClass trafficClass;
+
+        Batch(Key key, ConnectionHandler handler, Device neighbor, int capacity) {
+            this.key = key;
+            this.handler = handler;
+            this.neighbor = neighbor;
+            this.pooled = buffers.acquire(capacity);
+            this.buffer = pooled.array();
+            this.capacity = capacity;
+            buffer[0] = MARKER;
+        }
+
+        void append(byte[] frame, TrafficClass frameClass) {
+            if (trafficClass == null || frameClass.ordinal() < trafficClass.ordinal()) trafficClass = frameClass;
+            buffer[length] = (byte) (frame.length >>> 8);
+            buffer[length + 1] = (byte) frame.length;
+            System.arraycopy(frame, 0, buffer, length + FRAME_LENGTH_SIZE, frame.length);
+            length += FRAME_LENGTH_SIZE + frame.length;
+            frames++;
+        }
+
+        @Override
+        protected void onExpire() {
+            OutboundBatcher.this.onExpire(this);
+        }
+    }
+}
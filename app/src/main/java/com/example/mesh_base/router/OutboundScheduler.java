@@ -0,0 +1,193 @@
+package com.example.mesh_base.router;
+
+import com.example.mesh_base.global_interfaces.ConnectionHandler;
+import com.example.mesh_base.global_interfaces.Device;
+import com.example.mesh_base.global_interfaces.SendError;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+//Holds frames back from a handler whose own send queue is backed up, and releases them by traffic
+//class once it drains. While it keeps up, frames go straight through in order. Classes are served
+//by weight, so each round lets up to weight[class] frames of a class out, most urgent class first,
+//and any frame that has waited maxWaitMillis goes next whatever its class, so bulk traffic crawls
+//under load but never stops.
+class OutboundScheduler {
+    static final int DEFAULT_MAX_PENDING_SENDS = 2;
+    static final long DEFAULT_MAX_WAIT_MILLIS = 2_000L;
+    static final int[] DEFAULT_WEIGHTS = {8, 4, 2, 1};
+
+    private static final TrafficClass[] CLASSES = TrafficClass.values();
+
+    private final ConnectionHandler handler;
+    private final LongSupplier clock;
+    private final LatencyHistogram[] latencies;
+    private final ErrorListener errorListener;
+    //bytes handed to the handler, trailers included
+    private final LongAdder sentBytes;
+    private final ArrayDeque<Entry>[] queues;
+    private final int[] credits = new int[CLASSES.length];
+    private volatile Policy policy = new Policy(DEFAULT_MAX_PENDING_SENDS, DEFAULT_MAX_WAIT_MILLIS, DEFAULT_WEIGHTS);
+    private volatile boolean isSealing = false;
+    private int size = 0;
+    private boolean isDraining = false;
+
+    OutboundScheduler(ConnectionHandler handler, LongSupplier clock, LatencyHistogram[] latencies, ErrorListener errorListener) {
+        this(handler, clock, latencies, errorListener, new LongAdder());
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    OutboundScheduler(ConnectionHandler handler, LongSupplier clock, LatencyHistogram[] latencies, ErrorListener errorListener, LongAdder sentBytes) {
+        this.handler = handler;
+        this.clock = clock;
+        this.latencies = latencies;
+        this.errorListener = errorListener;
+        this.sentBytes = sentBytes;
+        this.queues = new ArrayDeque[CLASSES.length];
+        for (int i = 0; i < queues.length; i++) queues[i] = new ArrayDeque<>();
+    }
+
+    static Policy policy(int maxPendingSends, long maxWaitMillis, int[] weights) {
+        if (maxPendingSends <= 0 || maxWaitMillis <= 0 || weights.length != CLASSES.length) {
+            throw new IllegalArgumentException("invalid outbound policy");
+        }
+        for (int weight : weights) {
+            if (weight <= 0) throw new IllegalArgumentException("invalid outbound policy");
+        }
+        return new Policy(maxPendingSends, maxWaitMillis, weights.clone());
+    }
+
+    void setPolicy(Policy policy) {
+        this.policy = policy;
+    }
+
+    //Whether frames get a FrameChecksum trailer on their way to the handler
+    void setSealing(boolean isSealing) {
+        this.isSealing = isSealing;
+    }
+
+    //A null neighbor sends to every neighbor of the handler. Errors of a frame sent right away are
+    //thrown, those of a frame sent later go to the error listener.
+    void submit(byte[] data, Device neighbor, TrafficClass trafficClass) throws SendError {
+        synchronized (this) {
+            if (size > 0 || isDraining || handler.getPendingSends() >= policy.maxPendingSends) {
+                queues[trafficClass.ordinal()].add(new Entry(data, neighbor, clock.getAsLong()));
+                size++;
+                data = null;
+            }
+        }
+        if (data == null) {
+            drain();
+            return;
+        }
+        latencies[trafficClass.ordinal()].record(0);
+        send(data, neighbor);
+    }
+
+    //Sends queued frames while the handler has room, called again whenever it finishes a send.
+    //A single thread drains at a time so frames of a class keep their order.
+    void drain() {
+        synchronized (this) {
+            if (isDraining) return;
+            isDraining = true;
+        }
+        try {
+            while (true) {
+                Entry entry;
+                int trafficClass;
+                synchronized (this) {
+                    if (size == 0 || handler.getPendingSends() >= policy.maxPendingSends) {
+                        isDraining = false;
+                        return;
+                    }
+                    trafficClass = next();
+                    entry = queues[trafficClass].poll();
+                    size--;
+                }
+                latencies[trafficClass].record(clock.getAsLong() - entry.queuedAt);
+                try {
+                    send(entry.data, entry.neighbor);
+                } catch (SendError e) {
+                    errorListener.onError(e);
+                }
+            }
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                isDraining = false;
+            }
+            throw e;
+        }
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    synchronized int size(TrafficClass trafficClass) {
+        return queues[trafficClass.ordinal()].size();
+    }
+
+    //called holding the lock with at least one frame queued
+    private int next() {
+        Policy policy = this.policy;
+        long now = clock.getAsLong();
+        int starved = -1;
+        for (int i = 0; i < queues.length; i++) {
+            Entry head = queues[i].peek();
+            if (head == null || now - head.queuedAt < policy.maxWaitMillis) continue;
+            if (starved == -1 || head.queuedAt < queues[starved].peek().queuedAt) starved = i;
+        }
+        if (starved != -1) return starved;
+
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < queues.length; i++) {
+                if (!queues[i].isEmpty() && credits[i] > 0) {
+                    credits[i]--;
+                    return i;
+                }
+            }
+            //every waiting class used up its share, start a new round
+            System.arraycopy(policy.weights, 0, credits, 0, credits.length);
+        }
+        throw new IllegalStateException("no frame queued");
+    }
+
+    private void send(byte[] data, Device neighbor) throws SendError {
+        if (isSealing) data = FrameChecksum.seal(data);
+        if (neighbor != null) {
+            handler.send(data, neighbor);
+        } else {
+            handler.send(data);
+        }
+        sentBytes.add(data.length);
+    }
+
+    interface ErrorListener {
+        void onError(SendError error);
+    }
+
+    static class Policy {
+        final int maxPendingSends;
+        final long maxWaitMillis;
+        final int[] weights;
+
+        Policy(int maxPendingSends, long maxWaitMillis, int[] weights) {
+            this.maxPendingSends = maxPendingSends;
+            this.maxWaitMillis = maxWaitMillis;
+            this.weights = weights;
+        }
+    }
+
+    private static class Entry {
+        final byte[] data;
+        final Device neighbor;
+        final long queuedAt;
+
+        Entry(byte[] data, Device neighbor, long queuedAt) {
+            this.data = data;
+            this.neighbor = neighbor;
+            this.queuedAt = queuedAt;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.example.mesh_base.router;
+
+//Outstanding sends waiting for an ACK or a response. Every entry carries a deadline on the
+//router's timer wheel; when it passes the frame is retransmitted with exponential backoff until
+//maxRetransmissions is used up, then the send is reported as timed out. Senders, the receive path
+//and the wheel race on entries, whoever removes an entry first owns its outcome.
+class PendingSendTable {
+    static final long DEFAULT_ACK_TIMEOUT_MILLIS = 5_000L;
+    static final int DEFAULT_MAX_RETRANSMISSIONS = 2;
+    static final int DEFAULT_BACKOFF_MULTIPLIER = 2;
+
+    private final ConcurrentIntMap<PendingSend> pending = new ConcurrentIntMap<>();
+    private final TimerWheel timer;
+    private final Callbacks callbacks;
+    //milliseconds from put to complete
+    private final LatencyHistogram roundTrips;
+    private volatile Policy policy = new Policy(DEFAULT_ACK_TIMEOUT_MILLIS, DEFAULT_MAX_RETRANSMISSIONS, DEFAULT_BACKOFF_MULTIPLIER);
+
+    PendingSendTable(TimerWheel timer, Callbacks callbacks) {
+        this(timer, callbacks, new LatencyHistogram());
+    }
+
+    PendingSendTable(TimerWheel timer, Callbacks callbacks, LatencyHistogram roundTrips) {
+        this.timer = timer;
+        this.callbacks = callbacks;
+        this.roundTrips = roundTrips;
+    }
+
+    void setRetransmissionPolicy(long ackTimeoutMillis, int maxRetransmissions, int backoffMultiplier) {
+        if (ackTimeoutMillis <= 0 || maxRetransmissions < 0 || backoffMultiplier < 1) {
+            throw new IllegalArgumentException("invalid retransmission policy");
+        }
+        policy = new Policy(ackTimeoutMillis, maxRetransmissions, backoffMultiplier);
+    }
+
+    void put(int messageId, byte[] data, SendListener listener) {
+        PendingSend send = new PendingSend(messageId, data, listener, timer.now());
+        PendingSend previous = pending.put(messageId, send);
+        if (previous != null) retire(previous);
+        timer.schedule(send, policy.ackTimeoutMillis);
+    }
+
+    //Registers a send whose frames go out as a windowed transfer, which retransmits on its own. The
+    //wait for the ACK or response starts once the transfer completes and the entry is armed.
+    void putUnarmed(int messageId, SendListener listener) {
+        PendingSend send = new PendingSend(messageId, null, listener, timer.now());
+        PendingSend previous = pending.put(messageId, send);
+        if (previous != null) retire(previous);
+    }
+
+    void arm(int messageId) {
+        PendingSend send = pending.get(messageId);
+        if (send == null) return;
+        timer.schedule(send, policy.ackTimeoutMillis);
+        //removed while being armed
+        if (send.retired) timer.cancel(send);
+    }
+
+    SendListener get(int messageId) {
+        PendingSend send = pending.get(messageId);
+        return send != null ? send.listener : null;
+    }
+
+    SendListener remove(int messageId) {
+        PendingSend send = pending.remove(messageId);
+        if (send == null) return null;
+        retire(send);
+        return send.listener;
+    }
+
+    //Removes a send that was answered, timing it from its first transmission
+    SendListener complete(int messageId) {
+        PendingSend send = pending.remove(messageId);
+        if (send == null) return null;
+        retire(send);
+        roundTrips.record(timer.now() - send.sentAt);
+        return send.listener;
+    }
+
+    int size() {
+        return pending.size();
+    }
+
+    private void retire(PendingSend send) {
+        send.retired = true;
+        timer.cancel(send);
+    }
+
+    private void onExpire(PendingSend send) {
+        //acknowledged or replaced while the wheel was firing
+        if (send.retired) return;
+
+        Policy policy = this.policy;
+        //sends without data were already delivered whole by a windowed transfer
+        if (send.data != null && send.retransmissions < policy.maxRetransmissions) {
+            send.retransmissions++;
+            long delay = policy.ackTimeoutMillis;
+            for (int i = 0; i < send.retransmissions; i++) delay *= policy.backoffMultiplier;
+            timer.schedule(send, delay);
+            //an ACK that removed the entry before the reschedule could not cancel it
+            if (send.retired) {
+                timer.cancel(send);
+                return;
+            }
+            callbacks.onRetransmit(send.messageId, send.data, send.retransmissions);
+        } else if (pending.remove(send.messageId, send)) {
+            send.retired = true;
+            callbacks.onTimeout(send.messageId, send.listener, send.retransmissions);
+        }
+    }
+
+    interface Callbacks {
+        void onRetransmit(int messageId, byte[] data, int attempt);
+
+        void onTimeout(int messageId, SendListener listener, int retransmissions);
+    }
+
+    private static class Policy {
+        final long ackTimeoutMillis;
+        final int maxRetransmissions;
+        final int backoffMultiplier;
+
+        Policy(long ackTimeoutMillis, int maxRetransmissions, int backoffMultiplier) {
+            this.ackTimeoutMillis = ackTimeoutMillis;
+            this.maxRetransmissions = maxRetransmissions;
+            this.backoffMultiplier = backoffMultiplier;
+        }
+    }
+
+    private class PendingSend extends TimerWheel.Timeout {
+        final int messageId;
+        final byte[] data;
+        final SendListener listener;
+        final long sentAt;
+        //only touched from the wheel thread
+        int retransmissions = 0;
+        volatile boolean retired = false;
+
+        PendingSend(int messageId, byte[] data, SendListener listener, long sentAt) {
+            this.messageId = messageId;
+            this.data = data;
+            this.listener = listener;
+            this.sentAt = sentAt;
+        }
+
+        @Override
+        protected void onExpire() {
+            PendingSendTable.this.onExpire(this);
+        }
+    }
+}
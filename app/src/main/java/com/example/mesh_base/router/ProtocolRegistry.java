@@ -0,0 +1,132 @@
+package com.example.mesh_base.router;
+
+import java.nio.ByteBuffer;
+import java.util.function.Function;
+
+//What the router knows about each message type: how to decode its body, whether the destination
+//answers it with a response instead of an ACK, and the traffic class it is sent with. Types are
+//looked up by id in a plain array, one slot per id the compact header's type byte can hold, so
+//dispatching a packet costs an index and no boxing. Applications register their own body types
+//next to the built-in ones before handing the registry to the router. The ids of the built-in
+//types are reserved, the router handles them itself.
+public class ProtocolRegistry {
+    public static final int ACK = 0;
+    public static final int SEND_MESSAGE = 1;
+    public static final int RECEIVE_MESSAGE = 2;
+    public static final int SELECTIVE_ACK = 3;
+    public static final int MAX_TYPE_ID = 0xFF;
+
+    //indexed by type id
+    private static final ProtocolType[] BUILT_IN_TYPES = {
+            ProtocolType.ACK,
+            ProtocolType.SEND_MESSAGE,
+            ProtocolType.RECEIVE_MESSAGE,
+            ProtocolType.SELECTIVE_ACK,
+    };
+    private static final ProtocolRegistry BUILT_IN = withBuiltInTypes();
+
+    //replaced whole on every registration, so readers never lock
+    private volatile Codec<?>[] codecs = new Codec<?>[MAX_TYPE_ID + 1];
+
+    public static ProtocolRegistry withBuiltInTypes() {
+        return new ProtocolRegistry()
+                .put(ACK, AckMessageBody::decode, false, TrafficClass.CONTROL)
+                .put(SEND_MESSAGE, SendMessageBody::decode, false, TrafficClass.LOCAL)
+                .put(RECEIVE_MESSAGE, SendMessageBody::decode, false, TrafficClass.LOCAL)
+                .put(SELECTIVE_ACK, SelectiveAckBody::decode, false, TrafficClass.CONTROL);
+    }
+
+    //Throws for the ids of built-in types and ids registered before
+    public synchronized <T extends MeshSerializer<T>> ProtocolRegistry register(int typeId, Function<byte[], T> bodyDecoder,
+                                                                                boolean expectsResponse, TrafficClass trafficClass) {
+        if (typeId < 0 || typeId > MAX_TYPE_ID) {
+            throw new IllegalArgumentException("type id out of range. typeId=" + typeId);
+        }
+        if (typeId < BUILT_IN_TYPES.length) {
+            throw new IllegalArgumentException("type id reserved for " + BUILT_IN_TYPES[typeId] + ". typeId=" + typeId);
+        }
+        if (codecs[typeId] != null) {
+            throw new IllegalArgumentException("type id already registered. typeId=" + typeId);
+        }
+        return put(typeId, bodyDecoder, expectsResponse, trafficClass);
+    }
+
+    private synchronized <T extends MeshSerializer<T>> ProtocolRegistry put(int typeId, Function<byte[], T> bodyDecoder,
+                                                                            boolean expectsResponse, TrafficClass trafficClass) {
+        Codec<?>[] copy = codecs.clone();
+        copy[typeId] = new Codec<>(bodyDecoder, expectsResponse, trafficClass);
+        codecs = copy;
+        return this;
+    }
+
+    public synchronized ProtocolRegistry setExpectsResponse(int typeId, boolean expectsResponse) {
+        Codec<?> codec = codec(typeId);
+        if (codec == null) {
+            throw new IllegalArgumentException("type id not registered. typeId=" + typeId);
+        }
+        Codec<?>[] copy = codecs.clone();
+        copy[typeId] = codec.withExpectsResponse(expectsResponse);
+        codecs = copy;
+        return this;
+    }
+
+    public boolean isRegistered(int typeId) {
+        return codec(typeId) != null;
+    }
+
+    public boolean expectsResponse(int typeId) {
+        Codec<?> codec = codec(typeId);
+        return codec != null && codec.expectsResponse;
+    }
+
+    public TrafficClass trafficClassOf(int typeId) {
+        Codec<?> codec = codec(typeId);
+        return codec != null ? codec.trafficClass : TrafficClass.LOCAL;
+    }
+
+    //A view over the frame at the buffer's position with its type's body decoder, null if unregistered
+    MeshProtocol<?> wrap(int typeId, ByteBuffer frame, NodeAliases aliases) {
+        Codec<?> codec = codec(typeId);
+        return codec != null ? codec.wrap(frame, aliases) : null;
+    }
+
+    static ProtocolType typeOf(int typeId) {
+        return typeId >= 0 && typeId < BUILT_IN_TYPES.length ? BUILT_IN_TYPES[typeId] : ProtocolType.UNKNOWN_MESSAGE_TYPE;
+    }
+
+    //-1 for types without an id
+    static int idOf(ProtocolType type) {
+        for (int i = 0; i < BUILT_IN_TYPES.length; i++) {
+            if (BUILT_IN_TYPES[i] == type) return i;
+        }
+        return -1;
+    }
+
+    static TrafficClass builtInTrafficClassOf(int typeId) {
+        return BUILT_IN.trafficClassOf(typeId);
+    }
+
+    private Codec<?> codec(int typeId) {
+        return typeId >= 0 && typeId <= MAX_TYPE_ID ? codecs[typeId] : null;
+    }
+
+    private static class Codec<T extends MeshSerializer<T>> {
+        final Function<byte[], T> bodyDecoder;
+        final boolean expectsResponse;
+        final TrafficClass trafficClass;
+
+        Codec(Function<byte[], T> bodyDecoder, boolean expectsResponse, TrafficClass trafficClass) {
+            this.bodyDecoder = bodyDecoder;
+            this.expectsResponse = expectsResponse;
+            this.trafficClass = trafficClass;
+        }
+
+        Codec<T> withExpectsResponse(boolean expectsResponse) {
+            return new Codec<>(bodyDecoder, expectsResponse, trafficClass);
+        }
+
+        MeshProtocol<T> wrap(ByteBuffer frame, NodeAliases aliases) {
+            return MeshProtocol.wrap(frame, bodyDecoder, aliases);
+        }
+    }
+}
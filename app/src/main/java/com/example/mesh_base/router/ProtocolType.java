@@ -4,6 +4,7 @@ public enum ProtocolType {
     SEND_MESSAGE,
     RECEIVE_MESSAGE,
     ACK,
+    SELECTIVE_ACK,
     UNKNOWN_MESSAGE_TYPE,
     // add more type here
 
@@ -0,0 +1,228 @@
+package com.example.mesh_base.router;
+
+import com.example.mesh_base.global_interfaces.Device;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+//Fragments seen per packet. Relays only keep which indexes went through, at which attempt, and the
+//relay decision taken for the packet, so every later fragment is forwarded the same way the moment
+//it arrives, and so is a fragment the sender retransmitted.
+//The destination also buffers the fragments until the packet is whole. Buffered bytes and the
+//number of packets tracked are bounded, oldest packets are evicted first, and a packet that is
+//not whole once its timeout passes on the timer wheel is dropped.
+class ReassemblyTable {
+    static final int DEFAULT_MAX_PACKETS = 128;
+    static final int DEFAULT_MAX_BUFFERED_BYTES = 256 * 1024;
+    static final long DEFAULT_TIMEOUT_MILLIS = 30_000L;
+
+    //insertion ordered, oldest packet first
+    private final LinkedHashMap<Long, Stream> streams = new LinkedHashMap<>();
+    private final TimerWheel timer;
+    private int maxPackets = DEFAULT_MAX_PACKETS;
+    private int maxBufferedBytes = DEFAULT_MAX_BUFFERED_BYTES;
+    private long timeoutMillis = DEFAULT_TIMEOUT_MILLIS;
+    private int bufferedBytes = 0;
+
+    private final AtomicLong reassembled = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+    private final AtomicLong droppedFragments = new AtomicLong();
+
+    ReassemblyTable(TimerWheel timer) {
+        this.timer = timer;
+    }
+
+    synchronized void setLimits(int maxPackets, int maxBufferedBytes, long timeoutMillis) {
+        if (maxPackets <= 0 || maxBufferedBytes <= 0 || timeoutMillis <= 0) {
+            throw new IllegalArgumentException("invalid reassembly limits");
+        }
+        this.maxPackets = maxPackets;
+        this.maxBufferedBytes = maxBufferedBytes;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    //Returns the packet the fragment belongs to, or null if the fragment was seen before at this or a
+    //later attempt, or is invalid
+    synchronized Stream accept(int messageId, UUID origin, int index, int count, int attempt) {
+        long key = key(messageId, origin);
+        Stream stream = streams.get(key);
+        if (stream != null && (stream.messageId != messageId || !stream.origin.equals(origin))) {
+            //a different packet hashed to the same key, the newer one wins
+            remove(stream);
+            stream = null;
+        }
+        if (stream == null) {
+            if (count <= 0) {
+                droppedFragments.incrementAndGet();
+                return null;
+            }
+            while (streams.size() >= maxPackets) {
+                remove(streams.values().iterator().next());
+                evicted.incrementAndGet();
+            }
+            stream = new Stream(key, messageId, origin, count);
+            streams.put(key, stream);
+            timer.schedule(stream, timeoutMillis);
+        }
+
+        if (count != stream.count || index < 0 || index >= count) {
+            droppedFragments.incrementAndGet();
+            return null;
+        }
+        if (!stream.markSeen(index, attempt)) return null;
+        return stream;
+    }
+
+    //Buffers a fragment of a packet addressed to this node. Returns the whole packet once its last
+    //fragment is in, null until then.
+    synchronized byte[] reassemble(Stream stream, int index, byte[] fragment) {
+        if (streams.get(stream.key) != stream || stream.isDone) return null;
+        //a retransmission of a fragment already buffered
+        if (stream.parts != null && stream.parts[index] != null) return null;
+
+        //make room by evicting the oldest incomplete packets, never the one being filled
+        Iterator<Stream> oldest = streams.values().iterator();
+        while (bufferedBytes + fragment.length > maxBufferedBytes && oldest.hasNext()) {
+            Stream candidate = oldest.next();
+            if (candidate == stream || candidate.bufferedBytes == 0) continue;
+            release(candidate);
+            candidate.isDone = true;
+            evicted.incrementAndGet();
+        }
+        if (bufferedBytes + fragment.length > maxBufferedBytes) {
+            //this packet alone does not fit, give up on it but keep ignoring its fragments
+            release(stream);
+            stream.isDone = true;
+            droppedFragments.incrementAndGet();
+            return null;
+        }
+
+        if (stream.parts == null) stream.parts = new byte[stream.count][];
+        //counted as it is stored, so a thread holding the last fragment never joins before an
+        //earlier one handled on another thread is in
+        stream.parts[index] = fragment;
+        stream.stored++;
+        stream.bufferedBytes += fragment.length;
+        stream.bodyLength += Fragmenter.bodyLength(fragment);
+        bufferedBytes += fragment.length;
+        if (stream.stored < stream.count) return null;
+
+        byte[] packet = Fragmenter.join(stream.parts, stream.bodyLength);
+        release(stream);
+        stream.isDone = true;
+        stream.isWhole = true;
+        reassembled.incrementAndGet();
+        return packet;
+    }
+
+    //The indexes received so far as a bitmap, when a selective ACK is due: every `every` new fragments,
+    //or right away when forced. Null if not due, or if the packet was given up and cannot complete.
+    synchronized byte[] selectiveAck(Stream stream, int every, boolean force) {
+        if (stream.isDone && !stream.isWhole) return null;
+        if (!force && stream.unacknowledged < every) return null;
+        stream.unacknowledged = 0;
+        byte[] bitmap = new byte[(stream.count + 7) >>> 3];
+        for (int i = 0; i < stream.count; i++) {
+            if (stream.attempts[i] != 0) bitmap[i >>> 3] |= (byte) (1 << (i & 7));
+        }
+        return bitmap;
+    }
+
+    synchronized int size() {
+        return streams.size();
+    }
+
+    synchronized int getBufferedBytes() {
+        return bufferedBytes;
+    }
+
+    long getReassembled() {
+        return reassembled.get();
+    }
+
+    long getExpired() {
+        return expired.get();
+    }
+
+    long getEvicted() {
+        return evicted.get();
+    }
+
+    long getDroppedFragments() {
+        return droppedFragments.get();
+    }
+
+    private void remove(Stream stream) {
+        streams.remove(stream.key);
+        timer.cancel(stream);
+        release(stream);
+    }
+
+    private void release(Stream stream) {
+        bufferedBytes -= stream.bufferedBytes;
+        stream.bufferedBytes = 0;
+        stream.parts = null;
+    }
+
+    private void onExpire(Stream stream) {
+        synchronized (this) {
+            if (streams.get(stream.key) != stream) return;
+            if (stream.bufferedBytes > 0) expired.incrementAndGet();
+            streams.remove(stream.key);
+            release(stream);
+        }
+    }
+
+    //same folding as DelayedRelays, entries are compared exactly
+    private static long key(int messageId, UUID origin) {
+        return ((long) messageId << 32) | (origin.hashCode() & 0xFFFFFFFFL);
+    }
+
+    class Stream extends TimerWheel.Timeout {
+        final long key;
+        final int messageId;
+        final UUID origin;
+        final int count;
+        //per index, the latest attempt seen plus one, zero for never seen
+        private final byte[] attempts;
+        //fragments buffered for reassembly
+        private int stored = 0;
+        //new indexes since the last selective ACK
+        private int unacknowledged = 0;
+        private byte[][] parts;
+        private int bufferedBytes = 0;
+        private int bodyLength = 0;
+        //whole, evicted or given up, later fragments are only deduplicated
+        private boolean isDone = false;
+        private boolean isWhole = false;
+
+        //how this node relays the packet, decided on its first fragment
+        RelayDecision relayDecision;
+        RoutingTable.Route route;
+        Device from;
+
+        Stream(long key, int messageId, UUID origin, int count) {
+            this.key = key;
+            this.messageId = messageId;
+            this.origin = origin;
+            this.count = count;
+            this.attempts = new byte[count];
+        }
+
+        private boolean markSeen(int index, int attempt) {
+            int seen = attempts[index] & 0xFF;
+            if (seen > attempt) return false;
+            if (seen == 0) unacknowledged++;
+            attempts[index] = (byte) (attempt + 1);
+            return true;
+        }
+
+        @Override
+        protected void onExpire() {
+            ReassemblyTable.this.onExpire(this);
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package com.example.mesh_base.router;
+
+public enum RelayDecision {
+    DROP,
+    //write to the neighbors RelayPolicy.shouldSendTo picks
+    FLOOD,
+    //write only to the learned next hop towards the destination
+    NEXT_HOP,
+}
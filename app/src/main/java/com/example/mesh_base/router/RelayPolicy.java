@@ -0,0 +1,30 @@
+package com.example.mesh_base.router;
+
+import com.example.mesh_base.global_interfaces.Device;
+
+//Decides how this node relays other nodes' traffic. The router consults it for every packet that is
+//not addressed to it and still has hops left, so implementations should stay cheap and not block.
+public interface RelayPolicy {
+
+    //Hops stamped on packets this node originates, including ACKs
+    int hopBudget(MeshProtocol<?> protocol);
+
+    //nextHop is the learned neighbor towards the packet's destination, or null when there is none
+    RelayDecision decide(MeshProtocol<?> packet, Device from, Device nextHop);
+
+    //Filters the neighbors of a FLOOD decision. The neighbor the packet came from and its origin are
+    //always skipped by the router
+    default boolean shouldSendTo(MeshProtocol<?> packet, Device from, Device neighbor) {
+        return true;
+    }
+
+    //A positive delay holds a FLOOD relay back; copies heard meanwhile go through cancelOnDuplicate
+    default long relayDelayMillis(MeshProtocol<?> packet) {
+        return 0;
+    }
+
+    //Called for every other neighbor a held packet is heard from, true cancels the relay
+    default boolean cancelOnDuplicate(MeshProtocol<?> packet, Device from, int duplicates) {
+        return false;
+    }
+}
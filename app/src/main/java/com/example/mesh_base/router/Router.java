@@ -8,21 +8,37 @@ import com.example.mesh_base.global_interfaces.ConnectionHandlersEnum;
 import com.example.mesh_base.global_interfaces.Device;
 import com.example.mesh_base.global_interfaces.InternalRouterError;
 import com.example.mesh_base.global_interfaces.SendError;
+import com.example.mesh_base.global_interfaces.SendTimeoutError;
 
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 public class Router {
+    static final long TIMER_TICK_MILLIS = 100L;
+    static final int TIMER_WHEEL_SIZE = 512;
+    //the destination of a windowed transfer reports progress every this many new fragments
+    static final int SELECTIVE_ACK_EVERY = 2;
     String TAG = "my_router";
     UUID id;
     HashMap<ConnectionHandlersEnum, ConnectionHandler> connectionHandlers;
-    //TODO: get this data from protocol registry in the future
-    HashSet<ProtocolType> typesExpectingResponses;
-    HashSet<String> routedSet = new HashSet<>();
-    RouterListener routerListener = new RouterListener() {
+    ProtocolRegistry registry;
+    volatile SeenMessageCache routedCache = new SeenMessageCache(SeenMessageCache.DEFAULT_CAPACITY, SeenMessageCache.DEFAULT_TTL_MILLIS);
+    volatile RouterListener routerListener = new RouterListener() {
         @Override
         public void onData(MeshProtocol<?> protocol, Device neighbor) {
             Log.d(TAG, "Received data from " + neighbor.name);
@@ -33,51 +49,270 @@ public class Router {
             Log.d(TAG, "Router error" + exception.getMessage());
         }
     };
-    HashMap<Integer, SendListener> listeners = new HashMap<>();
+    TimerWheel timer;
+    //Whether the router started the wheel itself, and so stops it on close
+    private boolean ownsTimer;
+    PendingSendTable pendingSends;
+    RoutingTable routingTable;
+    //relay transmissions skipped because the neighbor already had the packet
+    AtomicLong suppressedTransmissions = new AtomicLong();
+    volatile RelayPolicy relayPolicy = new DefaultRelayPolicy();
+    DelayedRelays delayedRelays;
+    ReassemblyTable reassembly;
+    TransferTable transfers;
+    OutboundBatcher batcher;
+    NodeAliases aliases = new NodeAliases();
+    //encoding and batching scratch space, shared by every sending thread
+    BufferPool buffers = new BufferPool();
+    //Frames this node originates get a CompactHeader, frames of either format are always read
+    volatile boolean isCompactHeaders = false;
+    //Frames this node originates carry a TraceExtension, compact headers only
+    volatile boolean isTracing = false;
+    TraceEchoes traceEchoes = new TraceEchoes();
+    DeliveredMessages delivered = new DeliveredMessages();
+    //Every transport frame carries a FrameChecksum trailer, sent and expected
+    volatile boolean hasFrameChecksums = false;
+    //one per handler, fixed at construction
+    IdentityHashMap<ConnectionHandler, OutboundScheduler> schedulers = new IdentityHashMap<>();
+    //time frames spent held back by the schedulers, per traffic class
+    LatencyHistogram[] queueLatencies = new LatencyHistogram[TrafficClass.values().length];
+    volatile TransferListener transferListener = new TransferListener() {
+        @Override
+        public void onTransferComplete(TransferStats stats) {
+            Log.d(TAG, "transfer complete " + stats);
+        }
 
+        @Override
+        public void onTransferFailed(TransferStats stats) {
+            Log.d(TAG, "transfer failed " + stats);
+        }
+    };
+    //Without an inbound pipeline everything runs on the thread the frame was received on
+    volatile InboundPipeline inboundPipeline;
+    Executor relayExecutor = Runnable::run;
+    Executor deliveryExecutor = Runnable::run;
+    RouterMetrics metrics = new RouterMetrics();
+
+    public Router(HashMap<ConnectionHandlersEnum, ConnectionHandler> connectionHandlers, UUID id, ProtocolRegistry registry) {
+        this(connectionHandlers, id, registry, new TimerWheel(TIMER_TICK_MILLIS, TIMER_WHEEL_SIZE));
+        timer.start();
+        ownsTimer = true;
+    }
+
+    //The built-in types, those in typesExpectingResponses answered with a response instead of an ACK
     public Router(HashMap<ConnectionHandlersEnum, ConnectionHandler> connectionHandlers, UUID id, HashSet<ProtocolType> typesExpectingResponses) {
-        this.typesExpectingResponses = typesExpectingResponses;
+        this(connectionHandlers, id, registryOf(typesExpectingResponses));
+    }
+
+    Router(HashMap<ConnectionHandlersEnum, ConnectionHandler> connectionHandlers, UUID id, HashSet<ProtocolType> typesExpectingResponses, TimerWheel timer) {
+        this(connectionHandlers, id, registryOf(typesExpectingResponses), timer);
+    }
+
+    //The wheel is not started here so that tests can drive time themselves
+    Router(HashMap<ConnectionHandlersEnum, ConnectionHandler> connectionHandlers, UUID id, ProtocolRegistry registry, TimerWheel timer) {
+        this.registry = registry;
         this.connectionHandlers = connectionHandlers;
         this.id = id;
+        this.timer = timer;
+        this.routingTable = new RoutingTable(timer::now);
+        this.delayedRelays = new DelayedRelays(timer, this::floodDataExcept);
+        this.reassembly = new ReassemblyTable(timer);
+        aliases.learn(id);
+        for (int i = 0; i < queueLatencies.length; i++) queueLatencies[i] = new LatencyHistogram();
+        for (Map.Entry<ConnectionHandlersEnum, ConnectionHandler> entry : connectionHandlers.entrySet()) {
+            schedulers.put(entry.getValue(), new OutboundScheduler(entry.getValue(), timer::now, queueLatencies,
+                    error -> Log.e(TAG, "Error sending queued frame: " + error.getMessage()), metrics.bytesOut(entry.getKey())));
+        }
+        this.batcher = new OutboundBatcher(timer, buffers, (handler, data, neighbor, trafficClass) -> {
+            try {
+                schedulers.get(handler).submit(data, neighbor, trafficClass);
+            } catch (SendError e) {
+                Log.e(TAG, "Error sending batched frames to " + neighbor.uuid + ": " + e.getMessage());
+            }
+        });
+        this.transfers = new TransferTable(timer, new TransferTable.Callbacks() {
+            @Override
+            public void send(byte[] fragment, UUID destination) {
+                try {
+                    routeData(fragment, destination, TrafficClass.BULK);
+                } catch (SendError e) {
+                    //the transfer's retransmission timeout takes care of it
+                    Log.e(TAG, "Error sending fragment: " + e.getMessage());
+                }
+            }
 
-        for (ConnectionHandler handler : connectionHandlers.values()) {
+            @Override
+            public void onComplete(TransferStats stats) {
+                //the whole message is in, now wait for its ACK or response
+                pendingSends.arm(stats.getMessageId());
+                transferListener.onTransferComplete(stats);
+            }
+
+            @Override
+            public void onFailed(TransferStats stats) {
+                metrics.count(RouterMetrics.Event.TIMED_OUT);
+                handleOnError(new SendTimeoutError("Transfer stalled after " + stats.getTimeouts() + " timeouts. messageId=" + stats.getMessageId()), stats.getMessageId());
+                transferListener.onTransferFailed(stats);
+            }
+        });
+        this.pendingSends = new PendingSendTable(timer, new PendingSendTable.Callbacks() {
+            @Override
+            public void onRetransmit(int messageId, byte[] data, int attempt) {
+                Log.d(TAG, "no ack yet, retransmitting messageId=" + messageId + " attempt=" + attempt);
+                //marked as a new attempt so relays that forwarded the earlier ones forward it too
+                byte[] retransmission = data.clone();
+                MeshProtocol.writeAttempt(retransmission, 0, attempt);
+                try {
+                    floodData(retransmission, TrafficClass.LOCAL);
+                } catch (SendError e) {
+                    Log.e(TAG, "Error retransmitting data: " + e.getMessage());
+                }
+            }
+
+            @Override
+            public void onTimeout(int messageId, SendListener listener, int retransmissions) {
+                Log.d(TAG, "gave up waiting for ack. messageId=" + messageId);
+                metrics.count(RouterMetrics.Event.TIMED_OUT);
+                try {
+                    listener.onError(new SendTimeoutError("No ack after " + retransmissions + " retransmissions. messageId=" + messageId));
+                } catch (Exception e) {
+                    routerListener.onError(e);
+                }
+            }
+        }, metrics.ackRoundTrip());
+
+        for (Map.Entry<ConnectionHandlersEnum, ConnectionHandler> entry : connectionHandlers.entrySet()) {
+            ConnectionHandlersEnum type = entry.getKey();
+            ConnectionHandler handler = entry.getValue();
             handler.subscribe(
                     new ConnectionHandlerListener() {
                         @Override
                         public void onDataReceived(Device device, byte[] data) {
-                            handleOnData(device, data);
+                            metrics.received(type, data.length);
+                            //checked before anything in the frame is read
+                            if (hasFrameChecksums) {
+                                if (!FrameChecksum.isIntact(data)) {
+                                    metrics.count(RouterMetrics.Event.RECEIVED);
+                                    metrics.drop(RouterMetrics.DropReason.MALFORMED);
+                                    Log.e(TAG, "Frame checksum mismatch, dropping " + data.length + " bytes from " + device.uuid);
+                                    return;
+                                }
+                                data = FrameChecksum.open(data);
+                            }
+                            if (!OutboundBatcher.isBatch(data)) {
+                                receive(handler, device, data);
+                                return;
+                            }
+                            for (byte[] frame : OutboundBatcher.unpack(data)) {
+                                receive(handler, device, frame);
+                            }
+                        }
+
+                        @Override
+                        public void onNeighborDisconnected(Device device) {
+                            routingTable.forgetNextHop(device.uuid);
+                            batcher.discard(device.uuid);
+                        }
+
+                        @Override
+                        public void onSendCompleted() {
+                            schedulers.get(handler).drain();
                         }
                     }
             );
         }
     }
 
+    private void receive(ConnectionHandler handler, Device device, byte[] data) {
+        InboundPipeline pipeline = inboundPipeline;
+        if (pipeline != null) {
+            pipeline.offer(handler, device, data);
+        } else {
+            handleOnData(handler, device, data);
+        }
+    }
+
     public void sendData(MeshProtocol<?> protocol, SendListener listener, boolean keepMessageId) {
         //override since router should be concerned about the remaining hops and keeping track of message Ids
         if (!keepMessageId) {
             protocol.messageId = ThreadLocalRandom.current().nextInt();
         }
-        protocol.remainingHops = 4;
+        protocol.remainingHops = relayPolicy.hopBudget(protocol);
+        metrics.count(RouterMetrics.Event.SENT);
         setRouted(protocol.messageId, protocol.sender);
-        listeners.put(protocol.messageId, listener);
+        aliases.learn(protocol.destination);
+        if (isTracing && isCompactHeaders && protocol.trace == null) {
+            //a response takes the trace of the message it answers back to its origin
+            TraceExtension echoed = keepMessageId ? traceEchoes.take(protocol.messageId, protocol.destination) : null;
+            protocol.trace = echoed != null ? echoed : TraceExtension.start(timer.now());
+        }
+        byte[] data = encode(protocol);
+        int frameSize = transferFrameSize();
+        if (protocol.destination != null && Fragmenter.needsSplitting(data, frameSize)) {
+            sendWindowed(protocol, data, frameSize, listener);
+            return;
+        }
+        pendingSends.put(protocol.messageId, data, listener);
+        //a response, kept to answer retransmissions of the message it answers
+        if (keepMessageId && protocol.destination != null) {
+            delivered.answered(protocol.messageId, protocol.destination, data, trafficClassOf(protocol));
+        }
         try {
-            floodData(protocol.encode());
+            routeData(data, protocol.destination, trafficClassOf(protocol));
         } catch (SendError e) {
             handleOnError(e, protocol.messageId);
         }
     }
 
+    //A unicast message too large for a frame goes out as a window of fragments, acknowledged selectively
+    private void sendWindowed(MeshProtocol<?> protocol, byte[] data, int frameSize, SendListener listener) {
+        pendingSends.putUnarmed(protocol.messageId, listener);
+        try {
+            transfers.start(protocol.messageId, protocol.destination, Fragmenter.split(data, frameSize, true), data.length);
+        } catch (SendError e) {
+            handleOnError(e, protocol.messageId);
+        }
+    }
+
+    //The smallest frame among the handlers that are on, so fragments fit whichever way they are routed.
+    //Zero when none of them limits the frame size.
+    private int transferFrameSize() {
+        int frameSize = 0;
+        for (ConnectionHandler handler : connectionHandlers.values()) {
+            int maxFrameSize = frameSizeOf(handler);
+            if (handler.isOn() && maxFrameSize > 0 && (frameSize == 0 || maxFrameSize < frameSize)) {
+                frameSize = maxFrameSize;
+            }
+        }
+        return frameSize;
+    }
+
     public void sendData(MeshProtocol<?> protocol, SendListener listener) {
         sendData(protocol, listener, false);
     }
 
+    //Unicast through the learned next hop towards destination, flooding when there is none or it fails
+    private void routeData(byte[] data, UUID destination, TrafficClass trafficClass) throws SendError {
+        RoutingTable.Route route = destination != null ? routingTable.lookup(destination) : null;
+        if (route != null && route.handler.isOn()) {
+            try {
+                transmit(route.handler, data, route.nextHop, trafficClass);
+                return;
+            } catch (SendError e) {
+                Log.e(TAG, "Error sending through next hop " + route.nextHop.uuid + ", flooding instead");
+                routingTable.forget(destination);
+            }
+        }
+        floodData(data, trafficClass);
+    }
+
     //keep private until it's need is justified
-    private void floodData(byte[] data) throws SendError {
+    private void floodData(byte[] data, TrafficClass trafficClass) throws SendError {
         boolean hasAttemptedSending = false;
         for (ConnectionHandler handler : connectionHandlers.values()) {
             try {
                 if (handler.isOn() && !handler.getNeighbourDevices().isEmpty()) {
-                    handler.send(data);
+                    transmit(handler, data, null, trafficClass);
                     hasAttemptedSending = true;
                 }
             } catch (SendError e) {
@@ -90,28 +325,187 @@ public class Router {
         }
     }
 
+    //Split horizon: a relayed packet never goes back to the neighbor it came from, nor to its origin
+    //when that is a neighbor, since both have already seen it
+    //data is the received frame with its hop count already patched, protocol only carries its header
+    private void relayData(byte[] data, MeshProtocol<?> protocol, Device from) {
+        RoutingTable.Route route = relayRoute(protocol, from);
+        RelayDecision decision = relayPolicy.decide(protocol, from, route != null ? route.nextHop : null);
+        if (decision == RelayDecision.DROP) {
+            metrics.drop(RouterMetrics.DropReason.RELAY_POLICY);
+            return;
+        }
+
+        if (decision == RelayDecision.NEXT_HOP && route != null) {
+            try {
+                transmit(route.handler, data, route.nextHop, TrafficClass.RELAY);
+                metrics.count(RouterMetrics.Event.RELAYED);
+                return;
+            } catch (SendError e) {
+                Log.e(TAG, "Error relaying through next hop " + route.nextHop.uuid + ", flooding instead");
+                routingTable.forget(protocol.destination);
+            }
+        }
+
+        long delay = relayPolicy.relayDelayMillis(protocol);
+        if (delay > 0) {
+            delayedRelays.schedule(data, protocol, from, delay);
+        } else {
+            ArrayList<UUID> seenBy = new ArrayList<>(1);
+            seenBy.add(from.uuid);
+            floodDataExcept(data, protocol, from, seenBy);
+        }
+    }
+
+    //The learned next hop towards the packet's destination, unless it leads back where the packet came from
+    private RoutingTable.Route relayRoute(MeshProtocol<?> protocol, Device from) {
+        RoutingTable.Route route = protocol.destination != null ? routingTable.lookup(protocol.destination) : null;
+        if (route != null && (route.nextHop.uuid.equals(from.uuid) || !route.handler.isOn())) {
+            return null;
+        }
+        return route;
+    }
+
+    //Every fragment of a packet follows the decision taken on the first one to arrive, so the packet
+    //streams through this node a fragment at a time. Relay delays are not applied to fragments.
+    private void relayFragment(byte[] data, MeshProtocol<?> header, ReassemblyTable.Stream stream, Device from) {
+        RelayDecision decision;
+        RoutingTable.Route route;
+        synchronized (stream) {
+            if (stream.relayDecision == null) {
+                stream.route = relayRoute(header, from);
+                stream.relayDecision = relayPolicy.decide(header, from, stream.route != null ? stream.route.nextHop : null);
+            }
+            decision = stream.relayDecision;
+            route = stream.route;
+        }
+
+        if (decision == RelayDecision.DROP) {
+            metrics.drop(RouterMetrics.DropReason.RELAY_POLICY);
+            return;
+        }
+        if (decision == RelayDecision.NEXT_HOP && route != null) {
+            try {
+                transmit(route.handler, data, route.nextHop, TrafficClass.RELAY);
+                metrics.count(RouterMetrics.Event.RELAYED);
+                return;
+            } catch (SendError e) {
+                Log.e(TAG, "Error relaying fragment through next hop " + route.nextHop.uuid + ", flooding instead");
+                routingTable.forget(header.destination);
+            }
+        }
+        ArrayList<UUID> seenBy = new ArrayList<>(1);
+        seenBy.add(from.uuid);
+        floodDataExcept(data, header, from, seenBy);
+    }
+
+    //Sends a frame through a handler, splitting it first if it is larger than the handler's frames.
+    //A null neighbor sends to every neighbor of the handler. The handler's scheduler holds the frame
+    //back by traffic class if the handler is backed up.
+    private void transmit(ConnectionHandler handler, byte[] data, Device neighbor, TrafficClass trafficClass) throws SendError {
+        if (batcher.isEnabledFor(handler)) {
+            transmitBatched(handler, data, neighbor, trafficClass);
+            return;
+        }
+        OutboundScheduler scheduler = schedulers.get(handler);
+        int frameSize = frameSizeOf(handler, neighbor);
+        //fragments are never split again
+        if (!Fragmenter.needsSplitting(data, frameSize) || Fragmenter.isFragment(data)) {
+            scheduler.submit(data, neighbor, trafficClass);
+            return;
+        }
+        for (byte[] fragment : Fragmenter.split(data, frameSize)) {
+            scheduler.submit(fragment, neighbor, trafficClass);
+        }
+    }
+
+    //Frames are queued per neighbor, a frame too large to share a container goes out on its own
+    private void transmitBatched(ConnectionHandler handler, byte[] data, Device neighbor, TrafficClass trafficClass) throws SendError {
+        ArrayList<byte[]> frames;
+        int frameSize = frameSizeOf(handler, neighbor);
+        if (!Fragmenter.needsSplitting(data, frameSize) || Fragmenter.isFragment(data)) {
+            frames = new ArrayList<>(1);
+            frames.add(data);
+        } else {
+            frames = Fragmenter.split(data, frameSize);
+        }
+        ArrayList<Device> neighbors = new ArrayList<>(1);
+        if (neighbor != null) {
+            neighbors.add(neighbor);
+        } else {
+            neighbors.addAll(handler.getNeighbourDevices());
+        }
+
+        for (byte[] frame : frames) {
+            for (Device to : neighbors) {
+                if (!batcher.offer(handler, to, frame, trafficClass)) {
+                    schedulers.get(handler).submit(frame, to, trafficClass);
+                }
+            }
+        }
+    }
+
+    private void floodDataExcept(byte[] data, MeshProtocol<?> packet, Device from, ArrayList<UUID> seenBy) {
+        boolean isRelayed = false;
+        for (ConnectionHandler handler : connectionHandlers.values()) {
+            if (!handler.isOn()) continue;
+            for (Device neighbor : handler.getNeighbourDevices()) {
+                if (neighbor.uuid.equals(packet.sender) || seenBy.contains(neighbor.uuid)
+                        || !relayPolicy.shouldSendTo(packet, from, neighbor)) {
+                    suppressedTransmissions.incrementAndGet();
+                    continue;
+                }
+                try {
+                    transmit(handler, data, neighbor, TrafficClass.RELAY);
+                    isRelayed = true;
+                } catch (SendError e) {
+                    //Silent error in case other neighbors have successfully sent
+                    Log.e(TAG, "Error relaying data to " + neighbor.uuid + ": " + e.getMessage());
+                }
+            }
+        }
+        if (isRelayed) metrics.count(RouterMetrics.Event.RELAYED);
+    }
+
     private boolean hasRoutedDataBefore(int messageId, UUID address) {
-        String key = messageId + "." + address.toString();
-        return routedSet.contains(key);
+        return routedCache.contains(messageId, address.getMostSignificantBits(), address.getLeastSignificantBits());
+    }
+
+    //Seen at this attempt or a later one
+    private boolean hasRoutedDataBefore(int messageId, UUID address, int attempt) {
+        return routedCache.contains(messageId, address.getMostSignificantBits(), address.getLeastSignificantBits(), attempt);
     }
 
     private void setRouted(int messageId, UUID address) {
-        String key = messageId + "." + address.toString();
-        routedSet.add(key);
+        routedCache.add(messageId, address.getMostSignificantBits(), address.getLeastSignificantBits());
+    }
+
+    //false if another thread handling a copy of the same attempt got there first
+    private boolean claimRouting(int messageId, UUID address, int attempt) {
+        return routedCache.addIfNewer(messageId, address.getMostSignificantBits(), address.getLeastSignificantBits(), attempt);
     }
 
     private void replyWithAck(MeshProtocol<?> protocol) {
         AckMessageBody ackMessageBody = new AckMessageBody("OK");
         MeshProtocol<AckMessageBody> ackData = new ConcreteMeshProtocol<>(
                 0, // Message Type is ACK
-                4, // Goes to 4 device before stopping
+                0, // Hop budget comes from the relay policy below
                 protocol.messageId,
                 id, // Destination becomes sender
                 protocol.sender, // Sender becomes Destination
                 ackMessageBody // Sends back 'OK'
         );
+        ackData.remainingHops = relayPolicy.hopBudget(ackData);
+        //relays that forwarded an ACK to an earlier attempt forward this one too
+        ackData.attempt = protocol.attempt;
+        //an echoed trace already made its way back, the origin of a response does not time it
+        if (protocol.trace != null && !protocol.trace.isEchoed()) {
+            ackData.trace = protocol.trace.echoedBy(NodeAliases.aliasOf(id));
+        }
+        byte[] data = encode(ackData);
+        delivered.answered(protocol.messageId, protocol.sender, data, TrafficClass.CONTROL);
         try {
-            floodData(ackData.encode());
+            routeData(data, protocol.sender, TrafficClass.CONTROL);
         } catch (SendError e) {
             Log.e(TAG, "Error sending ack: " + protocol.messageId);
             routerListener.onError(e);
@@ -119,80 +513,475 @@ public class Router {
     }
 
 
-    private void handleOnData(Device neighbor, byte[] byteArray) {
-        MeshProtocol<?> protocol;
-        ProtocolType messageProtocolType = MeshProtocol.getByteType(byteArray);
+    //Progress of a windowed transfer goes back to its sender under a fresh messageId, so relays that
+    //forwarded an earlier selective ACK of the same transfer do not drop it as a duplicate
+    private void replyWithSelectiveAck(MeshProtocol<?> header, int fragmentCount, byte[] bitmap) {
+        MeshProtocol<SelectiveAckBody> ackData = new ConcreteMeshProtocol<>(
+                3, // Message Type is SELECTIVE_ACK
+                0,
+                ThreadLocalRandom.current().nextInt(),
+                id,
+                header.sender,
+                new SelectiveAckBody(header.messageId, fragmentCount, bitmap)
+        );
+        ackData.remainingHops = relayPolicy.hopBudget(ackData);
+        setRouted(ackData.messageId, id);
+        try {
+            routeData(encode(ackData), header.sender, TrafficClass.CONTROL);
+        } catch (SendError e) {
+            Log.e(TAG, "Error sending selective ack: " + header.messageId);
+            routerListener.onError(e);
+        }
+    }
+
+    //The space a frame may take in the handler's transport frames, 0 if unlimited
+    private int frameSizeOf(ConnectionHandler handler) {
+        return frameSizeOf(handler, null);
+    }
+
+    //To one neighbor, or to every neighbor of the handler if null
+    private int frameSizeOf(ConnectionHandler handler, Device neighbor) {
+        int maxFrameSize = neighbor != null ? handler.getMaxFrameSize(neighbor) : handler.getMaxFrameSize();
+        return maxFrameSize > 0 && hasFrameChecksums ? maxFrameSize - FrameChecksum.LENGTH : maxFrameSize;
+    }
+
+    //Processing time is measured up to the frame being relayed or delivered, or handed to the relay
+    //and delivery threads of the inbound pipeline
+    private void handleOnData(ConnectionHandler handler, Device neighbor, byte[] byteArray) {
+        long start = System.nanoTime();
+        metrics.count(RouterMetrics.Event.RECEIVED);
+        handleSafely(handler, neighbor, byteArray);
+        metrics.recordInboundProcessing(System.nanoTime() - start);
+    }
 
-        switch (messageProtocolType) {
-            case ACK:
-                protocol = MeshProtocol.decode(byteArray, AckMessageBody::decode);
-                break;
-            case SEND_MESSAGE:
-                protocol = MeshProtocol.decode(byteArray, SendMessageBody::decode);
-                break;
-            default:
-                Log.e(TAG, "Unknown byte array. Can't decode data");
-                return;
+    //A frame that does not parse is dropped and counted, never thrown back into the transport
+    private void handleSafely(ConnectionHandler handler, Device neighbor, byte[] byteArray) {
+        try {
+            handleFrame(handler, neighbor, byteArray);
+        } catch (IllegalArgumentException | BufferUnderflowException | IndexOutOfBoundsException e) {
+            metrics.drop(RouterMetrics.DropReason.MALFORMED);
+            Log.e(TAG, "Malformed frame from " + neighbor.uuid + ", dropping it: " + e.getMessage());
+        }
+    }
+
+    //Only the fixed header is read up front. A frame that is only passing through is relayed as the
+    //very buffer it arrived in with its hop count patched, its body is decoded only once read.
+    //The router owns byteArray from here on, handlers must not reuse it.
+    private void handleFrame(ConnectionHandler handler, Device neighbor, byte[] byteArray) {
+        if (Fragmenter.isFragment(byteArray)) {
+            handleOnFragment(handler, neighbor, byteArray);
+            return;
+        }
+        if (!MeshProtocol.hasHeader(byteArray)) {
+            metrics.drop(RouterMetrics.DropReason.MALFORMED);
+            Log.e(TAG, "Frame shorter than the header. Can't decode data");
+            return;
         }
+        MeshProtocol<?> header = registry.wrap(MeshProtocol.getTypeId(byteArray, 0), ByteBuffer.wrap(byteArray), aliases);
+        if (header == null) {
+            metrics.drop(RouterMetrics.DropReason.UNKNOWN_TYPE);
+            Log.e(TAG, "Unknown byte array. Can't decode data");
+            return;
+        }
+        boolean selfIsDestination = header.destination != null && header.destination.equals(id);
+        learnAliases(header);
 
-        boolean selfIsDestination = protocol.destination != null && protocol.destination.equals(id);
-        boolean expectsResponse = typesExpectingResponses.contains(messageProtocolType);
+        //whoever delivered this is a next hop back towards its sender, learn it even from duplicates
+        if (!header.sender.equals(id)) {
+            routingTable.learn(header.sender, handler, neighbor, header.remainingHops);
+        }
 
-        if (hasRoutedDataBefore(protocol.messageId, protocol.sender)) {
-            Log.d(TAG, "already routed data. skipping. messageId=" + protocol.messageId + " sender=" + protocol.sender);
-        } else if (selfIsDestination && messageProtocolType == ProtocolType.ACK) {
-            handleOnAck(protocol);
-        } else if (selfIsDestination && hasRoutedDataBefore(protocol.messageId, id)) {
-            //Consider as response if the protocol has the same messageId, and this is the destination
-            handleOnResponse(protocol);
-        } else if (selfIsDestination && expectsResponse) {
-            //Not ACKing letting the user send a response protocol
-            routerListener.onData(protocol, neighbor);
+        //a retransmission is a new attempt of the same pair, our own frames coming back never are
+        if (header.sender.equals(id) || hasRoutedDataBefore(header.messageId, header.sender, header.attempt)) {
+            onDuplicate(header, neighbor);
         } else if (selfIsDestination) {
-            //Safe to reply with ACK if not expecting a response
-            routerListener.onData(protocol, neighbor);
-            replyWithAck(protocol);
-        } else if (protocol.remainingHops <= 0) {
-            Log.d(TAG, "finished remaining hops, cant route anymore. messageId=" + protocol.messageId + " sender=" + protocol.sender);
+            deliver(header, neighbor);
+        } else if (header.remainingHops <= 0) {
+            metrics.drop(RouterMetrics.DropReason.HOPS_EXHAUSTED);
+            Log.d(TAG, "finished remaining hops, cant route anymore. messageId=" + header.messageId + " sender=" + header.sender);
+        } else if (!claimRouting(header.messageId, header.sender, header.attempt)) {
+            onDuplicate(header, neighbor);
         } else {
-            setRouted(protocol.messageId, protocol.sender);
-            protocol.remainingHops -= 1;
-            Log.d(TAG, "relaying data " + protocol.messageId + "sender=" + protocol.sender + " remainingHops=" + protocol.remainingHops);
-            try {
-                floodData(protocol.encode());
-            } catch (SendError e) {
-                Log.e(TAG, "Error relaying data: " + e.getMessage());
-                routerListener.onError(e);
+            header.remainingHops -= 1;
+            MeshProtocol.writeRemainingHops(byteArray, 0, header.remainingHops);
+            //a traced frame lists this node before going on, whether or not this node traces its own
+            byte[] relayed = header.trace != null ? TraceExtension.withRelay(byteArray, NodeAliases.aliasOf(id)) : byteArray;
+            Log.d(TAG, "relaying data " + header.messageId + "sender=" + header.sender + " remainingHops=" + header.remainingHops);
+            relayExecutor.execute(() -> relayData(relayed, header, neighbor));
+        }
+    }
+
+    //Fragments are deduplicated per index and relayed as they come, only the destination reassembles
+    //them, then handles the whole packet like any other
+    private void handleOnFragment(ConnectionHandler handler, Device neighbor, byte[] fragment) {
+        if (!MeshProtocol.hasHeader(fragment, Fragmenter.PREFIX_LENGTH)) {
+            metrics.drop(RouterMetrics.DropReason.MALFORMED);
+            Log.e(TAG, "Fragment shorter than the header. Can't decode data");
+            return;
+        }
+        ByteBuffer frame = ByteBuffer.wrap(fragment);
+        frame.position(Fragmenter.PREFIX_LENGTH);
+        MeshProtocol<?> header = registry.wrap(MeshProtocol.getTypeId(fragment, Fragmenter.PREFIX_LENGTH), frame, aliases);
+        if (header == null) {
+            metrics.drop(RouterMetrics.DropReason.UNKNOWN_TYPE);
+            Log.e(TAG, "Unknown fragment type. Can't decode data");
+            return;
+        }
+        learnAliases(header);
+        //our own packet coming back
+        if (header.sender.equals(id)) return;
+
+        routingTable.learn(header.sender, handler, neighbor, header.remainingHops);
+        int index = Fragmenter.index(fragment);
+        int attempt = Fragmenter.attempt(fragment);
+        ReassemblyTable.Stream stream = reassembly.accept(header.messageId, header.sender, index, Fragmenter.count(fragment), attempt);
+        if (stream == null) {
+            metrics.drop(RouterMetrics.DropReason.DUPLICATE);
+            Log.d(TAG, "already routed fragment. skipping. messageId=" + header.messageId + " index=" + index);
+            return;
+        }
+
+        if (header.destination != null && header.destination.equals(id)) {
+            byte[] packet = reassembly.reassemble(stream, index, fragment);
+            if (Fragmenter.wantsSelectiveAck(fragment)) {
+                //a retransmission means the sender is missing news, answer it right away
+                boolean isDue = packet != null || attempt > 0 || Fragmenter.requestsAck(fragment);
+                byte[] bitmap = reassembly.selectiveAck(stream, SELECTIVE_ACK_EVERY, isDue);
+                if (bitmap != null) replyWithSelectiveAck(header, stream.count, bitmap);
             }
+            if (packet != null) handleSafely(handler, neighbor, packet);
+        } else if (header.remainingHops <= 0) {
+            metrics.drop(RouterMetrics.DropReason.HOPS_EXHAUSTED);
+            Log.d(TAG, "finished remaining hops, cant route fragment anymore. messageId=" + header.messageId + " sender=" + header.sender);
+        } else {
+            header.remainingHops -= 1;
+            MeshProtocol.writeRemainingHops(fragment, Fragmenter.PREFIX_LENGTH, header.remainingHops);
+            relayExecutor.execute(() -> relayFragment(fragment, header, stream, neighbor));
         }
     }
 
+    static ProtocolRegistry registryOf(HashSet<ProtocolType> typesExpectingResponses) {
+        ProtocolRegistry registry = ProtocolRegistry.withBuiltInTypes();
+        for (ProtocolType type : typesExpectingResponses) {
+            int typeId = ProtocolRegistry.idOf(type);
+            if (registry.isRegistered(typeId)) registry.setExpectsResponse(typeId, true);
+        }
+        return registry;
+    }
+
+    private TrafficClass trafficClassOf(MeshProtocol<?> protocol) {
+        return protocol.trafficClass != null ? protocol.trafficClass : registry.trafficClassOf(protocol.messageType);
+    }
+
+    //Header and body are written straight into a pooled buffer. Transports and the retransmission
+    //table hold on to the frames they are given, so the frame still gets an array of its own, the
+    //only allocation left on the way out.
+    private byte[] encode(MeshProtocol<?> protocol) {
+        boolean isCompact = isCompactHeaders;
+        ByteBuffer buffer = buffers.acquire(protocol.sizeHint(isCompact));
+        try {
+            if (isCompact) {
+                protocol.encodeCompactInto(buffer, aliases.canAlias(protocol.sender, protocol.destination));
+            } else {
+                protocol.encodeInto(buffer);
+            }
+            return Arrays.copyOf(buffer.array(), buffer.position());
+        } finally {
+            buffers.release(buffer);
+        }
+    }
+
+    //Every full id seen can be resolved from its alias later, and a peer that addressed us can
+    //resolve ours
+    private void learnAliases(MeshProtocol<?> header) {
+        aliases.learn(header.sender);
+        aliases.learn(header.destination);
+        if (id.equals(header.destination)) aliases.onAddressedBy(header.sender);
+    }
+
+    private void deliver(MeshProtocol<?> protocol, Device neighbor) {
+        boolean expectsResponse = registry.expectsResponse(protocol.messageType);
+
+        if (protocol.messageType == ProtocolRegistry.SELECTIVE_ACK) {
+            //transfer progress, never shown to the application
+            Object body = protocol.getBody();
+            if (body instanceof SelectiveAckBody) {
+                transfers.onSelectiveAck((SelectiveAckBody) body);
+            } else {
+                metrics.drop(RouterMetrics.DropReason.MALFORMED);
+                Log.e(TAG, "Selective ACK without a selective ACK body, dropping. messageId=" + protocol.messageId);
+            }
+        } else if (protocol.messageType == ProtocolRegistry.ACK) {
+            transfers.complete(protocol.messageId);
+            deliveryExecutor.execute(() -> handleOnAck(protocol));
+        } else if (!delivered.record(protocol.messageId, protocol.sender, protocol.attempt)) {
+            answerAgain(protocol);
+        } else if (hasRoutedDataBefore(protocol.messageId, id)) {
+            //Consider as response if the protocol has the same messageId, and this is the destination
+            transfers.complete(protocol.messageId);
+            deliveryExecutor.execute(() -> handleOnResponse(protocol));
+        } else if (expectsResponse) {
+            //Not ACKing letting the user send a response protocol
+            if (protocol.trace != null && !protocol.trace.isEchoed()) {
+                traceEchoes.put(protocol.messageId, protocol.sender, protocol.trace.echoedBy(NodeAliases.aliasOf(id)));
+            }
+            metrics.count(RouterMetrics.Event.DELIVERED);
+            deliveryExecutor.execute(() -> routerListener.onData(protocol, neighbor));
+        } else {
+            //Safe to reply with ACK if not expecting a response
+            metrics.count(RouterMetrics.Event.DELIVERED);
+            deliveryExecutor.execute(() -> {
+                routerListener.onData(protocol, neighbor);
+                replyWithAck(protocol);
+            });
+        }
+    }
+
+    //A retransmission of a message already delivered, its ACK or response got lost on the way back
+    private void answerAgain(MeshProtocol<?> protocol) {
+        metrics.drop(RouterMetrics.DropReason.DUPLICATE);
+        DeliveredMessages.Answer answer = delivered.answerAgain(protocol.messageId, protocol.sender, protocol.attempt);
+        if (answer == null) {
+            Log.d(TAG, "already delivered, nothing new to answer. messageId=" + protocol.messageId + " sender=" + protocol.sender);
+            return;
+        }
+        Log.d(TAG, "already delivered, answering again. messageId=" + protocol.messageId + " attempt=" + protocol.attempt);
+        try {
+            routeData(answer.data, protocol.sender, answer.trafficClass);
+        } catch (SendError e) {
+            Log.e(TAG, "Error answering retransmission: " + protocol.messageId);
+        }
+    }
+
+    private void onDuplicate(MeshProtocol<?> header, Device neighbor) {
+        metrics.drop(RouterMetrics.DropReason.DUPLICATE);
+        if (delayedRelays.onDuplicate(header, neighbor, relayPolicy)) {
+            metrics.drop(RouterMetrics.DropReason.RELAY_POLICY);
+        }
+        Log.d(TAG, "already routed data. skipping. messageId=" + header.messageId + " sender=" + header.sender);
+    }
+
     public void setListener(RouterListener listener) {
         this.routerListener = listener;
     }
 
+    //Moves decoding, relaying and application delivery off the radio callback threads: frames wait in
+    //a bounded ingress for one decode/dedup worker, which hands relays and deliveries to their own
+    //threads so a slow RouterListener never holds up relaying nor the radio
+    public synchronized void startInboundPipeline(int capacity, InboundPipeline.Backpressure backpressure) {
+        if (inboundPipeline != null) return;
+
+        //a full relay queue sheds its oldest relay, a full delivery queue pushes back on the worker
+        relayExecutor = createDispatchExecutor("mesh-relay", capacity, (task, executor) -> {
+            if (executor.isShutdown()) return;
+            executor.getQueue().poll();
+            metrics.drop(RouterMetrics.DropReason.RELAY_QUEUE_FULL);
+            executor.execute(task);
+        });
+        deliveryExecutor = createDispatchExecutor("mesh-delivery", capacity, new ThreadPoolExecutor.CallerRunsPolicy());
+
+        InboundPipeline pipeline = new InboundPipeline(capacity, backpressure, id, this::handleOnData);
+        pipeline.start();
+        inboundPipeline = pipeline;
+    }
+
+    public synchronized void stopInboundPipeline() {
+        if (inboundPipeline == null) return;
+        inboundPipeline.stop();
+        inboundPipeline = null;
+        ((ThreadPoolExecutor) relayExecutor).shutdown();
+        ((ThreadPoolExecutor) deliveryExecutor).shutdown();
+        relayExecutor = Runnable::run;
+        deliveryExecutor = Runnable::run;
+    }
+
+    //Stops the threads the router started, for when it is thrown away. Not used again afterwards.
+    public synchronized void close() {
+        stopInboundPipeline();
+        if (ownsTimer) timer.stop();
+    }
+
+    public InboundPipeline getInboundPipeline() {
+        return inboundPipeline;
+    }
+
+    public int getRelayQueueDepth() {
+        Executor executor = relayExecutor;
+        return executor instanceof ThreadPoolExecutor ? ((ThreadPoolExecutor) executor).getQueue().size() : 0;
+    }
+
+    public int getDeliveryQueueDepth() {
+        Executor executor = deliveryExecutor;
+        return executor instanceof ThreadPoolExecutor ? ((ThreadPoolExecutor) executor).getQueue().size() : 0;
+    }
+
+    public long getDroppedRelayTasks() {
+        return metrics.get(RouterMetrics.DropReason.RELAY_QUEUE_FULL);
+    }
+
+    private static ThreadPoolExecutor createDispatchExecutor(String name, int capacity, RejectedExecutionHandler onFull) {
+        return new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(capacity), runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        }, onFull);
+    }
+
+    //Replaces the duplicate suppression cache, e.g. to tune its capacity and ttl for a deployment
+    public void setRoutedCache(SeenMessageCache routedCache) {
+        this.routedCache = routedCache;
+    }
+
+    public SeenMessageCache getRoutedCache() {
+        return routedCache;
+    }
+
+    public long getSuppressedTransmissions() {
+        return suppressedTransmissions.get();
+    }
+
+    public long getSuppressedRelays() {
+        return metrics.get(RouterMetrics.DropReason.RELAY_POLICY);
+    }
+
+    public void setRelayPolicy(RelayPolicy relayPolicy) {
+        this.relayPolicy = relayPolicy;
+    }
+
+    public RelayPolicy getRelayPolicy() {
+        return relayPolicy;
+    }
+
+    //Bounds the memory spent on packets arriving in fragments: how many packets are tracked at once,
+    //how many fragment bytes are buffered for reassembly, and how long a packet may take to complete
+    public void setReassemblyLimits(int maxPackets, int maxBufferedBytes, long timeoutMillis) {
+        reassembly.setLimits(maxPackets, maxBufferedBytes, timeoutMillis);
+    }
+
+    public long getReassembledPackets() {
+        return reassembly.getReassembled();
+    }
+
+    public long getExpiredReassemblies() {
+        return reassembly.getExpired();
+    }
+
+    public long getEvictedReassemblies() {
+        return reassembly.getEvicted();
+    }
+
+    public long getDroppedFragments() {
+        return reassembly.getDroppedFragments();
+    }
+
+    //How many fragments of a large unicast message may be unacknowledged at once, how long to wait
+    //for a selective ACK before sending them again, and how many such rounds to try before giving up
+    public void setTransferPolicy(int window, long rtoMillis, int maxRetries) {
+        transfers.setPolicy(window, rtoMillis, maxRetries);
+    }
+
+    public void setTransferListener(TransferListener transferListener) {
+        this.transferListener = transferListener;
+    }
+
+    //How many sends a handler may have queued before the router holds frames back, how long a held
+    //frame may wait before it goes next whatever its class, and each TrafficClass's share of a round,
+    //indexed by ordinal
+    public void setOutboundPolicy(int maxPendingSends, long maxWaitMillis, int[] weights) {
+        OutboundScheduler.Policy policy = OutboundScheduler.policy(maxPendingSends, maxWaitMillis, weights);
+        for (OutboundScheduler scheduler : schedulers.values()) scheduler.setPolicy(policy);
+    }
+
+    //How long frames of the class waited for a backed up handler, zero for those sent right away
+    public LatencyHistogram.Snapshot getQueueLatency(TrafficClass trafficClass) {
+        return queueLatencies[trafficClass.ordinal()].snapshot();
+    }
+
+    //Whether frames this node originates use the compact header, which every node reads alongside
+    //the legacy one. Unicasts to peers that have addressed this node carry 4 byte node aliases.
+    public void setCompactHeaders(boolean isCompactHeaders) {
+        this.isCompactHeaders = isCompactHeaders;
+    }
+
+    //Whether messages this node sends carry a trace of the time they left and the relays they pass,
+    //echoed back by the destination and reported to SendListener.onAck(DeliveryTrace) or
+    //onResponse(protocol, DeliveryTrace). Needs compact headers, nodes that do not trace still relay
+    //and echo traces.
+    public void setTracing(boolean isTracing) {
+        this.isTracing = isTracing;
+    }
+
+    //Whether every frame handed to a transport carries a CRC32C trailer, checked on arrival before
+    //anything in the frame is parsed. Every node of the mesh must agree on it.
+    public void setFrameChecksums(boolean hasFrameChecksums) {
+        this.hasFrameChecksums = hasFrameChecksums;
+        batcher.setTrailerLength(hasFrameChecksums ? FrameChecksum.LENGTH : 0);
+        for (OutboundScheduler scheduler : schedulers.values()) scheduler.setSealing(hasFrameChecksums);
+    }
+
+    //Frames dropped for a checksum mismatch or a header or body that does not parse
+    public long getMalformedFrames() {
+        return metrics.get(RouterMetrics.DropReason.MALFORMED);
+    }
+
+    //Packets by outcome, drops by reason, bytes per transport and latencies, read without pausing traffic
+    public RouterMetrics.Snapshot getMetrics() {
+        return metrics.snapshot();
+    }
+
+    //How long small frames wait for more traffic to the same neighbor before going out, packed into
+    //one frame of the handler's size. CONTROL frames never wait. Rounded up to the timer tick, so
+    //anything shorter than a tick is refused, zero or less turns batching off.
+    public void setBatchLinger(long lingerMillis) {
+        if (lingerMillis > 0 && lingerMillis < timer.getTickMillis()) {
+            throw new IllegalArgumentException("Batch linger of " + lingerMillis + " ms is shorter than the " + timer.getTickMillis() + " ms timer tick");
+        }
+        batcher.setLingerMillis(lingerMillis);
+    }
+
+    public long getBatchedFrames() {
+        return batcher.getBatchedFrames();
+    }
+
+    public long getBatchesSent() {
+        return batcher.getContainersSent();
+    }
+
+    //How long a learned next hop is trusted before unicast traffic to that node floods again
+    public void setRouteTtl(long ttlMillis) {
+        routingTable.setTtl(ttlMillis);
+    }
+
+    //How long to wait for an ACK or response before retransmitting, how many times to retransmit,
+    //and by how much the wait grows after every retransmission
+    public void setRetransmissionPolicy(long ackTimeoutMillis, int maxRetransmissions, int backoffMultiplier) {
+        pendingSends.setRetransmissionPolicy(ackTimeoutMillis, maxRetransmissions, backoffMultiplier);
+    }
+
     private void handleOnAck(MeshProtocol<?> protocol) {
         int messageId = protocol.messageId;
         try {
-            SendListener listener = getListener(messageId);
-            listener.onAck();
+            SendListener listener = completeListener(messageId);
+            if (listener == null) return;
+            DeliveryTrace trace = deliveryTraceOf(protocol);
+            if (trace != null) {
+                listener.onAck(trace);
+            } else {
+                listener.onAck();
+            }
         } catch (Exception e) {
             Log.e(TAG, "error when handling on ack: " + e.getMessage());
             routerListener.onError(e);
-        } finally {
-            listeners.remove(messageId);
         }
     }
 
     private void handleOnError(SendError error, int messageId) {
         try {
-            SendListener listener = getListener(messageId);
+            SendListener listener = takeListener(messageId);
             listener.onError(error);
         } catch (Exception e) {
             Log.e(TAG, "error when handle on error" + messageId);
             routerListener.onError(e);
-        } finally {
-            listeners.remove(messageId);
         }
     }
 
@@ -200,25 +989,54 @@ public class Router {
     private void handleOnResponse(MeshProtocol<?> response) {
         int messageId = response.messageId;
         try {
-            SendListener listener = getListener(messageId);
-            listener.onResponse(response);
+            SendListener listener = completeListener(messageId);
+            //A repeated response still gets its ACK, the first one may have been lost
+            if (listener != null) {
+                DeliveryTrace trace = deliveryTraceOf(response);
+                if (trace != null) {
+                    listener.onResponse(response, trace);
+                } else {
+                    listener.onResponse(response);
+                }
+            }
             replyWithAck(response);
         } catch (Exception e) {
             Log.e(TAG, "error when handling response" + e.getMessage());
             routerListener.onError(e);
-        } finally {
-            listeners.remove(messageId);
         }
     }
 
-    private SendListener getListener(int messageId) throws Exception {
-        SendListener listener = listeners.get(messageId);
+    //Only a trace this node started and the destination echoed is timed against this node's clock
+    private DeliveryTrace deliveryTraceOf(MeshProtocol<?> protocol) {
+        TraceExtension trace = protocol.trace;
+        if (trace == null || !trace.isEchoed()) return null;
+        ArrayList<UUID> path = new ArrayList<>(trace.relays.length);
+        for (int relay : trace.relays) path.add(aliases.resolve(relay));
+        return new DeliveryTrace(timer.now() - trace.originMillis, trace.hops, path);
+    }
+
+    //Removing the entry up front means an ACK racing a timeout or a response reports only once
+    private SendListener takeListener(int messageId) throws Exception {
+        SendListener listener = pendingSends.remove(messageId);
         if (listener == null) {
             throw new InternalRouterError("Could not find listener for messageId: " + messageId);
         }
         return listener;
     }
 
+    //An ACK or response answered the send, it is timed and counted as acknowledged. Null if the send
+    //was already answered or gave up: retransmissions cross on the air, so that is expected.
+    private SendListener completeListener(int messageId) {
+        SendListener listener = pendingSends.complete(messageId);
+        if (listener == null) {
+            Log.d(TAG, "No pending send for messageId: " + messageId + ", duplicate answer dropped");
+            metrics.drop(RouterMetrics.DropReason.DUPLICATE);
+            return null;
+        }
+        metrics.count(RouterMetrics.Event.ACKED);
+        return listener;
+    }
+
     public interface RouterListener {
         void onData(MeshProtocol<?> protocol, Device neighbor);
 
@@ -0,0 +1,174 @@
+package com.example.mesh_base.router;
+
+import com.example.mesh_base.global_interfaces.ConnectionHandlersEnum;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+//What passed through a Router: packets by outcome, drops by reason, bytes per transport and the
+//latency of ACKs and of inbound processing. Counters are LongAdders so the receive, relay and send
+//threads never contend on one, and snapshot() reads everything while traffic keeps flowing. Every
+//value of a snapshot is exact, the snapshot as a whole is not taken at a single instant.
+public class RouterMetrics {
+    public enum Event {
+        //frames handled on arrival, fragments and the frames of a batch each counted
+        RECEIVED,
+        //messages addressed to this node handed to the RouterListener
+        DELIVERED,
+        //packets and fragments forwarded towards other nodes
+        RELAYED,
+        //messages this node originated
+        SENT,
+        //messages this node originated answered by an ACK or a response
+        ACKED,
+        //messages this node originated given up on
+        TIMED_OUT
+    }
+
+    public enum DropReason {
+        //already routed packets, already seen fragments and answers to sends already settled
+        DUPLICATE,
+        HOPS_EXHAUSTED,
+        //bad checksum, or a header or body that does not parse
+        MALFORMED,
+        //a message type the ProtocolRegistry does not know
+        UNKNOWN_TYPE,
+        //relays the RelayPolicy dropped or cancelled
+        RELAY_POLICY,
+        //relays shed by a full relay queue of the inbound pipeline
+        RELAY_QUEUE_FULL
+    }
+
+    private static final Event[] EVENTS = Event.values();
+    private static final DropReason[] DROP_REASONS = DropReason.values();
+    private static final ConnectionHandlersEnum[] HANDLERS = ConnectionHandlersEnum.values();
+
+    private final LongAdder[] events = adders(EVENTS.length);
+    private final LongAdder[] drops = adders(DROP_REASONS.length);
+    private final LongAdder[] bytesIn = adders(HANDLERS.length);
+    private final LongAdder[] bytesOut = adders(HANDLERS.length);
+    //milliseconds from a send to its ACK or response, retransmissions included
+    private final LatencyHistogram ackRoundTrip = new LatencyHistogram();
+    //microseconds from a frame's arrival to the router being done with it
+    private final LatencyHistogram inboundProcessing = new LatencyHistogram();
+
+    void count(Event event) {
+        events[event.ordinal()].increment();
+    }
+
+    void drop(DropReason reason) {
+        drops[reason.ordinal()].increment();
+    }
+
+    long get(DropReason reason) {
+        return drops[reason.ordinal()].sum();
+    }
+
+    void received(ConnectionHandlersEnum handler, int bytes) {
+        bytesIn[handler.ordinal()].add(bytes);
+    }
+
+    //The counter of bytes handed to a transport, kept by its OutboundScheduler
+    LongAdder bytesOut(ConnectionHandlersEnum handler) {
+        return bytesOut[handler.ordinal()];
+    }
+
+    //Timed by the PendingSendTable as sends are answered
+    LatencyHistogram ackRoundTrip() {
+        return ackRoundTrip;
+    }
+
+    void recordInboundProcessing(long nanos) {
+        inboundProcessing.record(nanos / 1_000);
+    }
+
+    public Snapshot snapshot() {
+        return new Snapshot(sums(events), sums(drops), sums(bytesIn), sums(bytesOut),
+                ackRoundTrip.snapshot(), inboundProcessing.snapshot());
+    }
+
+    private static LongAdder[] adders(int count) {
+        LongAdder[] adders = new LongAdder[count];
+        for (int i = 0; i < count; i++) adders[i] = new LongAdder();
+        return adders;
+    }
+
+    private static long[] sums(LongAdder[] adders) {
+        long[] sums = new long[adders.length];
+        for (int i = 0; i < adders.length; i++) sums[i] = adders[i].sum();
+        return sums;
+    }
+
+    public static class Snapshot {
+        private final long[] events;
+        private final long[] drops;
+        private final long[] bytesIn;
+        private final long[] bytesOut;
+        private final LatencyHistogram.Snapshot ackRoundTrip;
+        private final LatencyHistogram.Snapshot inboundProcessing;
+
+        Snapshot(long[] events, long[] drops, long[] bytesIn, long[] bytesOut,
+                 LatencyHistogram.Snapshot ackRoundTrip, LatencyHistogram.Snapshot inboundProcessing) {
+            this.events = events;
+            this.drops = drops;
+            this.bytesIn = bytesIn;
+            this.bytesOut = bytesOut;
+            this.ackRoundTrip = ackRoundTrip;
+            this.inboundProcessing = inboundProcessing;
+        }
+
+        public long getCount(Event event) {
+            return events[event.ordinal()];
+        }
+
+        public long getDropped(DropReason reason) {
+            return drops[reason.ordinal()];
+        }
+
+        public long getDropped() {
+            long dropped = 0;
+            for (long count : drops) dropped += count;
+            return dropped;
+        }
+
+        //Transport frames as they arrived, checksum trailers and batch containers included
+        public long getBytesIn(ConnectionHandlersEnum handler) {
+            return bytesIn[handler.ordinal()];
+        }
+
+        //Transport frames as handed to the handler, a frame sent to every neighbor counted once
+        public long getBytesOut(ConnectionHandlersEnum handler) {
+            return bytesOut[handler.ordinal()];
+        }
+
+        //In milliseconds
+        public LatencyHistogram.Snapshot getAckRoundTrip() {
+            return ackRoundTrip;
+        }
+
+        //In microseconds
+        public LatencyHistogram.Snapshot getInboundProcessing() {
+            return inboundProcessing;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            for (Event event : EVENTS) {
+                builder.append(event.name().toLowerCase(Locale.ROOT)).append('=').append(getCount(event)).append(' ');
+            }
+            builder.append("dropped=").append(getDropped()).append(" (");
+            for (DropReason reason : DROP_REASONS) {
+                if (reason.ordinal() > 0) builder.append(' ');
+                builder.append(reason.name().toLowerCase(Locale.ROOT)).append('=').append(getDropped(reason));
+            }
+            builder.append(')');
+            for (ConnectionHandlersEnum handler : HANDLERS) {
+                builder.append(' ').append(handler.name()).append(" in=").append(getBytesIn(handler))
+                        .append(" out=").append(getBytesOut(handler));
+            }
+            return builder.append(" ackRoundTrip[").append(ackRoundTrip)
+                    .append("] inboundProcessing[").append(inboundProcessing).append(']').toString();
+        }
+    }
+}
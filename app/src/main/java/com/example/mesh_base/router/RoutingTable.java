@@ -0,0 +1,94 @@
+package com.example.mesh_base.router;
+
+import com.example.mesh_base.global_interfaces.ConnectionHandler;
+import com.example.mesh_base.global_interfaces.Device;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.UUID;
+import java.util.function.LongSupplier;
+
+//Reverse paths learned from received traffic: the neighbor that delivered a packet from a sender
+//is a next hop back towards that sender. Routes expire so a stale path falls back to flooding.
+class RoutingTable {
+    static final long DEFAULT_ROUTE_TTL_MILLIS = 60_000L;
+
+    private final HashMap<UUID, Route> routes = new HashMap<>();
+    private final LongSupplier clock;
+    private long ttlMillis = DEFAULT_ROUTE_TTL_MILLIS;
+
+    RoutingTable(LongSupplier clock) {
+        this.clock = clock;
+    }
+
+    synchronized void setTtl(long ttlMillis) {
+        if (ttlMillis <= 0) {
+            throw new IllegalArgumentException("ttl must be positive. ttlMillis=" + ttlMillis);
+        }
+        this.ttlMillis = ttlMillis;
+    }
+
+    //remainingHops is what was left on the packet when it arrived, so more means a shorter path
+    synchronized void learn(UUID destination, ConnectionHandler handler, Device nextHop, int remainingHops) {
+        long now = clock.getAsLong();
+        Route route = routes.get(destination);
+
+        if (route == null) {
+            routes.put(destination, new Route(handler, nextHop, remainingHops, now));
+            return;
+        }
+
+        boolean isFresh = now - route.learnedAt < ttlMillis;
+        boolean sameNextHop = route.nextHop.uuid.equals(nextHop.uuid);
+        if (isFresh && !sameNextHop && remainingHops < route.remainingHops) {
+            //keep the shorter path we already know
+            return;
+        }
+        if (sameNextHop && remainingHops == route.remainingHops) {
+            route.learnedAt = now;
+        } else {
+            routes.put(destination, new Route(handler, nextHop, remainingHops, now));
+        }
+    }
+
+    synchronized Route lookup(UUID destination) {
+        Route route = routes.get(destination);
+        if (route == null) return null;
+        if (clock.getAsLong() - route.learnedAt >= ttlMillis) {
+            routes.remove(destination);
+            return null;
+        }
+        return route;
+    }
+
+    synchronized void forget(UUID destination) {
+        routes.remove(destination);
+    }
+
+    synchronized void forgetNextHop(UUID neighborId) {
+        Iterator<Route> iterator = routes.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().nextHop.uuid.equals(neighborId)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    synchronized int size() {
+        return routes.size();
+    }
+
+    static class Route {
+        final ConnectionHandler handler;
+        final Device nextHop;
+        final int remainingHops;
+        volatile long learnedAt;
+
+        Route(ConnectionHandler handler, Device nextHop, int remainingHops, long learnedAt) {
+            this.handler = handler;
+            this.nextHop = nextHop;
+            this.remainingHops = remainingHops;
+            this.learnedAt = learnedAt;
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package com.example.mesh_base.router;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+//Bounded, time-expiring record of the (messageId, sender) pairs the router has already handled,
+//with the latest attempt of each, so a retransmission is told apart from a copy of the same attempt.
+//Entries live in a ring kept in insertion order so the oldest one is evicted when the capacity
+//is reached, and an open addressing index over the ring gives O(1) lookups without building
+//String keys or boxing. Large caches are split into independently locked stripes chosen by hash,
+//so sends and receives on different threads rarely contend; eviction order is then per stripe.
+public class SeenMessageCache {
+    public static final int DEFAULT_CAPACITY = 4096;
+    public static final long DEFAULT_TTL_MILLIS = 5 * 60_000L;
+    static final int MAX_STRIPES = 16;
+    //below this a stripe's ring is too small for eviction order to stay meaningful
+    static final int MIN_STRIPE_CAPACITY = 256;
+
+    private static final int EMPTY = -1;
+
+    private final int capacity;
+    private final long ttlMillis;
+    private final LongSupplier clock;
+    private final Stripe[] stripes;
+    private final int stripeMask;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    public SeenMessageCache(int capacity, long ttlMillis) {
+        this(capacity, ttlMillis, () -> System.nanoTime() / 1_000_000L);
+    }
+
+    SeenMessageCache(int capacity, long ttlMillis, LongSupplier clock) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive. capacity=" + capacity);
+        }
+        if (ttlMillis <= 0) {
+            throw new IllegalArgumentException("ttl must be positive. ttlMillis=" + ttlMillis);
+        }
+        this.capacity = capacity;
+        this.ttlMillis = ttlMillis;
+        this.clock = clock;
+
+        int stripeCount = 1;
+        while (stripeCount < MAX_STRIPES && capacity / (stripeCount * 2) >= MIN_STRIPE_CAPACITY) {
+            stripeCount *= 2;
+        }
+        stripes = new Stripe[stripeCount];
+        stripeMask = stripeCount - 1;
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new Stripe(capacity / stripeCount + (i < capacity % stripeCount ? 1 : 0));
+        }
+    }
+
+    public boolean contains(int messageId, long senderMsb, long senderLsb) {
+        return contains(messageId, senderMsb, senderLsb, 0);
+    }
+
+    //Whether the pair was seen at this attempt or a later one
+    public boolean contains(int messageId, long senderMsb, long senderLsb, int attempt) {
+        int hash = hash(messageId, senderMsb, senderLsb);
+        boolean found = stripeFor(hash).contains(hash, messageId, senderMsb, senderLsb, attempt, clock.getAsLong());
+        (found ? hits : misses).increment();
+        return found;
+    }
+
+    public void add(int messageId, long senderMsb, long senderLsb) {
+        addIfAbsent(messageId, senderMsb, senderLsb);
+    }
+
+    //Atomic check-and-record, returns false if the pair was already seen. Two threads handed the
+    //same frame at once get exactly one true between them.
+    public boolean addIfAbsent(int messageId, long senderMsb, long senderLsb) {
+        return addIfNewer(messageId, senderMsb, senderLsb, 0);
+    }
+
+    //Atomic check-and-record of an attempt, returns false if the pair was already seen at this
+    //attempt or a later one. The entry keeps its age, a retransmission does not extend its ttl.
+    public boolean addIfNewer(int messageId, long senderMsb, long senderLsb, int attempt) {
+        int hash = hash(messageId, senderMsb, senderLsb);
+        return stripeFor(hash).addIfNewer(hash, messageId, senderMsb, senderLsb, attempt, clock.getAsLong());
+    }
+
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            size += stripe.size();
+        }
+        return size;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public long getTtlMillis() {
+        return ttlMillis;
+    }
+
+    public int getStripeCount() {
+        return stripes.length;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public long getExpirations() {
+        return expirations.sum();
+    }
+
+    //stripes take the high bits, the index inside a stripe probes from the low bits
+    private Stripe stripeFor(int hash) {
+        return stripes[(hash >>> 24) & stripeMask];
+    }
+
+    private static int hash(int messageId, long senderMsb, long senderLsb) {
+        long h = (senderMsb * 0x9E3779B97F4A7C15L) ^ senderLsb;
+        h = (h ^ messageId) * 0xC2B2AE3D27D4EB4FL;
+        h ^= h >>> 29;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private class Stripe {
+        private final int capacity;
+
+        //ring of entries, oldest entry at head
+        private final int[] messageIds;
+        private final long[] senderMsbs;
+        private final long[] senderLsbs;
+        private final long[] insertedAt;
+        private final byte[] attempts;
+        private int head = 0;
+        private int size = 0;
+
+        //linear probing index holding ring positions
+        private final int[] index;
+        private final int mask;
+
+        Stripe(int capacity) {
+            this.capacity = capacity;
+            messageIds = new int[capacity];
+            senderMsbs = new long[capacity];
+            senderLsbs = new long[capacity];
+            insertedAt = new long[capacity];
+            attempts = new byte[capacity];
+
+            //keep the load factor at or below 0.5 so probe chains stay short
+            index = new int[Integer.highestOneBit(capacity * 2 - 1) << 1];
+            mask = index.length - 1;
+            Arrays.fill(index, EMPTY);
+        }
+
+        synchronized boolean contains(int hash, int messageId, long senderMsb, long senderLsb, int attempt, long now) {
+            int slot = find(hash, messageId, senderMsb, senderLsb);
+            return slot != EMPTY && now - insertedAt[index[slot]] < ttlMillis && (attempts[index[slot]] & 0xFF) >= attempt;
+        }
+
+        synchronized boolean addIfNewer(int hash, int messageId, long senderMsb, long senderLsb, int attempt, long now) {
+            evictExpired(now);
+
+            //anything still indexed after evicting expired entries is fresh
+            int found = find(hash, messageId, senderMsb, senderLsb);
+            if (found != EMPTY) {
+                if ((attempts[index[found]] & 0xFF) >= attempt) return false;
+                attempts[index[found]] = (byte) attempt;
+                return true;
+            }
+
+            if (size == capacity) {
+                removeOldest();
+                evictions.increment();
+            }
+
+            int entry = (head + size) % capacity;
+            messageIds[entry] = messageId;
+            senderMsbs[entry] = senderMsb;
+            senderLsbs[entry] = senderLsb;
+            insertedAt[entry] = now;
+            attempts[entry] = (byte) attempt;
+            size++;
+
+            int slot = hash & mask;
+            while (index[slot] != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            index[slot] = entry;
+            return true;
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        private void evictExpired(long now) {
+            while (size > 0 && now - insertedAt[head] >= ttlMillis) {
+                removeOldest();
+                expirations.increment();
+            }
+        }
+
+        private void removeOldest() {
+            int slot = find(hash(messageIds[head], senderMsbs[head], senderLsbs[head]), messageIds[head], senderMsbs[head], senderLsbs[head]);
+            deleteSlot(slot);
+            head = (head + 1) % capacity;
+            size--;
+        }
+
+        private int find(int hash, int messageId, long senderMsb, long senderLsb) {
+            int slot = hash & mask;
+            while (true) {
+                int entry = index[slot];
+                if (entry == EMPTY) return EMPTY;
+                if (messageIds[entry] == messageId && senderMsbs[entry] == senderMsb && senderLsbs[entry] == senderLsb) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+
+        //backward shift deletion, keeps probe chains intact without tombstones
+        private void deleteSlot(int slot) {
+            int hole = slot;
+            int next = (hole + 1) & mask;
+            while (index[next] != EMPTY) {
+                int entry = index[next];
+                int home = hash(messageIds[entry], senderMsbs[entry], senderLsbs[entry]) & mask;
+                if (((next - home) & mask) >= ((next - hole) & mask)) {
+                    index[hole] = entry;
+                    hole = next;
+                }
+                next = (next + 1) & mask;
+            }
+            index[hole] = EMPTY;
+        }
+    }
+}
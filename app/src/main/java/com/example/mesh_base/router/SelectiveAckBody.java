@@ -0,0 +1,76 @@
+package com.example.mesh_base.router;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+//Which fragments of a windowed transfer the destination holds, one bit per fragment index
+public class SelectiveAckBody implements MeshSerializer<SelectiveAckBody> {
+    private final int transferMessageId;
+    private final int fragmentCount;
+    private final byte[] bitmap;
+
+    public SelectiveAckBody(int transferMessageId, int fragmentCount, byte[] bitmap) {
+        this.transferMessageId = transferMessageId;
+        this.fragmentCount = fragmentCount;
+        this.bitmap = bitmap;
+    }
+
+    public static SelectiveAckBody decode(byte[] data) {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+
+        int transferMessageId = buffer.getInt();
+        int fragmentCount = buffer.getShort() & 0xFFFF;
+        byte[] bitmap = new byte[(fragmentCount + 7) >>> 3];
+        buffer.get(bitmap);
+
+        return new SelectiveAckBody(transferMessageId, fragmentCount, bitmap);
+    }
+
+    @Override
+    public byte[] encode() {
+        ByteBuffer buffer = ByteBuffer.allocate(sizeHint());
+        encodeInto(buffer);
+        return buffer.array();
+    }
+
+    @Override
+    public int sizeHint() {
+        return 4 + 2 + bitmap.length;
+    }
+
+    @Override
+    public void encodeInto(ByteBuffer buffer) {
+        buffer.putInt(transferMessageId);
+        buffer.putShort((short) fragmentCount);
+        buffer.put(bitmap);
+    }
+
+    public int getTransferMessageId() {
+        return transferMessageId;
+    }
+
+    public int getFragmentCount() {
+        return fragmentCount;
+    }
+
+    public boolean isReceived(int index) {
+        return (bitmap[index >>> 3] & (1 << (index & 7))) != 0;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        SelectiveAckBody that = (SelectiveAckBody) o;
+
+        return transferMessageId == that.transferMessageId
+                && fragmentCount == that.fragmentCount
+                && Arrays.equals(bitmap, that.bitmap);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * transferMessageId + fragmentCount) + Arrays.hashCode(bitmap);
+    }
+}
@@ -9,4 +9,14 @@ public interface SendListener {
   void onAck();
 
   void onResponse(MeshProtocol<?> protocol);
+
+  //Called instead of onAck() when the message was traced, see Router.setTracing
+  default void onAck(DeliveryTrace trace) {
+    onAck();
+  }
+
+  //Called instead of onResponse(protocol) when the message was traced
+  default void onResponse(MeshProtocol<?> protocol, DeliveryTrace trace) {
+    onResponse(protocol);
+  }
 }
@@ -4,44 +4,93 @@ import java.nio.ByteBuffer;
 import java.util.Objects;
 
 public class SendMessageBody implements MeshSerializer<SendMessageBody> {
+  static final int FLAG_BROADCAST = 0x01;
+  static final int FLAG_COMPRESSED = 0x02;
+  private static final byte[] NOT_COMPRESSED = new byte[0];
+
   private final int command;
   private final boolean isBroadcast;
   private final String msg;
+  private final boolean compress;
+  //the compressed text once tried, NOT_COMPRESSED when compression would not shrink it
+  private volatile byte[] compressed;
 
   public SendMessageBody(int command, boolean isBroadcast, String msg) {
+    this(command, isBroadcast, msg, false);
+  }
+
+  //With compress, the text goes out compressed whenever that makes it shorter. Receivers decode
+  //either form.
+  public SendMessageBody(int command, boolean isBroadcast, String msg, boolean compress) {
     this.command = command;
     this.isBroadcast = isBroadcast;
     this.msg = msg;
+    this.compress = compress;
   }
 
   public static SendMessageBody decode(byte[] data) {
     ByteBuffer buffer = ByteBuffer.wrap(data);
     int command = buffer.getInt();
-    boolean isBroadcast = buffer.get() == 1;
+    int flags = buffer.get();
+    boolean isBroadcast = (flags & FLAG_BROADCAST) != 0;
+    boolean isCompressed = (flags & FLAG_COMPRESSED) != 0;
 
     int msgLength = buffer.getInt();
-    byte[] msgBytes = new byte[msgLength];
-    String msg = "";
-
-    if (msgLength > 0) {
-      buffer.get(msgBytes);
-      msg = new String(msgBytes);
+    if (isCompressed) {
+      if (msgLength < 0 || msgLength > buffer.remaining()) {
+        throw new IllegalArgumentException("Text runs past the body. length=" + msgLength + " available=" + buffer.remaining());
+      }
+      return new SendMessageBody(command, isBroadcast, TextCompression.decompress(data, buffer.position(), msgLength), true);
     }
+    String msg = Utf8.decode(data, buffer.position(), msgLength);
 
     return new SendMessageBody(command, isBroadcast, msg);
   }
 
   @Override
   public byte[] encode() {
-    int messageLength = msg.length();
-    ByteBuffer buffer = ByteBuffer.allocate(4 + 1 + 4 + messageLength);
+    ByteBuffer buffer = ByteBuffer.allocate(sizeHint());
+    encodeInto(buffer);
+    return buffer.array();
+  }
+
+  @Override
+  public int sizeHint() {
+    byte[] text = compressedText();
+    return 4 + 1 + 4 + (text != NOT_COMPRESSED ? text.length : Utf8.encodedLength(msg));
+  }
 
+  @Override
+  public void encodeInto(ByteBuffer buffer) {
+    byte[] text = compressedText();
+    boolean isCompressed = text != NOT_COMPRESSED;
     buffer.putInt(command);
-    buffer.put((byte) (isBroadcast ? 1 : 0));
+    buffer.put((byte) ((isBroadcast ? FLAG_BROADCAST : 0) | (isCompressed ? FLAG_COMPRESSED : 0)));
+    if (isCompressed) {
+      buffer.putInt(text.length);
+      buffer.put(text);
+    } else {
+      putText(buffer, msg);
+    }
+  }
 
-    buffer.putInt(messageLength);
-    buffer.put(msg.getBytes());
-    return buffer.array();
+  //Compressed once per body, sizeHint and encodeInto then agree
+  private byte[] compressedText() {
+    if (!compress) return NOT_COMPRESSED;
+    byte[] text = compressed;
+    if (text == null) {
+      text = TextCompression.compress(msg);
+      if (text == null) text = NOT_COMPRESSED;
+      compressed = text;
+    }
+    return text;
+  }
+
+  //The UTF-8 length as an int, then the text, encoded in one pass and the length filled in after
+  static void putText(ByteBuffer buffer, String text) {
+    int lengthPosition = buffer.position();
+    buffer.position(lengthPosition + 4);
+    buffer.putInt(lengthPosition, Utf8.encode(text, buffer));
   }
 
   public int getCommand() {
@@ -56,6 +105,10 @@ public class SendMessageBody implements MeshSerializer<SendMessageBody> {
     return msg;
   }
 
+  public boolean isCompressed() {
+    return compressedText() != NOT_COMPRESSED;
+  }
+
   @Override
   public boolean equals(Object o) {
     if (this == o) return true;
@@ -0,0 +1,97 @@
+package com.example.mesh_base.router;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+//Compression for short texts: raw deflate primed with a dictionary of common chat phrases both
+//ends share, so even a message of a few words finds earlier strings to refer to. Compressed text is
+//its UTF-8 length as a varint, then the deflate stream. Deflaters hold native memory and are slow
+//to create, each thread keeps one of each and resets it between messages.
+final class TextCompression {
+    //shorter texts do not gain enough to pay for the varint and the end of the stream
+    static final int MIN_LENGTH = 12;
+    //deflate expands at most about 1032 times, a longer claimed length is a corrupt or hostile body
+    private static final int MAX_RATIO = 1032;
+
+    //The preset dictionary. Deflate refers back at most 32 KiB, and strings near the end are the
+    //cheapest to refer to, so the most common ones come last. Changing it breaks decoding of
+    //messages compressed with the old one.
+    private static final byte[] DICTIONARY = (
+            "Wednesday Thursday Saturday Sunday Monday Tuesday Friday tomorrow tonight this morning "
+                    + "afternoon evening weekend minutes hours o'clock battery signal phone message "
+                    + "please thank you thanks sorry hello everyone anyone someone something nothing "
+                    + "because about after before again already almost always around maybe probably "
+                    + "would could should there their where which while with without what when who why how "
+                    + "http://www. https:// .com I'm I'll I've don't can't won't didn't isn't it's that's "
+                    + "let me know, are you ok? I am on my way, see you at the meeting point near the "
+                    + "station. Where are you now? I'm here. Can you hear me? Is everyone safe? We need "
+                    + "water and food. Call me when you get this. Did you get my message? Yes, no, okay, "
+                    + "ok, lol, haha, see you soon. I will be there in 10 minutes. Are you coming? "
+                    + "Let's meet at the "
+    ).getBytes(StandardCharsets.UTF_8);
+
+    private static final ThreadLocal<Deflater> DEFLATERS =
+            ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_COMPRESSION, true));
+    private static final ThreadLocal<Inflater> INFLATERS = ThreadLocal.withInitial(() -> new Inflater(true));
+
+    private TextCompression() {
+    }
+
+    //The compressed text, null if it would not be shorter than the UTF-8 itself
+    static byte[] compress(String text) {
+        byte[] utf8 = text.getBytes(StandardCharsets.UTF_8);
+        if (utf8.length < MIN_LENGTH) return null;
+        //anything at least as long as the input is no use, so the output never needs more room
+        byte[] out = new byte[utf8.length];
+        int offset = CompactHeader.putVarint(out, 0, utf8.length);
+
+        Deflater deflater = DEFLATERS.get();
+        deflater.reset();
+        deflater.setDictionary(DICTIONARY);
+        deflater.setInput(utf8);
+        deflater.finish();
+        int length = offset;
+        while (!deflater.finished() && length < out.length) {
+            length += deflater.deflate(out, length, out.length - length);
+        }
+        if (!deflater.finished() || length >= utf8.length) return null;
+        return Arrays.copyOf(out, length);
+    }
+
+    //The text compressed into data at offset, length bytes long
+    static String decompress(byte[] data, int offset, int length) {
+        ByteBuffer buffer = ByteBuffer.wrap(data, offset, length);
+        int prefix = CompactHeader.varintLength(buffer, offset, offset + length);
+        if (prefix < 0) throw new IllegalArgumentException("Compressed text without its length");
+        int textLength = CompactHeader.getVarint(buffer, offset);
+        if (textLength < 0 || (long) textLength > (long) (length - prefix) * MAX_RATIO) {
+            throw new IllegalArgumentException("Compressed text claims an impossible length. length=" + textLength);
+        }
+        byte[] utf8 = new byte[textLength];
+
+        Inflater inflater = INFLATERS.get();
+        inflater.reset();
+        inflater.setDictionary(DICTIONARY);
+        inflater.setInput(data, offset + prefix, length - prefix);
+        try {
+            int inflated = 0;
+            while (inflated < textLength && !inflater.finished()) {
+                int n = inflater.inflate(utf8, inflated, textLength - inflated);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                inflated += n;
+            }
+            //the stream must end exactly where the length said, reading on to its end marker
+            if (inflated == textLength && !inflater.finished() && inflater.inflate(new byte[1]) != 0) inflated++;
+            if (inflated != textLength || !inflater.finished()) {
+                throw new IllegalArgumentException("Compressed text does not match its length. length=" + textLength);
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Malformed compressed text: " + e.getMessage());
+        }
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+}
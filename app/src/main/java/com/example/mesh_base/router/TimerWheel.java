@@ -0,0 +1,159 @@
+package com.example.mesh_base.router;
+
+import android.util.Log;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+//Hashed timer wheel. Each timeout is linked into the bucket of the tick it expires on, so
+//scheduling and cancelling are O(1) and one periodic tick drives every timeout instead of
+//one scheduled task per message.
+public class TimerWheel {
+    private static final String TAG = "my_timerWheel";
+
+    private final Timeout[] buckets;
+    private final int mask;
+    private final long tickMillis;
+    private final LongSupplier clock;
+    //next tick that has not been processed yet
+    private long currentTick;
+    private ScheduledExecutorService driver;
+
+    public TimerWheel(long tickMillis, int wheelSize) {
+        this(tickMillis, wheelSize, () -> System.nanoTime() / 1_000_000L);
+    }
+
+    TimerWheel(long tickMillis, int wheelSize, LongSupplier clock) {
+        if (tickMillis <= 0 || wheelSize <= 0) {
+            throw new IllegalArgumentException("tickMillis and wheelSize must be positive");
+        }
+        int size = Integer.highestOneBit(wheelSize);
+        if (size < wheelSize) size <<= 1;
+        this.buckets = new Timeout[size];
+        this.mask = size - 1;
+        this.tickMillis = tickMillis;
+        this.clock = clock;
+        this.currentTick = clock.getAsLong() / tickMillis;
+    }
+
+    public long now() {
+        return clock.getAsLong();
+    }
+
+    public long getTickMillis() {
+        return tickMillis;
+    }
+
+    public synchronized void schedule(Timeout timeout, long delayMillis) {
+        if (timeout.isScheduled()) unlink(timeout);
+
+        long deadline = now() + Math.max(0, delayMillis);
+        //round up so a timeout never fires before its deadline
+        long tick = Math.max(currentTick, (deadline + tickMillis - 1) / tickMillis);
+
+        timeout.deadline = deadline;
+        timeout.rounds = (tick - currentTick) / buckets.length;
+        timeout.bucket = (int) (tick & mask);
+        timeout.prev = null;
+        timeout.next = buckets[timeout.bucket];
+        if (timeout.next != null) timeout.next.prev = timeout;
+        buckets[timeout.bucket] = timeout;
+    }
+
+    public synchronized boolean cancel(Timeout timeout) {
+        if (!timeout.isScheduled()) return false;
+        unlink(timeout);
+        return true;
+    }
+
+    //Fires every timeout whose deadline has passed. Expiry callbacks run outside the lock so they
+    //can schedule again (e.g. for a retransmission) without deadlocking.
+    public void advance() {
+        long nowTick = now() / tickMillis;
+        Timeout expired = null;
+
+        synchronized (this) {
+            while (currentTick <= nowTick) {
+                Timeout timeout = buckets[(int) (currentTick & mask)];
+                while (timeout != null) {
+                    Timeout next = timeout.next;
+                    if (timeout.rounds <= 0) {
+                        unlink(timeout);
+                        timeout.nextExpired = expired;
+                        expired = timeout;
+                    } else {
+                        timeout.rounds--;
+                    }
+                    timeout = next;
+                }
+                currentTick++;
+            }
+        }
+
+        while (expired != null) {
+            Timeout timeout = expired;
+            expired = timeout.nextExpired;
+            timeout.nextExpired = null;
+            try {
+                timeout.onExpire();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "timeout callback failed: " + e.getMessage());
+            }
+        }
+    }
+
+    //Starts a daemon thread that advances the wheel every tick
+    public synchronized void start() {
+        if (driver != null) return;
+        driver = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "mesh-timer-wheel");
+            thread.setDaemon(true);
+            return thread;
+        });
+        driver.scheduleAtFixedRate(this::advance, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if (driver == null) return;
+        driver.shutdownNow();
+        driver = null;
+    }
+
+    synchronized boolean isRunning() {
+        return driver != null;
+    }
+
+    private void unlink(Timeout timeout) {
+        if (timeout.prev != null) {
+            timeout.prev.next = timeout.next;
+        } else {
+            buckets[timeout.bucket] = timeout.next;
+        }
+        if (timeout.next != null) timeout.next.prev = timeout.prev;
+        timeout.prev = null;
+        timeout.next = null;
+        timeout.bucket = -1;
+    }
+
+    //Intrusive wheel entry, subclasses carry their own state so scheduling allocates nothing
+    public abstract static class Timeout {
+        private Timeout prev;
+        private Timeout next;
+        private Timeout nextExpired;
+        private int bucket = -1;
+        private long rounds;
+        private long deadline;
+
+        protected abstract void onExpire();
+
+        public boolean isScheduled() {
+            return bucket != -1;
+        }
+
+        public long getDeadline() {
+            return deadline;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.example.mesh_base.router;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+//Traces of delivered messages waiting for the application's response, so the response carries the
+//trace back to the origin the way an ACK would. Bounded, messages the application never answers
+//are forgotten oldest first.
+class TraceEchoes {
+    static final int DEFAULT_CAPACITY = 256;
+
+    private final LinkedHashMap<Integer, Entry> entries;
+
+    TraceEchoes() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    TraceEchoes(int capacity) {
+        this.entries = new LinkedHashMap<Integer, TraceEchoes.Entry>(16, 0.75f, false) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, TraceEchoes.Entry> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    synchronized void put(int messageId, UUID origin, TraceExtension echoed) {
+        entries.put(messageId, new Entry(origin, echoed));
+    }
+
+    //The trace for a response to messageId going to destination, null if there is none
+    synchronized TraceExtension take(int messageId, UUID destination) {
+        Entry entry = entries.get(messageId);
+        if (entry == null || !entry.origin.equals(destination)) return null;
+        entries.remove(messageId);
+        return entry.trace;
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    private static class Entry {
+        final UUID origin;
+        final TraceExtension trace;
+
+        Entry(UUID origin, TraceExtension trace) {
+            this.origin = origin;
+            this.trace = trace;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.example.mesh_base.router;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+//An optional trailer right after the body of a compact frame, flagged by CompactHeader.FLAG_TRACE:
+//the origin's clock in milliseconds (8), the NodeAliases of up to MAX_RELAYS nodes the frame passed
+//through (4 each), the hops it took (1), flags (1) and how many aliases are listed (1). Relays add
+//their alias at the end so the body never moves. The destination echoes the trace back in its ACK
+//or response, adding its own alias, so the origin times the round trip against its own clock and
+//nodes need no common time.
+final class TraceExtension {
+    static final int MAX_RELAYS = 16;
+    static final int FIXED_LENGTH = 11;
+    static final int FLAG_ECHOED = 0x01;
+    private static final int MAX_HOPS = 0xFF;
+
+    final long originMillis;
+    final int hops;
+    final int flags;
+    //aliases in the order they were added
+    final int[] relays;
+
+    TraceExtension(long originMillis, int hops, int flags, int[] relays) {
+        this.originMillis = originMillis;
+        this.hops = hops;
+        this.flags = flags;
+        this.relays = relays;
+    }
+
+    static TraceExtension start(long originMillis) {
+        return new TraceExtension(originMillis, 0, 0, new int[0]);
+    }
+
+    //The trace to send back to the origin, ending with the destination's alias
+    TraceExtension echoedBy(int alias) {
+        int[] path = relays.length < MAX_RELAYS ? append(relays, alias) : relays;
+        return new TraceExtension(originMillis, hops, flags | FLAG_ECHOED, path);
+    }
+
+    boolean isEchoed() {
+        return (flags & FLAG_ECHOED) != 0;
+    }
+
+    int length() {
+        return length(relays.length);
+    }
+
+    static int length(int relays) {
+        return FIXED_LENGTH + relays * CompactHeader.ALIAS_LENGTH;
+    }
+
+    void writeTo(ByteBuffer buffer) {
+        buffer.putLong(originMillis);
+        for (int relay : relays) buffer.putInt(relay);
+        buffer.put((byte) hops);
+        buffer.put((byte) flags);
+        buffer.put((byte) relays.length);
+    }
+
+    //The trace filling frame from position to its limit
+    static TraceExtension read(ByteBuffer frame, int position) {
+        int limit = frame.limit();
+        if (limit - position < FIXED_LENGTH) {
+            throw new IllegalArgumentException("Trace cut short. length=" + (limit - position));
+        }
+        int count = frame.get(limit - 1) & 0xFF;
+        if (count > MAX_RELAYS || length(count) != limit - position) {
+            throw new IllegalArgumentException("Trace length does not match its relays. relays=" + count);
+        }
+        int[] relays = new int[count];
+        for (int i = 0; i < count; i++) relays[i] = frame.getInt(position + 8 + i * CompactHeader.ALIAS_LENGTH);
+        return new TraceExtension(frame.getLong(position), frame.get(limit - 3) & 0xFF, frame.get(limit - 2) & 0xFF, relays);
+    }
+
+    //A frame that ends with a trace, one hop further and with the relay's alias listed. The frame
+    //grows by an alias, so it is copied, unless the list is full and only the hops are patched in place.
+    static byte[] withRelay(byte[] frame, int alias) {
+        int count = frame[frame.length - 1] & 0xFF;
+        int hops = Math.min(MAX_HOPS, (frame[frame.length - 3] & 0xFF) + 1);
+        if (count >= MAX_RELAYS) {
+            frame[frame.length - 3] = (byte) hops;
+            return frame;
+        }
+        byte[] copy = Arrays.copyOf(frame, frame.length + CompactHeader.ALIAS_LENGTH);
+        int tail = frame.length - 3;
+        ByteBuffer.wrap(copy).putInt(tail, alias);
+        copy[copy.length - 3] = (byte) hops;
+        copy[copy.length - 2] = frame[frame.length - 2];
+        copy[copy.length - 1] = (byte) (count + 1);
+        return copy;
+    }
+
+    private static int[] append(int[] relays, int alias) {
+        int[] path = Arrays.copyOf(relays, relays.length + 1);
+        path[relays.length] = alias;
+        return path;
+    }
+}
@@ -0,0 +1,13 @@
+package com.example.mesh_base.router;
+
+//How outbound frames are scheduled against each other when a transport falls behind, most urgent first
+public enum TrafficClass {
+    //ACKs and selective ACKs, a sender times out without them
+    CONTROL,
+    //packets this node originated
+    LOCAL,
+    //other nodes' packets passing through
+    RELAY,
+    //fragments of large windowed transfers
+    BULK
+}
@@ -0,0 +1,8 @@
+package com.example.mesh_base.router;
+
+public interface TransferListener {
+
+    void onTransferComplete(TransferStats stats);
+
+    void onTransferFailed(TransferStats stats);
+}
@@ -0,0 +1,70 @@
+package com.example.mesh_base.router;
+
+//How a windowed transfer of a large message went, reported once it completes or fails
+public class TransferStats {
+    private final int messageId;
+    private final int bytes;
+    private final int fragments;
+    private final int fragmentsSent;
+    private final int retransmissions;
+    private final int timeouts;
+    private final long durationMillis;
+    private final boolean isComplete;
+
+    TransferStats(int messageId, int bytes, int fragments, int fragmentsSent, int retransmissions, int timeouts, long durationMillis, boolean isComplete) {
+        this.messageId = messageId;
+        this.bytes = bytes;
+        this.fragments = fragments;
+        this.fragmentsSent = fragmentsSent;
+        this.retransmissions = retransmissions;
+        this.timeouts = timeouts;
+        this.durationMillis = durationMillis;
+        this.isComplete = isComplete;
+    }
+
+    public int getMessageId() {
+        return messageId;
+    }
+
+    public int getBytes() {
+        return bytes;
+    }
+
+    public int getFragments() {
+        return fragments;
+    }
+
+    //first transmissions and retransmissions together
+    public int getFragmentsSent() {
+        return fragmentsSent;
+    }
+
+    public int getRetransmissions() {
+        return retransmissions;
+    }
+
+    public int getTimeouts() {
+        return timeouts;
+    }
+
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    public boolean isComplete() {
+        return isComplete;
+    }
+
+    //encoded message bytes per second, a transfer completing within the same millisecond counts as one
+    public long getThroughput() {
+        return bytes * 1000L / Math.max(1L, durationMillis);
+    }
+
+    @Override
+    public String toString() {
+        return "TransferStats{messageId=" + messageId + ", bytes=" + bytes + ", fragments=" + fragments
+                + ", fragmentsSent=" + fragmentsSent + ", retransmissions=" + retransmissions
+                + ", timeouts=" + timeouts + ", durationMillis=" + durationMillis
+                + ", throughput=" + getThroughput() + "B/s, isComplete=" + isComplete + "}";
+    }
+}
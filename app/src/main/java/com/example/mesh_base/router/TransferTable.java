@@ -0,0 +1,233 @@
+package com.example.mesh_base.router;
+
+import java.util.ArrayList;
+import java.util.UUID;
+
+//Large unicast messages sent as a window of fragments. At most window fragments are in flight; the
+//destination answers with selective ACKs, and every acknowledged fragment lets the next one go. A
+//fragment still missing while one sent after it was acknowledged is taken as lost and is the only
+//one sent again. When nothing is acknowledged for a retransmission timeout every fragment in flight
+//is sent again, and after maxRetries such rounds without progress the transfer fails.
+class TransferTable {
+    static final int DEFAULT_WINDOW = 8;
+    static final long DEFAULT_RTO_MILLIS = 2_000L;
+    static final int DEFAULT_MAX_RETRIES = 5;
+
+    private final ConcurrentIntMap<Transfer> transfers = new ConcurrentIntMap<>();
+    private final TimerWheel timer;
+    private final Callbacks callbacks;
+    private volatile Policy policy = new Policy(DEFAULT_WINDOW, DEFAULT_RTO_MILLIS, DEFAULT_MAX_RETRIES);
+
+    TransferTable(TimerWheel timer, Callbacks callbacks) {
+        this.timer = timer;
+        this.callbacks = callbacks;
+    }
+
+    void setPolicy(int window, long rtoMillis, int maxRetries) {
+        if (window <= 0 || rtoMillis <= 0 || maxRetries < 0) {
+            throw new IllegalArgumentException("invalid transfer policy");
+        }
+        policy = new Policy(window, rtoMillis, maxRetries);
+    }
+
+    void start(int messageId, UUID destination, ArrayList<byte[]> fragments, int bytes) {
+        Transfer transfer = new Transfer(messageId, destination, fragments.toArray(new byte[0][]), bytes, policy);
+        Transfer previous = transfers.put(messageId, transfer);
+        if (previous != null) {
+            synchronized (previous) {
+                previous.isFinished = true;
+            }
+            timer.cancel(previous);
+        }
+
+        ArrayList<Integer> toSend = new ArrayList<>();
+        synchronized (transfer) {
+            transfer.fillWindow(toSend);
+            timer.schedule(transfer, transfer.policy.rtoMillis);
+        }
+        send(transfer, toSend);
+    }
+
+    void onSelectiveAck(SelectiveAckBody ack) {
+        Transfer transfer = transfers.get(ack.getTransferMessageId());
+        if (transfer == null) return;
+
+        ArrayList<Integer> toSend = new ArrayList<>();
+        TransferStats finished = null;
+        synchronized (transfer) {
+            if (transfer.isFinished || ack.getFragmentCount() != transfer.fragments.length) return;
+
+            long newestAcked = 0;
+            boolean progressed = false;
+            for (int i = 0; i < transfer.fragments.length; i++) {
+                if (!ack.isReceived(i)) continue;
+                newestAcked = Math.max(newestAcked, transfer.sentSeq[i]);
+                if (transfer.acked[i]) continue;
+                transfer.acked[i] = true;
+                transfer.ackedCount++;
+                if (i < transfer.nextUnsent) transfer.inFlight--;
+                progressed = true;
+            }
+            if (transfer.ackedCount == transfer.fragments.length) {
+                finished = finish(transfer, true);
+            } else {
+                //anything sent before a fragment that made it, yet not acknowledged itself, was lost
+                for (int i = 0; i < transfer.nextUnsent; i++) {
+                    if (transfer.isOutstanding(i) && transfer.sentSeq[i] < newestAcked) {
+                        toSend.add(transfer.retransmit(i));
+                    }
+                }
+                transfer.fillWindow(toSend);
+                if (progressed) {
+                    transfer.consecutiveTimeouts = 0;
+                    timer.schedule(transfer, transfer.policy.rtoMillis);
+                }
+            }
+        }
+        send(transfer, toSend);
+        if (finished != null) callbacks.onComplete(finished);
+    }
+
+    //The destination acknowledged or answered the whole message, its selective ACK may still be on the way
+    void complete(int messageId) {
+        Transfer transfer = transfers.get(messageId);
+        if (transfer == null) return;
+        TransferStats finished;
+        synchronized (transfer) {
+            if (transfer.isFinished) return;
+            finished = finish(transfer, true);
+        }
+        callbacks.onComplete(finished);
+    }
+
+    int size() {
+        return transfers.size();
+    }
+
+    private void onExpire(Transfer transfer) {
+        ArrayList<Integer> toSend = new ArrayList<>();
+        TransferStats failed = null;
+        synchronized (transfer) {
+            if (transfer.isFinished) return;
+            transfer.timeouts++;
+            if (++transfer.consecutiveTimeouts > transfer.policy.maxRetries) {
+                failed = finish(transfer, false);
+            } else {
+                for (int i = 0; i < transfer.nextUnsent; i++) {
+                    if (transfer.isOutstanding(i)) toSend.add(transfer.retransmit(i));
+                }
+                timer.schedule(transfer, transfer.policy.rtoMillis);
+            }
+        }
+        if (failed != null) {
+            callbacks.onFailed(failed);
+            return;
+        }
+        send(transfer, toSend);
+    }
+
+    //called holding the transfer's lock, the outcome is reported once it is released
+    private TransferStats finish(Transfer transfer, boolean isComplete) {
+        transfer.isFinished = true;
+        transfers.remove(transfer.messageId, transfer);
+        timer.cancel(transfer);
+        return new TransferStats(transfer.messageId, transfer.bytes, transfer.fragments.length,
+                transfer.fragmentsSent, transfer.retransmissions, transfer.timeouts,
+                timer.now() - transfer.startedAt, isComplete);
+    }
+
+    //Outside the transfer's lock, a transport may deliver a selective ACK back on this very thread.
+    //The send order is stamped as each fragment goes out, so one still queued here is never taken as lost.
+    //The last fragment of the burst asks for a selective ACK straight away, whatever the window size.
+    private void send(Transfer transfer, ArrayList<Integer> indexes) {
+        for (int i = 0; i < indexes.size(); i++) {
+            int index = indexes.get(i);
+            byte[] fragment;
+            synchronized (transfer) {
+                if (transfer.isFinished || transfer.acked[index]) continue;
+                fragment = transfer.fragments[index];
+                transfer.sentSeq[index] = ++transfer.lastSeq;
+                transfer.fragmentsSent++;
+                if (Fragmenter.attempt(fragment) > 0) transfer.retransmissions++;
+            }
+            callbacks.send(i == indexes.size() - 1 ? Fragmenter.withAckRequest(fragment) : fragment, transfer.destination);
+        }
+    }
+
+    interface Callbacks {
+        void send(byte[] fragment, UUID destination);
+
+        void onComplete(TransferStats stats);
+
+        void onFailed(TransferStats stats);
+    }
+
+    private static class Policy {
+        final int window;
+        final long rtoMillis;
+        final int maxRetries;
+
+        Policy(int window, long rtoMillis, int maxRetries) {
+            this.window = window;
+            this.rtoMillis = rtoMillis;
+            this.maxRetries = maxRetries;
+        }
+    }
+
+    private class Transfer extends TimerWheel.Timeout {
+        final int messageId;
+        final UUID destination;
+        final byte[][] fragments;
+        final int bytes;
+        final Policy policy;
+        final long startedAt;
+        final boolean[] acked;
+        //order in which fragments last went out, zero while waiting to be sent
+        final long[] sentSeq;
+        long lastSeq = 0;
+        int nextUnsent = 0;
+        int inFlight = 0;
+        int ackedCount = 0;
+        int fragmentsSent = 0;
+        int retransmissions = 0;
+        int timeouts = 0;
+        int consecutiveTimeouts = 0;
+        boolean isFinished = false;
+
+        Transfer(int messageId, UUID destination, byte[][] fragments, int bytes, Policy policy) {
+            this.messageId = messageId;
+            this.destination = destination;
+            this.fragments = fragments;
+            this.bytes = bytes;
+            this.policy = policy;
+            this.startedAt = timer.now();
+            this.acked = new boolean[fragments.length];
+            this.sentSeq = new long[fragments.length];
+        }
+
+        void fillWindow(ArrayList<Integer> toSend) {
+            while (inFlight < policy.window && nextUnsent < fragments.length) {
+                int index = nextUnsent++;
+                if (acked[index]) continue;
+                inFlight++;
+                toSend.add(index);
+            }
+        }
+
+        //sent and neither acknowledged nor queued to be sent again
+        boolean isOutstanding(int index) {
+            return !acked[index] && sentSeq[index] != 0;
+        }
+
+        int retransmit(int index) {
+            fragments[index] = Fragmenter.retransmission(fragments[index]);
+            sentSeq[index] = 0;
+            return index;
+        }
+
+        @Override
+        protected void onExpire() {
+            TransferTable.this.onExpire(this);
+        }
+    }
+}
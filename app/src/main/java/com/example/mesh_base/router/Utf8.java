@@ -0,0 +1,98 @@
+package com.example.mesh_base.router;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+//UTF-8 for message bodies, written straight into the frame's buffer. Runs of ASCII take a fast
+//path of one byte per char. An unpaired surrogate is written as '?', like String.getBytes(UTF_8).
+final class Utf8 {
+    private static final byte REPLACEMENT = '?';
+
+    private Utf8() {
+    }
+
+    //Bytes encode writes for text
+    static int encodedLength(CharSequence text) {
+        int length = text.length();
+        int bytes = length;
+        int i = 0;
+        while (i < length && text.charAt(i) < 0x80) i++;
+        for (; i < length; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) continue;
+            if (c < 0x800) {
+                bytes += 1;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+                //4 bytes for the pair's 2 chars
+                bytes += 2;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                //replaced by a single byte
+            } else {
+                bytes += 2;
+            }
+        }
+        return bytes;
+    }
+
+    //Returns the number of bytes written
+    static int encode(CharSequence text, ByteBuffer buffer) {
+        if (!buffer.hasArray()) return encodeSlow(text, buffer);
+        byte[] out = buffer.array();
+        int start = buffer.arrayOffset() + buffer.position();
+        int limit = buffer.arrayOffset() + buffer.limit();
+        int length = text.length();
+        int p = start;
+        int i = 0;
+        int asciiEnd = Math.min(length, limit - p);
+        for (char c; i < asciiEnd && (c = text.charAt(i)) < 0x80; i++) out[p++] = (byte) c;
+        for (; i < length; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                ensure(p, 1, limit);
+                out[p++] = (byte) c;
+            } else if (c < 0x800) {
+                ensure(p, 2, limit);
+                out[p++] = (byte) (0xC0 | c >> 6);
+                out[p++] = (byte) (0x80 | c & 0x3F);
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                ensure(p, 4, limit);
+                out[p++] = (byte) (0xF0 | codePoint >> 18);
+                out[p++] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+                out[p++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+                out[p++] = (byte) (0x80 | codePoint & 0x3F);
+            } else if (Character.isSurrogate(c)) {
+                ensure(p, 1, limit);
+                out[p++] = REPLACEMENT;
+            } else {
+                ensure(p, 3, limit);
+                out[p++] = (byte) (0xE0 | c >> 12);
+                out[p++] = (byte) (0x80 | c >> 6 & 0x3F);
+                out[p++] = (byte) (0x80 | c & 0x3F);
+            }
+        }
+        buffer.position(p - buffer.arrayOffset());
+        return p - start;
+    }
+
+    //Direct and read-only buffers
+    private static int encodeSlow(CharSequence text, ByteBuffer buffer) {
+        byte[] bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+        buffer.put(bytes);
+        return bytes.length;
+    }
+
+    private static void ensure(int position, int bytes, int limit) {
+        if (position + bytes > limit) throw new BufferOverflowException();
+    }
+
+    //length bytes of UTF-8 read from data at offset. Malformed input decodes to U+FFFD.
+    static String decode(byte[] data, int offset, int length) {
+        if (length < 0 || offset < 0 || length > data.length - offset) {
+            throw new IllegalArgumentException("Text runs past the body. length=" + length + " available=" + (data.length - offset));
+        }
+        return new String(data, offset, length, StandardCharsets.UTF_8);
+    }
+}
@@ -1,7 +1,10 @@
 package com.example.mesh_base;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mockStatic;
 
@@ -14,8 +17,12 @@ import org.junit.runner.RunWith;
 import org.mockito.MockedStatic;
 import org.mockito.junit.MockitoJUnitRunner;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.security.PrivateKey;
 import java.security.PublicKey;
+import java.util.Arrays;
+import java.util.Random;
 import java.util.UUID;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -138,6 +145,78 @@ public class CryptHandlerUnitTest {
         }
     }
 
+    @Test
+    public void testEnvelopeEncryptDecrypt_largePayload() {
+        try (MockedStatic<Log> log = mockStatic(Log.class)) {
+            CryptHandler cryptoHandler = new CryptHandler();
+            cryptoHandler.generateKeyPair();
+            PublicKey publicKey = cryptoHandler.getPublicKey();
+            PrivateKey privateKey = cryptoHandler.getPrivateKey();
+            byte[] plaintext = new byte[16 * 1024];
+            new Random(23).nextBytes(plaintext);
+
+            byte[] envelope = cryptoHandler.encrypt(plaintext, publicKey);
+            assertNotNull(envelope);
+            // A fixed overhead whatever the payload size, no Base64
+            assertEquals(CryptHandler.sealedLength(plaintext.length, publicKey), envelope.length);
+            assertEquals(plaintext.length + 275, envelope.length);
+            assertArrayEquals(plaintext, cryptoHandler.decrypt(envelope, privateKey));
+
+            // Every envelope gets a content key of its own
+            byte[] again = cryptoHandler.encrypt(plaintext, publicKey);
+            assertFalse(Arrays.equals(envelope, again));
+            assertArrayEquals(new byte[0], cryptoHandler.decrypt(cryptoHandler.encrypt(new byte[0], publicKey), privateKey));
+        }
+    }
+
+    @Test
+    public void testEnvelopeEncryptDecrypt_withBytesAndBuffers() {
+        try (MockedStatic<Log> log = mockStatic(Log.class)) {
+            CryptHandler cryptoHandler = new CryptHandler();
+            cryptoHandler.generateKeyPair();
+            byte[] publicKeyBytes = cryptoHandler.getPublicKey().getEncoded();
+            byte[] privateKeyBytes = cryptoHandler.getPrivateKey().getEncoded();
+            byte[] plaintext = "This is a test message.".getBytes(StandardCharsets.UTF_8);
+
+            byte[] envelope = cryptoHandler.encrypt(plaintext, publicKeyBytes);
+            assertArrayEquals(plaintext, cryptoHandler.decrypt(envelope, privateKeyBytes));
+
+            // Only the buffers' remaining bytes are read, direct buffers included
+            ByteBuffer source = ByteBuffer.allocateDirect(plaintext.length + 8);
+            source.position(4);
+            source.put(plaintext).flip().position(4);
+            ByteBuffer sealed = cryptoHandler.encrypt(source, cryptoHandler.getPublicKey());
+            assertEquals(0, source.remaining());
+            ByteBuffer framed = ByteBuffer.allocate(sealed.remaining() + 2);
+            framed.put((byte) 7).put(sealed).put((byte) 7).flip().position(1).limit(framed.limit() - 1);
+            ByteBuffer opened = cryptoHandler.decrypt(framed, cryptoHandler.getPrivateKey());
+            byte[] decrypted = new byte[opened.remaining()];
+            opened.get(decrypted);
+            assertArrayEquals(plaintext, decrypted);
+        }
+    }
+
+    @Test
+    public void testEnvelopeDecrypt_rejectsTamperingAndOtherKeys() {
+        try (MockedStatic<Log> log = mockStatic(Log.class)) {
+            CryptHandler cryptoHandler = new CryptHandler();
+            cryptoHandler.generateKeyPair();
+            CryptHandler other = new CryptHandler();
+            other.generateKeyPair();
+            byte[] envelope = cryptoHandler.encrypt(new byte[100], cryptoHandler.getPublicKey());
+
+            assertNull(other.decrypt(envelope, other.getPrivateKey()));
+            // Wrapped key, ciphertext and tag are all covered
+            for (int i : new int[]{3, 200, envelope.length - 50, envelope.length - 1}) {
+                byte[] tampered = envelope.clone();
+                tampered[i] ^= 1;
+                assertNull(cryptoHandler.decrypt(tampered, cryptoHandler.getPrivateKey()));
+            }
+            assertNull(cryptoHandler.decrypt(Arrays.copyOf(envelope, 100), cryptoHandler.getPrivateKey()));
+            assertNull(cryptoHandler.decrypt(new byte[0], cryptoHandler.getPrivateKey()));
+        }
+    }
+
     @Test
     public void testConvertBytesToPublicKey() {
         try (MockedStatic<Log> log = mockStatic(Log.class)) { // Mock Log
@@ -2,6 +2,7 @@ package com.example.mesh_base;
 
 import static org.junit.Assert.assertEquals;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
@@ -98,8 +99,9 @@ public class RouterUnitTest {
         // onData is called, ACK is sent
         verify(routerListener).onData(any(), any());
 
+        // ACK goes back through the neighbor the request came from
         ArgumentCaptor<byte[]> responseCaptor = ArgumentCaptor.forClass(byte[].class);
-        verify(handler).send(responseCaptor.capture());
+        verify(handler).send(responseCaptor.capture(), eq(sender));
 
         assertEquals(MeshProtocol.getByteType(responseCaptor.getValue()), ProtocolType.ACK);
     }
@@ -0,0 +1,39 @@
+package com.example.mesh_base.ble;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+public class NegotiatedMtusTest {
+
+    @Test
+    public void testLinkStillNegotiating_isLeftOut() {
+        NegotiatedMtus mtus = new NegotiatedMtus();
+        mtus.put("a", 247);
+
+        //b has no MTU yet, it does not shrink every frame down to the 23 byte default
+        assertEquals(244, mtus.smallestFrameSize(Arrays.asList("a", "b", null), 512));
+        assertEquals(0, mtus.frameSizeOf("b"));
+        //nothing negotiated yet
+        assertEquals(512, mtus.smallestFrameSize(Collections.singletonList("b"), 512));
+
+        mtus.put("b", 185);
+        assertEquals(182, mtus.smallestFrameSize(Arrays.asList("a", "b"), 512));
+        mtus.remove("b");
+        assertEquals(244, mtus.smallestFrameSize(Arrays.asList("a", "b"), 512));
+    }
+
+    @Test
+    public void testLargestMtu_isClampedToTheAttributeSize() {
+        NegotiatedMtus mtus = new NegotiatedMtus();
+        mtus.put("a", 517);
+
+        assertEquals(NegotiatedMtus.MAX_ATTRIBUTE_SIZE, mtus.frameSizeOf("a"));
+        assertEquals(NegotiatedMtus.MAX_ATTRIBUTE_SIZE, NegotiatedMtus.frameSizeOf(517));
+        assertEquals(NegotiatedMtus.MAX_ATTRIBUTE_SIZE, NegotiatedMtus.frameSizeOf(515));
+        assertEquals(511, NegotiatedMtus.frameSizeOf(514));
+    }
+}
@@ -0,0 +1,157 @@
+package com.example.mesh_base.crypt_handler;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mockStatic;
+
+import android.util.Log;
+
+import org.junit.Test;
+import org.mockito.MockedStatic;
+
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class CryptHandlerCacheUnitTest {
+
+    @Test
+    public void testBytesToPublicKey_decodesEachKeyOnce() throws Exception {
+        CryptHandler.clearCaches();
+        CryptHandler cryptoHandler = new CryptHandler();
+        cryptoHandler.generateKeyPair();
+        byte[] publicKeyBytes = cryptoHandler.getPublicKey().getEncoded();
+
+        PublicKey decoded = cryptoHandler.bytesToPublicKey(publicKeyBytes);
+        assertEquals(cryptoHandler.getPublicKey(), decoded);
+        // Equal bytes in another array, from another CryptHandler
+        assertSame(decoded, new CryptHandler().bytesToPublicKey(publicKeyBytes.clone()));
+        // The cache keeps its own copy of the bytes
+        byte[] original = publicKeyBytes.clone();
+        publicKeyBytes[publicKeyBytes.length - 1] ^= 1;
+        assertSame(decoded, cryptoHandler.bytesToPublicKey(original));
+
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(1024);
+        PublicKey other = generator.generateKeyPair().getPublic();
+        assertNotSame(decoded, cryptoHandler.bytesToPublicKey(other.getEncoded()));
+        assertEquals(other, cryptoHandler.bytesToPublicKey(other.getEncoded()));
+    }
+
+    @Test
+    public void testBytesToPrivateKey_cachedPerInstanceOnly() {
+        CryptHandler cryptoHandler = new CryptHandler();
+        cryptoHandler.generateKeyPair();
+        byte[] privateKeyBytes = cryptoHandler.getPrivateKey().getEncoded();
+
+        PrivateKey decoded = cryptoHandler.bytesToPrivateKey(privateKeyBytes);
+        assertEquals(cryptoHandler.getPrivateKey(), decoded);
+        assertSame(decoded, cryptoHandler.bytesToPrivateKey(privateKeyBytes.clone()));
+        // Another CryptHandler decodes its own copy
+        PrivateKey other = new CryptHandler().bytesToPrivateKey(privateKeyBytes);
+        assertNotSame(decoded, other);
+        assertEquals(decoded, other);
+        // Clearing the shared caches leaves the instance's private keys alone
+        CryptHandler.clearCaches();
+        assertSame(decoded, cryptoHandler.bytesToPrivateKey(privateKeyBytes));
+    }
+
+    @Test
+    public void testKeyCache_isBounded() throws Exception {
+        CryptHandler.clearCaches();
+        CryptHandler cryptoHandler = new CryptHandler();
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(512);
+        byte[] first = generator.generateKeyPair().getPublic().getEncoded();
+        PublicKey decoded = cryptoHandler.bytesToPublicKey(first);
+        for (int i = 0; i < CryptHandler.KEY_CACHE_CAPACITY; i++) {
+            cryptoHandler.bytesToPublicKey(generator.generateKeyPair().getPublic().getEncoded());
+        }
+        assertEquals(CryptHandler.KEY_CACHE_CAPACITY, CryptHandler.cachedPublicKeys());
+        // The least recently used key was evicted and gets decoded again
+        assertNotSame(decoded, cryptoHandler.bytesToPublicKey(first));
+        assertEquals(decoded, cryptoHandler.bytesToPublicKey(first));
+    }
+
+    // Every thread works with instances of its own
+    @Test
+    public void testEnvelopes_fromManyThreads() throws Exception {
+        try (MockedStatic<Log> log = mockStatic(Log.class)) {
+            CryptHandler cryptoHandler = new CryptHandler();
+            cryptoHandler.generateKeyPair();
+            byte[] publicKeyBytes = cryptoHandler.getPublicKey().getEncoded();
+            byte[] privateKeyBytes = cryptoHandler.getPrivateKey().getEncoded();
+            ExecutorService executor = Executors.newFixedThreadPool(4);
+            try {
+                ArrayList<Future<?>> results = new ArrayList<>();
+                for (int t = 0; t < 4; t++) {
+                    int seed = t;
+                    results.add(executor.submit(() -> {
+                        Random random = new Random(seed);
+                        for (int i = 0; i < 50; i++) {
+                            byte[] plaintext = new byte[random.nextInt(2000)];
+                            random.nextBytes(plaintext);
+                            byte[] envelope = cryptoHandler.encrypt(plaintext, publicKeyBytes);
+                            assertArrayEquals(plaintext, cryptoHandler.decrypt(envelope, privateKeyBytes));
+                            assertEquals(cryptoHandler.fingerprintPublicKey(cryptoHandler.getPublicKey()), cryptoHandler.fingerprintPublicKey(publicKeyBytes));
+                        }
+                        return null;
+                    }));
+                }
+                for (Future<?> result : results) result.get();
+            } finally {
+                executor.shutdown();
+            }
+        }
+    }
+
+    // Each operation with every cache emptied first, against the same operation once they are warm
+    @Test
+    public void testBenchmark_coldAgainstWarm() {
+        try (MockedStatic<Log> log = mockStatic(Log.class)) {
+            CryptHandler cryptoHandler = new CryptHandler();
+            cryptoHandler.generateKeyPair();
+            byte[] publicKeyBytes = cryptoHandler.getPublicKey().getEncoded();
+            byte[] plaintext = new byte[1024];
+            new Random(25).nextBytes(plaintext);
+            CryptHandler bobIdentity = new CryptHandler();
+            bobIdentity.generateKeyPair();
+            SessionKeyCache alice = new SessionKeyCache(cryptoHandler);
+            SessionKeyCache bob = new SessionKeyCache(bobIdentity);
+            UUID peer = bobIdentity.fingerprintPublicKey(bobIdentity.getPublicKey());
+            byte[] bobKey = bob.getPublicKey();
+
+            bench("fingerprint from key bytes", () -> assertNotNull(cryptoHandler.fingerprintPublicKey(publicKeyBytes)));
+            bench("envelope encrypt 1 KB", () -> assertNotNull(cryptoHandler.encrypt(plaintext, publicKeyBytes)));
+            bench("session encrypt 1 KB", () -> assertNotNull(alice.encrypt(peer, bobKey, plaintext)));
+        }
+    }
+
+    private static void bench(String name, Runnable operation) {
+        int rounds = 2_000;
+        for (int i = 0; i < rounds; i++) {
+            CryptHandler.clearCaches();
+            operation.run();
+            operation.run();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            CryptHandler.clearCaches();
+            operation.run();
+        }
+        long coldNanos = (System.nanoTime() - start) / rounds;
+        start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) operation.run();
+        long warmNanos = (System.nanoTime() - start) / rounds;
+        System.out.println(name + ": cold " + coldNanos / 1_000 + " us, warm " + warmNanos / 1_000 + " us");
+    }
+}
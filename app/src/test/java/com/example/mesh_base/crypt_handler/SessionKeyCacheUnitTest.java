@@ -0,0 +1,287 @@
+package com.example.mesh_base.crypt_handler;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mockStatic;
+
+import android.util.Log;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.mockito.MockedStatic;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.UUID;
+
+public class SessionKeyCacheUnitTest {
+    //RSA identities take a while to generate, every test shares them
+    private static final CryptHandler[] identities = new CryptHandler[6];
+    private static CryptHandler aliceIdentity;
+    private static CryptHandler bobIdentity;
+    private static CryptHandler eveIdentity;
+    private static UUID ALICE;
+    private static UUID BOB;
+
+    private long now = 0;
+
+    @BeforeClass
+    public static void generateIdentities() {
+        for (int i = 0; i < identities.length; i++) {
+            identities[i] = new CryptHandler();
+            identities[i].generateKeyPair();
+        }
+        aliceIdentity = identities[0];
+        bobIdentity = identities[1];
+        eveIdentity = identities[2];
+        ALICE = idOf(aliceIdentity);
+        BOB = idOf(bobIdentity);
+    }
+
+    @Test
+    public void testEncryptDecrypt_bothWays() {
+        SessionKeyCache alice = new SessionKeyCache(aliceIdentity);
+        SessionKeyCache bob = new SessionKeyCache(bobIdentity);
+        byte[] plaintext = "This is a test message.".getBytes(StandardCharsets.UTF_8);
+
+        byte[] message = alice.encrypt(BOB, bob.getPublicKey(), plaintext);
+        assertNotNull(message);
+        assertEquals(plaintext.length + SessionKeyCache.HEADER_LENGTH + SessionKeyCache.TAG_LENGTH, message.length);
+        assertArrayEquals(plaintext, bob.decrypt(ALICE, alice.getPublicKey(), message));
+
+        byte[] reply = bob.encrypt(ALICE, alice.getPublicKey(), plaintext);
+        assertArrayEquals(plaintext, alice.decrypt(BOB, bob.getPublicKey(), reply));
+        //each direction has a key of its own
+        assertFalse(Arrays.equals(Arrays.copyOfRange(message, 1, 9), Arrays.copyOfRange(reply, 1, 9)));
+        assertEquals(1, alice.size());
+        assertEquals(1, bob.size());
+    }
+
+    @Test
+    public void testRekey_afterMessagesAndAfterTime() {
+        SessionKeyCache alice = new SessionKeyCache(aliceIdentity, 8, 3, 1_000, () -> now);
+        SessionKeyCache bob = new SessionKeyCache(bobIdentity);
+        byte[] plaintext = new byte[10];
+
+        byte[][] messages = new byte[4][];
+        for (int i = 0; i < messages.length; i++) messages[i] = alice.encrypt(BOB, bob.getPublicKey(), plaintext);
+        assertArrayEquals(keyIdOf(messages[0]), keyIdOf(messages[2]));
+        assertFalse(Arrays.equals(keyIdOf(messages[2]), keyIdOf(messages[3])));
+
+        now += 1_000;
+        byte[] late = alice.encrypt(BOB, bob.getPublicKey(), plaintext);
+        assertFalse(Arrays.equals(keyIdOf(messages[3]), keyIdOf(late)));
+
+        //messages sealed under earlier keys still open, whatever order they arrive in
+        assertArrayEquals(plaintext, bob.decrypt(ALICE, alice.getPublicKey(), late));
+        for (byte[] message : messages) assertArrayEquals(plaintext, bob.decrypt(ALICE, alice.getPublicKey(), message));
+    }
+
+    @Test
+    public void testCache_isBoundedAndRebuildsEvictedSessions() {
+        SessionKeyCache alice = new SessionKeyCache(aliceIdentity, 2, 100, 60_000);
+        SessionKeyCache[] peers = {new SessionKeyCache(identities[3]), new SessionKeyCache(identities[4]), new SessionKeyCache(identities[5])};
+        UUID[] ids = {idOf(identities[3]), idOf(identities[4]), idOf(identities[5])};
+        byte[] plaintext = new byte[]{1, 2, 3};
+
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < peers.length; i++) {
+                byte[] message = alice.encrypt(ids[i], peers[i].getPublicKey(), plaintext);
+                assertArrayEquals(plaintext, peers[i].decrypt(ALICE, alice.getPublicKey(), message));
+            }
+        }
+        assertEquals(2, alice.size());
+    }
+
+    @Test
+    public void testDecrypt_rejectsTamperingAndOtherPeers() {
+        try (MockedStatic<Log> log = mockStatic(Log.class)) {
+            SessionKeyCache alice = new SessionKeyCache(aliceIdentity);
+            SessionKeyCache bob = new SessionKeyCache(bobIdentity);
+            SessionKeyCache eve = new SessionKeyCache(eveIdentity);
+            byte[] message = alice.encrypt(BOB, bob.getPublicKey(), new byte[40]);
+
+            assertNull(eve.decrypt(ALICE, alice.getPublicKey(), message));
+            //the message is not taken as coming from someone else
+            assertNull(bob.decrypt(ALICE, eve.getPublicKey(), message));
+            for (int i : new int[]{1, 9, 20, message.length - 1}) {
+                byte[] tampered = message.clone();
+                tampered[i] ^= 1;
+                assertNull(bob.decrypt(ALICE, alice.getPublicKey(), tampered));
+            }
+            assertNull(bob.decrypt(ALICE, alice.getPublicKey(), Arrays.copyOf(message, 20)));
+            assertArrayEquals(new byte[40], bob.decrypt(ALICE, alice.getPublicKey(), message));
+        }
+    }
+
+    @Test
+    public void testSessionOf_refusesKeysNotSignedByThePeersIdentity() {
+        try (MockedStatic<Log> log = mockStatic(Log.class)) {
+            SessionKeyCache alice = new SessionKeyCache(aliceIdentity);
+            SessionKeyCache bob = new SessionKeyCache(bobIdentity);
+            SessionKeyCache eve = new SessionKeyCache(eveIdentity);
+
+            //eve's own signed key, passed off as alice's
+            assertNull(bob.encrypt(ALICE, eve.getPublicKey(), new byte[8]));
+            //alice's identity and signature around eve's ECDH key
+            byte[] swapped = withKeyOf(alice.getPublicKey(), eve.getPublicKey());
+            assertNull(bob.encrypt(ALICE, swapped, new byte[8]));
+            assertNull(bob.decrypt(ALICE, swapped, alice.encrypt(BOB, bob.getPublicKey(), new byte[8])));
+            byte[] forged = alice.getPublicKey();
+            forged[forged.length - 1] ^= 1;
+            assertNull(bob.encrypt(ALICE, forged, new byte[8]));
+            assertNull(bob.encrypt(ALICE, Arrays.copyOf(alice.getPublicKey(), 40), new byte[8]));
+            assertEquals(0, bob.size());
+
+            assertNotNull(bob.encrypt(ALICE, alice.getPublicKey(), new byte[8]));
+            assertEquals(1, bob.size());
+        }
+    }
+
+    @Test
+    public void testSessionOf_takesTheNewKeyOfARestartedPeer() {
+        try (MockedStatic<Log> log = mockStatic(Log.class)) {
+            SessionKeyCache alice = new SessionKeyCache(aliceIdentity);
+            SessionKeyCache bob = new SessionKeyCache(bobIdentity);
+            SessionKeyCache eve = new SessionKeyCache(eveIdentity);
+            byte[] plaintext = new byte[]{4, 5, 6};
+            byte[] old = alice.encrypt(BOB, bob.getPublicKey(), plaintext);
+            assertArrayEquals(plaintext, bob.decrypt(ALICE, alice.getPublicKey(), old));
+
+            //alice restarted with a new ECDH key, signed by the same identity
+            SessionKeyCache restarted = new SessionKeyCache(aliceIdentity);
+            byte[] message = restarted.encrypt(BOB, bob.getPublicKey(), plaintext);
+            assertArrayEquals(plaintext, bob.decrypt(ALICE, restarted.getPublicKey(), message));
+            assertArrayEquals(plaintext, restarted.decrypt(BOB, bob.getPublicKey(), bob.encrypt(ALICE, restarted.getPublicKey(), plaintext)));
+            assertEquals(1, bob.size());
+
+            //her key from before the restart, and its messages, do not come back
+            assertNull(bob.decrypt(ALICE, alice.getPublicKey(), old));
+            assertNull(bob.encrypt(ALICE, alice.getPublicKey(), plaintext));
+            //neither does a key signed by someone else
+            assertNull(bob.encrypt(ALICE, withKeyOf(restarted.getPublicKey(), eve.getPublicKey()), plaintext));
+            assertNull(bob.decrypt(ALICE, restarted.getPublicKey(), message));
+            assertArrayEquals(plaintext, bob.decrypt(ALICE, restarted.getPublicKey(), restarted.encrypt(BOB, bob.getPublicKey(), plaintext)));
+        }
+    }
+
+    @Test
+    public void testDecrypt_refusesReplays() {
+        try (MockedStatic<Log> log = mockStatic(Log.class)) {
+            SessionKeyCache alice = new SessionKeyCache(aliceIdentity, 8, 1_000, 60_000);
+            SessionKeyCache bob = new SessionKeyCache(bobIdentity);
+            byte[] plaintext = new byte[]{7};
+            byte[][] messages = new byte[SessionKeyCache.REPLAY_WINDOW + 3][];
+            for (int i = 0; i < messages.length; i++) messages[i] = alice.encrypt(BOB, bob.getPublicKey(), plaintext);
+
+            assertArrayEquals(plaintext, bob.decrypt(ALICE, alice.getPublicKey(), messages[1]));
+            assertNull(bob.decrypt(ALICE, alice.getPublicKey(), messages[1]));
+            //late but within the window, once
+            assertArrayEquals(plaintext, bob.decrypt(ALICE, alice.getPublicKey(), messages[0]));
+            assertNull(bob.decrypt(ALICE, alice.getPublicKey(), messages[0]));
+
+            assertArrayEquals(plaintext, bob.decrypt(ALICE, alice.getPublicKey(), messages[messages.length - 1]));
+            assertNull(bob.decrypt(ALICE, alice.getPublicKey(), messages[messages.length - 1]));
+            //too far behind to tell whether it was opened before
+            assertNull(bob.decrypt(ALICE, alice.getPublicKey(), messages[messages.length - 1 - SessionKeyCache.REPLAY_WINDOW]));
+            assertArrayEquals(plaintext, bob.decrypt(ALICE, alice.getPublicKey(), messages[messages.length - SessionKeyCache.REPLAY_WINDOW]));
+        }
+    }
+
+    @Test
+    public void testDecrypt_refusesReplaysUnderRetiredKeys() {
+        try (MockedStatic<Log> log = mockStatic(Log.class)) {
+            SessionKeyCache alice = new SessionKeyCache(aliceIdentity, 8, 1, 60_000);
+            SessionKeyCache bob = new SessionKeyCache(bobIdentity);
+            byte[] plaintext = new byte[]{8};
+            //every message under a key of its own, the first one's key is pushed out by the later ones
+            byte[][] messages = new byte[6][];
+            for (int i = 0; i < messages.length; i++) {
+                messages[i] = alice.encrypt(BOB, bob.getPublicKey(), plaintext);
+                assertArrayEquals(plaintext, bob.decrypt(ALICE, alice.getPublicKey(), messages[i]));
+            }
+            for (byte[] message : messages) assertNull(bob.decrypt(ALICE, alice.getPublicKey(), message));
+        }
+    }
+
+    @Test
+    public void testDecrypt_refusesReplaysUnderKeysRetiredLongAgo() {
+        try (MockedStatic<Log> log = mockStatic(Log.class)) {
+            SessionKeyCache alice = new SessionKeyCache(aliceIdentity, 8, 1, 60_000);
+            SessionKeyCache bob = new SessionKeyCache(bobIdentity);
+            byte[] plaintext = new byte[]{9};
+            byte[] first = alice.encrypt(BOB, bob.getPublicKey(), plaintext);
+            assertArrayEquals(plaintext, bob.decrypt(ALICE, alice.getPublicKey(), first));
+            for (int i = 0; i < 500; i++) {
+                assertArrayEquals(plaintext, bob.decrypt(ALICE, alice.getPublicKey(), alice.encrypt(BOB, bob.getPublicKey(), plaintext)));
+            }
+            assertNull(bob.decrypt(ALICE, alice.getPublicKey(), first));
+        }
+    }
+
+    //Per message cost of an RSA round trip on every message against a cached session
+    @Test
+    public void testBenchmark_sessionAgainstRsaPerMessage() {
+        try (MockedStatic<Log> log = mockStatic(Log.class)) {
+            CryptHandler cryptHandler = bobIdentity;
+            byte[] rsaPublicKey = cryptHandler.getPublicKey().getEncoded();
+            byte[] rsaPrivateKey = cryptHandler.getPrivateKey().getEncoded();
+            SessionKeyCache alice = new SessionKeyCache(aliceIdentity);
+            SessionKeyCache bob = new SessionKeyCache(bobIdentity);
+            String text = "are you coming to the meeting at the library later today?";
+            byte[] plaintext = text.getBytes(StandardCharsets.UTF_8);
+
+            int rounds = 1_000;
+            for (int i = 0; i < rounds; i++) {
+                cryptHandler.decrypt(cryptHandler.encrypt(text, rsaPublicKey), rsaPrivateKey);
+                bob.decrypt(ALICE, alice.getPublicKey(), alice.encrypt(BOB, bob.getPublicKey(), plaintext));
+            }
+            long start = System.nanoTime();
+            for (int i = 0; i < rounds; i++) {
+                assertEquals(text, cryptHandler.decrypt(cryptHandler.encrypt(text, rsaPublicKey), rsaPrivateKey));
+            }
+            long rsaNanos = (System.nanoTime() - start) / rounds;
+            start = System.nanoTime();
+            for (int i = 0; i < rounds; i++) {
+                assertNotNull(bob.decrypt(ALICE, alice.getPublicKey(), alice.encrypt(BOB, bob.getPublicKey(), plaintext)));
+            }
+            long sessionNanos = (System.nanoTime() - start) / rounds;
+
+            System.out.println("encrypt and decrypt " + plaintext.length + " bytes: rsa per message " + rsaNanos / 1_000
+                    + " us, session " + sessionNanos / 1_000 + " us");
+        }
+    }
+
+    private static byte[] keyIdOf(byte[] message) {
+        return Arrays.copyOfRange(message, 1, 9);
+    }
+
+    private static UUID idOf(CryptHandler identity) {
+        return identity.fingerprintPublicKey(identity.getPublicKey());
+    }
+
+    //The signed key with its ECDH key taken from another signed key, identity and signature kept
+    private static byte[] withKeyOf(byte[] signedKey, byte[] other) {
+        ByteBuffer source = ByteBuffer.wrap(signedKey);
+        byte[] identityKey = new byte[source.getShort()];
+        source.get(identityKey);
+        source.position(source.position() + source.getShort());
+        byte[] signature = new byte[source.remaining()];
+        source.get(signature);
+
+        ByteBuffer donor = ByteBuffer.wrap(other);
+        donor.position(donor.position() + donor.getShort());
+        byte[] key = new byte[donor.getShort()];
+        donor.get(key);
+
+        return ByteBuffer.allocate(4 + identityKey.length + key.length + signature.length)
+                .putShort((short) identityKey.length).put(identityKey)
+                .putShort((short) key.length).put(key)
+                .put(signature)
+                .array();
+    }
+}
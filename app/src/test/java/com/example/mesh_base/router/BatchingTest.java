@@ -0,0 +1,164 @@
+package com.example.mesh_base.router;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.example.mesh_base.global_interfaces.Device;
+import com.example.mesh_base.global_interfaces.SendError;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.UUID;
+
+public class BatchingTest {
+    //a 512 byte ATT MTU less the write header, as on BLE
+    private static final int FRAME_SIZE = 509;
+    private static final int MESSAGES = 40;
+    private final TestMesh mesh = new TestMesh();
+
+    @Test
+    public void testBurstToNeighbor_sharesFramesAndArrivesWhole() {
+        TestMesh.Node a = node("a", 100);
+        TestMesh.Node b = node("b", 100);
+        a.link.connect(b);
+
+        ArrayList<String> sent = new ArrayList<>();
+        CountingListener listener = new CountingListener();
+        for (int i = 0; i < MESSAGES; i++) {
+            sent.add("message " + i);
+            a.router.sendData(new ConcreteMeshProtocol<>(1, 0, 0, a.id, b.id, new SendMessageBody(4, false, "message " + i)), listener);
+        }
+        //nothing leaves before the linger time unless a frame fills up
+        assertTrue(a.link.sent.size() < MESSAGES / 4);
+        //but what did arrive is ACKed already, ACKs never wait for the linger
+        assertTrue(b.received.size() > 0);
+        assertEquals(b.received.size(), listener.acks);
+        mesh.advanceTo(200);
+
+        assertEquals(sent, messagesOf(b));
+        assertEquals(MESSAGES, listener.acks);
+        assertTrue(a.router.getBatchedFrames() > 0);
+        //b had nothing else for a, every ACK went out on its own
+        assertEquals(MESSAGES, b.link.sent.size());
+        assertEquals(0, a.router.batcher.size());
+        assertEquals(0, b.router.batcher.size());
+    }
+
+    @Test
+    public void testOversizedFrame_flushesQueuedFramesFirst() {
+        ArrayList<byte[]> written = new ArrayList<>();
+        Device neighbor = new Device(UUID.randomUUID(), "n") {
+        };
+        OutboundBatcher batcher = new OutboundBatcher(new TimerWheel(10, 64, () -> mesh.now), new BufferPool(), (handler, data, to, trafficClass) -> written.add(data));
+        batcher.setLingerMillis(100);
+        TestMesh.Link link = node("owner", 0).link;
+
+        byte[] small1 = {0, 0, 0, 1};
+        byte[] small2 = {0, 0, 0, 2};
+        assertTrue(batcher.offer(link, neighbor, small1, TrafficClass.LOCAL));
+        assertTrue(batcher.offer(link, neighbor, small2, TrafficClass.LOCAL));
+        assertFalse(batcher.offer(link, neighbor, new byte[FRAME_SIZE], TrafficClass.LOCAL));
+
+        assertEquals(1, written.size());
+        assertTrue(OutboundBatcher.isBatch(written.get(0)));
+        ArrayList<byte[]> frames = OutboundBatcher.unpack(written.get(0));
+        assertEquals(2, frames.size());
+        assertArrayEquals(small1, frames.get(0));
+        assertArrayEquals(small2, frames.get(1));
+        assertEquals(0, batcher.size());
+    }
+
+    @Test
+    public void testControlFrame_sendsQueuedFramesAlongRightAway() {
+        ArrayList<byte[]> written = new ArrayList<>();
+        Device neighbor = new Device(UUID.randomUUID(), "n") {
+        };
+        OutboundBatcher batcher = new OutboundBatcher(new TimerWheel(10, 64, () -> mesh.now), new BufferPool(), (handler, data, to, trafficClass) -> {
+            written.add(data);
+            assertEquals(TrafficClass.CONTROL, trafficClass);
+        });
+        batcher.setLingerMillis(100);
+        TestMesh.Link link = node("owner", 0).link;
+
+        byte[] message = {0, 0, 0, 1};
+        byte[] ack = {0, 0, 0, 2};
+        assertTrue(batcher.offer(link, neighbor, message, TrafficClass.LOCAL));
+        assertTrue(written.isEmpty());
+        assertTrue(batcher.offer(link, neighbor, ack, TrafficClass.CONTROL));
+
+        assertEquals(1, written.size());
+        ArrayList<byte[]> frames = OutboundBatcher.unpack(written.get(0));
+        assertEquals(2, frames.size());
+        assertArrayEquals(message, frames.get(0));
+        assertArrayEquals(ack, frames.get(1));
+        assertEquals(0, batcher.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testLingerShorterThanTick_isRefused() {
+        node("a", 5);
+    }
+
+    //Transport writes per message for a burst of short unicast chat messages and their ACKs,
+    //the cost that dominates on BLE where every write is a GATT round trip. ACKs go out as soon as
+    //they are queued, only the messages share writes.
+    @Test
+    public void benchmarkWritesPerMessage() {
+        long[] writes = new long[2];
+        long[] messageWrites = new long[2];
+        long[] linger = {0, 100};
+        for (int run = 0; run < 2; run++) {
+            TestMesh.Node a = node("a", linger[run]);
+            TestMesh.Node b = node("b", linger[run]);
+            a.link.connect(b);
+            CountingListener listener = new CountingListener();
+            for (int i = 0; i < MESSAGES; i++) {
+                a.router.sendData(new ConcreteMeshProtocol<>(1, 0, 0, a.id, b.id, new SendMessageBody(4, false, "a short chat line " + i)), listener);
+            }
+            mesh.advanceTo(mesh.now + 200);
+            assertEquals(MESSAGES, b.received.size());
+            writes[run] = a.link.sent.size() + b.link.sent.size();
+            messageWrites[run] = a.link.sent.size();
+        }
+
+        System.out.println("transport writes for " + MESSAGES + " messages and their acks");
+        System.out.println("  unbatched  " + writes[0] + " (" + messageWrites[0] + " for messages)");
+        System.out.println("  batched    " + writes[1] + " (" + messageWrites[1] + " for messages)");
+        assertEquals(2 * MESSAGES, writes[0]);
+        assertTrue(messageWrites[1] * 4 <= messageWrites[0]);
+    }
+
+    private static class CountingListener implements SendListener {
+        int acks = 0;
+
+        @Override
+        public void onError(SendError error) {
+            throw new AssertionError(error);
+        }
+
+        @Override
+        public void onAck() {
+            acks++;
+        }
+
+        @Override
+        public void onResponse(MeshProtocol<?> protocol) {
+        }
+    }
+
+    private TestMesh.Node node(String name, long lingerMillis) {
+        TestMesh.Node node = mesh.node(name);
+        node.link.frameSize = FRAME_SIZE;
+        node.router.setBatchLinger(lingerMillis);
+        return node;
+    }
+
+    private static ArrayList<String> messagesOf(TestMesh.Node node) {
+        ArrayList<String> messages = new ArrayList<>();
+        for (MeshProtocol<?> protocol : node.received) messages.add(((SendMessageBody) protocol.getBody()).getMsg());
+        return messages;
+    }
+}
@@ -0,0 +1,200 @@
+package com.example.mesh_base.router;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class BufferPoolTest {
+    private static final int BENCHMARK_PACKETS = 200_000;
+
+    @Test
+    public void testReleasedBuffer_isHandedOutAgain() {
+        BufferPool pool = new BufferPool(2);
+        ByteBuffer first = pool.acquire(100);
+        assertEquals(128, first.capacity());
+        first.put((byte) 1);
+        pool.release(first);
+
+        ByteBuffer again = pool.acquire(65);
+        assertSame(first, again);
+        assertEquals(0, again.position());
+        assertEquals(1, pool.getAllocations());
+
+        //too large to keep
+        ByteBuffer large = pool.acquire(1 << 20);
+        pool.release(large);
+        assertNotSame(large, pool.acquire(1 << 20));
+    }
+
+    @Test
+    public void testConcurrentThreads_neverShareABuffer() throws InterruptedException {
+        BufferPool pool = new BufferPool(4);
+        AtomicInteger collisions = new AtomicInteger();
+        ArrayList<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            final byte mark = (byte) (t + 1);
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 20_000; i++) {
+                    ByteBuffer buffer = pool.acquire(200);
+                    Arrays.fill(buffer.array(), mark);
+                    Thread.yield();
+                    for (byte b : buffer.array()) {
+                        if (b != mark) {
+                            collisions.incrementAndGet();
+                            break;
+                        }
+                    }
+                    pool.release(buffer);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) thread.join();
+        assertEquals(0, collisions.get());
+    }
+
+    @Test
+    public void testEncodeInto_writesWhatEncodeReturns() {
+        UUID sender = UUID.randomUUID();
+        MeshProtocol<SendMessageBody> protocol = new ConcreteMeshProtocol<>(1, 3, 12345, sender, UUID.randomUUID(), new SendMessageBody(4, false, "hello there"));
+        ByteBuffer buffer = ByteBuffer.allocate(512);
+
+        buffer.position(7);
+        protocol.encodeInto(buffer);
+        assertArrayEquals(protocol.encode(), Arrays.copyOfRange(buffer.array(), 7, buffer.position()));
+        assertEquals(protocol.encode().length, protocol.sizeHint());
+
+        buffer.clear();
+        protocol.encodeCompactInto(buffer, false);
+        assertArrayEquals(protocol.encodeCompact(false), Arrays.copyOf(buffer.array(), buffer.position()));
+
+        //a view copies its untouched body as is
+        MeshProtocol<SendMessageBody> view = MeshProtocol.wrap(ByteBuffer.wrap(protocol.encodeCompact(false)), bytes -> {
+            throw new AssertionError("body should not be decoded");
+        });
+        buffer.clear();
+        view.encodeInto(buffer);
+        assertArrayEquals(protocol.encodeCompact(false), Arrays.copyOf(buffer.array(), buffer.position()));
+    }
+
+    @Test
+    public void testLooseSizeHint_stillDecodes() {
+        MeshProtocol<PaddedBody> protocol = new ConcreteMeshProtocol<>(1, 3, 5, UUID.randomUUID(), null, new PaddedBody(new byte[]{1, 2, 3}, 300));
+
+        byte[] compact = protocol.encodeCompact(false);
+        //the body length took the two bytes 300 needs, though the body is 3 bytes long
+        assertEquals(CompactHeader.headerLength(false, false, 300) + 3, compact.length);
+        assertArrayEquals(new byte[]{1, 2, 3}, MeshProtocol.decode(compact, PaddedBody::decode).getBody().bytes);
+
+        byte[] legacy = protocol.encode();
+        assertEquals(MeshProtocol.HEADER_LENGTH + 3, legacy.length);
+        assertArrayEquals(new byte[]{1, 2, 3}, MeshProtocol.decode(legacy, PaddedBody::decode).getBody().bytes);
+    }
+
+    //Bytes allocated per encoded send: the old way of encoding the body into an array of its own and
+    //copying it behind the header, the router's way of encoding into a pooled buffer then copying
+    //the frame out for the transport, and the pooled encode alone
+    @Test
+    public void benchmarkAllocationPerEncodedPacket() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+
+        MeshProtocol<SendMessageBody> protocol = new ConcreteMeshProtocol<>(1, 3, 9, UUID.randomUUID(), UUID.randomUUID(),
+                new SendMessageBody(4, false, "a chat message of a typical length, say sixty-four bytes long"));
+        BufferPool pool = new BufferPool();
+        long threadId = Thread.currentThread().getId();
+
+        long sink = 0;
+        //warm up every path so the measurement does not include class loading nor compilation
+        for (int i = 0; i < BENCHMARK_PACKETS; i++) {
+            sink += copyingEncode(protocol).length;
+            sink += pooledEncode(pool, protocol).length;
+            sink += pooledEncodeOnly(pool, protocol);
+        }
+
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < BENCHMARK_PACKETS; i++) sink += copyingEncode(protocol).length;
+        long copying = (threads.getThreadAllocatedBytes(threadId) - before) / BENCHMARK_PACKETS;
+
+        before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < BENCHMARK_PACKETS; i++) sink += pooledEncode(pool, protocol).length;
+        long pooled = (threads.getThreadAllocatedBytes(threadId) - before) / BENCHMARK_PACKETS;
+
+        before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < BENCHMARK_PACKETS; i++) sink += pooledEncodeOnly(pool, protocol);
+        long pooledOnly = (threads.getThreadAllocatedBytes(threadId) - before) / BENCHMARK_PACKETS;
+
+        System.out.println("bytes allocated per encoded packet (" + protocol.encode().length + " byte frame)");
+        System.out.println("  body array, then frame     " + copying);
+        System.out.println("  pooled, frame copied out   " + pooled);
+        System.out.println("  pooled encode alone        " + pooledOnly);
+        assertTrue(sink != 0);
+        assertTrue(pooled < copying);
+        assertTrue(pooledOnly < 8);
+        assertTrue(pool.getAllocations() <= 1);
+    }
+
+    private static byte[] copyingEncode(MeshProtocol<SendMessageBody> protocol) {
+        byte[] body = protocol.getBody().encode();
+        ByteBuffer buffer = ByteBuffer.allocate(MeshProtocol.HEADER_LENGTH + body.length);
+        protocol.encodeHeader(buffer, body.length);
+        buffer.put(body);
+        return buffer.array();
+    }
+
+    private static byte[] pooledEncode(BufferPool pool, MeshProtocol<SendMessageBody> protocol) {
+        ByteBuffer buffer = pool.acquire(protocol.sizeHint());
+        protocol.encodeInto(buffer);
+        byte[] frame = Arrays.copyOf(buffer.array(), buffer.position());
+        pool.release(buffer);
+        return frame;
+    }
+
+    private static int pooledEncodeOnly(BufferPool pool, MeshProtocol<SendMessageBody> protocol) {
+        ByteBuffer buffer = pool.acquire(protocol.sizeHint());
+        protocol.encodeInto(buffer);
+        int length = buffer.position();
+        pool.release(buffer);
+        return length;
+    }
+
+    //A body that overestimates its size
+    private static class PaddedBody implements MeshSerializer<PaddedBody> {
+        final byte[] bytes;
+        final int sizeHint;
+
+        PaddedBody(byte[] bytes, int sizeHint) {
+            this.bytes = bytes;
+            this.sizeHint = sizeHint;
+        }
+
+        static PaddedBody decode(byte[] data) {
+            return new PaddedBody(data, data.length);
+        }
+
+        @Override
+        public byte[] encode() {
+            return bytes.clone();
+        }
+
+        @Override
+        public int sizeHint() {
+            return sizeHint;
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package com.example.mesh_base.router;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.example.mesh_base.global_interfaces.Device;
+import com.example.mesh_base.global_interfaces.SendError;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.UUID;
+
+public class CompactHeaderTest {
+    private final UUID a = UUID.randomUUID();
+    private final UUID b = UUID.randomUUID();
+    private final TestMesh mesh = new TestMesh();
+
+    @Test
+    public void testCompact_roundTripsWithAndWithoutDestination() {
+        MeshProtocol<SendMessageBody> unicast = new ConcreteMeshProtocol<>(1, 3, -7, a, b, new SendMessageBody(4, false, "hello"));
+        MeshProtocol<SendMessageBody> broadcast = new ConcreteMeshProtocol<>(1, 200, 300, a, null, new SendMessageBody(4, false, "hello"));
+
+        for (MeshProtocol<SendMessageBody> original : Arrays.asList(unicast, broadcast)) {
+            byte[] encoded = original.encodeCompact(false);
+            assertEquals(CompactHeader.MARKER, encoded[0]);
+            assertEquals(ProtocolType.SEND_MESSAGE, MeshProtocol.getByteType(encoded));
+
+            MeshProtocol<SendMessageBody> decoded = MeshProtocol.decode(encoded, SendMessageBody::decode);
+            assertEquals(original, decoded);
+            assertEquals(original.destination, decoded.destination);
+            assertEquals(original.remainingHops, decoded.remainingHops);
+
+            //a view that never decoded its body writes back the very same frame
+            MeshProtocol<SendMessageBody> view = MeshProtocol.wrap(ByteBuffer.wrap(encoded), SendMessageBody::decode);
+            assertArrayEquals(encoded, view.encode());
+        }
+    }
+
+    @Test
+    public void testLegacyFrames_stillDecode() {
+        MeshProtocol<AckMessageBody> original = new ConcreteMeshProtocol<>(0, 4, 9, a, b, new AckMessageBody("OK"));
+        byte[] legacy = original.encode();
+
+        assertEquals(MeshProtocol.HEADER_LENGTH, MeshProtocol.headerLength(legacy, 0));
+        MeshProtocol<AckMessageBody> view = MeshProtocol.wrap(ByteBuffer.wrap(legacy), AckMessageBody::decode, new NodeAliases());
+        assertEquals(original, view);
+        assertEquals(b, view.destination);
+        assertArrayEquals(legacy, view.encode());
+    }
+
+    @Test
+    public void testAliases_resolveOnlyForKnownIds() {
+        MeshProtocol<AckMessageBody> original = new ConcreteMeshProtocol<>(0, 4, 9, a, b, new AckMessageBody("OK"));
+        byte[] aliased = original.encodeCompact(true);
+        assertEquals(original.encodeCompact(false).length - 2 * (CompactHeader.ID_LENGTH - CompactHeader.ALIAS_LENGTH), aliased.length);
+        assertTrue(MeshProtocol.isAddressedTo(aliased, 0, b));
+        assertFalse(MeshProtocol.isAddressedTo(aliased, 0, a));
+
+        NodeAliases aliases = new NodeAliases();
+        aliases.learn(a);
+        aliases.learn(b);
+        MeshProtocol<?> resolved = MeshProtocol.wrap(ByteBuffer.wrap(aliased), AckMessageBody::decode, aliases);
+        assertEquals(a, resolved.sender);
+        assertEquals(b, resolved.destination);
+
+        //a node that never saw them gets stable placeholders, which encode back to the same aliases
+        MeshProtocol<?> unresolved = MeshProtocol.wrap(ByteBuffer.wrap(aliased), AckMessageBody::decode, null);
+        assertTrue(NodeAliases.isPlaceholder(unresolved.sender));
+        assertEquals(NodeAliases.aliasOf(a), NodeAliases.aliasOf(unresolved.sender));
+        assertArrayEquals(aliased, unresolved.encode());
+    }
+
+    @Test
+    public void testAliases_onlyUsedOncePeerAddressedUs() {
+        NodeAliases aliases = new NodeAliases();
+        aliases.learn(a);
+        aliases.learn(b);
+        assertFalse(aliases.canAlias(a, b));
+        aliases.onAddressedBy(b);
+        assertTrue(aliases.canAlias(a, b));
+        assertFalse(aliases.canAlias(a, null));
+
+        //an id sharing b's alias makes it useless
+        UUID twin = new UUID(b.getMostSignificantBits() ^ 1L, b.getLeastSignificantBits() ^ 1L);
+        assertEquals(NodeAliases.aliasOf(b), NodeAliases.aliasOf(twin));
+        aliases.learn(twin);
+        assertFalse(aliases.canAlias(a, b));
+        assertTrue(NodeAliases.isPlaceholder(aliases.resolve(NodeAliases.aliasOf(b))));
+    }
+
+    @Test
+    public void testHops_patchedInPlace() {
+        byte[] encoded = new ConcreteMeshProtocol<>(1, 300, 5, a, b, new SendMessageBody(4, false, "x")).encodeCompact(false);
+        assertEquals(CompactHeader.MAX_HOPS, MeshProtocol.decode(encoded, SendMessageBody::decode).remainingHops);
+        MeshProtocol.writeRemainingHops(encoded, 0, 2);
+        assertEquals(2, MeshProtocol.decode(encoded, SendMessageBody::decode).remainingHops);
+    }
+
+    @Test
+    public void testTruncatedHeader_isRejected() {
+        byte[] encoded = new ConcreteMeshProtocol<>(1, 3, 5, a, b, new SendMessageBody(4, false, "x")).encodeCompact(false);
+        for (int length = 0; length < MeshProtocol.headerLength(encoded, 0); length++) {
+            byte[] truncated = new byte[length];
+            System.arraycopy(encoded, 0, truncated, 0, length);
+            assertFalse(MeshProtocol.hasHeader(truncated));
+        }
+        assertTrue(MeshProtocol.hasHeader(encoded));
+    }
+
+    //the pipeline classifies frames on the radio thread, before the router's malformed frame handling
+    @Test
+    public void testTruncatedFrames_throughInboundPipeline_areDropped() {
+        byte[] encoded = new ConcreteMeshProtocol<>(1, 3, 5, a, b, new SendMessageBody(4, false, "x")).encodeCompact(false);
+        InboundPipeline pipeline = new InboundPipeline(64, InboundPipeline.Backpressure.DROP_OLDEST, b,
+                (connectionHandler, neighbor, data) -> {
+                });
+        Device neighbor = new Device(a, "a") {
+        };
+
+        for (int length = 1; length < MeshProtocol.headerLength(encoded, 0); length++) {
+            byte[] truncated = Arrays.copyOf(encoded, length);
+            assertFalse(MeshProtocol.isAddressedTo(truncated, 0, b));
+            pipeline.offer(null, neighbor, truncated);
+            //also when cut short behind a fragment prefix
+            byte[] fragment = new byte[Fragmenter.PREFIX_LENGTH + length];
+            fragment[0] = Fragmenter.MARKER;
+            System.arraycopy(truncated, 0, fragment, Fragmenter.PREFIX_LENGTH, length);
+            pipeline.offer(null, neighbor, fragment);
+        }
+        //queued for the worker to drop as malformed, none of them as addressed to b
+        assertEquals(0, pipeline.getLocalDepth());
+        assertTrue(MeshProtocol.isAddressedTo(encoded, 0, b));
+        assertEquals(-1, CompactHeader.lengthOffset(ByteBuffer.wrap(encoded, 0, 3).slice(), 0));
+    }
+
+    @Test
+    public void testFragments_ofCompactPacketJoinBack() throws SendError {
+        StringBuilder msg = new StringBuilder();
+        Random random = new Random(1);
+        while (msg.length() < 2_000) msg.append((char) ('a' + random.nextInt(26)));
+        byte[] packet = new ConcreteMeshProtocol<>(1, 3, 77, a, b, new SendMessageBody(4, false, msg.toString())).encodeCompact(true);
+
+        ArrayList<byte[]> fragments = Fragmenter.split(packet, 120);
+        int bodyLength = 0;
+        for (byte[] fragment : fragments) {
+            assertTrue(fragment.length <= 120);
+            assertTrue(MeshProtocol.isAddressedTo(fragment, Fragmenter.PREFIX_LENGTH, b));
+            bodyLength += Fragmenter.bodyLength(fragment);
+        }
+        assertArrayEquals(packet, Fragmenter.join(fragments.toArray(new byte[0][]), bodyLength));
+    }
+
+    @Test
+    public void testRouters_switchToAliasesAfterFirstExchange() {
+        TestMesh.Node alice = node("alice");
+        TestMesh.Node relay = node("relay");
+        TestMesh.Node carol = node("carol");
+        alice.link.connect(relay);
+        relay.link.connect(carol);
+
+        //fixed messageIds, so both frames carry varints of the same length
+        CountingListener listener = new CountingListener();
+        alice.router.sendData(new ConcreteMeshProtocol<>(1, 3, 1, alice.id, carol.id, new SendMessageBody(4, false, "one")), listener, true);
+        alice.router.sendData(new ConcreteMeshProtocol<>(1, 3, 2, alice.id, carol.id, new SendMessageBody(4, false, "two")), listener, true);
+
+        assertEquals(2, carol.received.size());
+        assertEquals(2, listener.acks);
+        for (MeshProtocol<?> received : carol.received) assertEquals(alice.id, received.sender);
+        //the first message carried full ids, carol's ACK told alice she holds them, the second used aliases
+        ArrayList<Integer> sent = ownFrameLengths(alice);
+        assertEquals(2, sent.size());
+        assertEquals(sent.get(0) - 2 * (CompactHeader.ID_LENGTH - CompactHeader.ALIAS_LENGTH), (int) sent.get(1));
+        //carol had already been addressed by alice, both of her ACKs were aliased
+        assertEquals(ownFrameLengths(carol).get(0), ownFrameLengths(carol).get(1));
+    }
+
+    //Encoded size of common packets with the legacy header, the compact header with full ids and
+    //the compact header with aliases, the bytes every BLE hop pays for
+    @Test
+    public void benchmarkBytesOnAir() {
+        int messageId = new Random(3).nextInt();
+        String[] names = {"ack", "short chat message", "broadcast chat message", "selective ack"};
+        MeshProtocol<?>[] packets = {
+                new ConcreteMeshProtocol<>(0, 3, messageId, a, b, new AckMessageBody("OK")),
+                new ConcreteMeshProtocol<>(1, 3, messageId, a, b, new SendMessageBody(4, false, "on my way, see you at 6")),
+                new ConcreteMeshProtocol<>(1, 3, messageId, a, null, new SendMessageBody(4, false, "on my way, see you at 6")),
+                new ConcreteMeshProtocol<>(3, 3, messageId, a, b, new SelectiveAckBody(messageId, 40, new byte[5])),
+        };
+
+        System.out.println("bytes on air per packet: legacy / compact / compact with aliases");
+        for (int i = 0; i < packets.length; i++) {
+            int legacy = packets[i].encode().length;
+            int compact = packets[i].encodeCompact(false).length;
+            int aliased = packets[i].encodeCompact(packets[i].destination != null).length;
+            System.out.println("  " + names[i] + ": " + legacy + " / " + compact + " / " + aliased);
+            assertTrue(compact <= legacy - 6);
+            if (packets[i].destination != null) assertTrue(aliased <= legacy - 30);
+        }
+        //an ACK shrinks to less than half
+        assertTrue(2 * packets[0].encodeCompact(true).length < packets[0].encode().length);
+    }
+
+    private static class CountingListener implements SendListener {
+        int acks = 0;
+
+        @Override
+        public void onError(SendError error) {
+            throw new AssertionError(error);
+        }
+
+        @Override
+        public void onAck() {
+            acks++;
+        }
+
+        @Override
+        public void onResponse(MeshProtocol<?> protocol) {
+        }
+    }
+
+    private TestMesh.Node node(String name) {
+        TestMesh.Node node = mesh.node(name);
+        node.router.setCompactHeaders(true);
+        return node;
+    }
+
+    //The length of every frame the node originated, not those it relayed
+    private static ArrayList<Integer> ownFrameLengths(TestMesh.Node node) {
+        ArrayList<Integer> lengths = new ArrayList<>();
+        for (byte[] data : node.link.sent) {
+            MeshProtocol<?> header = MeshProtocol.wrap(ByteBuffer.wrap(data), AckMessageBody::decode);
+            if (NodeAliases.aliasOf(header.sender) == NodeAliases.aliasOf(node.id)) lengths.add(data.length);
+        }
+        return lengths;
+    }
+}
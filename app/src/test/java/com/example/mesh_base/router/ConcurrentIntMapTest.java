@@ -0,0 +1,77 @@
+package com.example.mesh_base.router;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Random;
+
+public class ConcurrentIntMapTest {
+
+    @Test
+    public void testChurn_matchesHashMap() {
+        ConcurrentIntMap<Integer> map = new ConcurrentIntMap<>(4);
+        HashMap<Integer, Integer> expected = new HashMap<>();
+        Random random = new Random(3);
+
+        for (int i = 0; i < 100_000; i++) {
+            //a narrow key range forces collisions, removals and growth
+            int key = random.nextInt(512) - 256;
+            if (random.nextBoolean()) {
+                assertEquals(expected.put(key, i), map.put(key, i));
+            } else {
+                assertEquals(expected.remove(key), map.remove(key));
+            }
+        }
+
+        assertEquals(expected.size(), map.size());
+        for (int key = -256; key < 256; key++) {
+            assertEquals(expected.get(key), map.get(key));
+        }
+    }
+
+    @Test
+    public void testConditionalRemove_onlyRemovesExpectedValue() {
+        ConcurrentIntMap<String> map = new ConcurrentIntMap<>();
+        map.put(0, "first");
+
+        assertFalse(map.remove(0, "other"));
+        assertEquals("first", map.get(0));
+        assertTrue(map.remove(0, "first"));
+        assertNull(map.get(0));
+    }
+
+    @Test
+    public void testConcurrentPutsAndRemoves_loseNothing() throws InterruptedException {
+        ConcurrentIntMap<Integer> map = new ConcurrentIntMap<>();
+        int threads = 8;
+        int perThread = 20_000;
+        Thread[] workers = new Thread[threads];
+
+        for (int t = 0; t < threads; t++) {
+            int first = t * perThread;
+            workers[t] = new Thread(() -> {
+                for (int key = first; key < first + perThread; key++) {
+                    map.put(key, key);
+                }
+                //every other key is taken back out
+                for (int key = first; key < first + perThread; key += 2) {
+                    map.remove(key);
+                }
+            });
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        assertEquals(threads * perThread / 2, map.size());
+        for (int key = 0; key < threads * perThread; key++) {
+            assertEquals(key % 2 == 0 ? null : Integer.valueOf(key), map.get(key));
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package com.example.mesh_base.router;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.example.mesh_base.global_interfaces.Device;
+import com.example.mesh_base.global_interfaces.SendError;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.UUID;
+
+public class DeliveryTraceTest {
+    private static final long HOP_MILLIS = 5;
+
+    private final TestMesh mesh = new TestMesh();
+
+    public DeliveryTraceTest() {
+        mesh.now = 1_000;
+        mesh.hopMillis = HOP_MILLIS;
+    }
+
+    @Test
+    public void testAck_reportsRoundTripAndPath() {
+        TestMesh.Node a = node(new HashSet<>());
+        TestMesh.Node b = node(new HashSet<>());
+        TestMesh.Node c = node(new HashSet<>());
+        a.link.connect(b);
+        b.link.connect(c);
+        TracingListener listener = new TracingListener();
+
+        a.router.sendData(new ConcreteMeshProtocol<>(1, 3, 1, a.id, c.id, new SendMessageBody(4, false, "hello")), listener, true);
+
+        assertEquals(1, c.received.size());
+        assertEquals(1, listener.traces.size());
+        DeliveryTrace trace = listener.traces.get(0);
+        //a to b to c, and the ACK back from c to b to a
+        assertEquals(4 * HOP_MILLIS, trace.getRoundTripMillis());
+        assertEquals(2, trace.getHops());
+        assertAliases(trace.getPath(), b.id, c.id, b.id);
+    }
+
+    @Test
+    public void testResponse_carriesTheTraceBack() {
+        HashSet<ProtocolType> expecting = new HashSet<>();
+        expecting.add(ProtocolType.SEND_MESSAGE);
+        TestMesh.Node a = node(new HashSet<>());
+        TestMesh.Node b = node(new HashSet<>());
+        TestMesh.Node c = node(expecting);
+        a.link.connect(b);
+        b.link.connect(c);
+        TracingListener question = new TracingListener();
+        TracingListener answer = new TracingListener();
+
+        a.router.sendData(new ConcreteMeshProtocol<>(1, 3, 7, a.id, c.id, new SendMessageBody(4, false, "question")), question, true);
+        assertEquals(1, c.received.size());
+        assertEquals(1, c.router.traceEchoes.size());
+        mesh.now += 100;
+        c.router.sendData(new ConcreteMeshProtocol<>(1, 3, 7, c.id, a.id, new SendMessageBody(4, false, "answer")), answer, true);
+
+        assertEquals(1, question.responses);
+        DeliveryTrace trace = question.traces.get(0);
+        assertEquals(4 * HOP_MILLIS + 100, trace.getRoundTripMillis());
+        assertEquals(2, trace.getHops());
+        assertAliases(trace.getPath(), b.id, c.id, b.id);
+        assertEquals(0, c.router.traceEchoes.size());
+        //the response carried a's trace, it started none of c's own
+        assertEquals(0, answer.traces.size());
+    }
+
+    @Test
+    public void testUntracedSend_callsThePlainAck() {
+        TestMesh.Node a = node(new HashSet<>());
+        TestMesh.Node b = node(new HashSet<>());
+        a.router.setTracing(false);
+        a.link.connect(b);
+        TracingListener listener = new TracingListener();
+
+        a.router.sendData(new ConcreteMeshProtocol<>(1, 3, 1, a.id, b.id, new SendMessageBody(4, false, "hello")), listener, true);
+        assertEquals(1, listener.acks);
+        assertEquals(0, listener.traces.size());
+    }
+
+    //a held relay that hears a copy with more hops left goes out with those hops, still listing itself
+    @Test
+    public void testHeldRelay_takesTheShorterPathsHopsAndKeepsItsTrace() {
+        TestMesh.Node r = node(new HashSet<>());
+        TestMesh.Node next = node(new HashSet<>());
+        r.link.connect(next);
+        r.router.setRelayPolicy(new DefaultRelayPolicy() {
+            @Override
+            public long relayDelayMillis(MeshProtocol<?> packet) {
+                return 50;
+            }
+        });
+        Device far = new Device(UUID.randomUUID(), "far") {
+        };
+        Device near = new Device(UUID.randomUUID(), "near") {
+        };
+
+        MeshProtocol<SendMessageBody> protocol = new ConcreteMeshProtocol<>(1, 1, 1, UUID.randomUUID(), UUID.randomUUID(), new SendMessageBody(4, false, "hello"));
+        protocol.trace = TraceExtension.start(0);
+        r.link.receive(far, protocol.encodeCompact(false));
+        protocol.remainingHops = 3;
+        r.link.receive(near, protocol.encodeCompact(false));
+        assertEquals(0, r.link.sent.size());
+
+        mesh.advanceTo(mesh.now + 100);
+        assertEquals(1, r.link.sent.size());
+        MeshProtocol<SendMessageBody> relayed = MeshProtocol.wrap(ByteBuffer.wrap(r.link.sent.get(0)), SendMessageBody::decode);
+        assertEquals(2, relayed.remainingHops);
+        assertEquals(protocol.getBody(), relayed.getBody());
+        assertArrayEquals(new int[]{NodeAliases.aliasOf(r.id)}, relayed.trace.relays);
+    }
+
+    @Test
+    public void testFragmentedPacket_keepsItsTrace() throws SendError {
+        MeshProtocol<SendMessageBody> protocol = new ConcreteMeshProtocol<>(1, 3, 1, UUID.randomUUID(), UUID.randomUUID(),
+                new SendMessageBody(4, false, "a message long enough to be split into a few fragments"));
+        protocol.trace = TraceExtension.start(42).echoedBy(7);
+        byte[] packet = protocol.encodeCompact(false);
+
+        ArrayList<byte[]> fragments = Fragmenter.split(packet, 64);
+        assertTrue(fragments.size() > 2);
+        int bodyLength = 0;
+        for (byte[] fragment : fragments) {
+            //every fragment reads as a packet of its own with no trace
+            ByteBuffer frame = ByteBuffer.wrap(fragment);
+            frame.position(Fragmenter.PREFIX_LENGTH);
+            assertNull(MeshProtocol.wrap(frame, SendMessageBody::decode).trace);
+            bodyLength += Fragmenter.bodyLength(fragment);
+        }
+        byte[] joined = Fragmenter.join(fragments.toArray(new byte[0][]), bodyLength);
+        assertArrayEquals(packet, joined);
+
+        MeshProtocol<SendMessageBody> view = MeshProtocol.wrap(ByteBuffer.wrap(joined), SendMessageBody::decode);
+        assertEquals(protocol.getBody(), view.getBody());
+        assertEquals(42, view.trace.originMillis);
+        assertArrayEquals(new int[]{7}, view.trace.relays);
+    }
+
+    @Test
+    public void testRelayList_isBoundedButHopsKeepCounting() {
+        MeshProtocol<AckMessageBody> protocol = new ConcreteMeshProtocol<>(0, 3, 1, UUID.randomUUID(), null, new AckMessageBody("OK"));
+        protocol.trace = TraceExtension.start(0);
+        byte[] frame = protocol.encodeCompact(false);
+        for (int relay = 1; relay <= TraceExtension.MAX_RELAYS + 4; relay++) frame = TraceExtension.withRelay(frame, relay);
+
+        MeshProtocol<AckMessageBody> view = MeshProtocol.wrap(ByteBuffer.wrap(frame), AckMessageBody::decode);
+        assertEquals(TraceExtension.MAX_RELAYS + 4, view.trace.hops);
+        assertEquals(TraceExtension.MAX_RELAYS, view.trace.relays.length);
+        assertEquals(TraceExtension.MAX_RELAYS, view.trace.relays[TraceExtension.MAX_RELAYS - 1]);
+        assertEquals(protocol.getBody(), view.getBody());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTraceLengthMismatch_throws() {
+        MeshProtocol<AckMessageBody> protocol = new ConcreteMeshProtocol<>(0, 3, 1, UUID.randomUUID(), null, new AckMessageBody("OK"));
+        protocol.trace = TraceExtension.start(0);
+        byte[] frame = protocol.encodeCompact(false);
+        frame[frame.length - 1] = 3;
+        MeshProtocol.wrap(ByteBuffer.wrap(frame), AckMessageBody::decode);
+    }
+
+    private static void assertAliases(List<UUID> path, UUID... expected) {
+        assertEquals(expected.length, path.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertNotNull(path.get(i));
+            assertEquals(NodeAliases.aliasOf(expected[i]), NodeAliases.aliasOf(path.get(i)));
+        }
+    }
+
+    private static class TracingListener implements SendListener {
+        final ArrayList<DeliveryTrace> traces = new ArrayList<>();
+        int acks = 0;
+        int responses = 0;
+
+        @Override
+        public void onError(SendError error) {
+            throw new AssertionError(error);
+        }
+
+        @Override
+        public void onAck() {
+            acks++;
+        }
+
+        @Override
+        public void onResponse(MeshProtocol<?> protocol) {
+            responses++;
+        }
+
+        @Override
+        public void onAck(DeliveryTrace trace) {
+            traces.add(trace);
+            onAck();
+        }
+
+        @Override
+        public void onResponse(MeshProtocol<?> protocol, DeliveryTrace trace) {
+            traces.add(trace);
+            onResponse(protocol);
+        }
+    }
+
+    private TestMesh.Node node(HashSet<ProtocolType> typesExpectingResponses) {
+        TestMesh.Node node = mesh.node("node", typesExpectingResponses);
+        node.router.setCompactHeaders(true);
+        node.router.setTracing(true);
+        return node;
+    }
+}
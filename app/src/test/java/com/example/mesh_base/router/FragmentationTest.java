@@ -0,0 +1,230 @@
+package com.example.mesh_base.router;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.example.mesh_base.global_interfaces.ConnectionHandler;
+import com.example.mesh_base.global_interfaces.ConnectionHandlerListener;
+import com.example.mesh_base.global_interfaces.ConnectionHandlersEnum;
+import com.example.mesh_base.global_interfaces.Device;
+import com.example.mesh_base.global_interfaces.SendError;
+
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+public class FragmentationTest {
+    private long now = 0;
+
+    @Test
+    public void testSplitThenReassembleOutOfOrder_restoresPacket() throws SendError {
+        byte[] packet = largePacket(UUID.randomUUID(), UUID.randomUUID(), 2_000);
+        ArrayList<byte[]> fragments = Fragmenter.split(packet, 200);
+        assertEquals((packet.length - 48 + 145) / 146, fragments.size());
+        for (byte[] fragment : fragments) {
+            assertTrue(fragment.length <= 200);
+        }
+
+        ReassemblyTable table = new ReassemblyTable(new TimerWheel(10, 64, () -> now));
+        Collections.shuffle(fragments, new Random(1));
+        byte[] whole = null;
+        for (byte[] fragment : fragments) {
+            ReassemblyTable.Stream stream = accept(table, fragment);
+            //a copy of every fragment arrives through another neighbor too
+            assertNull(accept(table, fragment));
+            assertNull(whole);
+            whole = table.reassemble(stream, Fragmenter.index(fragment), fragment);
+        }
+
+        assertArrayEquals(packet, whole);
+        assertEquals(0, table.getBufferedBytes());
+        assertEquals(1, table.getReassembled());
+    }
+
+    //Threads accept fragments and buffer them in separate steps, the packet is joined only once every
+    //fragment is buffered, whichever order the steps interleave in
+    @Test
+    public void testAllAcceptedBeforeBuffered_joinsOnlyOnceEveryFragmentIsIn() throws SendError {
+        byte[] packet = largePacket(UUID.randomUUID(), UUID.randomUUID(), 600);
+        ArrayList<byte[]> fragments = Fragmenter.split(packet, 200);
+        ReassemblyTable table = new ReassemblyTable(new TimerWheel(10, 64, () -> now));
+        ArrayList<ReassemblyTable.Stream> streams = new ArrayList<>();
+        for (byte[] fragment : fragments) {
+            streams.add(accept(table, fragment));
+        }
+
+        byte[] whole = null;
+        for (int i = fragments.size() - 1; i >= 0; i--) {
+            assertNull(whole);
+            whole = table.reassemble(streams.get(i), i, fragments.get(i));
+        }
+        assertArrayEquals(packet, whole);
+    }
+
+    //Each neighbor gets frames of its own link's size, a small link does not shrink the others
+    @Test
+    public void testRelay_isSizedPerNeighbor() throws SendError {
+        ConnectionHandler handler = mock(ConnectionHandler.class);
+        Device from = new Device(UUID.randomUUID(), "from") {
+        };
+        Device small = new Device(UUID.randomUUID(), "small") {
+        };
+        Device large = new Device(UUID.randomUUID(), "large") {
+        };
+        when(handler.isOn()).thenReturn(true);
+        when(handler.getNeighbourDevices()).thenReturn(new ArrayList<>(Arrays.asList(from, small, large)));
+        when(handler.getMaxFrameSize()).thenReturn(120);
+        when(handler.getMaxFrameSize(any(Device.class))).thenReturn(509);
+        when(handler.getMaxFrameSize(small)).thenReturn(120);
+        HashMap<ConnectionHandlersEnum, ConnectionHandler> handlers = new HashMap<>();
+        handlers.put(ConnectionHandlersEnum.BLE, handler);
+        new Router(handlers, UUID.randomUUID(), new HashSet<>(), new TimerWheel(10, 64, () -> now));
+        ArgumentCaptor<ConnectionHandlerListener> listener = ArgumentCaptor.forClass(ConnectionHandlerListener.class);
+        verify(handler).subscribe(listener.capture());
+
+        byte[] packet = largePacket(UUID.randomUUID(), null, 300);
+        listener.getValue().onDataReceived(from, packet);
+
+        ArgumentCaptor<byte[]> toSmall = ArgumentCaptor.forClass(byte[].class);
+        verify(handler, atLeast(2)).send(toSmall.capture(), eq(small));
+        for (byte[] frame : toSmall.getAllValues()) {
+            assertTrue(Fragmenter.isFragment(frame));
+            assertTrue(frame.length <= 120);
+        }
+        ArgumentCaptor<byte[]> toLarge = ArgumentCaptor.forClass(byte[].class);
+        verify(handler).send(toLarge.capture(), eq(large));
+        assertEquals(packet.length, toLarge.getValue().length);
+        assertFalse(Fragmenter.isFragment(toLarge.getValue()));
+    }
+
+    @Test
+    public void testBufferLimit_evictsOldestIncompletePacket() throws SendError {
+        ReassemblyTable table = new ReassemblyTable(new TimerWheel(10, 64, () -> now));
+        table.setLimits(8, 1_000, 1_000);
+        ArrayList<byte[]> first = Fragmenter.split(largePacket(UUID.randomUUID(), UUID.randomUUID(), 600), 200);
+        ArrayList<byte[]> second = Fragmenter.split(largePacket(UUID.randomUUID(), UUID.randomUUID(), 600), 200);
+
+        for (int i = 0; i < 2; i++) {
+            table.reassemble(accept(table, first.get(i)), i, first.get(i));
+        }
+        for (int i = 0; i < second.size(); i++) {
+            byte[] whole = table.reassemble(accept(table, second.get(i)), i, second.get(i));
+            assertEquals(i == second.size() - 1, whole != null);
+        }
+
+        assertEquals(1, table.getEvicted());
+        //the evicted packet never completes, even once its remaining fragments show up
+        for (int i = 2; i < first.size(); i++) {
+            assertNull(table.reassemble(accept(table, first.get(i)), i, first.get(i)));
+        }
+    }
+
+    @Test
+    public void testIncompletePacket_isCollectedOnTimeout() throws SendError {
+        TimerWheel timer = new TimerWheel(10, 64, () -> now);
+        ReassemblyTable table = new ReassemblyTable(timer);
+        table.setLimits(8, 10_000, 500);
+        ArrayList<byte[]> fragments = Fragmenter.split(largePacket(UUID.randomUUID(), UUID.randomUUID(), 600), 200);
+        table.reassemble(accept(table, fragments.get(0)), 0, fragments.get(0));
+        assertTrue(table.getBufferedBytes() > 0);
+
+        for (now = 0; now <= 500; now += 10) {
+            timer.advance();
+        }
+        assertEquals(0, table.size());
+        assertEquals(0, table.getBufferedBytes());
+        assertEquals(1, table.getExpired());
+    }
+
+    @Test
+    public void testLargeMessageAcrossRelay_streamsFragmentByFragment() throws SendError {
+        TestMesh mesh = new TestMesh();
+        TestMesh.Node a = chainNode(mesh, "a");
+        TestMesh.Node b = chainNode(mesh, "b");
+        TestMesh.Node c = chainNode(mesh, "c");
+        a.link.connect(b);
+        b.link.connect(c);
+        List<String> events = new ArrayList<>();
+        mesh.carrier = (from, to, data) -> {
+            if (Fragmenter.isFragment(data)) events.add(from.device.name + ">" + to.device.name + " " + Fragmenter.index(data));
+            to.link.receive(from.device, data);
+        };
+
+        byte[] packet = largePacket(a.id, c.id, 3_000);
+        MeshProtocol<SendMessageBody> sent = MeshProtocol.decode(packet, SendMessageBody::decode);
+        a.router.sendData(sent, new SendListener() {
+            @Override
+            public void onError(SendError error) {
+                throw new AssertionError(error);
+            }
+
+            @Override
+            public void onAck() {
+            }
+
+            @Override
+            public void onResponse(MeshProtocol<?> protocol) {
+            }
+        });
+
+        //b forwarded every fragment right after receiving it, before a sent the next one. The order of
+        //the indexes follows a's window, which c's selective ACKs move along mid-send.
+        int count = (packet.length - 48 + 65) / 66;
+        assertEquals(count, events.stream().filter(event -> event.startsWith("b>")).count());
+        assertEquals(2 * count, events.size());
+        HashSet<String> indexes = new HashSet<>();
+        for (int i = 0; i < count; i++) {
+            String index = events.get(2 * i).substring("a>b ".length());
+            assertEquals("a>b " + index, events.get(2 * i));
+            assertEquals("b>c " + index, events.get(2 * i + 1));
+            indexes.add(index);
+        }
+        assertEquals(count, indexes.size());
+        assertEquals(0, b.router.getReassembledPackets());
+        assertEquals(1, c.router.getReassembledPackets());
+
+        assertNotNull(c.lastReceived());
+        assertEquals(sent.getBody(), c.lastReceived().getBody());
+    }
+
+    private ReassemblyTable.Stream accept(ReassemblyTable table, byte[] fragment) {
+        MeshProtocol<?> header = MeshProtocol.wrap(ByteBuffer.wrap(fragment, Fragmenter.PREFIX_LENGTH, fragment.length - Fragmenter.PREFIX_LENGTH).slice(), SendMessageBody::decode);
+        return table.accept(header.messageId, header.sender, Fragmenter.index(fragment), Fragmenter.count(fragment), Fragmenter.attempt(fragment));
+    }
+
+    private byte[] largePacket(UUID sender, UUID destination, int length) {
+        StringBuilder msg = new StringBuilder();
+        Random random = new Random(length);
+        while (msg.length() < length) {
+            msg.append((char) ('a' + random.nextInt(26)));
+        }
+        return new ConcreteMeshProtocol<>(1, 3, length, sender, destination, new SendMessageBody(4, false, msg.toString())).encode();
+    }
+
+    //A frame size that forces a 3000 byte message into many fragments
+    private static TestMesh.Node chainNode(TestMesh mesh, String name) {
+        TestMesh.Node node = mesh.node(name);
+        node.link.frameSize = 120;
+        node.failOnError = false;
+        return node;
+    }
+}
@@ -0,0 +1,146 @@
+package com.example.mesh_base.router;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.example.mesh_base.global_interfaces.SendError;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.UUID;
+
+public class FrameChecksumTest {
+    private static final int FRAME_SIZE = 100;
+
+    private final TestMesh mesh = new TestMesh();
+
+    @Test
+    public void testCrc32c_matchesTheStandardCheckValue() {
+        byte[] check = "123456789".getBytes(StandardCharsets.US_ASCII);
+        assertEquals(0xE3069283, FrameChecksum.crc32c(check, 0, check.length));
+
+        FrameChecksum.TableCrc32c table = new FrameChecksum.TableCrc32c();
+        table.update(check, 0, check.length);
+        assertEquals(0xE3069283L, table.getValue());
+
+        //the table fallback agrees with whichever the platform provides
+        byte[] random = new byte[1000];
+        new Random(20).nextBytes(random);
+        table.reset();
+        table.update(random, 3, 900);
+        assertEquals((int) table.getValue(), FrameChecksum.crc32c(random, 3, 900));
+    }
+
+    @Test
+    public void testSealedFrame_opensToTheSameBytes() {
+        byte[] frame = new ConcreteMeshProtocol<>(1, 3, 9, UUID.randomUUID(), null, new SendMessageBody(4, true, "hello")).encode();
+        byte[] sealed = FrameChecksum.seal(frame);
+        assertEquals(frame.length + FrameChecksum.LENGTH, sealed.length);
+        assertTrue(FrameChecksum.isIntact(sealed));
+        assertArrayEquals(frame, FrameChecksum.open(sealed));
+
+        //every single bit flip is caught, and so is a frame cut short
+        for (int bit = 0; bit < sealed.length * 8; bit++) {
+            byte[] corrupt = sealed.clone();
+            corrupt[bit / 8] ^= (byte) (1 << bit % 8);
+            assertFalse(FrameChecksum.isIntact(corrupt));
+        }
+        assertFalse(FrameChecksum.isIntact(Arrays.copyOf(sealed, sealed.length - 1)));
+        assertFalse(FrameChecksum.isIntact(new byte[2]));
+    }
+
+    @Test
+    public void testRouters_deliverSealedFramesWithinTheFrameSize() {
+        TestMesh.Node a = node();
+        TestMesh.Node b = node();
+        a.link.connect(b);
+        a.router.setBatchLinger(10);
+        b.router.setBatchLinger(10);
+
+        //large enough to need fragments once the trailer takes its share of the frame
+        StringBuilder msg = new StringBuilder();
+        for (int i = 0; i < 30; i++) msg.append("chunk ").append(i).append(' ');
+        CountingListener listener = new CountingListener();
+        a.router.sendData(new ConcreteMeshProtocol<>(1, 3, 1, a.id, b.id, new SendMessageBody(4, false, msg.toString())), listener, true);
+        a.router.sendData(new ConcreteMeshProtocol<>(1, 3, 2, a.id, b.id, new SendMessageBody(4, false, "short")), listener, true);
+        mesh.advanceTo(100);
+
+        assertEquals(2, b.received.size());
+        assertEquals(msg.toString(), ((SendMessageBody) b.received.get(0).getBody()).getMsg());
+        assertEquals(2, listener.acks);
+        assertEquals(0, a.router.getMalformedFrames());
+        assertEquals(0, b.router.getMalformedFrames());
+        for (byte[] sent : a.link.sent) assertTrue(FrameChecksum.isIntact(sent));
+    }
+
+    @Test
+    public void testCorruptFrame_isDroppedAndCounted() {
+        TestMesh.Node a = node();
+        TestMesh.Node b = node();
+        a.link.connect(b);
+        a.link.onTheAir = data -> {
+            byte[] corrupt = data.clone();
+            corrupt[corrupt.length / 2] ^= 0x10;
+            return corrupt;
+        };
+
+        CountingListener listener = new CountingListener();
+        a.router.sendData(new ConcreteMeshProtocol<>(1, 3, 1, a.id, b.id, new SendMessageBody(4, false, "hello")), listener, true);
+        assertEquals(0, b.received.size());
+        assertEquals(1, b.router.getMalformedFrames());
+
+        //a truncated frame too
+        a.link.onTheAir = data -> Arrays.copyOf(data, data.length - 7);
+        a.router.sendData(new ConcreteMeshProtocol<>(1, 3, 2, a.id, b.id, new SendMessageBody(4, false, "hello")), listener, true);
+        assertEquals(2, b.router.getMalformedFrames());
+    }
+
+    //Frames that pass the checksum, or come from a router without one, may still not parse
+    @Test
+    public void testUnparsableFrame_isDroppedNotThrown() {
+        TestMesh.Node a = node();
+        TestMesh.Node b = node();
+        a.router.setFrameChecksums(false);
+        b.router.setFrameChecksums(false);
+        a.link.connect(b);
+
+        byte[] frame = new ConcreteMeshProtocol<>(1, 3, 1, a.id, b.id, new SendMessageBody(4, false, "hello")).encode();
+        //a body length past the end of the frame
+        frame[MeshProtocol.HEADER_LENGTH - 1] = 100;
+        b.link.receive(a.device, frame);
+        //a compact header cut short
+        b.link.receive(a.device, new byte[]{CompactHeader.MARKER, 1, 3, 0, (byte) 0x80});
+
+        assertEquals(0, b.received.size());
+        assertEquals(2, b.router.getMalformedFrames());
+    }
+
+    private static class CountingListener implements SendListener {
+        int acks = 0;
+
+        @Override
+        public void onError(SendError error) {
+        }
+
+        @Override
+        public void onAck() {
+            acks++;
+        }
+
+        @Override
+        public void onResponse(MeshProtocol<?> protocol) {
+        }
+    }
+
+    private TestMesh.Node node() {
+        TestMesh.Node node = mesh.node();
+        node.link.frameSize = FRAME_SIZE;
+        node.router.setFrameChecksums(true);
+        return node;
+    }
+}
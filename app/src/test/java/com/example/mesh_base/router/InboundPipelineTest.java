@@ -0,0 +1,202 @@
+package com.example.mesh_base.router;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.example.mesh_base.global_interfaces.ConnectionHandler;
+import com.example.mesh_base.global_interfaces.ConnectionHandlerListener;
+import com.example.mesh_base.global_interfaces.ConnectionHandlersEnum;
+import com.example.mesh_base.global_interfaces.Device;
+
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+public class InboundPipelineTest {
+
+    @Test
+    public void testSlowListener_doesNotHoldUpRadioNorRelays() throws Exception {
+        ConnectionHandler handler = mock(ConnectionHandler.class);
+        ArrayList<Device> neighbors = createDevices(2);
+        when(handler.isOn()).thenReturn(true);
+        when(handler.getNeighbourDevices()).thenReturn(neighbors);
+
+        UUID id = UUID.randomUUID();
+        HashMap<ConnectionHandlersEnum, ConnectionHandler> handlers = new HashMap<>();
+        handlers.put(ConnectionHandlersEnum.BLE, handler);
+        Router router = new Router(handlers, id, new HashSet<>(), new TimerWheel(10, 64));
+        router.startInboundPipeline(16, InboundPipeline.Backpressure.DROP_RELAY_FIRST);
+
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch delivered = new CountDownLatch(1);
+        router.setListener(new Router.RouterListener() {
+            @Override
+            public void onData(MeshProtocol<?> protocol, Device neighbor) {
+                delivered.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            @Override
+            public void onError(Exception exception) {
+            }
+        });
+
+        ArgumentCaptor<ConnectionHandlerListener> listenerCaptor = ArgumentCaptor.forClass(ConnectionHandlerListener.class);
+        verify(handler).subscribe(listenerCaptor.capture());
+        ConnectionHandlerListener listener = listenerCaptor.getValue();
+
+        listener.onDataReceived(neighbors.get(0), new ConcreteMeshProtocol<>(1, 3, 1, UUID.randomUUID(), id, new SendMessageBody(4, false, "for me")).encode());
+        assertTrue(delivered.await(2, TimeUnit.SECONDS));
+
+        // the application is stuck, but relays keep flowing and the radio thread returns while it still is
+        CountDownLatch returned = new CountDownLatch(1);
+        new Thread(() -> {
+            listener.onDataReceived(neighbors.get(0), new ConcreteMeshProtocol<>(1, 3, 2, UUID.randomUUID(), null, new SendMessageBody(4, true, "for all")).encode());
+            returned.countDown();
+        }).start();
+        assertTrue(returned.await(2, TimeUnit.SECONDS));
+        assertEquals(1, release.getCount());
+        verify(handler, timeout(2_000)).send(any(byte[].class), eq(neighbors.get(1)));
+
+        release.countDown();
+        router.stopInboundPipeline();
+    }
+
+    @Test
+    public void testClose_stopsPipelineThreads() throws Exception {
+        HashMap<ConnectionHandlersEnum, ConnectionHandler> handlers = new HashMap<>();
+        handlers.put(ConnectionHandlersEnum.BLE, mock(ConnectionHandler.class));
+        Router router = new Router(handlers, UUID.randomUUID(), new HashSet<>(), new TimerWheel(10, 64));
+        router.startInboundPipeline(16, InboundPipeline.Backpressure.DROP_OLDEST);
+        ThreadPoolExecutor relays = (ThreadPoolExecutor) router.relayExecutor;
+        ThreadPoolExecutor deliveries = (ThreadPoolExecutor) router.deliveryExecutor;
+
+        router.close();
+        assertNull(router.getInboundPipeline());
+        assertTrue(relays.awaitTermination(2, TimeUnit.SECONDS));
+        assertTrue(deliveries.awaitTermination(2, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testFullIngress_dropRelayFirst_keepsLocalFrames() {
+        UUID id = UUID.randomUUID();
+        InboundPipeline pipeline = new InboundPipeline(4, InboundPipeline.Backpressure.DROP_RELAY_FIRST, id,
+                (connectionHandler, neighbor, data) -> {
+                });
+        Device neighbor = createDevices(1).get(0);
+
+        // worker not started, so frames pile up
+        for (int i = 0; i < 3; i++) {
+            pipeline.offer(null, neighbor, frame(i, null));
+        }
+        for (int i = 0; i < 3; i++) {
+            pipeline.offer(null, neighbor, frame(i, id));
+        }
+
+        assertEquals(4, pipeline.getDepth());
+        assertEquals(3, pipeline.getLocalDepth());
+        assertEquals(1, pipeline.getRelayDepth());
+        assertEquals(2, pipeline.getDropped());
+        assertEquals(4, pipeline.getMaxDepth());
+    }
+
+    @Test
+    public void testFullIngress_dropRelayFirst_dropsIncomingRelayFrame() {
+        UUID id = UUID.randomUUID();
+        InboundPipeline pipeline = new InboundPipeline(2, InboundPipeline.Backpressure.DROP_RELAY_FIRST, id,
+                (connectionHandler, neighbor, data) -> {
+                });
+        Device neighbor = createDevices(1).get(0);
+
+        pipeline.offer(null, neighbor, frame(0, id));
+        pipeline.offer(null, neighbor, frame(1, id));
+        pipeline.offer(null, neighbor, frame(2, null));
+
+        assertEquals(2, pipeline.getLocalDepth());
+        assertEquals(0, pipeline.getRelayDepth());
+        assertEquals(1, pipeline.getDropped());
+    }
+
+    @Test
+    public void testConcurrentOffers_neverExceedCapacity() throws Exception {
+        UUID id = UUID.randomUUID();
+        InboundPipeline pipeline = new InboundPipeline(8, InboundPipeline.Backpressure.DROP_OLDEST, id,
+                (connectionHandler, neighbor, data) -> {
+                });
+        Device neighbor = createDevices(1).get(0);
+        int threads = 4;
+        int offers = 2_000;
+        CyclicBarrier start = new CyclicBarrier(threads);
+        ArrayList<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int lane = t;
+            Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (Exception e) {
+                    throw new AssertionError(e);
+                }
+                for (int i = 0; i < offers; i++) {
+                    pipeline.offer(null, neighbor, frame(i, lane % 2 == 0 ? id : null));
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        for (Thread worker : workers) worker.join();
+
+        assertTrue(pipeline.getMaxDepth() <= 8);
+        assertEquals(8, pipeline.getDepth());
+        assertEquals(threads * offers - 8, pipeline.getDropped());
+    }
+
+    @Test
+    public void testFullIngress_dropOldest_dropsAcrossLanes() {
+        UUID id = UUID.randomUUID();
+        InboundPipeline pipeline = new InboundPipeline(2, InboundPipeline.Backpressure.DROP_OLDEST, id,
+                (connectionHandler, neighbor, data) -> {
+                });
+        Device neighbor = createDevices(1).get(0);
+
+        pipeline.offer(null, neighbor, frame(0, id));
+        pipeline.offer(null, neighbor, frame(1, null));
+        pipeline.offer(null, neighbor, frame(2, null));
+
+        // the local frame was the oldest
+        assertEquals(0, pipeline.getLocalDepth());
+        assertEquals(2, pipeline.getRelayDepth());
+        assertEquals(1, pipeline.getDropped());
+    }
+
+    private byte[] frame(int messageId, UUID destination) {
+        return new ConcreteMeshProtocol<>(1, 3, messageId, UUID.randomUUID(), destination, new SendMessageBody(4, false, "x")).encode();
+    }
+
+    private ArrayList<Device> createDevices(int count) {
+        ArrayList<Device> devices = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            devices.add(new Device(UUID.randomUUID(), "device" + i) {
+            });
+        }
+        return devices;
+    }
+}
@@ -0,0 +1,106 @@
+package com.example.mesh_base.router;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+public class MeshProtocolViewTest {
+    private static final int BENCHMARK_PACKETS = 200_000;
+
+    @Test
+    public void testWrap_readsHeaderAndDecodesBodyOnce() {
+        MeshProtocol<SendMessageBody> original = new ConcreteMeshProtocol<>(1, 3, 42, UUID.randomUUID(), UUID.randomUUID(), new SendMessageBody(4, false, "hello"));
+        AtomicInteger decodes = new AtomicInteger();
+        Function<byte[], SendMessageBody> decoder = bytes -> {
+            decodes.incrementAndGet();
+            return SendMessageBody.decode(bytes);
+        };
+
+        MeshProtocol<SendMessageBody> view = MeshProtocol.wrap(ByteBuffer.wrap(original.encode()), decoder);
+        assertEquals(original.messageId, view.messageId);
+        assertEquals(original.remainingHops, view.remainingHops);
+        assertEquals(original.sender, view.sender);
+        assertEquals(original.destination, view.destination);
+        assertEquals(ProtocolType.SEND_MESSAGE, view.getByteType());
+        assertEquals(0, decodes.get());
+
+        assertEquals(original.body, view.getBody());
+        assertEquals(original, view);
+        view.getBody();
+        assertEquals(1, decodes.get());
+    }
+
+    @Test
+    public void testWrap_directBufferAtOffset_encodesWithoutDecodingBody() {
+        MeshProtocol<AckMessageBody> original = new ConcreteMeshProtocol<>(0, 2, 7, UUID.randomUUID(), null, new AckMessageBody("OK"));
+        byte[] encoded = original.encode();
+        ByteBuffer direct = ByteBuffer.allocateDirect(encoded.length + 10);
+        direct.position(10);
+        direct.put(encoded);
+        direct.position(10);
+
+        MeshProtocol<AckMessageBody> view = MeshProtocol.wrap(direct, bytes -> {
+            throw new AssertionError("body should not be decoded");
+        });
+        assertNull(view.destination);
+        assertEquals(10, direct.position());
+
+        view.remainingHops = 1;
+        original.remainingHops = 1;
+        assertArrayEquals(original.encode(), view.encode());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrap_bodyLongerThanBuffer_throws() {
+        byte[] encoded = new ConcreteMeshProtocol<>(1, 3, 1, UUID.randomUUID(), null, new SendMessageBody(4, true, "cut short")).encode();
+        MeshProtocol.wrap(ByteBuffer.wrap(encoded, 0, encoded.length - 1).slice(), SendMessageBody::decode);
+    }
+
+    //Allocation per received packet whose header is read but whose body is never used, as on a relay
+    @Test
+    public void benchmarkAllocationPerDecodedPacket() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+
+        byte[] frame = new ConcreteMeshProtocol<>(1, 3, 9, UUID.randomUUID(), UUID.randomUUID(),
+                new SendMessageBody(4, false, "a chat message of a typical length, say sixty-four bytes long")).encode();
+        long threadId = Thread.currentThread().getId();
+
+        long sink = 0;
+        //warm up both paths so the measurement does not include class loading nor compilation
+        for (int i = 0; i < BENCHMARK_PACKETS; i++) {
+            sink += MeshProtocol.decode(frame, SendMessageBody::decode).messageId;
+            sink += MeshProtocol.wrap(ByteBuffer.wrap(frame), SendMessageBody::decode).messageId;
+        }
+
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < BENCHMARK_PACKETS; i++) {
+            sink += MeshProtocol.decode(frame, SendMessageBody::decode).remainingHops;
+        }
+        long eager = (threads.getThreadAllocatedBytes(threadId) - before) / BENCHMARK_PACKETS;
+
+        before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < BENCHMARK_PACKETS; i++) {
+            sink += MeshProtocol.wrap(ByteBuffer.wrap(frame), SendMessageBody::decode).remainingHops;
+        }
+        long lazy = (threads.getThreadAllocatedBytes(threadId) - before) / BENCHMARK_PACKETS;
+
+        System.out.println("bytes allocated per decoded packet (" + frame.length + " byte frame)");
+        System.out.println("  eager decode  " + eager);
+        System.out.println("  lazy view     " + lazy);
+        assertTrue(sink != 0);
+        assertTrue(lazy < eager);
+    }
+}
@@ -0,0 +1,192 @@
+package com.example.mesh_base.router;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.example.mesh_base.global_interfaces.ConnectionHandler;
+import com.example.mesh_base.global_interfaces.Device;
+import com.example.mesh_base.global_interfaces.SendError;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.UUID;
+
+public class OutboundSchedulerTest {
+    private long now = 0;
+    private final LatencyHistogram[] latencies = {new LatencyHistogram(), new LatencyHistogram(), new LatencyHistogram(), new LatencyHistogram()};
+    private final Device neighbor = new Device(UUID.randomUUID(), "n") {
+    };
+
+    @Test
+    public void testHandlerKeepingUp_sendsRightAway() throws SendError {
+        QueueingHandler handler = new QueueingHandler();
+        OutboundScheduler scheduler = new OutboundScheduler(handler, () -> now, latencies, error -> {
+        });
+
+        scheduler.submit(frame(TrafficClass.RELAY, 0), neighbor, TrafficClass.RELAY);
+        assertEquals(1, handler.sent.size());
+        assertEquals(0, scheduler.size());
+        assertEquals(1, latencies[TrafficClass.RELAY.ordinal()].snapshot().getCount());
+    }
+
+    @Test
+    public void testBackedUpHandler_releasesControlBeforeRelayBurst() throws SendError {
+        QueueingHandler handler = new QueueingHandler();
+        OutboundScheduler scheduler = new OutboundScheduler(handler, () -> now, latencies, error -> {
+        });
+        handler.pending = OutboundScheduler.DEFAULT_MAX_PENDING_SENDS;
+
+        for (int i = 0; i < 20; i++) scheduler.submit(frame(TrafficClass.RELAY, i), neighbor, TrafficClass.RELAY);
+        for (int i = 0; i < 3; i++) scheduler.submit(frame(TrafficClass.LOCAL, i), neighbor, TrafficClass.LOCAL);
+        for (int i = 0; i < 3; i++) scheduler.submit(frame(TrafficClass.CONTROL, i), neighbor, TrafficClass.CONTROL);
+        assertEquals(0, handler.sent.size());
+        assertEquals(26, scheduler.size());
+
+        now = 40;
+        handler.completeAll(scheduler);
+        assertEquals(26, handler.sent.size());
+        //the ACKs overtake every relay queued before them, then our own sends, then relays in order
+        String[] expected = {"CONTROL 0", "CONTROL 1", "CONTROL 2", "LOCAL 0", "LOCAL 1", "LOCAL 2", "RELAY 0", "RELAY 1"};
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], handler.sent.get(i));
+        }
+        assertEquals("RELAY 19", handler.sent.get(25));
+        assertEquals(40, latencies[TrafficClass.CONTROL.ordinal()].snapshot().getMax());
+    }
+
+    @Test
+    public void testWeights_shareTheLinkWhileAllClassesWait() throws SendError {
+        QueueingHandler handler = new QueueingHandler();
+        OutboundScheduler scheduler = new OutboundScheduler(handler, () -> now, latencies, error -> {
+        });
+        handler.pending = OutboundScheduler.DEFAULT_MAX_PENDING_SENDS;
+        for (TrafficClass trafficClass : TrafficClass.values()) {
+            for (int i = 0; i < 30; i++) scheduler.submit(frame(trafficClass, i), neighbor, trafficClass);
+        }
+
+        handler.completeAll(scheduler);
+        //in the first 30 frames every class got its weighted share: 16, 8, 4, 2
+        int[] shares = new int[TrafficClass.values().length];
+        for (int i = 0; i < 30; i++) {
+            shares[TrafficClass.valueOf(handler.sent.get(i).split(" ")[0]).ordinal()]++;
+        }
+        assertEquals(16, shares[TrafficClass.CONTROL.ordinal()]);
+        assertEquals(8, shares[TrafficClass.LOCAL.ordinal()]);
+        assertEquals(4, shares[TrafficClass.RELAY.ordinal()]);
+        assertEquals(2, shares[TrafficClass.BULK.ordinal()]);
+    }
+
+    @Test
+    public void testStarvedFrame_goesNextOnceItWaitedTooLong() throws SendError {
+        QueueingHandler handler = new QueueingHandler();
+        OutboundScheduler scheduler = new OutboundScheduler(handler, () -> now, latencies, error -> {
+        });
+        scheduler.setPolicy(OutboundScheduler.policy(1, 500, new int[]{8, 4, 2, 1}));
+        handler.pending = 1;
+        scheduler.submit(frame(TrafficClass.BULK, 0), neighbor, TrafficClass.BULK);
+
+        //a steady stream of ACKs, one sent per 100ms as one more arrives
+        for (int i = 0; i < 10; i++) {
+            now += 100;
+            scheduler.submit(frame(TrafficClass.CONTROL, i), neighbor, TrafficClass.CONTROL);
+            handler.completeOne(scheduler);
+        }
+
+        int bulk = handler.sent.indexOf("BULK 0");
+        assertTrue(bulk >= 0);
+        //four ACKs overtook it, then at 500ms it went ahead of the ACK that came in with it
+        assertEquals(4, bulk);
+        assertEquals("CONTROL 4", handler.sent.get(5));
+        assertEquals(500, latencies[TrafficClass.BULK.ordinal()].snapshot().getMax());
+    }
+
+    @Test
+    public void testHistogram_percentilesWithinBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1_000; i++) histogram.record(i);
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+
+        assertEquals(1_000, snapshot.getCount());
+        assertEquals(1_000, snapshot.getMax());
+        assertEquals(500.5, snapshot.getMean(), 0.001);
+        assertTrue(Math.abs(snapshot.getPercentile(50) - 500) <= 500 / 8);
+        assertTrue(Math.abs(snapshot.getPercentile(99) - 990) <= 990 / 8);
+        for (long value = 0; value < 1 << 20; value = value * 3 / 2 + 1) {
+            int bucket = LatencyHistogram.bucketOf(value);
+            assertTrue(LatencyHistogram.upperBoundOf(bucket) >= value);
+            assertTrue(bucket == 0 || LatencyHistogram.upperBoundOf(bucket - 1) < value);
+        }
+    }
+
+    private static byte[] frame(TrafficClass trafficClass, int index) {
+        return (trafficClass + " " + index).getBytes();
+    }
+
+    //A transport with a send queue: every send stays pending until the test completes it
+    private static class QueueingHandler extends ConnectionHandler {
+        final ArrayList<String> sent = new ArrayList<>();
+        int pending = 0;
+
+        QueueingHandler() {
+            super(null, UUID.randomUUID());
+        }
+
+        void completeOne(OutboundScheduler scheduler) {
+            if (pending > 0) pending--;
+            scheduler.drain();
+        }
+
+        void completeAll(OutboundScheduler scheduler) {
+            while (pending > 0) completeOne(scheduler);
+        }
+
+        @Override
+        public int getPendingSends() {
+            return pending;
+        }
+
+        @Override
+        public void send(byte[] data, Device neighbor) {
+            sent.add(new String(data));
+            pending++;
+        }
+
+        @Override
+        public void send(byte[] data) {
+            send(data, null);
+        }
+
+        @Override
+        public ArrayList<Device> getNeighbourDevices() {
+            return new ArrayList<>();
+        }
+
+        @Override
+        public void start() {
+        }
+
+        @Override
+        public void stop() {
+        }
+
+        @Override
+        public boolean isOn() {
+            return true;
+        }
+
+        @Override
+        public void enable() {
+        }
+
+        @Override
+        public boolean isEnabled() {
+            return true;
+        }
+
+        @Override
+        public boolean isSupported() {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.example.mesh_base.router;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class PendingSendTableTest {
+    private long now = 0;
+    private final List<String> events = new ArrayList<>();
+
+    private final PendingSendTable.Callbacks recorder = new PendingSendTable.Callbacks() {
+        @Override
+        public void onRetransmit(int messageId, byte[] data, int attempt) {
+            events.add("retransmit " + messageId + " #" + attempt + " @" + now);
+        }
+
+        @Override
+        public void onTimeout(int messageId, SendListener listener, int retransmissions) {
+            events.add("timeout " + messageId + " @" + now);
+        }
+    };
+
+    @Test
+    public void testExpiry_retransmitsWithBackoffThenTimesOut() {
+        TimerWheel timer = new TimerWheel(10, 8, () -> now);
+        PendingSendTable table = new PendingSendTable(timer, recorder);
+        table.setRetransmissionPolicy(100, 2, 2);
+        table.put(7, new byte[]{1}, mock(SendListener.class));
+
+        for (now = 0; now <= 1_000; now += 10) {
+            timer.advance();
+        }
+
+        assertEquals(3, events.size());
+        assertEquals("retransmit 7 #1 @100", events.get(0));
+        assertEquals("retransmit 7 #2 @300", events.get(1));
+        assertEquals("timeout 7 @700", events.get(2));
+        assertEquals(0, table.size());
+    }
+
+    @Test
+    public void testComplete_timesTheSendFromItsFirstTransmission() {
+        TimerWheel timer = new TimerWheel(10, 8, () -> now);
+        LatencyHistogram roundTrips = new LatencyHistogram();
+        PendingSendTable table = new PendingSendTable(timer, recorder, roundTrips);
+        table.setRetransmissionPolicy(100, 2, 2);
+        SendListener listener = mock(SendListener.class);
+        table.put(7, new byte[]{1}, listener);
+
+        for (now = 0; now < 150; now += 10) {
+            timer.advance();
+        }
+        assertEquals(listener, table.complete(7));
+        assertNull(table.complete(7));
+        assertEquals(1, roundTrips.snapshot().getCount());
+        assertEquals(150, roundTrips.snapshot().getMax());
+    }
+
+    @Test
+    public void testRemove_beforeDeadline_cancelsTimer() {
+        TimerWheel timer = new TimerWheel(10, 8, () -> now);
+        PendingSendTable table = new PendingSendTable(timer, recorder);
+        table.setRetransmissionPolicy(100, 2, 2);
+        SendListener listener = mock(SendListener.class);
+        table.put(7, new byte[]{1}, listener);
+
+        now = 50;
+        timer.advance();
+        assertEquals(listener, table.remove(7));
+        assertNull(table.remove(7));
+
+        for (; now <= 1_000; now += 10) {
+            timer.advance();
+        }
+        assertTrue(events.isEmpty());
+    }
+
+    @Test
+    public void testManyInFlight_eachTimesOutOnce() {
+        //deadlines span several wheel rotations
+        TimerWheel timer = new TimerWheel(10, 16, () -> now);
+        PendingSendTable table = new PendingSendTable(timer, recorder);
+        table.setRetransmissionPolicy(1_000, 0, 1);
+        int count = 5_000;
+        for (int i = 0; i < count; i++) {
+            table.put(i, new byte[0], mock(SendListener.class));
+            if (i % 100 == 0) {
+                now += 10;
+                timer.advance();
+            }
+        }
+        assertNotNull(table.get(count - 1));
+
+        for (int i = 0; i < 300; i++) {
+            now += 10;
+            timer.advance();
+        }
+        assertEquals(count, events.size());
+        assertEquals(0, table.size());
+        assertFalse(events.get(0).startsWith("retransmit"));
+    }
+}
@@ -0,0 +1,206 @@
+package com.example.mesh_base.router;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.example.mesh_base.global_interfaces.SendError;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.UUID;
+
+public class ProtocolRegistryTest {
+    private static final int SENSOR_READING = 42;
+
+    private final TestMesh mesh = new TestMesh();
+
+    @Test
+    public void testBuiltInTypes_keepTheirIdsAndClasses() {
+        ProtocolRegistry registry = ProtocolRegistry.withBuiltInTypes();
+        assertTrue(registry.isRegistered(ProtocolRegistry.ACK));
+        assertTrue(registry.isRegistered(ProtocolRegistry.SEND_MESSAGE));
+        assertTrue(registry.isRegistered(ProtocolRegistry.RECEIVE_MESSAGE));
+        assertTrue(registry.isRegistered(ProtocolRegistry.SELECTIVE_ACK));
+        assertFalse(registry.isRegistered(SENSOR_READING));
+        assertFalse(registry.isRegistered(-1));
+        assertFalse(registry.isRegistered(1_000));
+
+        assertEquals(TrafficClass.CONTROL, registry.trafficClassOf(ProtocolRegistry.ACK));
+        assertEquals(TrafficClass.LOCAL, registry.trafficClassOf(ProtocolRegistry.SEND_MESSAGE));
+        assertEquals(TrafficClass.LOCAL, registry.trafficClassOf(ProtocolRegistry.RECEIVE_MESSAGE));
+        assertEquals(ProtocolType.SELECTIVE_ACK, ProtocolRegistry.typeOf(ProtocolRegistry.SELECTIVE_ACK));
+        assertEquals(ProtocolType.UNKNOWN_MESSAGE_TYPE, ProtocolRegistry.typeOf(SENSOR_READING));
+        for (ProtocolType type : new ProtocolType[]{ProtocolType.ACK, ProtocolType.SEND_MESSAGE, ProtocolType.RECEIVE_MESSAGE, ProtocolType.SELECTIVE_ACK}) {
+            assertEquals(type, ProtocolRegistry.typeOf(ProtocolRegistry.idOf(type)));
+        }
+
+        registry.setExpectsResponse(ProtocolRegistry.SEND_MESSAGE, true);
+        assertTrue(registry.expectsResponse(ProtocolRegistry.SEND_MESSAGE));
+        assertFalse(registry.expectsResponse(ProtocolRegistry.ACK));
+    }
+
+    //type 2 carries a text body like SEND_MESSAGE, its frames decode instead of being dropped as unknown
+    @Test
+    public void testReceiveMessage_decodesItsBody() {
+        SendMessageBody body = new SendMessageBody(4, false, "received");
+        byte[] frame = new ConcreteMeshProtocol<>(ProtocolRegistry.RECEIVE_MESSAGE, 3, 1, UUID.randomUUID(), null, body).encodeCompact(false);
+
+        MeshProtocol<?> view = ProtocolRegistry.withBuiltInTypes().wrap(MeshProtocol.getTypeId(frame, 0), ByteBuffer.wrap(frame), null);
+        assertEquals(ProtocolRegistry.RECEIVE_MESSAGE, view.getMessageType());
+        assertEquals(body, view.getBody());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRegister_typeIdPastTheHeaderByte_throws() {
+        new ProtocolRegistry().register(ProtocolRegistry.MAX_TYPE_ID + 1, SensorReading::decode, false, TrafficClass.BULK);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRegister_builtInTypeId_throws() {
+        ProtocolRegistry.withBuiltInTypes().register(ProtocolRegistry.SELECTIVE_ACK, SensorReading::decode, false, TrafficClass.BULK);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRegister_reservedTypeIdOnEmptyRegistry_throws() {
+        new ProtocolRegistry().register(ProtocolRegistry.RECEIVE_MESSAGE, SensorReading::decode, false, TrafficClass.BULK);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRegister_sameTypeIdTwice_throws() {
+        ProtocolRegistry.withBuiltInTypes()
+                .register(SENSOR_READING, SensorReading::decode, false, TrafficClass.BULK)
+                .register(SENSOR_READING, SensorReading::decode, true, TrafficClass.LOCAL);
+    }
+
+    @Test
+    public void testWrap_usesTheRegisteredDecoder() {
+        ProtocolRegistry registry = ProtocolRegistry.withBuiltInTypes()
+                .register(SENSOR_READING, SensorReading::decode, false, TrafficClass.BULK);
+        SensorReading reading = new SensorReading(7, 21.5f);
+        byte[] frame = new ConcreteMeshProtocol<>(SENSOR_READING, 3, 1, UUID.randomUUID(), null, reading).encodeCompact(false);
+
+        MeshProtocol<?> view = registry.wrap(MeshProtocol.getTypeId(frame, 0), ByteBuffer.wrap(frame), null);
+        assertEquals(SENSOR_READING, view.getMessageType());
+        assertEquals(reading, view.getBody());
+        assertNull(ProtocolRegistry.withBuiltInTypes().wrap(SENSOR_READING, ByteBuffer.wrap(frame), null));
+    }
+
+    @Test
+    public void testApplicationType_routedAndDeliveredWithoutRouterChanges() {
+        TestMesh.Node a = sensorNode();
+        TestMesh.Node b = sensorNode();
+        TestMesh.Node c = sensorNode();
+        a.link.connect(b);
+        b.link.connect(c);
+
+        SensorReading reading = new SensorReading(3, -4.25f);
+        CountingListener listener = new CountingListener();
+        a.router.sendData(new ConcreteMeshProtocol<>(SENSOR_READING, 3, 11, a.id, c.id, reading), listener);
+
+        assertEquals(1, c.received.size());
+        assertEquals(reading, c.received.get(0).getBody());
+        assertEquals(1, listener.acks);
+        assertEquals(0, b.received.size());
+    }
+
+    @Test
+    public void testUnregisteredType_isDropped() {
+        TestMesh.Node a = sensorNode();
+        TestMesh.Node b = sensorNode();
+        a.link.connect(b);
+
+        a.router.sendData(new ConcreteMeshProtocol<>(43, 3, 13, a.id, b.id, new SensorReading(1, 1f)), new SendListener() {
+            @Override
+            public void onError(SendError error) {
+            }
+
+            @Override
+            public void onAck() {
+                throw new AssertionError("unregistered type acknowledged");
+            }
+
+            @Override
+            public void onResponse(MeshProtocol<?> protocol) {
+            }
+        });
+        assertEquals(0, b.received.size());
+    }
+
+    @Test
+    public void testTypesExpectingResponses_setMapsToRegistry() {
+        HashSet<ProtocolType> expecting = new HashSet<>();
+        expecting.add(ProtocolType.SEND_MESSAGE);
+        TestMesh.Node a = sensorNode();
+        TestMesh.Node b = mesh.node("node", expecting);
+        a.link.connect(b);
+
+        CountingListener listener = new CountingListener();
+        a.router.sendData(new ConcreteMeshProtocol<>(1, 3, 12, a.id, b.id, new SendMessageBody(4, false, "question")), listener);
+        assertEquals(1, b.received.size());
+        //b holds back its ACK for the application to respond
+        assertEquals(0, listener.acks);
+        assertTrue(b.router.registry.expectsResponse(ProtocolRegistry.SEND_MESSAGE));
+        assertFalse(b.router.registry.expectsResponse(ProtocolRegistry.ACK));
+    }
+
+    //An application body: a sensor id and a value
+    private static class SensorReading implements MeshSerializer<SensorReading> {
+        final int sensor;
+        final float value;
+
+        SensorReading(int sensor, float value) {
+            this.sensor = sensor;
+            this.value = value;
+        }
+
+        static SensorReading decode(byte[] data) {
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            return new SensorReading(buffer.getInt(), buffer.getFloat());
+        }
+
+        @Override
+        public byte[] encode() {
+            return ByteBuffer.allocate(8).putInt(sensor).putFloat(value).array();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof SensorReading)) return false;
+            SensorReading that = (SensorReading) o;
+            return sensor == that.sensor && value == that.value;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * sensor + Float.hashCode(value);
+        }
+    }
+
+    private static class CountingListener implements SendListener {
+        int acks = 0;
+
+        @Override
+        public void onError(SendError error) {
+            throw new AssertionError(error);
+        }
+
+        @Override
+        public void onAck() {
+            acks++;
+        }
+
+        @Override
+        public void onResponse(MeshProtocol<?> protocol) {
+        }
+    }
+
+    //Knows the application's sensor type on top of the built-in ones
+    private TestMesh.Node sensorNode() {
+        return mesh.node("node", ProtocolRegistry.withBuiltInTypes()
+                .register(SENSOR_READING, SensorReading::decode, false, TrafficClass.BULK));
+    }
+}
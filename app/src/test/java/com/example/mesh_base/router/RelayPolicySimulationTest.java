@@ -0,0 +1,148 @@
+package com.example.mesh_base.router;
+
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.mockStatic;
+
+import android.util.Log;
+
+import com.example.mesh_base.global_interfaces.Device;
+
+import org.junit.Test;
+import org.mockito.MockedStatic;
+
+import java.util.HashSet;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.UUID;
+import java.util.function.Function;
+
+//Floods one broadcast per run over random geometric graphs and compares how many nodes it reaches
+//against how many radio writes it took under each relay policy. Every policy replays the same
+//topologies, sources and link latencies.
+public class RelayPolicySimulationTest {
+    private static final int RUNS = 20;
+    private static final long RUN_MILLIS = 2_000;
+
+    private long transmissions;
+    private final PriorityQueue<Delivery> inFlight = new PriorityQueue<>((a, b) -> Long.compare(a.at, b.at));
+
+    @Test
+    public void testDenseMesh_gossipAndCounterRelayFewerCopies() {
+        try (MockedStatic<Log> log = mockStatic(Log.class)) {
+            Result flood = simulate(60, 0.3, random -> new DefaultRelayPolicy());
+            Result gossip = simulate(60, 0.3, random -> new GossipRelayPolicy(0.6, 4, random));
+            Result counter = simulate(60, 0.3, random -> new CounterRelayPolicy(2, 100, 4, random));
+            print("dense", flood, gossip, counter);
+
+            assertTrue(gossip.transmissions < 0.8 * flood.transmissions);
+            assertTrue(counter.transmissions < 0.5 * flood.transmissions);
+            assertTrue(gossip.deliveryRatio > 0.9 * flood.deliveryRatio);
+            assertTrue(counter.deliveryRatio > 0.9 * flood.deliveryRatio);
+        }
+    }
+
+    @Test
+    public void testSparseMesh_counterStillDelivers() {
+        try (MockedStatic<Log> log = mockStatic(Log.class)) {
+            Result flood = simulate(25, 0.3, random -> new DefaultRelayPolicy());
+            Result gossip = simulate(25, 0.3, random -> new GossipRelayPolicy(0.6, 4, random));
+            Result counter = simulate(25, 0.3, random -> new CounterRelayPolicy(2, 100, 4, random));
+            print("sparse", flood, gossip, counter);
+
+            //few duplicates are heard when neighbors are scarce, so most relays still go out
+            assertTrue(counter.deliveryRatio > 0.85 * flood.deliveryRatio);
+            assertTrue(counter.transmissions <= flood.transmissions);
+        }
+    }
+
+    private Result simulate(int nodeCount, double radius, Function<Random, RelayPolicy> relayPolicy) {
+        double delivered = 0;
+        long totalTransmissions = 0;
+
+        for (int run = 0; run < RUNS; run++) {
+            Random random = new Random(run);
+            transmissions = 0;
+            inFlight.clear();
+            TestMesh mesh = new TestMesh(5);
+            mesh.carrier = (from, to, data) -> {
+                transmissions++;
+                //a GATT write or indication takes a few tens of milliseconds
+                long latency = 10 + (data.length + to.id.hashCode() + mesh.now) % 20;
+                inFlight.add(new Delivery(mesh.now + Math.abs(latency), to, from.device, data));
+            };
+
+            TestMesh.Node[] nodes = new TestMesh.Node[nodeCount];
+            double[] x = new double[nodeCount];
+            double[] y = new double[nodeCount];
+            for (int i = 0; i < nodeCount; i++) {
+                x[i] = random.nextDouble();
+                y[i] = random.nextDouble();
+                UUID id = new UUID(run, i);
+                nodes[i] = mesh.node(id, id.toString(), ProtocolRegistry.withBuiltInTypes());
+                nodes[i].failOnError = false;
+            }
+            for (int i = 0; i < nodeCount; i++) {
+                for (int j = 0; j < nodeCount; j++) {
+                    double dx = x[i] - x[j];
+                    double dy = y[i] - y[j];
+                    if (i != j && dx * dx + dy * dy <= radius * radius) {
+                        nodes[i].link.linkTo(nodes[j]);
+                    }
+                }
+                nodes[i].router.setRelayPolicy(relayPolicy.apply(new Random(random.nextLong())));
+            }
+
+            TestMesh.Node source = nodes[0];
+            HashSet<TestMesh.Node> reached = new HashSet<>();
+            reached.add(source);
+            source.router.sendData(new ConcreteMeshProtocol<>(1, -1, -1, source.id, null, new SendMessageBody(4, true, "storm?")), mock(SendListener.class));
+
+            for (; mesh.now < RUN_MILLIS; mesh.now++) {
+                while (!inFlight.isEmpty() && inFlight.peek().at <= mesh.now) {
+                    Delivery delivery = inFlight.poll();
+                    reached.add(delivery.to);
+                    delivery.to.link.receive(delivery.from, delivery.data);
+                }
+                for (TestMesh.Node node : nodes) {
+                    node.timer.advance();
+                }
+            }
+
+            delivered += (reached.size() - 1) / (double) (nodeCount - 1);
+            totalTransmissions += transmissions;
+        }
+        return new Result(delivered / RUNS, totalTransmissions / (double) RUNS);
+    }
+
+    private void print(String scenario, Result flood, Result gossip, Result counter) {
+        System.out.printf("%s mesh: delivery ratio / writes per broadcast%n", scenario);
+        System.out.printf("  flood   %.3f / %.1f%n", flood.deliveryRatio, flood.transmissions);
+        System.out.printf("  gossip  %.3f / %.1f%n", gossip.deliveryRatio, gossip.transmissions);
+        System.out.printf("  counter %.3f / %.1f%n", counter.deliveryRatio, counter.transmissions);
+    }
+
+    private static class Result {
+        final double deliveryRatio;
+        final double transmissions;
+
+        Result(double deliveryRatio, double transmissions) {
+            this.deliveryRatio = deliveryRatio;
+            this.transmissions = transmissions;
+        }
+    }
+
+    private static class Delivery {
+        final long at;
+        final TestMesh.Node to;
+        final Device from;
+        final byte[] data;
+
+        Delivery(long at, TestMesh.Node to, Device from, byte[] data) {
+            this.at = at;
+            this.to = to;
+            this.from = from;
+            this.data = data;
+        }
+    }
+}
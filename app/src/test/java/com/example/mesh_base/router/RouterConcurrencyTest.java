@@ -0,0 +1,235 @@
+package com.example.mesh_base.router;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.example.mesh_base.global_interfaces.ConnectionHandler;
+import com.example.mesh_base.global_interfaces.ConnectionHandlersEnum;
+import com.example.mesh_base.global_interfaces.Device;
+import com.example.mesh_base.global_interfaces.SendError;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class RouterConcurrencyTest {
+    private static final int RECEIVE_THREADS = 8;
+    private static final int SEND_THREADS = 4;
+    private static final int RELAYED_FRAMES = 4_000;
+    private static final int COPIES_PER_FRAME = 4;
+    private static final int SENDS_PER_THREAD = 1_000;
+
+    private final ConcurrentHashMap<Integer, AtomicInteger> relaysByMessageId = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Throwable> failures = new ConcurrentLinkedQueue<>();
+
+    @Test
+    public void testSendsAndReceivesFromManyThreads_relayOnceAndReportOnce() throws Exception {
+        UUID id = UUID.randomUUID();
+        ArrayList<Device> neighbors = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            neighbors.add(new Device(UUID.randomUUID(), "neighbor" + i) {
+            });
+        }
+        CountingLink link = new CountingLink(neighbors);
+        HashMap<ConnectionHandlersEnum, ConnectionHandler> handlers = new HashMap<>();
+        handlers.put(ConnectionHandlersEnum.BLE, link);
+        Router router = new Router(handlers, id, new HashSet<>(), new TimerWheel(10, 64));
+        //large enough that no copy outlives its entry, so any extra relay is a race
+        router.setRoutedCache(new SeenMessageCache(16_384, SeenMessageCache.DEFAULT_TTL_MILLIS));
+
+        router.setListener(new Router.RouterListener() {
+            @Override
+            public void onData(MeshProtocol<?> protocol, Device neighbor) {
+            }
+
+            @Override
+            public void onError(Exception exception) {
+                failures.add(exception);
+            }
+        });
+
+        //every broadcast reaches us several times, as it would from a dense neighborhood
+        List<byte[]> inbound = new ArrayList<>();
+        for (int i = 0; i < RELAYED_FRAMES; i++) {
+            byte[] frame = new ConcreteMeshProtocol<>(1, 3, i, UUID.randomUUID(), null, new SendMessageBody(4, true, "relay " + i)).encode();
+            for (int copy = 0; copy < COPIES_PER_FRAME; copy++) {
+                inbound.add(frame.clone());
+            }
+        }
+        Collections.shuffle(inbound, new Random(7));
+
+        ConcurrentLinkedQueue<byte[]> acks = new ConcurrentLinkedQueue<>();
+        AtomicInteger[] ackCounts = new AtomicInteger[SEND_THREADS * SENDS_PER_THREAD];
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch sendersDone = new CountDownLatch(SEND_THREADS);
+        List<Thread> threads = new ArrayList<>();
+
+        for (int t = 0; t < RECEIVE_THREADS; t++) {
+            List<byte[]> share = inbound.subList(t * inbound.size() / RECEIVE_THREADS, (t + 1) * inbound.size() / RECEIVE_THREADS);
+            threads.add(worker(start, () -> {
+                for (byte[] frame : share) {
+                    link.receive(neighbors.get(0), frame);
+                }
+            }));
+        }
+
+        for (int t = 0; t < SEND_THREADS; t++) {
+            int firstId = RELAYED_FRAMES + t * SENDS_PER_THREAD;
+            threads.add(worker(start, () -> {
+                try {
+                    for (int i = 0; i < SENDS_PER_THREAD; i++) {
+                        int messageId = firstId + i;
+                        AtomicInteger count = new AtomicInteger();
+                        ackCounts[messageId - RELAYED_FRAMES] = count;
+                        UUID destination = UUID.randomUUID();
+                        router.sendData(new ConcreteMeshProtocol<>(1, -1, messageId, id, destination, new SendMessageBody(4, false, "hi")), new CountingListener(count), true);
+                        acks.add(new ConcreteMeshProtocol<>(0, 3, messageId, destination, id, new AckMessageBody("OK")).encode());
+                    }
+                } finally {
+                    sendersDone.countDown();
+                }
+            }));
+        }
+
+        //ACKs come back twice and race each other
+        for (int t = 0; t < 2; t++) {
+            threads.add(worker(start, () -> {
+                ArrayList<byte[]> delivered = new ArrayList<>();
+                while (sendersDone.getCount() > 0 || !acks.isEmpty()) {
+                    byte[] ack = acks.poll();
+                    if (ack == null) continue;
+                    link.receive(neighbors.get(1), ack);
+                    delivered.add(ack);
+                }
+                for (byte[] ack : delivered) {
+                    link.receive(neighbors.get(2), ack);
+                }
+            }));
+        }
+
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join(TimeUnit.SECONDS.toMillis(30));
+        }
+
+        assertTrue("unexpected failures: " + failures, failures.isEmpty());
+
+        //relays only go out to the two neighbors that did not deliver the frame, and only once
+        assertEquals(RELAYED_FRAMES, relaysByMessageId.size());
+        for (int i = 0; i < RELAYED_FRAMES; i++) {
+            assertEquals("messageId=" + i, 2, relaysByMessageId.get(i).get());
+        }
+
+        for (AtomicInteger count : ackCounts) {
+            assertEquals(1, count.get());
+        }
+        //the extra copies of every relayed frame, and every second ACK
+        assertEquals(RELAYED_FRAMES * (COPIES_PER_FRAME - 1) + SEND_THREADS * SENDS_PER_THREAD,
+                router.getMetrics().getDropped(RouterMetrics.DropReason.DUPLICATE));
+        assertEquals(0, router.pendingSends.size());
+    }
+
+    private Thread worker(CountDownLatch start, Runnable body) {
+        Thread thread = new Thread(() -> {
+            try {
+                start.await();
+                body.run();
+            } catch (Throwable e) {
+                failures.add(e);
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    private static class CountingListener implements SendListener {
+        final AtomicInteger acks;
+
+        CountingListener(AtomicInteger acks) {
+            this.acks = acks;
+        }
+
+        @Override
+        public void onError(SendError error) {
+        }
+
+        @Override
+        public void onAck() {
+            acks.incrementAndGet();
+        }
+
+        @Override
+        public void onResponse(MeshProtocol<?> protocol) {
+        }
+    }
+
+    private class CountingLink extends ConnectionHandler {
+        final ArrayList<Device> neighbors;
+
+        CountingLink(ArrayList<Device> neighbors) {
+            super(null, UUID.randomUUID());
+            this.neighbors = neighbors;
+        }
+
+        void receive(Device from, byte[] data) {
+            onDataReceived(from, data);
+        }
+
+        @Override
+        public ArrayList<Device> getNeighbourDevices() {
+            return neighbors;
+        }
+
+        @Override
+        public void send(byte[] data) {
+        }
+
+        @Override
+        public void send(byte[] data, Device neighbor) {
+            //messageId sits right after the type and hop count
+            int messageId = ByteBuffer.wrap(data).getInt(8);
+            if (messageId < RELAYED_FRAMES) {
+                relaysByMessageId.computeIfAbsent(messageId, key -> new AtomicInteger()).incrementAndGet();
+            }
+        }
+
+        @Override
+        public void start() {
+        }
+
+        @Override
+        public void stop() {
+        }
+
+        @Override
+        public boolean isOn() {
+            return true;
+        }
+
+        @Override
+        public void enable() {
+        }
+
+        @Override
+        public boolean isEnabled() {
+            return true;
+        }
+
+        @Override
+        public boolean isSupported() {
+            return true;
+        }
+    }
+}
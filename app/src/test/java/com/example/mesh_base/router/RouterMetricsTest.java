@@ -0,0 +1,176 @@
+package com.example.mesh_base.router;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.example.mesh_base.global_interfaces.ConnectionHandlersEnum;
+import com.example.mesh_base.global_interfaces.SendError;
+import com.example.mesh_base.global_interfaces.SendTimeoutError;
+
+import org.junit.Test;
+
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+
+public class RouterMetricsTest {
+    private static final long HOP_MILLIS = 5;
+
+    private final TestMesh mesh = new TestMesh();
+
+    public RouterMetricsTest() {
+        mesh.hopMillis = HOP_MILLIS;
+    }
+
+    @Test
+    public void testRelayedMessage_isCountedAlongTheWay() {
+        TestMesh.Node a = mesh.node();
+        TestMesh.Node b = mesh.node();
+        TestMesh.Node c = mesh.node();
+        a.link.connect(b);
+        b.link.connect(c);
+
+        CountingListener listener = new CountingListener();
+        a.router.sendData(new ConcreteMeshProtocol<>(1, 3, 1, a.id, c.id, new SendMessageBody(4, false, "hello")), listener, true);
+        assertEquals(1, listener.acks);
+
+        RouterMetrics.Snapshot origin = a.router.getMetrics();
+        assertEquals(1, origin.getCount(RouterMetrics.Event.SENT));
+        assertEquals(1, origin.getCount(RouterMetrics.Event.ACKED));
+        assertEquals(1, origin.getCount(RouterMetrics.Event.RECEIVED));
+        assertEquals(0, origin.getCount(RouterMetrics.Event.DELIVERED));
+        //a to b to c, and the ACK back from c to b to a
+        assertEquals(1, origin.getAckRoundTrip().getCount());
+        assertEquals(4 * HOP_MILLIS, origin.getAckRoundTrip().getMax());
+        assertEquals(a.link.bytesSent, origin.getBytesOut(ConnectionHandlersEnum.BLE));
+        assertEquals(a.link.bytesReceived, origin.getBytesIn(ConnectionHandlersEnum.BLE));
+
+        RouterMetrics.Snapshot relay = b.router.getMetrics();
+        //the message on its way out, the ACK on its way back
+        assertEquals(2, relay.getCount(RouterMetrics.Event.RECEIVED));
+        assertEquals(2, relay.getCount(RouterMetrics.Event.RELAYED));
+        assertEquals(2, relay.getInboundProcessing().getCount());
+        assertEquals(0, relay.getCount(RouterMetrics.Event.SENT));
+
+        RouterMetrics.Snapshot destination = c.router.getMetrics();
+        assertEquals(1, destination.getCount(RouterMetrics.Event.DELIVERED));
+        assertEquals(0, destination.getDropped());
+        assertTrue(destination.toString().contains("delivered=1"));
+    }
+
+    @Test
+    public void testDrops_areCountedByReason() {
+        TestMesh.Node a = mesh.node();
+        TestMesh.Node b = mesh.node();
+        a.link.connect(b);
+
+        byte[] frame = new ConcreteMeshProtocol<>(1, 3, 9, a.id, UUID.randomUUID(), new SendMessageBody(4, false, "hello")).encode();
+        b.link.receive(a.device, frame);
+        b.link.receive(a.device, frame.clone());
+        byte[] spent = new ConcreteMeshProtocol<>(1, 0, 10, a.id, UUID.randomUUID(), new SendMessageBody(4, false, "hello")).encode();
+        b.link.receive(a.device, spent);
+        byte[] unknown = frame.clone();
+        unknown[3] = 99;
+        b.link.receive(a.device, unknown);
+        b.link.receive(a.device, new byte[5]);
+
+        RouterMetrics.Snapshot metrics = b.router.getMetrics();
+        assertEquals(5, metrics.getCount(RouterMetrics.Event.RECEIVED));
+        assertEquals(1, metrics.getDropped(RouterMetrics.DropReason.DUPLICATE));
+        assertEquals(1, metrics.getDropped(RouterMetrics.DropReason.HOPS_EXHAUSTED));
+        assertEquals(1, metrics.getDropped(RouterMetrics.DropReason.UNKNOWN_TYPE));
+        assertEquals(1, metrics.getDropped(RouterMetrics.DropReason.MALFORMED));
+        assertEquals(1, b.router.getMalformedFrames());
+        assertEquals(4, metrics.getDropped());
+    }
+
+    @Test
+    public void testRepeatedAck_isCountedAsDuplicate() {
+        TestMesh.Node a = mesh.node();
+        TestMesh.Node b = mesh.node();
+        a.link.connect(b);
+
+        CountingListener listener = new CountingListener();
+        a.router.sendData(new ConcreteMeshProtocol<>(1, 3, 1, a.id, b.id, new SendMessageBody(4, false, "hello")), listener, true);
+        assertEquals(1, listener.acks);
+        //the ACK to a retransmission that crossed the first one on the air
+        byte[] ack = new ConcreteMeshProtocol<>(0, 3, 1, b.id, a.id, new AckMessageBody("OK")).encode();
+        a.link.receive(b.device, ack);
+
+        RouterMetrics.Snapshot metrics = a.router.getMetrics();
+        assertEquals(1, listener.acks);
+        assertEquals(1, metrics.getCount(RouterMetrics.Event.ACKED));
+        assertEquals(1, metrics.getDropped(RouterMetrics.DropReason.DUPLICATE));
+    }
+
+    @Test
+    public void testUnansweredSend_isCountedAsTimedOut() {
+        TestMesh.Node a = mesh.node();
+        TestMesh.Node b = mesh.node();
+        a.link.connect(b);
+        a.link.isDown = true;
+        a.router.setRetransmissionPolicy(100, 1, 2);
+
+        CountingListener listener = new CountingListener();
+        a.router.sendData(new ConcreteMeshProtocol<>(1, 3, 1, a.id, b.id, new SendMessageBody(4, false, "hello")), listener, true);
+        mesh.advanceTo(1_000);
+
+        assertEquals(1, listener.timeouts);
+        RouterMetrics.Snapshot metrics = a.router.getMetrics();
+        assertEquals(1, metrics.getCount(RouterMetrics.Event.TIMED_OUT));
+        assertEquals(0, metrics.getCount(RouterMetrics.Event.ACKED));
+        assertEquals(0, metrics.getAckRoundTrip().getCount());
+        //the first transmission and one retransmission
+        assertEquals(2 * a.link.sent.get(0).length, metrics.getBytesOut(ConnectionHandlersEnum.BLE));
+    }
+
+    //Snapshots taken while counters are updated never lose nor invent counts
+    @Test
+    public void testSnapshots_whileCountingFromManyThreads() throws InterruptedException {
+        RouterMetrics metrics = new RouterMetrics();
+        int threads = 4;
+        int increments = 100_000;
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread(() -> {
+                for (int i = 0; i < increments; i++) {
+                    metrics.count(RouterMetrics.Event.RECEIVED);
+                    metrics.drop(RouterMetrics.DropReason.DUPLICATE);
+                    metrics.bytesOut(ConnectionHandlersEnum.BLE).add(2);
+                }
+                done.countDown();
+            }).start();
+        }
+        long previous = 0;
+        while (done.getCount() > 0) {
+            long received = metrics.snapshot().getCount(RouterMetrics.Event.RECEIVED);
+            assertTrue(received >= previous);
+            previous = received;
+        }
+        done.await();
+
+        RouterMetrics.Snapshot snapshot = metrics.snapshot();
+        assertEquals(threads * increments, snapshot.getCount(RouterMetrics.Event.RECEIVED));
+        assertEquals(threads * increments, snapshot.getDropped(RouterMetrics.DropReason.DUPLICATE));
+        assertEquals(2L * threads * increments, snapshot.getBytesOut(ConnectionHandlersEnum.BLE));
+    }
+
+    private static class CountingListener implements SendListener {
+        int acks = 0;
+        int timeouts = 0;
+
+        @Override
+        public void onError(SendError error) {
+            if (!(error instanceof SendTimeoutError)) throw new AssertionError(error);
+            timeouts++;
+        }
+
+        @Override
+        public void onAck() {
+            acks++;
+        }
+
+        @Override
+        public void onResponse(MeshProtocol<?> protocol) {
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package com.example.mesh_base.router;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.mockStatic;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.util.Log;
+
+import com.example.mesh_base.global_interfaces.ConnectionHandler;
+import com.example.mesh_base.global_interfaces.ConnectionHandlersEnum;
+import com.example.mesh_base.global_interfaces.Device;
+import com.example.mesh_base.global_interfaces.SendError;
+import com.example.mesh_base.global_interfaces.SendTimeoutError;
+
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.MockedStatic;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.UUID;
+
+public class RouterRetransmissionTest {
+    private final TestMesh mesh = new TestMesh();
+    private long now = 0;
+
+    @Test
+    public void testClose_stopsTheTimerTheRouterStarted() {
+        try (MockedStatic<Log> log = mockStatic(Log.class)) {
+            HashMap<ConnectionHandlersEnum, ConnectionHandler> handlers = new HashMap<>();
+            handlers.put(ConnectionHandlersEnum.BLE, mock(ConnectionHandler.class));
+            Router router = new Router(handlers, UUID.randomUUID(), ProtocolRegistry.withBuiltInTypes());
+            assertTrue(router.timer.isRunning());
+
+            router.close();
+            assertFalse(router.timer.isRunning());
+        }
+    }
+
+    @Test
+    public void testClose_leavesAGivenTimerRunning() {
+        try (MockedStatic<Log> log = mockStatic(Log.class)) {
+            HashMap<ConnectionHandlersEnum, ConnectionHandler> handlers = new HashMap<>();
+            handlers.put(ConnectionHandlersEnum.BLE, mock(ConnectionHandler.class));
+            TimerWheel timer = new TimerWheel(10, 64);
+            timer.start();
+            Router router = new Router(handlers, UUID.randomUUID(), new HashSet<>(), timer);
+
+            router.close();
+            assertTrue(timer.isRunning());
+            timer.stop();
+        }
+    }
+
+    @Test
+    public void testSend_noAck_retransmitsThenReportsTimeout() throws SendError {
+        try (MockedStatic<Log> log = mockStatic(Log.class)) {
+            ConnectionHandler handler = mock(ConnectionHandler.class);
+            ArrayList<Device> devices = new ArrayList<>();
+            devices.add(new Device(UUID.randomUUID(), "neighbor") {
+            });
+            when(handler.isOn()).thenReturn(true);
+            when(handler.getNeighbourDevices()).thenReturn(devices);
+
+            HashMap<ConnectionHandlersEnum, ConnectionHandler> handlers = new HashMap<>();
+            handlers.put(ConnectionHandlersEnum.BLE, handler);
+            TimerWheel timer = new TimerWheel(10, 64, () -> now);
+            UUID id = UUID.randomUUID();
+            Router router = new Router(handlers, id, new HashSet<>(), timer);
+            router.setRetransmissionPolicy(100, 2, 2);
+
+            SendListener listener = mock(SendListener.class);
+            router.sendData(new ConcreteMeshProtocol<>(1, -1, -1, id, UUID.randomUUID(), new SendMessageBody(4, false, "hello")), listener);
+            verify(handler, times(1)).send(any(byte[].class));
+
+            for (now = 0; now < 699; now += 10) {
+                timer.advance();
+            }
+            verify(handler, times(3)).send(any(byte[].class));
+            verify(listener, never()).onError(any());
+
+            now = 700;
+            timer.advance();
+            verify(listener).onError(any(SendTimeoutError.class));
+        }
+    }
+
+    //nodes that predate the attempt read the whole type field, a legacy retransmission must not touch it
+    @Test
+    public void testRetransmission_legacyHeader_keepsThePlainType() throws SendError {
+        try (MockedStatic<Log> log = mockStatic(Log.class)) {
+            ConnectionHandler handler = mock(ConnectionHandler.class);
+            ArrayList<Device> devices = new ArrayList<>();
+            devices.add(new Device(UUID.randomUUID(), "neighbor") {
+            });
+            when(handler.isOn()).thenReturn(true);
+            when(handler.getNeighbourDevices()).thenReturn(devices);
+
+            HashMap<ConnectionHandlersEnum, ConnectionHandler> handlers = new HashMap<>();
+            handlers.put(ConnectionHandlersEnum.BLE, handler);
+            TimerWheel timer = new TimerWheel(10, 64, () -> now);
+            UUID id = UUID.randomUUID();
+            Router router = new Router(handlers, id, new HashSet<>(), timer);
+            router.setRetransmissionPolicy(100, 2, 2);
+
+            router.sendData(new ConcreteMeshProtocol<>(1, -1, -1, id, UUID.randomUUID(), new SendMessageBody(4, false, "hello")), mock(SendListener.class));
+            for (now = 0; now < 699; now += 10) {
+                timer.advance();
+            }
+
+            ArgumentCaptor<byte[]> frames = ArgumentCaptor.forClass(byte[].class);
+            verify(handler, times(3)).send(frames.capture());
+            for (byte[] frame : frames.getAllValues()) {
+                assertEquals(1, ByteBuffer.wrap(frame).getInt(0));
+            }
+        }
+    }
+
+    //a to r to b with b's first ACK lost: r forwards the retransmission, b answers it.
+    //Only compact headers carry the attempt that sets a retransmission apart from a duplicate.
+    @Test
+    public void testRetransmission_throughRelay_afterLostAck() {
+        try (MockedStatic<Log> log = mockStatic(Log.class)) {
+            TestMesh.Node a = node();
+            TestMesh.Node r = node();
+            TestMesh.Node b = node();
+            for (TestMesh.Node node : new TestMesh.Node[]{a, r, b}) node.router.setCompactHeaders(true);
+            a.link.connect(r);
+            r.link.connect(b);
+            b.link.drop = TestMesh.dropNext(1);
+
+            SendListener listener = mock(SendListener.class);
+            a.router.sendData(new ConcreteMeshProtocol<>(1, -1, -1, a.id, b.id, new SendMessageBody(4, false, "hello")), listener);
+            assertEquals(1, b.received.size());
+            verify(listener, never()).onAck();
+
+            mesh.advanceTo(100);
+            verify(listener).onAck();
+            //both attempts on to b, and b's ACK back to a
+            assertEquals(3, r.link.sent.size());
+            mesh.advanceTo(1_000);
+            verify(listener, never()).onError(any());
+        }
+    }
+
+    @Test
+    public void testRetransmission_compactHeaders_throughRelay() {
+        try (MockedStatic<Log> log = mockStatic(Log.class)) {
+            TestMesh.Node a = node();
+            TestMesh.Node r = node();
+            TestMesh.Node b = node();
+            for (TestMesh.Node node : new TestMesh.Node[]{a, r, b}) node.router.setCompactHeaders(true);
+            a.link.connect(r);
+            r.link.connect(b);
+            b.link.drop = TestMesh.dropNext(2);
+
+            SendListener listener = mock(SendListener.class);
+            a.router.sendData(new ConcreteMeshProtocol<>(1, -1, -1, a.id, b.id, new SendMessageBody(4, false, "hello")), listener);
+            mesh.advanceTo(100);
+            verify(listener, never()).onAck();
+            mesh.advanceTo(300);
+            verify(listener).onAck();
+            mesh.advanceTo(1_000);
+            verify(listener, never()).onError(any());
+        }
+    }
+
+    @Test
+    public void testRetransmission_afterLostAck_isAckedAgainNotDeliveredTwice() {
+        try (MockedStatic<Log> log = mockStatic(Log.class)) {
+            TestMesh.Node a = node();
+            TestMesh.Node b = node();
+            for (TestMesh.Node node : new TestMesh.Node[]{a, b}) node.router.setCompactHeaders(true);
+            a.link.connect(b);
+            b.link.drop = TestMesh.dropNext(1);
+
+            SendListener listener = mock(SendListener.class);
+            a.router.sendData(new ConcreteMeshProtocol<>(1, -1, -1, a.id, b.id, new SendMessageBody(4, false, "hello")), listener);
+            mesh.advanceTo(1_000);
+
+            assertEquals(1, b.received.size());
+            assertEquals(2, b.link.sent.size());
+            verify(listener).onAck();
+            verify(listener, never()).onError(any());
+        }
+    }
+
+    @Test
+    public void testRetransmission_afterLostResponse_getsTheSameResponse() {
+        try (MockedStatic<Log> log = mockStatic(Log.class)) {
+            HashSet<ProtocolType> expecting = new HashSet<>();
+            expecting.add(ProtocolType.SEND_MESSAGE);
+            TestMesh.Node a = node();
+            TestMesh.Node b = node(expecting);
+            a.link.connect(b);
+
+            SendListener listener = mock(SendListener.class);
+            a.router.sendData(new ConcreteMeshProtocol<>(1, -1, -1, a.id, b.id, new SendMessageBody(4, false, "question")), listener);
+            b.link.drop = TestMesh.dropNext(1);
+            b.router.sendData(new ConcreteMeshProtocol<>(1, -1, b.lastReceived().getMessageId(), b.id, a.id, new SendMessageBody(4, false, "answer")), mock(SendListener.class), true);
+            verify(listener, never()).onResponse(any());
+
+            //a's retransmission gets the response again before b's own retransmission is due
+            mesh.advanceTo(100);
+            assertEquals(1, b.received.size());
+            verify(listener).onResponse(any());
+            mesh.advanceTo(1_000);
+            verify(listener).onResponse(any());
+            verify(listener, never()).onError(any());
+        }
+    }
+
+    //Every attempt waits 100 ms, then twice as long, two retransmissions at most
+    private TestMesh.Node node() {
+        return node(new HashSet<>());
+    }
+
+    private TestMesh.Node node(HashSet<ProtocolType> typesExpectingResponses) {
+        TestMesh.Node node = mesh.node("node", typesExpectingResponses);
+        node.router.setRetransmissionPolicy(100, 2, 2);
+        node.failOnError = false;
+        return node;
+    }
+}
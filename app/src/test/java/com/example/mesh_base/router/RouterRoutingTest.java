@@ -0,0 +1,220 @@
+package com.example.mesh_base.router;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.mockStatic;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.util.Log;
+
+import com.example.mesh_base.global_interfaces.ConnectionHandler;
+import com.example.mesh_base.global_interfaces.ConnectionHandlerListener;
+import com.example.mesh_base.global_interfaces.ConnectionHandlersEnum;
+import com.example.mesh_base.global_interfaces.Device;
+import com.example.mesh_base.global_interfaces.SendError;
+
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.MockedStatic;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.UUID;
+
+public class RouterRoutingTest {
+    private long now = 0;
+
+    @Test
+    public void testSend_afterHearingFromDestination_unicastsThroughLearnedNeighbor() throws SendError {
+        try (MockedStatic<Log> log = mockStatic(Log.class)) {
+            ConnectionHandler handler = mock(ConnectionHandler.class);
+            ArrayList<Device> neighbors = createDevices(3);
+            when(handler.isOn()).thenReturn(true);
+            when(handler.getNeighbourDevices()).thenReturn(neighbors);
+
+            UUID id = UUID.randomUUID();
+            Router router = createRouter(handler, id);
+            router.setRouteTtl(1_000);
+            ConnectionHandlerListener listener = captureListener(handler);
+
+            // a far away node's last hop broadcast arrives through neighbor 1
+            UUID farNode = UUID.randomUUID();
+            MeshProtocol<SendMessageBody> broadcast = new ConcreteMeshProtocol<>(1, 0, 55, farNode, null, new SendMessageBody(4, true, "hi all"));
+            listener.onDataReceived(neighbors.get(1), broadcast.encode());
+
+            router.sendData(new ConcreteMeshProtocol<>(1, -1, -1, id, farNode, new SendMessageBody(4, false, "hi you")), mock(SendListener.class));
+            verify(handler).send(any(byte[].class), eq(neighbors.get(1)));
+            verify(handler, never()).send(any(byte[].class));
+
+            // route expires, back to flooding
+            now = 1_000;
+            router.sendData(new ConcreteMeshProtocol<>(1, -1, -1, id, farNode, new SendMessageBody(4, false, "hi again")), mock(SendListener.class));
+            verify(handler, times(1)).send(any(byte[].class));
+        }
+    }
+
+    @Test
+    public void testSend_nextHopDisconnected_floods() throws SendError {
+        try (MockedStatic<Log> log = mockStatic(Log.class)) {
+            ConnectionHandler handler = mock(ConnectionHandler.class);
+            ArrayList<Device> neighbors = createDevices(2);
+            when(handler.isOn()).thenReturn(true);
+            when(handler.getNeighbourDevices()).thenReturn(neighbors);
+
+            UUID id = UUID.randomUUID();
+            Router router = createRouter(handler, id);
+            ConnectionHandlerListener listener = captureListener(handler);
+
+            UUID farNode = UUID.randomUUID();
+            listener.onDataReceived(neighbors.get(0), new ConcreteMeshProtocol<>(1, 0, 9, farNode, null, new SendMessageBody(4, true, "x")).encode());
+            listener.onNeighborDisconnected(neighbors.get(0));
+
+            router.sendData(new ConcreteMeshProtocol<>(1, -1, -1, id, farNode, new SendMessageBody(4, false, "y")), mock(SendListener.class));
+            verify(handler, never()).send(any(byte[].class), any(Device.class));
+            verify(handler, times(1)).send(any(byte[].class));
+        }
+    }
+
+    @Test
+    public void testRelay_unicastPacket_skipsFlooding() throws SendError {
+        try (MockedStatic<Log> log = mockStatic(Log.class)) {
+            ConnectionHandler handler = mock(ConnectionHandler.class);
+            ArrayList<Device> neighbors = createDevices(4);
+            when(handler.isOn()).thenReturn(true);
+            when(handler.getNeighbourDevices()).thenReturn(neighbors);
+
+            UUID id = UUID.randomUUID();
+            createRouter(handler, id);
+            ConnectionHandlerListener listener = captureListener(handler);
+
+            UUID left = UUID.randomUUID();
+            UUID right = UUID.randomUUID();
+            // learn that right sits behind neighbor 3
+            listener.onDataReceived(neighbors.get(3), new ConcreteMeshProtocol<>(1, 0, 1, right, null, new SendMessageBody(4, true, "beacon")).encode());
+
+            // unicast from left towards right arrives through neighbor 0
+            listener.onDataReceived(neighbors.get(0), new ConcreteMeshProtocol<>(1, 3, 2, left, right, new SendMessageBody(4, false, "to right")).encode());
+
+            ArgumentCaptor<byte[]> captor = ArgumentCaptor.forClass(byte[].class);
+            verify(handler).send(captor.capture(), eq(neighbors.get(3)));
+            MeshProtocol<SendMessageBody> relayed = MeshProtocol.decode(captor.getValue(), SendMessageBody::decode);
+            assertEquals(2, relayed.remainingHops);
+            verify(handler, times(1)).send(any(byte[].class), any(Device.class));
+            verify(handler, never()).send(any(byte[].class));
+        }
+    }
+
+    @Test
+    public void testRelay_broadcast_skipsInboundNeighborAndOrigin() throws SendError {
+        try (MockedStatic<Log> log = mockStatic(Log.class)) {
+            ConnectionHandler handler = mock(ConnectionHandler.class);
+            ArrayList<Device> neighbors = createDevices(4);
+            when(handler.isOn()).thenReturn(true);
+            when(handler.getNeighbourDevices()).thenReturn(neighbors);
+
+            Router router = createRouter(handler, UUID.randomUUID());
+            ConnectionHandlerListener listener = captureListener(handler);
+
+            // neighbor 2 originated the broadcast and neighbor 0 relayed it to us
+            UUID origin = neighbors.get(2).uuid;
+            listener.onDataReceived(neighbors.get(0), new ConcreteMeshProtocol<>(1, 3, 7, origin, null, new SendMessageBody(4, true, "hey")).encode());
+
+            verify(handler, never()).send(any(byte[].class), eq(neighbors.get(0)));
+            verify(handler, never()).send(any(byte[].class), eq(neighbors.get(2)));
+            verify(handler).send(any(byte[].class), eq(neighbors.get(1)));
+            verify(handler).send(any(byte[].class), eq(neighbors.get(3)));
+            verify(handler, never()).send(any(byte[].class));
+            assertEquals(2, router.getSuppressedTransmissions());
+        }
+    }
+
+    @Test
+    public void testCustomPolicy_setsHopBudgetAndDropsRelays() throws SendError {
+        try (MockedStatic<Log> log = mockStatic(Log.class)) {
+            ConnectionHandler handler = mock(ConnectionHandler.class);
+            ArrayList<Device> neighbors = createDevices(3);
+            when(handler.isOn()).thenReturn(true);
+            when(handler.getNeighbourDevices()).thenReturn(neighbors);
+
+            UUID id = UUID.randomUUID();
+            Router router = createRouter(handler, id);
+            router.setRelayPolicy(new RelayPolicy() {
+                @Override
+                public int hopBudget(MeshProtocol<?> protocol) {
+                    return 7;
+                }
+
+                @Override
+                public RelayDecision decide(MeshProtocol<?> packet, Device from, Device nextHop) {
+                    return RelayDecision.DROP;
+                }
+            });
+            ConnectionHandlerListener listener = captureListener(handler);
+
+            router.sendData(new ConcreteMeshProtocol<>(1, -1, -1, id, UUID.randomUUID(), new SendMessageBody(4, false, "far")), mock(SendListener.class));
+            ArgumentCaptor<byte[]> captor = ArgumentCaptor.forClass(byte[].class);
+            verify(handler).send(captor.capture());
+            assertEquals(7, MeshProtocol.decode(captor.getValue(), SendMessageBody::decode).remainingHops);
+
+            listener.onDataReceived(neighbors.get(0), new ConcreteMeshProtocol<>(1, 3, 3, UUID.randomUUID(), null, new SendMessageBody(4, true, "drop me")).encode());
+            verify(handler, never()).send(any(byte[].class), any(Device.class));
+            assertEquals(1, router.getSuppressedRelays());
+        }
+    }
+
+    @Test
+    public void testRelay_forwardsReceivedBufferWithoutDecodingBody() throws SendError {
+        try (MockedStatic<Log> log = mockStatic(Log.class)) {
+            ConnectionHandler handler = mock(ConnectionHandler.class);
+            ArrayList<Device> neighbors = createDevices(2);
+            when(handler.isOn()).thenReturn(true);
+            when(handler.getNeighbourDevices()).thenReturn(neighbors);
+
+            createRouter(handler, UUID.randomUUID());
+            ConnectionHandlerListener listener = captureListener(handler);
+
+            // a body this node could not decode still passes through untouched
+            byte[] frame = new ConcreteMeshProtocol<>(1, 3, 7, UUID.randomUUID(), UUID.randomUUID(), new SendMessageBody(4, false, "opaque")).encode();
+            for (int i = 48; i < frame.length; i++) {
+                frame[i] = (byte) 0xFF;
+            }
+            byte[] expected = frame.clone();
+            expected[7] = 2;
+            listener.onDataReceived(neighbors.get(0), frame);
+
+            ArgumentCaptor<byte[]> captor = ArgumentCaptor.forClass(byte[].class);
+            verify(handler).send(captor.capture(), eq(neighbors.get(1)));
+            assertSame(frame, captor.getValue());
+            assertArrayEquals(expected, captor.getValue());
+        }
+    }
+
+    private Router createRouter(ConnectionHandler handler, UUID id) {
+        HashMap<ConnectionHandlersEnum, ConnectionHandler> handlers = new HashMap<>();
+        handlers.put(ConnectionHandlersEnum.BLE, handler);
+        return new Router(handlers, id, new HashSet<>(), new TimerWheel(10, 64, () -> now));
+    }
+
+    private ConnectionHandlerListener captureListener(ConnectionHandler handler) {
+        ArgumentCaptor<ConnectionHandlerListener> listenerCaptor = ArgumentCaptor.forClass(ConnectionHandlerListener.class);
+        verify(handler).subscribe(listenerCaptor.capture());
+        return listenerCaptor.getValue();
+    }
+
+    private ArrayList<Device> createDevices(int count) {
+        ArrayList<Device> devices = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            devices.add(new Device(UUID.randomUUID(), "device" + i) {
+            });
+        }
+        return devices;
+    }
+}
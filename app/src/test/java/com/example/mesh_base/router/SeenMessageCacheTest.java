@@ -0,0 +1,104 @@
+package com.example.mesh_base.router;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.UUID;
+
+public class SeenMessageCacheTest {
+    private long now = 0;
+
+    @Test
+    public void testContains_afterAdd_hitsUntilTtl() {
+        SeenMessageCache cache = new SeenMessageCache(8, 1_000, () -> now);
+        UUID sender = UUID.randomUUID();
+
+        assertFalse(cache.contains(1, sender.getMostSignificantBits(), sender.getLeastSignificantBits()));
+        cache.add(1, sender.getMostSignificantBits(), sender.getLeastSignificantBits());
+        assertTrue(cache.contains(1, sender.getMostSignificantBits(), sender.getLeastSignificantBits()));
+        assertFalse(cache.contains(2, sender.getMostSignificantBits(), sender.getLeastSignificantBits()));
+
+        now = 999;
+        assertTrue(cache.contains(1, sender.getMostSignificantBits(), sender.getLeastSignificantBits()));
+        now = 1_000;
+        assertFalse(cache.contains(1, sender.getMostSignificantBits(), sender.getLeastSignificantBits()));
+
+        assertEquals(2, cache.getHits());
+        assertEquals(3, cache.getMisses());
+    }
+
+    @Test
+    public void testAdd_overCapacity_evictsOldest() {
+        SeenMessageCache cache = new SeenMessageCache(4, 60_000, () -> now);
+        UUID sender = UUID.randomUUID();
+        long msb = sender.getMostSignificantBits();
+        long lsb = sender.getLeastSignificantBits();
+
+        for (int i = 0; i < 6; i++) {
+            cache.add(i, msb, lsb);
+        }
+
+        assertEquals(4, cache.size());
+        assertEquals(2, cache.getEvictions());
+        assertFalse(cache.contains(0, msb, lsb));
+        assertFalse(cache.contains(1, msb, lsb));
+        for (int i = 2; i < 6; i++) {
+            assertTrue(cache.contains(i, msb, lsb));
+        }
+    }
+
+    @Test
+    public void testAdd_expiredEntries_areReclaimed() {
+        SeenMessageCache cache = new SeenMessageCache(4, 100, () -> now);
+        cache.add(1, 1L, 1L);
+        cache.add(2, 1L, 1L);
+        now = 150;
+        cache.add(3, 1L, 1L);
+
+        assertEquals(1, cache.size());
+        assertEquals(2, cache.getExpirations());
+        assertEquals(0, cache.getEvictions());
+    }
+
+    @Test
+    public void testAddIfNewer_takesOnlyLaterAttempts() {
+        SeenMessageCache cache = new SeenMessageCache(4, 1_000, () -> now);
+        assertTrue(cache.addIfNewer(1, 1L, 1L, 0));
+        assertFalse(cache.addIfAbsent(1, 1L, 1L));
+        assertFalse(cache.addIfNewer(1, 1L, 1L, 0));
+        assertFalse(cache.contains(1, 1L, 1L, 1));
+
+        assertTrue(cache.addIfNewer(1, 1L, 1L, 2));
+        assertTrue(cache.contains(1, 1L, 1L, 1));
+        assertTrue(cache.contains(1, 1L, 1L, 2));
+        assertFalse(cache.addIfNewer(1, 1L, 1L, 1));
+        assertEquals(1, cache.size());
+        //the retransmission did not extend the entry's ttl
+        now = 1_000;
+        assertFalse(cache.contains(1, 1L, 1L));
+    }
+
+    @Test
+    public void testChurn_keepsEveryLiveEntryReachable() {
+        int capacity = 64;
+        SeenMessageCache cache = new SeenMessageCache(capacity, 60_000, () -> now);
+        UUID[] senders = new UUID[]{UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID()};
+
+        for (int i = 0; i < 10_000; i++) {
+            UUID sender = senders[i % senders.length];
+            cache.add(i, sender.getMostSignificantBits(), sender.getLeastSignificantBits());
+
+            //the last `capacity` insertions must always be found after backward shift deletions
+            if (i % 97 == 0 && i >= capacity) {
+                for (int j = i - capacity + 1; j <= i; j++) {
+                    UUID expected = senders[j % senders.length];
+                    assertTrue(cache.contains(j, expected.getMostSignificantBits(), expected.getLeastSignificantBits()));
+                }
+            }
+        }
+        assertEquals(capacity, cache.size());
+    }
+}
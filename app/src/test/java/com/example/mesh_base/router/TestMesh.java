@@ -0,0 +1,207 @@
+package com.example.mesh_base.router;
+
+import static org.junit.Assert.assertTrue;
+
+import com.example.mesh_base.global_interfaces.ConnectionHandler;
+import com.example.mesh_base.global_interfaces.ConnectionHandlersEnum;
+import com.example.mesh_base.global_interfaces.Device;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.UUID;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+//Routers linked in memory for tests. Every router's TimerWheel reads the mesh's clock, which moves
+//only when a test advances it or a hop takes time. Frames reach the neighbor synchronously unless
+//the test sets a carrier of its own.
+class TestMesh {
+    private final int tickMillis;
+    final ArrayList<Node> nodes = new ArrayList<>();
+    long now = 0;
+    //how long every frame takes to reach the neighbor it was sent to
+    long hopMillis = 0;
+    //takes every frame that left a link, a copy for each receiver, to its receiver
+    Carrier carrier = (from, to, data) -> to.link.receive(from.device, data);
+
+    TestMesh() {
+        this(10);
+    }
+
+    TestMesh(int tickMillis) {
+        this.tickMillis = tickMillis;
+    }
+
+    Node node() {
+        return node("node");
+    }
+
+    Node node(String name) {
+        return node(name, new HashSet<>());
+    }
+
+    Node node(String name, HashSet<ProtocolType> typesExpectingResponses) {
+        return node(UUID.randomUUID(), name, Router.registryOf(typesExpectingResponses));
+    }
+
+    Node node(String name, ProtocolRegistry registry) {
+        return node(UUID.randomUUID(), name, registry);
+    }
+
+    Node node(UUID id, String name, ProtocolRegistry registry) {
+        Node node = new Node(id, name, registry);
+        nodes.add(node);
+        return node;
+    }
+
+    //Advances every node's timer tick by tick until the clock passes time
+    void advanceTo(long time) {
+        for (; now <= time; now += tickMillis) {
+            for (Node node : nodes) node.timer.advance();
+        }
+    }
+
+    //Drops the next frames handed to a link, then lets everything through
+    static Predicate<byte[]> dropNext(int frames) {
+        int[] left = {frames};
+        return data -> left[0]-- > 0;
+    }
+
+    interface Carrier {
+        void carry(Node from, Node to, byte[] data);
+    }
+
+    class Node {
+        final UUID id;
+        final Device device;
+        final Link link;
+        final TimerWheel timer;
+        final Router router;
+        //what the router delivered to the application, in order
+        final ArrayList<MeshProtocol<?>> received = new ArrayList<>();
+        //router errors fail the test unless it expects them
+        boolean failOnError = true;
+
+        Node(UUID id, String name, ProtocolRegistry registry) {
+            this.id = id;
+            this.device = new Device(id, name) {
+            };
+            this.link = new Link(this);
+            this.timer = new TimerWheel(tickMillis, 64, () -> now);
+            HashMap<ConnectionHandlersEnum, ConnectionHandler> handlers = new HashMap<>();
+            handlers.put(ConnectionHandlersEnum.BLE, link);
+            this.router = new Router(handlers, id, registry, timer);
+            router.setListener(new Router.RouterListener() {
+                @Override
+                public void onData(MeshProtocol<?> protocol, Device neighbor) {
+                    received.add(protocol);
+                }
+
+                @Override
+                public void onError(Exception exception) {
+                    if (failOnError) throw new AssertionError(exception);
+                }
+            });
+        }
+
+        MeshProtocol<?> lastReceived() {
+            return received.isEmpty() ? null : received.get(received.size() - 1);
+        }
+    }
+
+    class Link extends ConnectionHandler {
+        final Node owner;
+        final ArrayList<Device> neighbors = new ArrayList<>();
+        final HashMap<UUID, Node> linked = new HashMap<>();
+        //every frame handed to the link, lost or not
+        final ArrayList<byte[]> sent = new ArrayList<>();
+        long bytesSent = 0;
+        long bytesReceived = 0;
+        //zero for no limit, otherwise every frame is checked against it
+        int frameSize = 0;
+        //nothing gets through while down
+        boolean isDown = false;
+        //frames it matches are lost on the air
+        Predicate<byte[]> drop = data -> false;
+        //what the air does to the bytes on their way
+        UnaryOperator<byte[]> onTheAir = UnaryOperator.identity();
+
+        Link(Node owner) {
+            super(null, owner.id);
+            this.owner = owner;
+        }
+
+        void connect(Node other) {
+            linkTo(other);
+            other.link.linkTo(owner);
+        }
+
+        //One way only, other does not hear this node
+        void linkTo(Node other) {
+            neighbors.add(other.device);
+            linked.put(other.id, other);
+        }
+
+        void receive(Device from, byte[] data) {
+            bytesReceived += data.length;
+            onDataReceived(from, data);
+        }
+
+        @Override
+        public int getMaxFrameSize() {
+            return frameSize;
+        }
+
+        @Override
+        public ArrayList<Device> getNeighbourDevices() {
+            return neighbors;
+        }
+
+        @Override
+        public void send(byte[] data) {
+            for (Device neighbor : new ArrayList<>(neighbors)) {
+                send(data, neighbor);
+            }
+        }
+
+        @Override
+        public void send(byte[] data, Device neighbor) {
+            if (frameSize > 0) assertTrue(data.length <= frameSize);
+            sent.add(data);
+            bytesSent += data.length;
+            Node to = linked.get(neighbor.uuid);
+            if (to == null || isDown || drop.test(data)) return;
+            now += hopMillis;
+            //every receiver gets its own buffer, as from the radio
+            carrier.carry(owner, to, onTheAir.apply(data.clone()));
+        }
+
+        @Override
+        public void start() {
+        }
+
+        @Override
+        public void stop() {
+        }
+
+        @Override
+        public boolean isOn() {
+            return true;
+        }
+
+        @Override
+        public void enable() {
+        }
+
+        @Override
+        public boolean isEnabled() {
+            return true;
+        }
+
+        @Override
+        public boolean isSupported() {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.example.mesh_base.router;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.UUID;
+
+public class TextCompressionTest {
+    private static final int BENCHMARK_ROUNDS = 200;
+
+    //Messages of the kind people send each other over the mesh
+    private static final String[] CHAT_CORPUS = {
+            "hey, are you ok?",
+            "I'm on my way, see you at the station in 10 minutes",
+            "where are you now?",
+            "Is everyone safe? Please let me know when you get this",
+            "ok",
+            "haha yes",
+            "Did you get my message from this morning?",
+            "The signal is really bad here, my battery is at 12%",
+            "We need water and food near the north gate, about 20 people",
+            "Let's meet at the meeting point after the concert",
+            "can't hear you, call me when you get this",
+            "thanks!! see you soon",
+            "I'll be there tomorrow afternoon, probably around 3 o'clock",
+            "Sorry, I didn't see your message. Are you coming tonight?",
+            "anyone near the main stage? lost my phone charger",
+            "The bus leaves at 18:40 from the stop behind the market",
+            "no",
+            "Yes, I am here with the others. We will wait for you at the entrance",
+            "https://www.example.com/map?pin=9.0301,38.7469",
+            "Is the road to the hospital open? Someone said it was closed this morning",
+            "nos vemos en la estaci\u00F3n a las seis",
+            "\u1230\u120B\u121D, \u12A5\u1295\u12F4\u1275 \u1290\u1205?",
+            "\u4F60\u597D\uFF0C\u6211\u4EEC\u5728\u8F66\u7AD9\u7B49\u4F60",
+            "Meeting moved to Saturday, same place, same time. Tell everyone who was there on Wednesday",
+    };
+
+    @Test
+    public void testCompressedMessage_roundTripsAndShrinks() {
+        String msg = "I'm on my way, see you at the meeting point near the station";
+        SendMessageBody body = new SendMessageBody(4, true, msg, true);
+        assertTrue(body.isCompressed());
+
+        byte[] encoded = body.encode();
+        assertTrue(encoded.length < new SendMessageBody(4, true, msg).encode().length);
+        assertEquals(body.sizeHint(), encoded.length);
+        assertEquals(SendMessageBody.FLAG_BROADCAST | SendMessageBody.FLAG_COMPRESSED, encoded[4]);
+
+        SendMessageBody decoded = SendMessageBody.decode(encoded);
+        assertEquals(body, decoded);
+        assertTrue(decoded.isBroadcast());
+
+        MeshProtocol<SendMessageBody> protocol = new ConcreteMeshProtocol<>(1, 3, 7, UUID.randomUUID(), UUID.randomUUID(), body);
+        assertEquals(body, MeshProtocol.decode(protocol.encodeCompact(false), SendMessageBody::decode).getBody());
+    }
+
+    @Test
+    public void testTextCompressionWouldGrow_goesOutPlain() {
+        //short, and random bytes
+        Random random = new Random(19);
+        StringBuilder noise = new StringBuilder();
+        for (int i = 0; i < 40; i++) noise.append((char) (0x21 + random.nextInt(90)));
+
+        for (String msg : new String[]{"ok", "", noise.toString()}) {
+            SendMessageBody body = new SendMessageBody(4, false, msg, true);
+            assertFalse(msg, body.isCompressed());
+            byte[] encoded = body.encode();
+            assertEquals(0, encoded[4]);
+            assertEquals(new SendMessageBody(4, false, msg).encode().length, encoded.length);
+            assertEquals(body, SendMessageBody.decode(encoded));
+        }
+        assertNull(TextCompression.compress(noise.toString()));
+    }
+
+    @Test
+    public void testCorruptCompressedText_throwsIllegalArgument() {
+        byte[] encoded = new SendMessageBody(4, false, CHAT_CORPUS[3], true).encode();
+        Random random = new Random(20);
+        for (int round = 0; round < 500; round++) {
+            byte[] corrupt = encoded.clone();
+            int index = 9 + random.nextInt(corrupt.length - 9);
+            corrupt[index] ^= (byte) (1 + random.nextInt(255));
+            try {
+                //a flip inside a literal can still decode, to some other text
+                SendMessageBody.decode(corrupt);
+            } catch (IllegalArgumentException expected) {
+            } catch (RuntimeException e) {
+                fail("decode threw " + e);
+            }
+        }
+    }
+
+    //Ratio of compressed to plain body bytes over the corpus, and the time to encode and decode a
+    //message with and without compression
+    @Test
+    public void benchmarkChatCorpus() {
+        SendMessageBody[] plain = new SendMessageBody[CHAT_CORPUS.length];
+        byte[][] plainEncoded = new byte[CHAT_CORPUS.length][];
+        byte[][] compressedEncoded = new byte[CHAT_CORPUS.length][];
+        int plainBytes = 0;
+        int compressedBytes = 0;
+        int compressedMessages = 0;
+        for (int i = 0; i < CHAT_CORPUS.length; i++) {
+            plain[i] = new SendMessageBody(4, false, CHAT_CORPUS[i]);
+            SendMessageBody compressed = new SendMessageBody(4, false, CHAT_CORPUS[i], true);
+            plainEncoded[i] = plain[i].encode();
+            compressedEncoded[i] = compressed.encode();
+            plainBytes += plainEncoded[i].length;
+            compressedBytes += compressedEncoded[i].length;
+            if (compressed.isCompressed()) compressedMessages++;
+            assertTrue(compressedEncoded[i].length <= plainEncoded[i].length);
+            assertEquals(plain[i], SendMessageBody.decode(compressedEncoded[i]));
+        }
+
+        long sink = 0;
+        for (int i = 0; i < BENCHMARK_ROUNDS; i++) sink += encodeAll(false) + encodeAll(true) + decodeAll(compressedEncoded);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_ROUNDS; i++) sink += encodeAll(false);
+        long plainEncode = (System.nanoTime() - start) / ((long) BENCHMARK_ROUNDS * CHAT_CORPUS.length);
+
+        start = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_ROUNDS; i++) sink += encodeAll(true);
+        long compressedEncode = (System.nanoTime() - start) / ((long) BENCHMARK_ROUNDS * CHAT_CORPUS.length);
+
+        start = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_ROUNDS; i++) sink += decodeAll(plainEncoded);
+        long plainDecode = (System.nanoTime() - start) / ((long) BENCHMARK_ROUNDS * CHAT_CORPUS.length);
+
+        start = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_ROUNDS; i++) sink += decodeAll(compressedEncoded);
+        long compressedDecode = (System.nanoTime() - start) / ((long) BENCHMARK_ROUNDS * CHAT_CORPUS.length);
+
+        System.out.println("chat corpus of " + CHAT_CORPUS.length + " messages, " + compressedMessages + " sent compressed");
+        System.out.println("  body bytes plain / compressed  " + plainBytes + " / " + compressedBytes
+                + " (" + (100 * compressedBytes / plainBytes) + "%)");
+        System.out.println("  encode ns per message          " + plainEncode + " / " + compressedEncode);
+        System.out.println("  decode ns per message          " + plainDecode + " / " + compressedDecode);
+        assertTrue(sink != 0);
+        assertTrue(compressedBytes < plainBytes);
+    }
+
+    //a fresh body per message, as each send builds one
+    private static int encodeAll(boolean compress) {
+        int length = 0;
+        for (String msg : CHAT_CORPUS) length += new SendMessageBody(4, false, msg, compress).encode().length;
+        return length;
+    }
+
+    private static int decodeAll(byte[][] encoded) {
+        int length = 0;
+        for (byte[] body : encoded) length += SendMessageBody.decode(body).getMsg().length();
+        return length;
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.mesh_base.router;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.UUID;
+
+public class Utf8Test {
+    private static final int FUZZ_ROUNDS = 5_000;
+
+    @Test
+    public void testNonAsciiMessage_roundTrips() {
+        String msg = "h\u00E9llo w\u00F6rld, \u1230\u120B\u121D, \u4F60\u597D, emoji \uD83D\uDE00\uD83D\uDE80";
+        SendMessageBody body = new SendMessageBody(4, true, msg);
+        byte[] encoded = body.encode();
+        assertEquals(4 + 1 + 4 + msg.getBytes(StandardCharsets.UTF_8).length, encoded.length);
+        assertEquals(body, SendMessageBody.decode(encoded));
+
+        AckMessageBody ack = new AckMessageBody(msg);
+        assertEquals(ack, AckMessageBody.decode(ack.encode()));
+
+        MeshProtocol<SendMessageBody> protocol = new ConcreteMeshProtocol<>(1, 3, 7, UUID.randomUUID(), UUID.randomUUID(), body);
+        assertEquals(body, MeshProtocol.decode(protocol.encode(), SendMessageBody::decode).getBody());
+        assertEquals(body, MeshProtocol.decode(protocol.encodeCompact(false), SendMessageBody::decode).getBody());
+    }
+
+    @Test
+    public void testUnpairedSurrogates_matchTheJdkEncoder() {
+        for (String text : new String[]{"\uD83D", "a\uDE00b", "\uDE00\uD83D", "x\uD83D\uD83D\uDE00"}) {
+            assertArrayEquals(text.getBytes(StandardCharsets.UTF_8), encode(text));
+            assertEquals(text.getBytes(StandardCharsets.UTF_8).length, Utf8.encodedLength(text));
+        }
+    }
+
+    @Test(expected = BufferOverflowException.class)
+    public void testEncode_pastTheLimit_throws() {
+        Utf8.encode("ab\u20AC", ByteBuffer.allocate(4));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDecode_lengthPastTheBody_throws() {
+        byte[] encoded = new SendMessageBody(4, false, "hi").encode();
+        encoded[8] = 100;
+        SendMessageBody.decode(encoded);
+    }
+
+    //Random strings over the whole of UTF-16, surrogates and all, against String.getBytes(UTF_8)
+    @Test
+    public void testFuzz_matchesTheJdkEncoderAndRoundTrips() {
+        Random random = new Random(18);
+        for (int round = 0; round < FUZZ_ROUNDS; round++) {
+            String text = randomText(random, random.nextInt(200));
+            byte[] expected = text.getBytes(StandardCharsets.UTF_8);
+
+            assertEquals(text, expected.length, Utf8.encodedLength(text));
+            assertArrayEquals(text, expected, encode(text));
+
+            //at an offset into a larger array, as in a pooled buffer
+            ByteBuffer buffer = ByteBuffer.allocate(expected.length + 16);
+            buffer.position(5);
+            assertEquals(expected.length, Utf8.encode(text, buffer.slice()));
+
+            SendMessageBody body = new SendMessageBody(round, round % 2 == 0, text);
+            byte[] encoded = body.encode();
+            assertEquals(body.sizeHint(), encoded.length);
+            //the decoder sees what the JDK decodes from the same bytes
+            assertEquals(new String(expected, StandardCharsets.UTF_8), SendMessageBody.decode(encoded).getMsg());
+
+            AckMessageBody ack = new AckMessageBody(text);
+            assertEquals(ack.sizeHint(), ack.encode().length);
+        }
+    }
+
+    private static byte[] encode(String text) {
+        ByteBuffer buffer = ByteBuffer.allocate(4 * text.length());
+        int written = Utf8.encode(text, buffer);
+        assertEquals(written, buffer.position());
+        return Arrays.copyOf(buffer.array(), written);
+    }
+
+    //Mostly ASCII runs, with characters from every UTF-8 length and stray surrogate halves mixed in
+    private static String randomText(Random random, int length) {
+        StringBuilder text = new StringBuilder();
+        while (text.length() < length) {
+            switch (random.nextInt(6)) {
+                case 0:
+                case 1:
+                    text.append((char) random.nextInt(0x80));
+                    break;
+                case 2:
+                    text.append((char) (0x80 + random.nextInt(0x800 - 0x80)));
+                    break;
+                case 3:
+                    text.append((char) (0x800 + random.nextInt(0x10000 - 0x800)));
+                    break;
+                case 4:
+                    text.appendCodePoint(0x10000 + random.nextInt(Character.MAX_CODE_POINT - 0x10000 + 1));
+                    break;
+                default:
+                    text.append((char) (Character.MIN_SURROGATE + random.nextInt(Character.MAX_SURROGATE - Character.MIN_SURROGATE + 1)));
+            }
+        }
+        return text.toString();
+    }
+}
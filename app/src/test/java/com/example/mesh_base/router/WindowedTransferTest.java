@@ -0,0 +1,168 @@
+package com.example.mesh_base.router;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.example.mesh_base.global_interfaces.SendError;
+import com.example.mesh_base.global_interfaces.SendTimeoutError;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.UUID;
+
+public class WindowedTransferTest {
+    private static final int FRAME_SIZE = 120;
+    private final TestMesh mesh = new TestMesh();
+    //what the last transfer reported, only the sender's side has any
+    private TransferStats stats;
+
+    @Test
+    public void testLostFragments_onlyMissingOnesAreRetransmitted() {
+        TestMesh.Node a = node("a");
+        TestMesh.Node b = node("b");
+        a.link.connect(b);
+        //the first transmission of two fragments in the middle of the message is lost
+        a.link.drop = fragment -> Fragmenter.isFragment(fragment) && Fragmenter.attempt(fragment) == 0 && (Fragmenter.index(fragment) == 5 || Fragmenter.index(fragment) == 20);
+
+        MeshProtocol<SendMessageBody> sent = largeMessage(a.id, b.id, 3_000);
+        RecordingListener listener = new RecordingListener();
+        a.router.sendData(sent, listener);
+
+        assertEquals(sent.getBody(), b.lastReceived().getBody());
+        assertTrue(listener.acked);
+        assertNull(listener.error);
+        ArrayList<String> retransmitted = retransmitted(a);
+        assertEquals(2, retransmitted.size());
+        assertTrue(retransmitted.contains("5") && retransmitted.contains("20"));
+
+        assertNotNull(stats);
+        assertTrue(stats.isComplete());
+        assertEquals(fragmentCount(sent), stats.getFragments());
+        assertEquals(stats.getFragments() + 2, stats.getFragmentsSent());
+        assertEquals(2, stats.getRetransmissions());
+        assertEquals(0, stats.getTimeouts());
+        assertEquals(sent.encode().length, stats.getBytes());
+    }
+
+    @Test
+    public void testLostLastFragment_isResentOnTimeout() {
+        TestMesh.Node a = node("a");
+        TestMesh.Node b = node("b");
+        a.link.connect(b);
+        MeshProtocol<SendMessageBody> sent = largeMessage(a.id, b.id, 3_000);
+        int last = fragmentCount(sent) - 1;
+        //one fragment at a time, so nothing is sent after the last one and only the timeout can tell it is missing
+        a.router.setTransferPolicy(1, TransferTable.DEFAULT_RTO_MILLIS, TransferTable.DEFAULT_MAX_RETRIES);
+        a.link.drop = fragment -> Fragmenter.isFragment(fragment) && Fragmenter.attempt(fragment) == 0 && Fragmenter.index(fragment) == last;
+
+        RecordingListener listener = new RecordingListener();
+        a.router.sendData(sent, listener);
+        assertNull(b.lastReceived());
+        assertNull(stats);
+
+        mesh.advanceTo(TransferTable.DEFAULT_RTO_MILLIS + 100);
+        assertEquals(sent.getBody(), b.lastReceived().getBody());
+        assertTrue(listener.acked);
+        assertEquals(String.valueOf(last), retransmitted(a).get(0));
+        assertEquals(1, stats.getTimeouts());
+        assertEquals(TransferTable.DEFAULT_RTO_MILLIS, stats.getDurationMillis());
+        assertEquals(stats.getBytes() * 1000L / TransferTable.DEFAULT_RTO_MILLIS, stats.getThroughput());
+    }
+
+    @Test
+    public void testDeadLink_failsAfterMaxRetries() {
+        TestMesh.Node a = node("a");
+        TestMesh.Node b = node("b");
+        a.link.connect(b);
+        a.router.setTransferPolicy(4, 1_000, 2);
+        a.link.drop = fragment -> true;
+
+        RecordingListener listener = new RecordingListener();
+        a.router.sendData(largeMessage(a.id, b.id, 1_000), listener);
+        mesh.advanceTo(5_000);
+
+        assertTrue(listener.error instanceof SendTimeoutError);
+        assertFalse(listener.acked);
+        assertFalse(stats.isComplete());
+        assertEquals(3, stats.getTimeouts());
+        //the window is resent on each of the two retries
+        assertEquals(8, stats.getRetransmissions());
+        assertEquals(0, a.router.transfers.size());
+    }
+
+    @Test
+    public void testSelectiveAckBody_roundTrips() {
+        byte[] bitmap = {(byte) 0b1010_0101, 0b0000_0001};
+        SelectiveAckBody body = new SelectiveAckBody(42, 9, bitmap);
+        SelectiveAckBody decoded = SelectiveAckBody.decode(body.encode());
+
+        assertEquals(body, decoded);
+        assertTrue(decoded.isReceived(0) && decoded.isReceived(8));
+        assertFalse(decoded.isReceived(1));
+    }
+
+    private int fragmentCount(MeshProtocol<?> message) {
+        int slice = FRAME_SIZE - Fragmenter.PREFIX_LENGTH - MeshProtocol.HEADER_LENGTH;
+        return (message.encode().length - MeshProtocol.HEADER_LENGTH + slice - 1) / slice;
+    }
+
+    private MeshProtocol<SendMessageBody> largeMessage(UUID sender, UUID destination, int length) {
+        StringBuilder msg = new StringBuilder();
+        Random random = new Random(length);
+        while (msg.length() < length) {
+            msg.append((char) ('a' + random.nextInt(26)));
+        }
+        return new ConcreteMeshProtocol<>(1, 3, 0, sender, destination, new SendMessageBody(4, false, msg.toString()));
+    }
+
+    private static class RecordingListener implements SendListener {
+        boolean acked = false;
+        SendError error;
+
+        @Override
+        public void onError(SendError error) {
+            this.error = error;
+        }
+
+        @Override
+        public void onAck() {
+            acked = true;
+        }
+
+        @Override
+        public void onResponse(MeshProtocol<?> protocol) {
+        }
+    }
+
+    private TestMesh.Node node(String name) {
+        TestMesh.Node node = mesh.node(name);
+        node.link.frameSize = FRAME_SIZE;
+        node.failOnError = false;
+        node.router.setTransferListener(new TransferListener() {
+            @Override
+            public void onTransferComplete(TransferStats transferStats) {
+                stats = transferStats;
+            }
+
+            @Override
+            public void onTransferFailed(TransferStats transferStats) {
+                stats = transferStats;
+            }
+        });
+        return node;
+    }
+
+    //Indexes of the fragments the node sent again, lost or not
+    private static ArrayList<String> retransmitted(TestMesh.Node node) {
+        ArrayList<String> indexes = new ArrayList<>();
+        for (byte[] data : node.link.sent) {
+            if (Fragmenter.isFragment(data) && Fragmenter.attempt(data) > 0) indexes.add(String.valueOf(Fragmenter.index(data)));
+        }
+        return indexes;
+    }
+}